@@ -0,0 +1,162 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to list the entries of Zip, TAR and ISO archives, and to read them. Listings are
+ * measured both on a newly-created {@link AbstractArchiveFile} instance, which has to parse the archive, and on an
+ * instance whose entries tree has already been created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    /** Extension of the archive format */
+    @Param({"zip", "tar", "iso"})
+    private String format;
+
+    /** Number of entries in the archive */
+    @Param({"100", "10000"})
+    private int nbEntries;
+
+    /** Average size of the entries */
+    @Param({"4096"})
+    private int entrySize;
+
+    /** The folder containing the corpus */
+    private AbstractFile folder;
+
+    /** The archive, as a regular file */
+    private AbstractFile rawFile;
+
+    /** Provider of the archive format */
+    private ArchiveFormatProvider provider;
+
+    /** The archive, its entries tree already created */
+    private AbstractArchiveFile archive;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+
+        String filename = "archive."+format;
+        rawFile = FileFactory.getFile(folder.getAbsolutePath(true)+filename).getAncestor(ProtocolFile.class);
+        if("iso".equals(format))
+            corpus.createIso(rawFile, nbEntries, entrySize);
+        else if("tar".equals(format))
+            corpus.createTar(rawFile, corpus.getEntryPaths(nbEntries, 3, 5), entrySize);
+        else
+            corpus.createZip(rawFile, corpus.getEntryPaths(nbEntries, 3, 5), entrySize);
+
+        provider = FileFactory.getArchiveFormatProvider(filename);
+        archive = provider.getFile(rawFile);
+        archive.ls();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Lists the archive's root with a new archive file instance, which has to parse the archive.
+     *
+     * @return the entries located at the root of the archive
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public AbstractFile[] listCold() throws IOException {
+        return provider.getFile(rawFile).ls();
+    }
+
+    /**
+     * Lists the whole archive with an instance whose entries tree has already been created.
+     *
+     * @param blackhole consumes the entries
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void listWarm(Blackhole blackhole) throws IOException {
+        listRecursively(archive, blackhole);
+    }
+
+    /**
+     * Reads all the entries of the archive.
+     *
+     * @return the number of bytes read
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public long readEntries() throws IOException {
+        return readRecursively(archive, new byte[8192]);
+    }
+
+    private static void listRecursively(AbstractFile dir, Blackhole blackhole) throws IOException {
+        for(AbstractFile child : dir.ls()) {
+            blackhole.consume(child);
+            if(child.isDirectory())
+                listRecursively(child, blackhole);
+        }
+    }
+
+    private static long readRecursively(AbstractFile dir, byte buffer[]) throws IOException {
+        long nbBytes = 0;
+        for(AbstractFile child : dir.ls()) {
+            if(child.isDirectory()) {
+                nbBytes += readRecursively(child, buffer);
+            }
+            else {
+                InputStream in = child.getInputStream();
+                try {
+                    int nbRead;
+                    while((nbRead=in.read(buffer))!=-1)
+                        nbBytes += nbRead;
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+
+        return nbBytes;
+    }
+}
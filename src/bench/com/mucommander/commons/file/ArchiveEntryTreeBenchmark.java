@@ -0,0 +1,94 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to build an {@link ArchiveEntryTree} out of the entries of an archive, and to look up
+ * entries in it, independently of any archive format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveEntryTreeBenchmark {
+
+    /** Number of entries in the tree */
+    @Param({"1000", "100000"})
+    private int nbEntries;
+
+    /** Maximum depth of the entries */
+    @Param({"1", "8"})
+    private int depth;
+
+    /** Paths of the entries */
+    private String paths[];
+
+    /** A tree containing all the entries, to look them up */
+    private ArchiveEntryTree tree;
+
+
+    @Setup
+    public void setUp() {
+        List<String> entryPaths = new BenchmarkCorpus().getEntryPaths(nbEntries, depth, 10);
+        paths = entryPaths.toArray(new String[entryPaths.size()]);
+        tree = buildTree();
+    }
+
+    /**
+     * Builds a tree containing all the entries.
+     *
+     * @return the tree
+     */
+    @Benchmark
+    public ArchiveEntryTree buildTree() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        for(String path : paths)
+            tree.addArchiveEntry(new ArchiveEntry(path, false, 0, 0, true));
+
+        return tree;
+    }
+
+    /**
+     * Looks up all the entries in the tree.
+     *
+     * @param blackhole consumes the entries' nodes
+     */
+    @Benchmark
+    public void findEntries(Blackhole blackhole) {
+        for(String path : paths)
+            blackhole.consume(tree.findEntryNode(path));
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.impl.tar.provider.TarEntry;
+import com.mucommander.commons.file.impl.tar.provider.TarOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the synthetic files and archives that benchmarks operate on. Names, sizes, dates and contents are derived
+ * from a seed, so that a given set of parameters always yields the same corpus and results can be compared across
+ * runs and across machines.
+ *
+ * <p>All files are created in the temporary folder, by {@link #createTemporaryFolder(String)}, and are deleted
+ * when the JVM exits if the benchmark fails to delete them.</p>
+ */
+public class BenchmarkCorpus {
+
+    /** Seed used by default to generate names, sizes and contents */
+    public final static long DEFAULT_SEED = 0x6d75436fL;
+
+    /** Extensions of the generated files, a tenth of them being those of archive formats */
+    private final static String EXTENSIONS[] = {"txt", "jpg", "mp3", "java", "html", "pdf", "doc", "log", "xml", "zip"};
+
+    /** Date the generated files' dates are spread from: 2010-01-01 00:00:00 UTC */
+    private final static long BASE_DATE = 1262304000000L;
+
+    /** Size of an ISO 9660 sector */
+    private final static int ISO_SECTOR_SIZE = 2048;
+
+    /** Index of the first sector following the volume descriptors scanned by the ISO reader */
+    private final static int ISO_FIRST_DATA_SECTOR = 33;
+
+    /** The random generator names, sizes, dates and contents are drawn from */
+    private final Random random;
+
+
+    /**
+     * Creates a new corpus generator using {@link #DEFAULT_SEED}.
+     */
+    public BenchmarkCorpus() {
+        this(DEFAULT_SEED);
+    }
+
+    /**
+     * Creates a new corpus generator using the given seed.
+     *
+     * @param seed the seed names, sizes, dates and contents are derived from
+     */
+    public BenchmarkCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates and returns an empty folder in the temporary folder.
+     *
+     * @param name the desired name of the folder
+     * @return the folder
+     * @throws IOException if the folder could not be created
+     */
+    public static AbstractFile createTemporaryFolder(String name) throws IOException {
+        AbstractFile folder = FileFactory.getTemporaryFile(name, true);
+        folder.mkdir();
+
+        return folder;
+    }
+
+    /**
+     * Returns the name of the <code>index</code>-th generated file. Names are made of a prefix that is shared by
+     * groups of files and a number, and end with one of a fixed set of extensions.
+     *
+     * @param index index of the file
+     * @return the name of the file
+     */
+    public String getFilename(int index) {
+        return "file"+(index%7)+"_"+index+"."+EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+    }
+
+    /**
+     * Returns the contents of a generated file, of a size between 0 and <code>2*averageSize</code>.
+     *
+     * @param averageSize average size of the generated files
+     * @return the contents of the file
+     */
+    public byte[] getContents(int averageSize) {
+        byte contents[] = new byte[averageSize==0 ? 0 : random.nextInt(2*averageSize)];
+        random.nextBytes(contents);
+
+        return contents;
+    }
+
+    /**
+     * Returns a date within a year of {@link #BASE_DATE}, rounded to the second.
+     *
+     * @return a date within a year of {@link #BASE_DATE}
+     */
+    public long getDate() {
+        return BASE_DATE + random.nextInt(365*24*3600)*1000L;
+    }
+
+    /**
+     * Creates <code>nbFiles</code> files in the given directory.
+     *
+     * @param dir the directory in which to create the files
+     * @param nbFiles number of files to create
+     * @param averageSize average size of the files, <code>0</code> to create empty files
+     * @throws IOException if a file could not be created
+     */
+    public void createFiles(AbstractFile dir, int nbFiles, int averageSize) throws IOException {
+        for(int i=0; i<nbFiles; i++) {
+            AbstractFile file = dir.getDirectChild(getFilename(i));
+            writeFile(file, getContents(averageSize));
+            file.changeDate(getDate());
+        }
+    }
+
+    /**
+     * Creates a tree of directories of the given depth under the given directory, each directory containing
+     * <code>nbDirs</code> subdirectories (except those at the last level) and <code>nbFiles</code> files.
+     *
+     * @param dir the directory in which to create the tree
+     * @param depth depth of the tree, <code>0</code> to create files only
+     * @param nbDirs number of subdirectories of each directory
+     * @param nbFiles number of files in each directory
+     * @param averageSize average size of the files
+     * @throws IOException if a file or directory could not be created
+     */
+    public void createTree(AbstractFile dir, int depth, int nbDirs, int nbFiles, int averageSize) throws IOException {
+        createFiles(dir, nbFiles, averageSize);
+
+        if(depth==0)
+            return;
+
+        for(int i=0; i<nbDirs; i++) {
+            AbstractFile subdir = dir.getDirectChild("dir"+i);
+            subdir.mkdir();
+            createTree(subdir, depth-1, nbDirs, nbFiles, averageSize);
+        }
+    }
+
+    /**
+     * Returns the paths of <code>nbEntries</code> archive entries located up to <code>depth</code> directories deep,
+     * each directory containing up to <code>nbDirs</code> subdirectories. Parent directories are not returned as
+     * entries of their own, as is the case with many archives.
+     *
+     * @param nbEntries number of paths to return
+     * @param depth maximum number of directories in a path
+     * @param nbDirs number of subdirectories of each directory
+     * @return the paths of the entries
+     */
+    public List<String> getEntryPaths(int nbEntries, int depth, int nbDirs) {
+        List<String> paths = new ArrayList<String>(nbEntries);
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<nbEntries; i++) {
+            sb.setLength(0);
+            int entryDepth = depth==0 ? 0 : random.nextInt(depth+1);
+            for(int d=0; d<entryDepth; d++)
+                sb.append("dir").append(random.nextInt(nbDirs)).append('/');
+            sb.append(getFilename(i));
+
+            paths.add(sb.toString());
+        }
+
+        return paths;
+    }
+
+    /**
+     * Creates a Zip file containing an entry for each of the given paths.
+     *
+     * @param file the Zip file to create
+     * @param paths paths of the entries
+     * @param averageSize average size of the entries
+     * @throws IOException if the file could not be created
+     */
+    public void createZip(AbstractFile file, List<String> paths, int averageSize) throws IOException {
+        ZipOutputStream zout = new ZipOutputStream(file.getOutputStream());
+        try {
+            for(String path : paths) {
+                ZipEntry entry = new ZipEntry(path);
+                entry.setTime(getDate());
+                zout.putNextEntry(entry);
+                zout.write(getContents(averageSize));
+                zout.closeEntry();
+            }
+        }
+        finally {
+            zout.close();
+        }
+    }
+
+    /**
+     * Creates a TAR file containing an entry for each of the given paths.
+     *
+     * @param file the TAR file to create
+     * @param paths paths of the entries
+     * @param averageSize average size of the entries
+     * @throws IOException if the file could not be created
+     */
+    public void createTar(AbstractFile file, List<String> paths, int averageSize) throws IOException {
+        TarOutputStream tout = new TarOutputStream(file.getOutputStream());
+        try {
+            tout.setLongFileMode(TarOutputStream.LONGFILE_GNU);
+            for(String path : paths) {
+                byte contents[] = getContents(averageSize);
+                TarEntry entry = new TarEntry(path);
+                entry.setSize(contents.length);
+                entry.setModTime(getDate());
+                tout.putNextEntry(entry);
+                tout.write(contents);
+                tout.closeEntry();
+            }
+        }
+        finally {
+            tout.close();
+        }
+    }
+
+    /**
+     * Creates a minimal ISO 9660 image containing <code>nbEntries</code> files, all located in the root directory.
+     * The image has a primary volume descriptor and no path table, which is all the ISO reader requires.
+     *
+     * @param file the ISO file to create
+     * @param nbEntries number of files the image contains
+     * @param averageSize average size of the files
+     * @throws IOException if the file could not be created
+     */
+    public void createIso(AbstractFile file, int nbEntries, int averageSize) throws IOException {
+        String names[] = new String[nbEntries];
+        byte contents[][] = new byte[nbEntries][];
+        for(int i=0; i<nbEntries; i++) {
+            names[i] = "FILE"+i+".DAT;1";
+            contents[i] = getContents(averageSize);
+        }
+
+        // Lay out the root directory: records may not cross sector boundaries
+        int dirSize = 2*getIsoRecordLength(1);
+        for(String name : names) {
+            int recordLength = getIsoRecordLength(name.length());
+            if(dirSize/ISO_SECTOR_SIZE != (dirSize+recordLength-1)/ISO_SECTOR_SIZE)
+                dirSize = (dirSize/ISO_SECTOR_SIZE+1)*ISO_SECTOR_SIZE;
+            dirSize += recordLength;
+        }
+        int nbDirSectors = (dirSize+ISO_SECTOR_SIZE-1)/ISO_SECTOR_SIZE;
+
+        // Lay out the files after the root directory
+        int extents[] = new int[nbEntries];
+        int sector = ISO_FIRST_DATA_SECTOR + nbDirSectors;
+        for(int i=0; i<nbEntries; i++) {
+            extents[i] = sector;
+            sector += Math.max(1, (contents[i].length+ISO_SECTOR_SIZE-1)/ISO_SECTOR_SIZE);
+        }
+        int nbSectors = sector;
+        // The reader guesses the sector size from the image size: steer it clear of raw sector sizes
+        if(((long)nbSectors*ISO_SECTOR_SIZE)%2352==0 || ((long)nbSectors*ISO_SECTOR_SIZE)%2336==0)
+            nbSectors++;
+
+        byte sectorBytes[] = new byte[ISO_SECTOR_SIZE];
+        OutputStream out = file.getOutputStream();
+        try {
+            // System area
+            for(int i=0; i<16; i++)
+                out.write(sectorBytes);
+
+            // Primary volume descriptor
+            putIsoVolumeDescriptorHeader(sectorBytes, 1);
+            putBothEndian(sectorBytes, 80, nbSectors);
+            putIsoRecord(sectorBytes, 156, "\0", ISO_FIRST_DATA_SECTOR, nbDirSectors*ISO_SECTOR_SIZE, true);
+            out.write(sectorBytes);
+
+            // Volume descriptor set terminator
+            Arrays.fill(sectorBytes, (byte)0);
+            putIsoVolumeDescriptorHeader(sectorBytes, 255);
+            out.write(sectorBytes);
+
+            // Sectors scanned for supplementary volume descriptors
+            Arrays.fill(sectorBytes, (byte)0);
+            for(int i=18; i<ISO_FIRST_DATA_SECTOR; i++)
+                out.write(sectorBytes);
+
+            // Root directory
+            byte dir[] = new byte[nbDirSectors*ISO_SECTOR_SIZE];
+            int offset = putIsoRecord(dir, 0, "\0", ISO_FIRST_DATA_SECTOR, dir.length, true);
+            offset += putIsoRecord(dir, offset, "\1", ISO_FIRST_DATA_SECTOR, dir.length, true);
+            for(int i=0; i<nbEntries; i++) {
+                int recordLength = getIsoRecordLength(names[i].length());
+                if(offset/ISO_SECTOR_SIZE != (offset+recordLength-1)/ISO_SECTOR_SIZE)
+                    offset = (offset/ISO_SECTOR_SIZE+1)*ISO_SECTOR_SIZE;
+                offset += putIsoRecord(dir, offset, names[i], extents[i], contents[i].length, false);
+            }
+            out.write(dir);
+
+            // Files, each padded to a sector boundary
+            for(int i=0; i<nbEntries; i++) {
+                out.write(contents[i]);
+                int nextExtent = i+1<nbEntries ? extents[i+1] : nbSectors;
+                out.write(new byte[(nextExtent-extents[i])*ISO_SECTOR_SIZE - contents[i].length]);
+            }
+            if(nbEntries==0)
+                out.write(new byte[(nbSectors-ISO_FIRST_DATA_SECTOR-nbDirSectors)*ISO_SECTOR_SIZE]);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the given contents to the given file, replacing its contents if it exists.
+     *
+     * @param file the file to write
+     * @param contents the contents of the file
+     * @throws IOException if the file could not be written
+     */
+    private static void writeFile(AbstractFile file, byte contents[]) throws IOException {
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(contents);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static int getIsoRecordLength(int nameLength) {
+        return 33 + nameLength + ((nameLength&1)==0 ? 1 : 0);
+    }
+
+    private static void putIsoVolumeDescriptorHeader(byte b[], int type) {
+        b[0] = (byte)type;
+        b[1] = 'C';
+        b[2] = 'D';
+        b[3] = '0';
+        b[4] = '0';
+        b[5] = '1';
+        b[6] = 1;
+    }
+
+    /**
+     * Writes a directory record at the given offset and returns its length.
+     */
+    private int putIsoRecord(byte b[], int offset, String name, int extent, int size, boolean directory) {
+        int length = getIsoRecordLength(name.length());
+        b[offset] = (byte)length;
+        putBothEndian(b, offset+2, extent);
+        putBothEndian(b, offset+10, size);
+
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(getDate());
+        b[offset+18] = (byte)(calendar.get(Calendar.YEAR)-1900);
+        b[offset+19] = (byte)(calendar.get(Calendar.MONTH)+1);
+        b[offset+20] = (byte)calendar.get(Calendar.DAY_OF_MONTH);
+        b[offset+21] = (byte)calendar.get(Calendar.HOUR_OF_DAY);
+        b[offset+22] = (byte)calendar.get(Calendar.MINUTE);
+        b[offset+23] = (byte)calendar.get(Calendar.SECOND);
+
+        b[offset+25] = (byte)(directory ? 2 : 0);
+        b[offset+28] = 1;       // volume sequence number, both-endian 16-bit
+        b[offset+31] = 1;
+        b[offset+32] = (byte)name.length();
+        for(int i=0; i<name.length(); i++)
+            b[offset+33+i] = (byte)name.charAt(i);
+
+        return length;
+    }
+
+    /**
+     * Writes the given value in little-endian then big-endian order, as ISO 9660 'both-byte order' fields are.
+     */
+    private static void putBothEndian(byte b[], int offset, int value) {
+        for(int i=0; i<4; i++) {
+            b[offset+i] = (byte)(value >> (8*i));
+            b[offset+7-i] = (byte)(value >> (8*i));
+        }
+    }
+}
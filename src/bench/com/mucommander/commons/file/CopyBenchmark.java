@@ -0,0 +1,131 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to copy a tree of local files with {@link AbstractFile#copyTo(AbstractFile)}, which
+ * copies directories recursively, and to extract the contents of a Zip archive. Each invocation copies to a new
+ * destination, which is deleted once the invocation is over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyBenchmark {
+
+    /** Depth of the copied tree */
+    @Param({"3"})
+    private int depth;
+
+    /** Number of files in each directory of the copied tree */
+    @Param({"10", "100"})
+    private int nbFiles;
+
+    /** Average size of the copied files */
+    @Param({"4096", "1048576"})
+    private int fileSize;
+
+    /** The folder containing the corpus */
+    private AbstractFile folder;
+
+    /** The tree to copy */
+    private AbstractFile tree;
+
+    /** A Zip archive containing the same number of files as the tree */
+    private AbstractFile zipFile;
+
+    /** Destination of the current invocation */
+    private AbstractFile destination;
+
+    /** Number of invocations so far, used to name destinations */
+    private int nbInvocations;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+
+        tree = folder.getDirectChild("tree");
+        tree.mkdir();
+        corpus.createTree(tree, depth, 3, nbFiles, fileSize);
+
+        zipFile = folder.getDirectChild("archive.zip");
+        int nbTreeFiles = 0;
+        for(int d=0, nbDirs=1; d<=depth; d++, nbDirs*=3)
+            nbTreeFiles += nbDirs*nbFiles;
+        corpus.createZip(zipFile, corpus.getEntryPaths(nbTreeFiles, depth, 3), fileSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpDestination() throws IOException {
+        destination = folder.getDirectChild("copy"+(nbInvocations++));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownDestination() throws IOException {
+        if(destination.exists())
+            destination.deleteRecursively();
+    }
+
+    /**
+     * Copies the tree of local files.
+     *
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void copyTree() throws IOException {
+        tree.copyTo(destination);
+    }
+
+    /**
+     * Extracts the Zip archive to a local directory.
+     *
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void extractZip() throws IOException {
+        destination.mkdir();
+        for(AbstractFile child : zipFile.ls())
+            child.copyTo(destination.getDirectChild(child.getName()));
+    }
+}
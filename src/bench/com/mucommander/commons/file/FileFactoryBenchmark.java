@@ -0,0 +1,124 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes {@link FileFactory#getFile(String)} to resolve local files, files located inside an
+ * archive, and files resolved through a {@link FileURL} instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileFactoryBenchmark {
+
+    /** Number of files resolved by each benchmark invocation */
+    private final static int NB_FILES = 100;
+
+    /** The folder containing the corpus */
+    private AbstractFile folder;
+
+    /** Paths of local files */
+    private String localPaths[];
+
+    /** Paths of files located inside a Zip archive */
+    private String archivePaths[];
+
+    /** URLs of local files */
+    private FileURL localURLs[];
+
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+        corpus.createFiles(folder, NB_FILES, 0);
+
+        AbstractFile children[] = folder.ls();
+        localPaths = new String[children.length];
+        localURLs = new FileURL[children.length];
+        for(int i=0; i<children.length; i++) {
+            localPaths[i] = children[i].getAbsolutePath();
+            localURLs[i] = FileURL.getFileURL(localPaths[i]);
+        }
+
+        AbstractFile zipFile = folder.getDirectChild("archive.zip");
+        List<String> entryPaths = corpus.getEntryPaths(NB_FILES, 2, 4);
+        corpus.createZip(zipFile, entryPaths, 0);
+        archivePaths = new String[entryPaths.size()];
+        for(int i=0; i<archivePaths.length; i++)
+            archivePaths[i] = zipFile.getAbsolutePath(true)+entryPaths.get(i);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Resolves local files by path.
+     *
+     * @param blackhole consumes the resolved files
+     */
+    @Benchmark
+    public void getLocalFile(Blackhole blackhole) {
+        for(String path : localPaths)
+            blackhole.consume(FileFactory.getFile(path));
+    }
+
+    /**
+     * Resolves local files by URL.
+     *
+     * @param blackhole consumes the resolved files
+     */
+    @Benchmark
+    public void getLocalFileByURL(Blackhole blackhole) {
+        for(FileURL url : localURLs)
+            blackhole.consume(FileFactory.getFile(url));
+    }
+
+    /**
+     * Resolves files located inside a Zip archive by path.
+     *
+     * @param blackhole consumes the resolved files
+     */
+    @Benchmark
+    public void getArchiveEntryFile(Blackhole blackhole) {
+        for(String path : archivePaths)
+            blackhole.consume(FileFactory.getFile(path));
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the memory retained by large synthetic file trees held in memory, as a file manager does when comparing
+ * two trees for instance. Each folder of the tree contains {@link #NB_DIRS} folders and {@link #NB_FILES} files, up
+ * to the depth given by the {@link #depth} parameter: a depth of 8 amounts to about 1.5 million files.
+ * The trees are built in memory only, no file is created on disk.
+ *
+ * <p>The primary result is the time it takes to build a tree. The heap retained by the tree, divided by the number of
+ * files it contains, is printed at the end of each iteration. It is measured after garbage collections and includes
+ * the reference to each file held by the tree, and the file names.</p>
+ *
+ * <p>Trees are made of:
+ * <ul>
+ *  <li>{@link #flatURLs() URLs} that each hold their whole path, as created by cloning the parent URL and setting
+ * the child's path</li>
+ *  <li>{@link #linkedURLs() URLs} created by {@link FileURL#getChild(String)}, whose path references the parent's</li>
+ *  <li>{@link #localFiles() local files}, created the way {@link com.mucommander.commons.file.impl.local.LocalFile#ls()}
+ * creates them</li>
+ * </ul>
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PathMemoryBenchmark {
+
+    /** Number of folders in each folder of the tree, but the deepest ones */
+    private final static int NB_DIRS = 4;
+
+    /** Number of files in each folder of the tree */
+    private final static int NB_FILES = 16;
+
+    /** Depth of the tree */
+    @Param({"6", "8"})
+    private int depth;
+
+    /** URL of the tree's root folder */
+    private FileURL rootURL;
+
+    /** The files of the tree that was built by the last invocation */
+    private List<Object> tree;
+
+    /** Name of the last invoked benchmark */
+    private String treeType;
+
+    /** Heap used before the last invocation */
+    private long usedHeap;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        rootURL = FileURL.getFileURL(new File(System.getProperty("java.io.tmpdir"), getClass().getSimpleName()).getAbsolutePath());
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        tree = new ArrayList<Object>();
+        usedHeap = getUsedHeap();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        long retainedHeap = getUsedHeap() - usedHeap;
+        System.out.println(treeType+", depth "+depth+": "+tree.size()+" files, "+(retainedHeap/tree.size())+" bytes per file");
+
+        tree = null;
+    }
+
+    /**
+     * Returns the heap that is in use after garbage collections.
+     *
+     * @return the heap that is in use, in bytes
+     */
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i=0; i<3; i++)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Builds a tree of URLs that each hold their whole path.
+     *
+     * @return the number of files in the tree
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public int flatURLs() throws IOException {
+        treeType = "flatURLs";
+
+        return new TreeBuilder<FileURL>() {
+            @Override
+            FileURL getChild(FileURL parent, String name) {
+                String separator = parent.getPathSeparator();
+                String path = parent.getPath();
+
+                FileURL childURL = (FileURL)parent.clone();
+                childURL.setPath(path.endsWith(separator)?path+name:path+separator+name);
+
+                return childURL;
+            }
+        }.build(rootURL);
+    }
+
+    /**
+     * Builds a tree of URLs created by {@link FileURL#getChild(String)}.
+     *
+     * @return the number of files in the tree
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public int linkedURLs() throws IOException {
+        treeType = "linkedURLs";
+
+        return new TreeBuilder<FileURL>() {
+            @Override
+            FileURL getChild(FileURL parent, String name) {
+                return parent.getChild(name);
+            }
+        }.build(rootURL);
+    }
+
+    /**
+     * Builds a tree of local files, the way they are created when listing folders.
+     *
+     * @return the number of files in the tree
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public int localFiles() throws IOException {
+        treeType = "localFiles";
+
+        return new TreeBuilder<AbstractFile>() {
+            @Override
+            AbstractFile getChild(AbstractFile parent, String name) throws IOException {
+                return FileFactory.getChildFile(parent.getURL().getChild(name), parent,
+                        new File((File)parent.getUnderlyingFileObject(), name));
+            }
+        }.build(FileFactory.getFile(rootURL, true));
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Builds a tree of files and adds them to {@link PathMemoryBenchmark#tree}. Files are named after the
+     * {@link BenchmarkCorpus}, folders are named <code>folderN</code>.
+     */
+    private abstract class TreeBuilder<T> {
+
+        /** Generates the names of files */
+        private final BenchmarkCorpus corpus = new BenchmarkCorpus();
+
+        /** Number of files that were named thus far */
+        private int nbNamedFiles;
+
+        /**
+         * Creates and returns the child with the given name of the given folder.
+         *
+         * @param parent the parent folder
+         * @param name name of the child
+         * @return the child
+         * @throws IOException if the child could not be created
+         */
+        abstract T getChild(T parent, String name) throws IOException;
+
+        /**
+         * Builds a tree under the given root folder.
+         *
+         * @param root the root folder of the tree
+         * @return the number of files in the tree
+         * @throws IOException if a file could not be created
+         */
+        int build(T root) throws IOException {
+            build(root, depth);
+
+            return tree.size();
+        }
+
+        /**
+         * Creates the files of the given folder and recurses into its folders, up to the given depth.
+         *
+         * @param dir the folder to populate
+         * @param depth the remaining depth
+         * @throws IOException if a file could not be created
+         */
+        private void build(T dir, int depth) throws IOException {
+            for(int i=0; i<NB_FILES; i++)
+                tree.add(getChild(dir, corpus.getFilename(nbNamedFiles++)));
+
+            if(depth>0) {
+                for(int i=0; i<NB_DIRS; i++) {
+                    T child = getChild(dir, "folder"+i);
+                    tree.add(child);
+                    build(child, depth-1);
+                }
+            }
+        }
+    }
+}
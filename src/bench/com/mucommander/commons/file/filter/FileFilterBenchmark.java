@@ -0,0 +1,133 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.filter;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to evaluate filename, attribute and chained filters against the contents of a
+ * directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileFilterBenchmark {
+
+    /** Number of files to filter */
+    @Param({"1000", "10000"})
+    private int nbFiles;
+
+    /** The folder containing the corpus */
+    private AbstractFile folder;
+
+    /** Files to filter */
+    private AbstractFile files[];
+
+    /** Matches archive extensions */
+    private FileFilter extensionFilter;
+
+    /** Matches a subset of the filenames with a regular expression */
+    private FileFilter regexpFilter;
+
+    /** Matches archives, which requires the file to be resolved as an archive */
+    private FileFilter attributeFilter;
+
+    /** Combines the above filters and a prefix filter */
+    private FileFilter chainedFilter;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+        new BenchmarkCorpus().createFiles(folder, nbFiles, 0);
+        files = folder.ls();
+
+        extensionFilter = new ExtensionFilenameFilter(new String[]{".zip", ".jar", ".tar"}, false, false);
+        regexpFilter = new RegexpFilenameFilter("file[0-3]_\\d+\\.(txt|log)", true);
+        attributeFilter = new AttributeFileFilter(AttributeFileFilter.ARCHIVE);
+        chainedFilter = new AndFileFilter(
+            new AttributeFileFilter(AttributeFileFilter.HIDDEN, true),
+            new StartsWithFilenameFilter("file1", false),
+            new OrFileFilter(extensionFilter, regexpFilter)
+        );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Filters the files with an extension filter.
+     *
+     * @return the files that match the filter
+     */
+    @Benchmark
+    public AbstractFile[] filterByExtension() {
+        return extensionFilter.filter(files);
+    }
+
+    /**
+     * Filters the files with a regular expression filter.
+     *
+     * @return the files that match the filter
+     */
+    @Benchmark
+    public AbstractFile[] filterByRegexp() {
+        return regexpFilter.filter(files);
+    }
+
+    /**
+     * Filters the files with an attribute filter.
+     *
+     * @return the files that match the filter
+     */
+    @Benchmark
+    public AbstractFile[] filterByAttribute() {
+        return attributeFilter.filter(files);
+    }
+
+    /**
+     * Filters the files with a chain of filters.
+     *
+     * @return the files that match the filter
+     */
+    @Benchmark
+    public AbstractFile[] filterChained() {
+        return chainedFilter.filter(files);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.local;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to copy a large local file, by transferring its contents with
+ * {@link LocalFile#copyStream(InputStream, boolean, long)}, and with {@link LocalFile#copyRemotelyTo(AbstractFile)},
+ * which lets the kernel copy the file and skips the holes of sparse files. Each invocation copies to a new
+ * destination, which is deleted once the invocation is over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalCopyBenchmark {
+
+    /** Size of the copied file, in megabytes */
+    @Param({"256"})
+    private int fileSizeMB;
+
+    /** <code>true</code> if the copied file is made of a few data regions separated by holes */
+    @Param({"false", "true"})
+    private boolean sparse;
+
+    /** Size of the data regions of the sparse file */
+    private final static int SPARSE_DATA_SIZE = 1024 * 1024;
+
+    /** Number of data regions of the sparse file */
+    private final static int SPARSE_DATA_REGIONS = 8;
+
+    /** The folder containing the copied file and its copies */
+    private AbstractFile folder;
+
+    /** The copied file */
+    private AbstractFile source;
+
+    /** Destination of the current invocation */
+    private AbstractFile destination;
+
+    /** Number of invocations so far, used to name destinations */
+    private int nbInvocations;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+        source = folder.getDirectChild("source");
+
+        long size = fileSizeMB * 1024L * 1024L;
+        byte data[] = new byte[SPARSE_DATA_SIZE];
+        new Random(0).nextBytes(data);
+        RandomAccessFile raf = new RandomAccessFile((java.io.File)source.getUnderlyingFileObject(), "rw");
+        try {
+            if(sparse) {
+                for(int i=0; i<SPARSE_DATA_REGIONS; i++) {
+                    raf.seek(size/SPARSE_DATA_REGIONS*i);
+                    raf.write(data);
+                }
+            }
+            else {
+                for(long written=0; written<size; written+=data.length)
+                    raf.write(data, 0, (int)Math.min(data.length, size-written));
+            }
+
+            raf.setLength(size);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpDestination() throws IOException {
+        destination = folder.getDirectChild("copy"+(nbInvocations++));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownDestination() throws IOException {
+        if(destination.exists())
+            destination.delete();
+    }
+
+    /**
+     * Copies the file by transferring its contents.
+     *
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void copyStream() throws IOException {
+        InputStream in = source.getInputStream();
+        try {
+            destination.copyStream(in, false, source.getSize());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the file with {@link LocalFile#copyRemotelyTo(AbstractFile)}.
+     *
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void copyRemotely() throws IOException {
+        source.copyRemotelyTo(destination);
+    }
+}
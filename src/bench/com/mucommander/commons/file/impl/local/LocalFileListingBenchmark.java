@@ -0,0 +1,123 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.local;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.BenchmarkCorpus;
+import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
+import com.mucommander.commons.file.filter.FilenameFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes {@link LocalFile#ls()} to list wide directories, and to fetch the attributes that file
+ * managers display for each child.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalFileListingBenchmark {
+
+    /** Number of files in the listed directory */
+    @Param({"1000", "10000"})
+    private int nbFiles;
+
+    /** The folder containing the corpus */
+    private AbstractFile folder;
+
+    /** The listed directory, located a few levels below the corpus folder */
+    private AbstractFile dir;
+
+    /** Filter used by {@link #lsFiltered(Blackhole)} */
+    private FilenameFilter filter;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+
+        dir = folder;
+        for(int i=0; i<5; i++)
+            dir = dir.getDirectChild("level"+i);
+        dir.mkdirs();
+
+        new BenchmarkCorpus().createFiles(dir, nbFiles, 0);
+
+        filter = new ExtensionFilenameFilter(new String[]{".txt", ".java"});
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Lists the directory.
+     *
+     * @return the directory's children
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public AbstractFile[] ls() throws IOException {
+        return dir.ls();
+    }
+
+    /**
+     * Lists the directory with a filename filter.
+     *
+     * @return the children that match the filter
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public AbstractFile[] lsFiltered() throws IOException {
+        return dir.ls(filter);
+    }
+
+    /**
+     * Lists the directory and fetches the attributes of each child.
+     *
+     * @param blackhole consumes the attributes
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void lsWithAttributes(Blackhole blackhole) throws IOException {
+        for(AbstractFile child : dir.ls()) {
+            blackhole.consume(child.isDirectory());
+            blackhole.consume(child.getSize());
+            blackhole.consume(child.getDate());
+            blackhole.consume(child.getPermissions());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.zip;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to add a large number of small entries to an empty Zip file, one at a time and within
+ * a {@link ZipArchiveFile#beginBatch() batch}. Each invocation writes to a new Zip file, which is deleted once the
+ * invocation is over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZipBatchBenchmark {
+
+    /** Number of entries added to the Zip file */
+    @Param({"100", "1000"})
+    private int nbEntries;
+
+    /** Size of the entries added to the Zip file */
+    @Param({"512"})
+    private int entrySize;
+
+    /** The folder containing the Zip files */
+    private AbstractFile folder;
+
+    /** Contents of the entries */
+    private byte data[];
+
+    /** Zip file of the current invocation */
+    private ZipArchiveFile zipFile;
+
+    /** Number of invocations so far, used to name Zip files */
+    private int nbInvocations;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+        data = new byte[entrySize];
+        new Random(0).nextBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpZipFile() throws IOException {
+        zipFile = (ZipArchiveFile)folder.getDirectChild("archive"+(nbInvocations++)+".zip");
+        zipFile.mkfile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownZipFile() throws IOException {
+        if(zipFile.exists())
+            zipFile.delete();
+    }
+
+    /**
+     * Adds the entries one at a time, each addition updating the Zip file's central directory.
+     *
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void addEntries() throws IOException {
+        writeEntries();
+    }
+
+    /**
+     * Adds the entries within a batch, the central directory being written once.
+     *
+     * @throws IOException should not happen
+     */
+    @Benchmark
+    public void addEntriesInBatch() throws IOException {
+        zipFile.beginBatch();
+        try {
+            writeEntries();
+        }
+        finally {
+            zipFile.commitBatch();
+        }
+    }
+
+    private void writeEntries() throws IOException {
+        for(int i=0; i<nbEntries; i++) {
+            OutputStream out = zipFile.getDirectChild("entry"+i).getOutputStream();
+            try {
+                out.write(data);
+            }
+            finally {
+                out.close();
+            }
+        }
+    }
+}
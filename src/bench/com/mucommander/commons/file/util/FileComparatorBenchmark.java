@@ -0,0 +1,98 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to sort the contents of a directory with a {@link FileComparator}, for each of the
+ * criteria file managers commonly sort by.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileComparatorBenchmark {
+
+    /** Number of files to sort */
+    @Param({"1000", "10000"})
+    private int nbFiles;
+
+    /** Comparison criterion, see {@link FileComparator} constants */
+    @Param({"0", "1", "2", "3"})
+    private int criterion;
+
+    /** The folder containing the corpus */
+    private AbstractFile folder;
+
+    /** Files to sort, in listing order */
+    private AbstractFile files[];
+
+    /** The comparator */
+    private FileComparator comparator;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = BenchmarkCorpus.createTemporaryFolder(getClass().getName());
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        corpus.createFiles(folder, nbFiles, 1024);
+        for(int i=0; i<nbFiles/10; i++)
+            folder.getDirectChild("dir"+i).mkdir();
+
+        files = folder.ls();
+        comparator = new FileComparator(criterion, true, true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Sorts the files.
+     *
+     * @return the sorted files
+     */
+    @Benchmark
+    public AbstractFile[] sort() {
+        AbstractFile sortedFiles[] = files.clone();
+        Arrays.sort(sortedFiles, comparator);
+
+        return sortedFiles;
+    }
+}
@@ -22,12 +22,13 @@ package com.mucommander.commons.file;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.file.impl.ProxyFile;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Locale;
 import java.util.Vector;
 import java.util.WeakHashMap;
 
@@ -77,7 +78,6 @@ import java.util.WeakHashMap;
  * @author Maxence Bernard
  */
 public abstract class AbstractArchiveFile extends ProxyFile {
-    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractArchiveFile.class);
 
     /** Archive entries tree */
     protected ArchiveEntryTree entryTreeRoot;
@@ -113,23 +113,25 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         ArchiveEntryTree treeRoot = new ArchiveEntryTree();
         archiveEntryFiles = new WeakHashMap<ArchiveEntry, AbstractArchiveEntryFile>();
 
-        long start = System.currentTimeMillis();
+        long start = FileMetrics.start();
+        boolean failed = true;
         ArchiveEntryIterator entries = getEntryIterator();
         try {
             ArchiveEntry entry;
             while((entry=entries.nextEntry())!=null)
                 treeRoot.addArchiveEntry(entry);
 
-            LOGGER.info("entries tree created in "+(System.currentTimeMillis()-start)+" ms");
-
             this.entryTreeRoot = treeRoot;
             declareEntriesTreeUpToDate();
+            failed = false;
         }
         finally {
             try { entries.close(); }
             catch(IOException e) {
                 // Not much we can do about it
             }
+
+            FileMetrics.end(getMetricsScheme(), MeteredOperation.LIST, start, failed);
         }
     }
 
@@ -142,10 +144,28 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      * underlying file protocol.
      */
     protected void checkEntriesTree() throws IOException, UnsupportedFileOperationException {
-        if(this.entryTreeRoot==null || getDate()!=this.entryTreeDate)
+        boolean upToDate = this.entryTreeRoot!=null && getDate()==this.entryTreeDate;
+        if(FileMetrics.isEnabled())
+            FileMetrics.cacheAccess(getMetricsScheme(), "entriesTree", upToDate);
+
+        if(!upToDate)
             createEntriesTree();
     }
 
+    /**
+     * Returns the name under which {@link FileMetrics} records the operations made on this archive, derived from the
+     * name of the archive file's class: <code>ZipArchiveFile</code> is recorded as <code>zip</code>.
+     *
+     * @return the name under which the operations made on this archive are recorded
+     */
+    protected String getMetricsScheme() {
+        String className = getClass().getSimpleName();
+        if(className.endsWith("ArchiveFile"))
+            className = className.substring(0, className.length()-"ArchiveFile".length());
+
+        return className.toLowerCase(Locale.ENGLISH);
+    }
+
     /**
      * Declares the entries tree up-to-date by setting the current tree date to the archive file's.
      * This method should be called by {@link AbstractRWArchiveFile} implementations when the archive file has been
@@ -181,7 +201,7 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      */
     protected void removeFromEntriesTree(ArchiveEntry entry) throws IOException, UnsupportedFileOperationException {
         checkEntriesTree();
-        DefaultMutableTreeNode entryNode = entryTreeRoot.findEntryNode(entry.getPath());
+        DefaultMutableTreeNode entryNode = findEntryNode(entry.getPath());
 
         if(entryNode!=null) {
             DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode)entryNode.getParent();
@@ -189,6 +209,36 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         }
     }
 
+    /**
+     * Makes sure the children of the given directory node are present in the entries tree. This method is called
+     * before the contents of a node are listed.
+     *
+     * <p>This implementation is a no-op, as {@link #createEntriesTree()} adds all the archive's entries to the tree.
+     * Archive formats that can read a directory without reading the whole archive may override
+     * {@link #createEntriesTree()} to only add the topmost entries, and this method to add the children of a
+     * directory the first time it is listed. Such implementations must also override {@link #findEntryNode(String)}.</p>
+     *
+     * @param entryNode a node of the entries tree, either the root or a directory entry's node
+     * @throws IOException if an error occurred while reading the directory's entries
+     */
+    protected void loadEntryNode(DefaultMutableTreeNode entryNode) throws IOException {
+    }
+
+    /**
+     * Finds and returns the node of the entries tree that corresponds to the specified entry path, <code>null</code>
+     * if the entry does not exist. The entries tree must have been created before this method is called.
+     *
+     * <p>This implementation simply looks up the path in the tree. Archive files that populate the entries tree lazily
+     * (see {@link #loadEntryNode(DefaultMutableTreeNode)}) must override this method to load the entry's ancestors.</p>
+     *
+     * @param entryPath path to an entry within this archive, separated by '/' characters
+     * @return the node that corresponds to the specified entry path, <code>null</code> if there is none
+     * @throws IOException if an error occurred while loading the entry's ancestors
+     */
+    protected DefaultMutableTreeNode findEntryNode(String entryPath) throws IOException {
+        return entryTreeRoot.findEntryNode(entryPath);
+    }
+
     /**
      * Returns the {@link ArchiveEntryTree} instance corresponding to the root of the archive entry tree.
      * The returned value can be <code>null</code> if the tree hasn't been intialized yet.
@@ -212,7 +262,7 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         if(!entryFile.isBrowsable())
             throw new IOException();
 
-        DefaultMutableTreeNode matchNode = entryTreeRoot.findEntryNode(entryFile.getEntry().getPath());
+        DefaultMutableTreeNode matchNode = findEntryNode(entryFile.getEntry().getPath());
         if(matchNode==null)
             throw new IOException();
 
@@ -226,6 +276,8 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      * underlying file protocol.
      */
     private AbstractFile[] ls(DefaultMutableTreeNode treeNode, AbstractFile parentFile, FilenameFilter filenameFilter, FileFilter fileFilter) throws IOException, UnsupportedFileOperationException {
+        loadEntryNode(treeNode);
+
         AbstractFile files[];
         int nbChildren = treeNode.getChildCount();
 
@@ -277,9 +329,7 @@ public abstract class AbstractArchiveFile extends ProxyFile {
 
         AbstractArchiveEntryFile entryFile = archiveEntryFiles.get(entry);
         if(entryFile==null) {
-            FileURL archiveURL = getURL();
-            FileURL entryURL = (FileURL)archiveURL.clone();
-            entryURL.setPath(addTrailingSeparator(archiveURL.getPath()) + entryPath);
+            FileURL entryURL = getURL().getChild(entryPath);
 
             // Create an RO and RW entry file, depending on whether this archive file is RO or RW
             entryFile = this instanceof AbstractRWArchiveFile
@@ -339,7 +389,7 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         entryPath = entryPath.replace('\\', '/');
 
         // Find the entry node corresponding to the given path
-        DefaultMutableTreeNode entryNode = entryTreeRoot.findEntryNode(entryPath);
+        DefaultMutableTreeNode entryNode = findEntryNode(entryPath);
 
         if(entryNode==null) {
             int depth = ArchiveEntry.getDepth(entryPath);
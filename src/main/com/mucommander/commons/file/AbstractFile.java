@@ -23,6 +23,7 @@ import com.mucommander.commons.file.compat.CompatURLStreamHandler;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.file.impl.ProxyFile;
+import com.mucommander.commons.file.util.ChecksumCalculator;
 import com.mucommander.commons.io.*;
 
 import javax.swing.*;
@@ -35,6 +36,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * <code>AbstractFile</code> is the superclass of all files.
@@ -206,6 +209,38 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
         }
     }
 
+    /**
+     * Returns the file this file points to if it is a {@link #isSymlink() symbolic link}, <code>null</code> if it is
+     * not. The returned file may or may not exist, for example if the link is broken, and may itself be a symbolic
+     * link.
+     *
+     * <p>This implementation returns the {@link #getCanonicalFile() canonical file}, which has all symbolic links
+     * resolved, and thus should be overridden if the target of a single link can be read.</p>
+     *
+     * @return the file this symbolic link points to, <code>null</code> if this file is not a symbolic link
+     * @throws IOException if an I/O error occurred while reading the link
+     */
+    public AbstractFile getSymlinkTarget() throws IOException {
+        if(!isSymlink())
+            return null;
+
+        return getCanonicalFile();
+    }
+
+    /**
+     * Returns an object that uniquely identifies this file, such that files that resolve to the same physical file
+     * (e.g. a directory and a symbolic link to it) return equal keys. This is used by recursive walkers to detect
+     * directory loops.
+     *
+     * <p>This implementation returns the {@link #getCanonicalPath() canonical path}, and should be overridden if the
+     * filesystem provides a cheaper or more reliable identifier, such as an inode number.</p>
+     *
+     * @return an object that uniquely identifies this file
+     */
+    public Object getFileKey() {
+        return getCanonicalPath(false);
+    }
+
 
     /**
      * Returns the path separator used by this file.
@@ -261,7 +296,8 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * @return <code>true</code> if this file is a root folder
      */
     public boolean isRoot() {
-        return getURL().getPath().equals("/");
+        // Test the path without building it
+        return getURL().getPathNode().isRoot();
     }
 
     /**
@@ -339,7 +375,8 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * the <code>Content-Length</code> header to be set in the request. Callers should thus set the length if it is
      * known.</p>
      *
-     * <p>Read and write operations are buffered, with a buffer of {@link #IO_BUFFER_SIZE} bytes. For performance
+     * <p>Read and write operations are buffered, with a buffer of this file's
+     * {@link FileCapabilities#getPreferredBlockSize() preferred block size}. For performance
      * reasons, this buffer is provided by {@link BufferPool}. Thus, there is no need to surround the InputStream
      * with a {@link java.io.BufferedInputStream}.</p>
      *
@@ -363,7 +400,7 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
         }
 
         try {
-            StreamUtils.copyStream(in, out, IO_BUFFER_SIZE);
+            StreamUtils.copyStream(in, out, getCapabilities().getPreferredBlockSize());
         }
         finally {
             // Close stream even if copyStream() threw an IOException
@@ -395,7 +432,8 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * supported or wasn't successful, the file is copied manually, by transferring its contents to the destination 
      * using {@link #copyRecursively(AbstractFile, AbstractFile)}.<br/>
      * In that case, no clean up is performed if an error occurs in the midst of a transfer: files that have been copied
-     * (even partially) are left in the destination.<br/>
+     * (even partially) are left in the destination. If the manual copy fails after a failed remote copy, the remote
+     * copy's exception is {@link Throwable#addSuppressed(Throwable) suppressed} by the exception that is thrown.<br/>
      * It is also worth noting that symbolic links are not copied to the destination when encountered: neither the link
      * nor the linked file is copied</p>
      *
@@ -404,6 +442,7 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      */
     public final void copyTo(AbstractFile destFile) throws IOException {
         // First, try to perform a remote copy of the file if the operation is supported
+        IOException remoteCopyException = null;
         if(isFileOperationSupported(FileOperation.COPY_REMOTELY)) {
             try {
                 copyRemotelyTo(destFile);
@@ -411,16 +450,55 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
                 return;
             }
             catch(IOException e) {
-                // Fail silently
+                // Keep the error, to be reported if the manual copy fails as well
+                remoteCopyException = e;
             }
         }
 
         // Fall back to copying the file manually
+        try {
+            copyManually(destFile);
+        }
+        catch(IOException e) {
+            if(remoteCopyException!=null)
+                e.addSuppressed(remoteCopyException);
+
+            throw e;
+        }
+    }
 
+    /**
+     * Copies this file to a specified destination file by transferring its contents, as the fallback of
+     * {@link #copyTo(AbstractFile)}.
+     *
+     * @param destFile the destination file to copy this file to
+     * @throws IOException if the copy failed
+     */
+    private void copyManually(AbstractFile destFile) throws IOException {
         checkCopyPrerequisites(destFile, false);
 
-        // Copy the file and its contents if the file is a directory
-        copyRecursively(this, destFile);
+        // When copying a directory inside a read-write archive, group the modifications in a batch so that the
+        // archive's index gets written once rather than once per file
+        AbstractRWArchiveFile destArchive = null;
+        if(isDirectory()) {
+            RWArchiveEntryFile destEntry = destFile.getAncestor(RWArchiveEntryFile.class);
+            if(destEntry!=null)
+                destArchive = (AbstractRWArchiveFile)destEntry.getArchiveFile();
+        }
+
+        if(destArchive==null) {
+            // Copy the file and its contents if the file is a directory
+            copyRecursively(this, destFile);
+            return;
+        }
+
+        destArchive.beginBatch();
+        try {
+            copyRecursively(this, destFile);
+        }
+        finally {
+            destArchive.commitBatch();
+        }
     }
 
     /**
@@ -631,6 +709,9 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * Deletes this file. If the file is a directory, enclosing files are deleted recursively.
      * Symbolic links to directories are simply deleted, without deleting the contents of the linked directory.
      *
+     * <p>This implementation lists and deletes files one by one. Implementations whose protocol is able to delete a
+     * whole tree with fewer requests should override this method, and {@link #canDeleteInBulk()} to advertise it.</p>
+     *
      * @throws IOException if an error occurred while deleting a file or listing a directory's contents
      * @throws UnsupportedFileOperationException if this method relies on a file operation that is not supported 
      * or not implemented by the underlying filesystem.
@@ -639,6 +720,20 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
         deleteRecursively(this);
     }
 
+    /**
+     * Returns <code>true</code> if {@link #deleteRecursively()} deletes a tree using bulk, protocol-specific requests
+     * rather than by deleting files one by one. Callers that delete trees concurrently, like
+     * {@link com.mucommander.commons.file.util.TreeCopier}, use this to hand whole subtrees to
+     * {@link #deleteRecursively()} instead of descending into them.
+     *
+     * <p>This implementation returns <code>false</code>.</p>
+     *
+     * @return <code>true</code> if {@link #deleteRecursively()} deletes a tree using bulk requests
+     */
+    public boolean canDeleteInBulk() {
+        return false;
+    }
+
 
     /**
      * Returns <code>true</code> if the specified file operation and corresponding method is supported by this
@@ -655,7 +750,21 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * @see FileOperation
      */
     public boolean isFileOperationSupported(FileOperation op) {
-        return isFileOperationSupported(op, getClass());
+        return getCapabilities().isSupported(op);
+    }
+
+    /**
+     * Returns the capabilities of this file: the file operations it supports and the performance hints of its
+     * implementation, which callers may use to size buffers, bound concurrency or choose between random and
+     * sequential access.
+     *
+     * <p>This implementation returns the capabilities of this file's class, as computed by
+     * {@link FileCapabilities#get(Class)}.</p>
+     *
+     * @return the capabilities of this file
+     */
+    public FileCapabilities getCapabilities() {
+        return FileCapabilities.get(getClass());
     }
 
 
@@ -747,10 +856,7 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * @throws IOException if the child file could not be instantiated
      */
     public final AbstractFile getChild(String relativePath) throws IOException {
-        FileURL childURL = (FileURL)getURL().clone();
-        childURL.setPath(addTrailingSeparator(childURL.getPath())+ relativePath);
-
-        return FileFactory.getFile(childURL, true);
+        return FileFactory.getFile(getURL().getChild(relativePath), true);
     }
 
     /**
@@ -1056,6 +1162,50 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
         }
     }
 
+    /**
+     * Returns checksums of this file for each of the given algorithms, calculated by reading this file's contents
+     * once. See {@link #calculateChecksums(MessageDigest[])} for more information.
+     *
+     * @param algorithms the algorithms to use for calculating the checksums
+     * @return this file's checksums, as hexadecimal strings, in the same order as the algorithms
+     * @throws IOException if an I/O error occurred while calculating the checksums
+     * @throws NoSuchAlgorithmException if one of the specified algorithms does not correspond to any MessageDigest
+     * registered with the Java Cryptography Extension.
+     * @throws UnsupportedFileOperationException if this method relies on a file operation that is not supported
+     * or not implemented by the underlying filesystem.
+     */
+    public final String[] calculateChecksums(String... algorithms) throws IOException, NoSuchAlgorithmException, UnsupportedFileOperationException {
+        MessageDigest messageDigests[] = new MessageDigest[algorithms.length];
+        for(int i=0; i<algorithms.length; i++)
+            messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
+
+        return calculateChecksums(messageDigests);
+    }
+
+    /**
+     * Returns checksums of this file calculated by reading this file's contents once and feeding the bytes to each
+     * of the given <code>MessageDigest</code>, until EOF is reached. Reading the file and updating the digests are
+     * performed concurrently, see {@link ChecksumCalculator#calculateChecksums(InputStream, MessageDigest[])}.
+     *
+     * <p>Note: the digests are reset once the checksums have been calculated.</p>
+     *
+     * @param messageDigests the MessageDigests to use for calculating the checksums
+     * @return this file's checksums, as hexadecimal strings, in the same order as the digests
+     * @throws IOException if an I/O error occurred while calculating the checksums
+     * @throws UnsupportedFileOperationException if this method relies on a file operation that is not supported
+     * or not implemented by the underlying filesystem.
+     */
+    public final String[] calculateChecksums(MessageDigest... messageDigests) throws IOException, UnsupportedFileOperationException {
+        InputStream in = getInputStream();
+
+        try {
+            return ChecksumCalculator.calculateChecksums(in, messageDigests);
+        }
+        finally {
+            in.close();
+        }
+    }
+
 
     /**
      * Tests if the given path contains a trailing separator, and if not, adds one to the returned path.
@@ -1188,17 +1338,36 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
     /**
      * Copies the source file to the destination one and recurses on directory contents.
      * This method assumes that the destination file does not exists, this must be checked prior to calling this method.
-     * Symbolic links are skipped when encountered: neither the link nor the linked file are copied.
+     * Symbolic links are skipped when encountered: neither the link nor the linked file are copied. Directories that
+     * resolve to one of the directories being copied (e.g. through bind mounts or junctions) are skipped as well.
      *
      * @param sourceFile the file to copy
      * @param destFile the destination file
      * @throws FileTransferException if an error occurred while copying the file
      */
     protected final void copyRecursively(AbstractFile sourceFile, AbstractFile destFile) throws FileTransferException {
+        copyRecursively(sourceFile, destFile, new HashSet<Object>());
+    }
+
+    /**
+     * Implementation of {@link #copyRecursively(AbstractFile, AbstractFile)}.
+     *
+     * @param sourceFile the file to copy
+     * @param destFile the destination file
+     * @param ancestors {@link #getFileKey() keys} of the directories being copied, from the root of the copy to
+     * the parent of the source file
+     * @throws FileTransferException if an error occurred while copying the file
+     */
+    private void copyRecursively(AbstractFile sourceFile, AbstractFile destFile, Set<Object> ancestors) throws FileTransferException {
         if(sourceFile.isSymlink())
             return;
 
         if(sourceFile.isDirectory()) {
+            // Skip directories that loop back to one of their ancestors
+            Object key = sourceFile.getFileKey();
+            if(!ancestors.add(key))
+                return;
+
             try {
                 destFile.mkdir();
             }
@@ -1223,8 +1392,10 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
                     throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
                 }
 
-                copyRecursively(child, destChild);
+                copyRecursively(child, destChild, ancestors);
             }
+
+            ancestors.remove(key);
         }
         else {
             InputStream in;
@@ -1254,6 +1425,8 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
     /**
      * Deletes the given file. If the file is a directory, enclosing files are deleted recursively.
      * Symbolic links to directories are simply deleted, without deleting the contents of the linked directory.
+     * The contents of directories that resolve to one of the directories being deleted (e.g. through bind mounts or
+     * junctions) are not deleted, which causes the deletion of those directories to fail.
      *
      * @param file the file to delete
      * @throws IOException if an error occurred while deleting a file or listing a directory's contents
@@ -1261,10 +1434,30 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * or not implemented by the underlying filesystem.
      */
     protected final void deleteRecursively(AbstractFile file) throws IOException, UnsupportedFileOperationException {
+        deleteRecursively(file, new HashSet<Object>());
+    }
+
+    /**
+     * Implementation of {@link #deleteRecursively(AbstractFile)}.
+     *
+     * @param file the file to delete
+     * @param ancestors {@link #getFileKey() keys} of the directories being deleted, from the root of the deletion to
+     * the parent of the file
+     * @throws IOException if an error occurred while deleting a file or listing a directory's contents
+     * @throws UnsupportedFileOperationException if this method relies on a file operation that is not supported
+     * or not implemented by the underlying filesystem.
+     */
+    private void deleteRecursively(AbstractFile file, Set<Object> ancestors) throws IOException, UnsupportedFileOperationException {
         if(file.isDirectory() && !file.isSymlink()) {
-            AbstractFile children[] = file.ls();
-            for (AbstractFile child : children)
-                deleteRecursively(child);
+            // Do not descend into directories that loop back to one of their ancestors
+            Object key = file.getFileKey();
+            if(ancestors.add(key)) {
+                AbstractFile children[] = file.ls();
+                for (AbstractFile child : children)
+                    deleteRecursively(child, ancestors);
+
+                ancestors.remove(key);
+            }
         }
 
         file.delete();
@@ -1336,7 +1529,7 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
      * @see FileOperation
      */
     public static boolean isFileOperationSupported(FileOperation op, Class<? extends AbstractFile> c) {
-        return !op.getCorrespondingMethod(c).isAnnotationPresent(UnsupportedFileOperation.class);
+        return FileCapabilities.get(c).isSupported(op);
     }
 
     /**
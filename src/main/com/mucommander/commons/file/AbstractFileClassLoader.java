@@ -19,25 +19,54 @@
 
 package com.mucommander.commons.file;
 
+import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * <code>ClassLoader</code> implementation capable of loading classes from instances of {@link AbstractFile}.
  * <p>
  * It's possible to modify this loader's classpath at runtime through the {@link #addFile(AbstractFile)} method.
  * </p>
+ * <p>
+ * The contents of each classpath element are indexed the first time a resource is looked up, by walking its tree
+ * (the entries tree for archives), so that subsequent lookups do not access the files anymore. Resources added to a
+ * classpath element after it was indexed will not be found. The names of resources that couldn't be found are
+ * remembered until a file is added to the classpath.
+ * </p>
+ * <p>
+ * This class loader is parallel capable.
+ * </p>
  * @author Nicolas Rinaudo
  */
 public class AbstractFileClassLoader extends ClassLoader {
+    // - Class fields ----------------------------------------------------------
+    // -------------------------------------------------------------------------
+    static {
+        registerAsParallelCapable();
+    }
+
+
+
     // - Instance fields -------------------------------------------------------
     // -------------------------------------------------------------------------
     /** All abstract files in which to look for classes and resources. */
     private Vector<AbstractFile> files;
+    /** Index of each file in {@link #files}, in the same order. */
+    private List<ResourceIndex> indexes;
+    /** Names of the resources that couldn't be found in the classpath, replaced whenever a file is added. */
+    private volatile Set<String> missingResources;
 
 
 
@@ -49,7 +78,17 @@ public class AbstractFileClassLoader extends ClassLoader {
      */
     public AbstractFileClassLoader(ClassLoader parent) {
         super(parent);
-        files = new Vector<AbstractFile>();
+        files            = new Vector<AbstractFile>();
+        indexes          = new CopyOnWriteArrayList<ResourceIndex>();
+        missingResources = createResourceSet();
+    }
+
+    /**
+     * Returns a new, empty set of resource names that can be accessed concurrently.
+     * @return a new, empty set of resource names that can be accessed concurrently.
+     */
+    private static Set<String> createResourceSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     }
 
     /**
@@ -69,14 +108,19 @@ public class AbstractFileClassLoader extends ClassLoader {
      * @param  file                     file to add the class loader's classpath.
      * @throws IllegalArgumentException if <code>file</code> is not browsable.
      */
-    public void addFile(AbstractFile file) {
+    public synchronized void addFile(AbstractFile file) {
         // Makes sure the specified file is browsable.
         if(!file.isBrowsable())
             throw new IllegalArgumentException();
 
         // Only adds the file if it's not already there.
-        if(!contains(file))
+        if(!contains(file)) {
             files.add(file);
+            indexes.add(new ResourceIndex(file));
+
+            // Resources that were missing may be found in the new file.
+            missingResources = createResourceSet();
+        }
     }
 
     /**
@@ -102,22 +146,28 @@ public class AbstractFileClassLoader extends ClassLoader {
      * @return      an {@link AbstractFile} instance describing the requested resource if found, <code>null</code> otherwise.
      */
     private AbstractFile findResourceAsFile(String name) {
-        Iterator<AbstractFile> iterator; // Iterator on all classpath elements.
+        Set<String>  missing;  // Missing resources, as of the beginning of the lookup.
+        boolean      complete; // Whether all classpath elements could be fully indexed.
         AbstractFile file;     // Current file.
 
-        iterator = files.iterator();
-        while(iterator.hasNext()) {
-            try {
-                // If the requested resource could be found, returns it.
-                if((file = iterator.next().getChild(name)).exists())
-                    return file;
-            }
-            // Treats error as a simple 'resource not found' case and keeps looking for
-            // one with the correct name that will load.
-            catch(IOException e) {}
+        // Skips the lookup if the resource is known to be missing.
+        missing = missingResources;
+        if(missing.contains(name))
+            return null;
+
+        complete = true;
+        for(ResourceIndex index : indexes) {
+            // If the requested resource could be found, returns it.
+            if((file = index.getResource(name)) != null)
+                return file;
+
+            complete &= index.isComplete();
         }
 
-        // The requested resource wasn't found.
+        // The requested resource wasn't found, remembers it unless some of the classpath had to be probed.
+        if(complete)
+            missing.add(name);
+
         return null;
     }
 
@@ -171,18 +221,20 @@ public class AbstractFileClassLoader extends ClassLoader {
      */
     @Override
     protected Enumeration<URL> findResources(String name) {
-        Iterator<AbstractFile> iterator;   // Iterator on all available JAR files.
-        AbstractFile           file;       // AbstractFile describing each match.
-        Vector<URL>            resources;  // All resources that match 'name'.
+        AbstractFile file;       // AbstractFile describing each match.
+        Vector<URL>  resources;  // All resources that match 'name'.
 
         // Initialisation.
-        iterator  = files.iterator();
         resources = new Vector<URL>();
 
+        // Skips the lookup if the resource is known to be missing.
+        if(missingResources.contains(name))
+            return resources.elements();
+
         // Goes through all files in the classpath to find the resource.
-        while(iterator.hasNext()) {
+        for(ResourceIndex index : indexes) {
             try {
-                if((file = iterator.next().getChild(name)).exists())
+                if((file = index.getResource(name)) != null)
                     resources.add(file.getJavaNetURL());
             }
             catch(IOException e) {}
@@ -262,4 +314,154 @@ public class AbstractFileClassLoader extends ClassLoader {
         }
         throw new ClassNotFoundException(name);
     }
+
+
+
+    // - Resource index --------------------------------------------------------
+    // -------------------------------------------------------------------------
+    /**
+     * Maps the names of the resources contained by a classpath element to the files that describe them.
+     * <p>
+     * The index is built the first time it is accessed. Archives are indexed from their entries tree, and the files
+     * describing their entries are only created when looked up. Other classpath elements are walked recursively.
+     * If the classpath element cannot be listed, or if it contains symbolic links to folders (which are not followed,
+     * to avoid cycles), resources that are not in the index are looked up in the classpath element itself.
+     * </p>
+     */
+    private static class ResourceIndex {
+        /** Classpath element described by this index. */
+        private final AbstractFile root;
+        /**
+         * Resources contained by the classpath element, <code>null</code> until the index is built. Values are
+         * entries tree nodes if the classpath element is an archive, files otherwise.
+         */
+        private Map<String, Object> resources;
+        /** Whether {@link #resources} describes all the resources contained by the classpath element. */
+        private volatile boolean complete;
+
+        /**
+         * Creates a new index for the specified classpath element.
+         * @param root classpath element to index.
+         */
+        ResourceIndex(AbstractFile root) {
+            this.root = root;
+        }
+
+        /**
+         * Returns the resources contained by the classpath element, building the index first if necessary.
+         * @return the resources contained by the classpath element.
+         */
+        private synchronized Map<String, Object> getResources() {
+            if(resources == null) {
+                Map<String, Object> map; // Resources found thus far.
+
+                map      = new HashMap<String, Object>();
+                complete = true;
+                try {
+                    if(root instanceof AbstractArchiveFile) {
+                        AbstractArchiveFile archive = (AbstractArchiveFile)root;
+
+                        archive.checkEntriesTree();
+                        addEntries(archive, archive.entryTreeRoot, "", map);
+                    }
+                    else
+                        addResources(root, "", map);
+                }
+                catch(IOException e) {complete = false;}
+
+                resources = map;
+            }
+            return resources;
+        }
+
+        /**
+         * Adds the contents of the specified folder to the index, recursing into its subfolders.
+         * @param  folder      folder whose contents to add.
+         * @param  prefix      name of the folder within the classpath element, followed by a <code>/</code>, or an
+         *                     empty string for the classpath element itself.
+         * @param  map         map in which to add resources.
+         * @throws IOException if the folder couldn't be listed.
+         */
+        private void addResources(AbstractFile folder, String prefix, Map<String, Object> map) throws IOException {
+            String name; // Name of the current resource.
+
+            for(AbstractFile child : folder.ls()) {
+                name = prefix + child.getName();
+                map.put(name, child);
+
+                if(child.isDirectory()) {
+                    if(child.isSymlink())
+                        complete = false;
+                    else
+                        addResources(child, name + '/', map);
+                }
+            }
+        }
+
+        /**
+         * Adds the children of the specified entries tree node to the index, recursing into directory entries.
+         * @param  archive     archive whose entries to add.
+         * @param  node        node whose children to add, either the root of the entries tree or a directory entry's node.
+         * @param  prefix      name of the directory within the archive, followed by a <code>/</code>, or an empty string
+         *                     for the archive itself.
+         * @param  map         map in which to add resources.
+         * @throws IOException if the directory's entries couldn't be read.
+         */
+        private void addEntries(AbstractArchiveFile archive, DefaultMutableTreeNode node, String prefix, Map<String, Object> map) throws IOException {
+            DefaultMutableTreeNode child; // Node of the current entry.
+            String                 name;  // Name of the current resource.
+
+            // Archives that populate their entries tree lazily only read the directory at this point.
+            archive.loadEntryNode(node);
+
+            for(int i = 0; i < node.getChildCount(); i++) {
+                child = (DefaultMutableTreeNode)node.getChildAt(i);
+                name  = prefix + ((ArchiveEntry)child.getUserObject()).getName();
+                map.put(name, child);
+
+                if(((ArchiveEntry)child.getUserObject()).isDirectory())
+                    addEntries(archive, child, name + '/', map);
+            }
+        }
+
+        /**
+         * Returns <code>true</code> if lookups in this index do not need to access the classpath element.
+         * @return <code>true</code> if lookups in this index do not need to access the classpath element.
+         */
+        boolean isComplete() {
+            getResources();
+            return complete;
+        }
+
+        /**
+         * Returns the file describing the requested resource, <code>null</code> if the classpath element doesn't contain it.
+         * @param  name name of the resource to look for.
+         * @return      the file describing the requested resource, <code>null</code> if not found.
+         */
+        AbstractFile getResource(String name) {
+            Object       resource; // Index entry of the resource.
+            AbstractFile file;     // File describing the resource.
+
+            // Names of folders may end with a separator.
+            if((resource = getResources().get(name.endsWith("/") ? name.substring(0, name.length() - 1) : name)) != null) {
+                if(resource instanceof AbstractFile)
+                    return (AbstractFile)resource;
+
+                try {return ((AbstractArchiveFile)root).getArchiveEntryFile((DefaultMutableTreeNode)resource);}
+                // Treats error as a simple 'resource not found' case.
+                catch(IOException e) {return null;}
+            }
+
+            // Looks for the resource in the classpath element itself if it couldn't be fully indexed.
+            if(!complete) {
+                try {
+                    if((file = root.getChild(name)).exists())
+                        return file;
+                }
+                // Treats error as a simple 'resource not found' case.
+                catch(IOException e) {}
+            }
+            return null;
+        }
+    }
 }
@@ -33,10 +33,18 @@ import java.io.OutputStream;
  * required). In that case, {@link #isWritable ()} should be overridden to return <code>true</code> only when
  * write operations are available.
  *
+ * <p>Modifications can be grouped in a batch by calling {@link #beginBatch()} before and {@link #commitBatch()} after
+ * them. Implementations may take advantage of batches to defer the costly parts of a modification, such as rewriting
+ * the archive's index, until the batch is committed. Batches can be nested, only the outermost one is actually
+ * committed.</p>
+ *
  * @author Maxence Bernard
  */
 public abstract class AbstractRWArchiveFile extends AbstractArchiveFile {
 
+    /** Number of batches that have begun and not been committed yet */
+    private int batchDepth;
+
     /**
      * Creates an AbstractRWArchiveFile on top of the given file.
      *
@@ -47,6 +55,70 @@ public abstract class AbstractRWArchiveFile extends AbstractArchiveFile {
     }
 
 
+    /**
+     * Begins a batch of modifications. All entries added, deleted or updated until {@link #commitBatch()} is called
+     * may not be written to the archive in their final form until the batch is committed.
+     * <p>
+     * Each call to this method must be matched by a call to {@link #commitBatch()}, even if one of the modifications
+     * failed, typically in a <code>finally</code> block. If a batch is already in progress, the new batch is nested in
+     * it and will be committed along with it.
+     * </p>
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedFileOperationException if {@link FileOperation#WRITE_FILE} operations are not supported by
+     * the underlying file protocol.
+     */
+    public synchronized void beginBatch() throws IOException, UnsupportedFileOperationException {
+        if(batchDepth==0)
+            startBatch();
+
+        batchDepth++;
+    }
+
+    /**
+     * Commits the batch of modifications begun by the matching call to {@link #beginBatch()}. If the batch is the
+     * outermost one, all pending modifications are written to the archive.
+     *
+     * @throws IOException if an I/O error occurs, or if no batch is in progress
+     */
+    public synchronized void commitBatch() throws IOException {
+        if(batchDepth==0)
+            throw new IOException("No batch in progress");
+
+        if(--batchDepth==0)
+            finishBatch();
+    }
+
+    /**
+     * Returns <code>true</code> if a batch of modifications is currently in progress.
+     *
+     * @return <code>true</code> if a batch of modifications is currently in progress
+     */
+    public synchronized boolean isInBatch() {
+        return batchDepth>0;
+    }
+
+    /**
+     * Called by {@link #beginBatch()} when the outermost batch begins. This implementation is a no-op, it should be
+     * overridden by implementations that can take advantage of batches.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedFileOperationException if {@link FileOperation#WRITE_FILE} operations are not supported by
+     * the underlying file protocol.
+     */
+    protected void startBatch() throws IOException, UnsupportedFileOperationException {
+    }
+
+    /**
+     * Called by {@link #commitBatch()} when the outermost batch is committed, to write all pending modifications.
+     * This implementation is a no-op, it should be overridden by implementations that can take advantage of batches.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    protected void finishBatch() throws IOException {
+    }
+
+
     ////////////////////////////////////////
     // AbstractArchiveFile implementation //
     ////////////////////////////////////////
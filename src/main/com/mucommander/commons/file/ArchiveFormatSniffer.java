@@ -0,0 +1,185 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * <code>ArchiveFormatSniffer</code> identifies the archive format of a file by looking for the signatures declared
+ * by {@link SniffableArchiveFormatProvider} implementations at the beginning of the file.
+ *
+ * <p>The beginning of the file is read at most once, in a single sequential read that covers all the signatures.
+ * Since this involves I/O, results are cached in a LRU cache of {@link #CACHE_CAPACITY} entries, keyed by file URL
+ * and invalidated when the file's date or size changes. Instances are rebuilt by {@link FileFactory} whenever an
+ * archive format is registered or unregistered.</p>
+ */
+class ArchiveFormatSniffer {
+
+    /** Maximum number of sniffing results to cache */
+    final static int CACHE_CAPACITY = 1000;
+
+    /** Providers that can be sniffed, in registration order */
+    private final SniffableArchiveFormatProvider[] providers;
+
+    /** Number of bytes to read from the beginning of a file to test all signatures */
+    private final int headerLength;
+
+    /** Sniffing results, in access order */
+    private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+
+    /**
+     * Creates a new <code>ArchiveFormatSniffer</code> using the signatures of the given providers that implement
+     * {@link SniffableArchiveFormatProvider}, in the specified order of precedence.
+     *
+     * @param providers the registered providers, in registration order
+     */
+    ArchiveFormatSniffer(ArchiveFormatProvider[] providers) {
+        Vector<SniffableArchiveFormatProvider> sniffable = new Vector<SniffableArchiveFormatProvider>();
+        int headerLength = 0;
+
+        for(ArchiveFormatProvider provider: providers) {
+            if(provider instanceof SniffableArchiveFormatProvider) {
+                SniffableArchiveFormatProvider sniffableProvider = (SniffableArchiveFormatProvider)provider;
+                sniffable.add(sniffableProvider);
+
+                for(byte[] signature: sniffableProvider.getSignatures())
+                    headerLength = Math.max(headerLength, sniffableProvider.getSignatureOffset()+signature.length);
+            }
+        }
+
+        this.providers = sniffable.toArray(new SniffableArchiveFormatProvider[sniffable.size()]);
+        this.headerLength = headerLength;
+    }
+
+    /**
+     * Returns the first registered provider which signature matches the contents of the given file, <code>null</code>
+     * if there is none or if the file is not a regular file.
+     *
+     * @param file the file to sniff
+     * @return the first registered provider which signature matches the contents of the given file
+     * @throws IOException if an error occurred while reading the file
+     */
+    ArchiveFormatProvider getProvider(AbstractFile file) throws IOException {
+        if(providers.length==0 || file.isDirectory() || !file.exists())
+            return null;
+
+        String key = file.getURL().toString(false);
+        long date = file.getDate();
+        long size = file.getSize();
+
+        CacheEntry entry;
+        synchronized(cache) {
+            entry = cache.get(key);
+        }
+
+        if(entry!=null && entry.date==date && entry.size==size)
+            return entry.provider;
+
+        ArchiveFormatProvider provider = sniff(file, size);
+
+        synchronized(cache) {
+            cache.put(key, new CacheEntry(date, size, provider));
+        }
+
+        return provider;
+    }
+
+    /**
+     * Reads the beginning of the file and matches it against the signatures of the sniffable providers.
+     *
+     * @param file the file to sniff
+     * @param size the size of the file, -1 if unknown
+     * @return the first provider which signature matches, <code>null</code> if there is none
+     * @throws IOException if an error occurred while reading the file
+     */
+    private ArchiveFormatProvider sniff(AbstractFile file, long size) throws IOException {
+        byte[] header = new byte[size<0 ? headerLength : (int)Math.min(size, headerLength)];
+        int len;
+
+        InputStream in = file.getInputStream();
+        try {
+            int nbRead;
+            len = 0;
+            while(len<header.length && (nbRead=in.read(header, len, header.length-len))!=-1)
+                len += nbRead;
+        }
+        finally {
+            in.close();
+        }
+
+        for(SniffableArchiveFormatProvider provider: providers) {
+            int offset = provider.getSignatureOffset();
+            for(byte[] signature: provider.getSignatures()) {
+                if(matches(header, len, offset, signature))
+                    return provider;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if the given signature is found in the header at the specified offset.
+     *
+     * @param header the beginning of the file
+     * @param len number of valid bytes in the header
+     * @param offset offset of the signature
+     * @param signature the signature to look for
+     * @return <code>true</code> if the given signature is found in the header at the specified offset
+     */
+    private static boolean matches(byte[] header, int len, int offset, byte[] signature) {
+        if(offset+signature.length>len)
+            return false;
+
+        for(int i=0; i<signature.length; i++) {
+            if(header[offset+i]!=signature[i])
+                return false;
+        }
+
+        return true;
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * A sniffing result, along with the date and size of the file at the time it was sniffed.
+     */
+    private static class CacheEntry {
+        private final long date;
+        private final long size;
+        private final ArchiveFormatProvider provider;
+
+        private CacheEntry(long date, long size, ArchiveFormatProvider provider) {
+            this.date = date;
+            this.size = size;
+            this.provider = provider;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
+import com.mucommander.commons.file.filter.FilenameFilter;
+
+import java.util.Vector;
+
+/**
+ * <code>ArchiveFormatTrie</code> matches filenames against the extensions of registered {@link ArchiveFormatProvider}
+ * instances in a single pass, in time proportional to the length of the matched suffix and independent of the number
+ * of registered formats.
+ *
+ * <p>The extensions of the providers whose filename filter is a case-insensitive {@link ExtensionFilenameFilter} are
+ * compiled into a trie of reversed, lower-cased extensions. Filenames are then walked backwards from their last
+ * character, stopping as soon as no extension can match. Providers that use another kind of filter are tested the
+ * usual way, with {@link FilenameFilter#accept(String)}.</p>
+ *
+ * <p>As with a sequential scan of the providers, the first registered provider that matches a filename wins.
+ * Instances are immutable and are rebuilt by {@link FileFactory} whenever an archive format is registered or
+ * unregistered.</p>
+ */
+class ArchiveFormatTrie {
+
+    /** Root of the trie, matches the empty suffix */
+    private final Node root = new Node();
+
+    /** Providers whose filter could not be compiled into the trie, in registration order */
+    private final ArchiveFormatProvider[] uncompiledProviders;
+
+    /** Registration index of each of the uncompiled providers */
+    private final int[] uncompiledIndexes;
+
+    /**
+     * Creates a new <code>ArchiveFormatTrie</code> matching the given providers, in the specified order of precedence.
+     *
+     * @param providers the providers to match filenames against, in registration order
+     */
+    ArchiveFormatTrie(ArchiveFormatProvider[] providers) {
+        Vector<Integer> uncompiled = new Vector<Integer>();
+
+        for(int i=0; i<providers.length; i++) {
+            FilenameFilter filter = providers[i].getFilenameFilter();
+
+            // Subclasses may override accept(), only compile plain extension filters
+            if(filter!=null && filter.getClass()==ExtensionFilenameFilter.class
+                    && !((ExtensionFilenameFilter)filter).isCaseSensitive()) {
+                for(String extension: ((ExtensionFilenameFilter)filter).getExtensions())
+                    add(extension, providers[i], i);
+            }
+            else {
+                uncompiled.add(i);
+            }
+        }
+
+        uncompiledProviders = new ArchiveFormatProvider[uncompiled.size()];
+        uncompiledIndexes = new int[uncompiled.size()];
+        for(int i=0; i<uncompiledProviders.length; i++) {
+            uncompiledIndexes[i] = uncompiled.get(i);
+            uncompiledProviders[i] = providers[uncompiledIndexes[i]];
+        }
+    }
+
+    /**
+     * Adds the given extension to the trie. If the extension is already associated with a provider that was
+     * registered before the given one, the existing association is preserved.
+     *
+     * @param extension the extension to add
+     * @param provider the provider to associate with the extension
+     * @param index the provider's registration index
+     */
+    private void add(String extension, ArchiveFormatProvider provider, int index) {
+        Node node = root;
+        for(int i=extension.length()-1; i>=0; i--)
+            node = node.getOrCreateChild(Character.toLowerCase(extension.charAt(i)));
+
+        if(node.provider==null || index<node.providerIndex) {
+            node.provider = provider;
+            node.providerIndex = index;
+        }
+    }
+
+    /**
+     * Returns the first registered provider that matches the given filename, <code>null</code> if there is none.
+     *
+     * @param filename the filename to match
+     * @return the first registered provider that matches the given filename, <code>null</code> if there is none
+     */
+    ArchiveFormatProvider getProvider(String filename) {
+        ArchiveFormatProvider provider = null;
+        int providerIndex = Integer.MAX_VALUE;
+
+        Node node = root;
+        for(int i=filename.length()-1; i>=0; i--) {
+            node = node.getChild(Character.toLowerCase(filename.charAt(i)));
+            if(node==null)
+                break;
+
+            if(node.provider!=null && node.providerIndex<providerIndex) {
+                provider = node.provider;
+                providerIndex = node.providerIndex;
+            }
+        }
+
+        // Only the uncompiled providers registered before the matching one (if any) may take precedence over it
+        for(int i=0; i<uncompiledProviders.length && uncompiledIndexes[i]<providerIndex; i++) {
+            if(uncompiledProviders[i].getFilenameFilter().accept(filename))
+                return uncompiledProviders[i];
+        }
+
+        return provider;
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * A node of the trie. Children are kept in a small array that is scanned sequentially: archive extensions share
+     * few characters at any given depth, which makes this faster and more compact than a hash map.
+     */
+    private static class Node {
+
+        /** Characters leading to the children of this node */
+        private char[] chars = new char[0];
+
+        /** Children of this node, one per character */
+        private Node[] children = new Node[0];
+
+        /** Provider whose extension ends at this node, null if none */
+        private ArchiveFormatProvider provider;
+
+        /** Registration index of {@link #provider} */
+        private int providerIndex;
+
+        private Node getChild(char c) {
+            for(int i=0; i<chars.length; i++) {
+                if(chars[i]==c)
+                    return children[i];
+            }
+
+            return null;
+        }
+
+        private Node getOrCreateChild(char c) {
+            Node child = getChild(c);
+            if(child==null) {
+                child = new Node();
+
+                char[] newChars = new char[chars.length+1];
+                System.arraycopy(chars, 0, newChars, 0, chars.length);
+                newChars[chars.length] = c;
+
+                Node[] newChildren = new Node[children.length+1];
+                System.arraycopy(children, 0, newChildren, 0, children.length);
+                newChildren[children.length] = child;
+
+                chars = newChars;
+                children = newChildren;
+            }
+
+            return child;
+        }
+    }
+}
@@ -69,7 +69,8 @@ public class DefaultPathCanonizer implements PathCanonizer {
     public String canonize(String path) {
         // Todo: use PathTokenizer?
 
-        if(!path.equals("/")) {
+        // Most paths are already canonical, return them as they are without tokenizing them
+        if(!isCanonical(path)) {
             int pos;	    // position of current path separator
             int pos2 = 0;	// position of next path separator
             int separatorLen = separator.length();
@@ -123,4 +124,40 @@ public class DefaultPathCanonizer implements PathCanonizer {
 
         return path;
     }
+
+    /**
+     * Returns <code>true</code> if the given path is already canonical, i.e. if {@link #canonize(String)} would
+     * return it unchanged: the path contains no '.', '..' or empty fragment other than its leading and trailing ones,
+     * nor a '~' fragment if tilde replacement is enabled.
+     *
+     * @param path the path to test
+     * @return <code>true</code> if the given path is already canonical
+     */
+    private boolean isCanonical(String path) {
+        int separatorLen = separator.length();
+        int pos = 0;        // position of current path fragment
+        int pos2;           // position of next path separator
+        int len;            // length of current path fragment
+        while(true) {
+            pos2 = path.indexOf(separator, pos);
+            len = (pos2==-1?path.length():pos2) - pos;
+
+            if(len==0) {
+                // Empty fragments are discarded, except for the leading and trailing ones
+                if(pos>0 && pos2!=-1)
+                    return false;
+            }
+            else if(path.charAt(pos)=='.' && (len==1 || (len==2 && path.charAt(pos+1)=='.'))) {
+                return false;
+            }
+            else if(tildeReplacement!=null && len==1 && path.charAt(pos)=='~') {
+                return false;
+            }
+
+            if(pos2==-1)
+                return true;
+
+            pos = pos2 + separatorLen;
+        }
+    }
 }
@@ -125,6 +125,29 @@ public class DefaultSchemeParser implements SchemeParser {
         fileURL.setPath((parser instanceof DefaultSchemeParser?((DefaultSchemeParser)parser).getPathCanonizer():pathCanonizer).canonize(url));
     }
 
+    /**
+     * Parses the port located in the given region of the URL, without extracting it first.
+     *
+     * @param url the URL containing the port
+     * @param start index of the first digit of the port
+     * @param end index after the last digit of the port
+     * @return the parsed port
+     * @throws MalformedURLException if the region does not contain a valid port number
+     */
+    private static int parsePort(String url, int start, int end) throws MalformedURLException {
+        int port = 0;
+        char c;
+        for(int i=start; i<end; i++) {
+            c = url.charAt(i);
+            if(c<'0' || c>'9' || port>(Integer.MAX_VALUE-9)/10)
+                throw new MalformedURLException("URL contains an invalid port");
+
+            port = port*10 + (c-'0');
+        }
+
+        return port;
+    }
+
     /**
      * Returns the {@link PathCanonizer} instance that is used by this {@link DefaultSchemeParser}.
      *
@@ -214,8 +237,8 @@ public class DefaultSchemeParser implements SchemeParser {
 
             // Start URL parsing
 
-            String scheme = url.substring(0, schemeDelimPos);
-            fileURL.setScheme(scheme);
+            // Registered schemes are reused rather than extracted from the URL
+            fileURL.setScheme(FileURL.getScheme(url, schemeDelimPos));
             // Advance string index
             pos = schemeDelimPos+3;
 
@@ -232,21 +255,22 @@ public class DefaultSchemeParser implements SchemeParser {
                 hostEndPos = urlLen;
 
             // The authority part is the one between scheme:// and the path/query. It includes the user information
-            // (login/password), host and port. 
-            String authority = url.substring(pos, hostEndPos);
-            pos = 0;
+            // (login/password), host and port. It is parsed in place, its parts are the only substrings created.
 
             // Parse login and password (if specified).
             // They may contain non-URL safe characters that are decoded here, and re-encoded by FileURL#toString.
-            int atPos = authority.lastIndexOf('@');
+            // Filenames may contain @ chars, so the @ must be located before the path
+            int atPos = hostEndPos>pos?url.lastIndexOf('@', hostEndPos-1):-1;
             int colonPos;
-            // Filenames may contain @ chars, so atPos must be lower than next separator's position (if any)
-            if(atPos!=-1 && (separatorPos==-1 || atPos<separatorPos)) {
-                colonPos = authority.indexOf(':');
-                String login = URLDecoder.decode(authority.substring(0, colonPos==-1?atPos:colonPos), "UTF-8");
+            if(atPos>=pos) {
+                colonPos = url.indexOf(':', pos);
+                if(colonPos>atPos)
+                    colonPos = -1;
+
+                String login = URLDecoder.decode(url.substring(pos, colonPos==-1?atPos:colonPos), "UTF-8");
                 String password;
                 if(colonPos!=-1)
-                    password = URLDecoder.decode(authority.substring(colonPos+1, atPos), "UTF-8");
+                    password = URLDecoder.decode(url.substring(colonPos+1, atPos), "UTF-8");
                 else
                     password = null;
 
@@ -258,43 +282,27 @@ public class DefaultSchemeParser implements SchemeParser {
             }
 
             // Parse host and port (if specified)
-            colonPos = authority.indexOf(':', pos);
-
-            String host;
-            if(colonPos!=-1) {
-                host = authority.substring(pos, colonPos);
-                String portString = authority.substring(colonPos+1);
-                if(!portString.equals("")) {        // Tolerate an empty port part (e.g. http://mucommander.com:/)
-                    try {
-                        fileURL.setPort(Integer.parseInt(portString));
-                    }
-                    catch(NumberFormatException e) {
-                        throw new MalformedURLException("URL contains an invalid port");
-                    }
-                }
-            }
-            else {
-                host = authority.substring(pos);
-            }
+            colonPos = url.indexOf(':', pos);
+            if(colonPos>=hostEndPos)
+                colonPos = -1;
 
-            if(host.equals(""))
-                host = null;
+            int hostEnd = colonPos==-1?hostEndPos:colonPos;
+            fileURL.setHost(hostEnd>pos?url.substring(pos, hostEnd):null);
 
-            fileURL.setHost(host);
+            // Tolerate an empty port part (e.g. http://mucommander.com:/)
+            if(colonPos!=-1 && colonPos+1<hostEndPos)
+                fileURL.setPort(parsePort(url, colonPos+1, hostEndPos));
 
             // Parse path part excluding query part
             pos = hostEndPos;
-            String path = url.substring(pos, questionMarkPos==-1?urlLen:questionMarkPos);
+            int pathEndPos = questionMarkPos==-1?urlLen:questionMarkPos;
 
             // Empty path means '/'
-            if(path.equals(""))
-                path = "/";
+            String path = pathEndPos==pos?"/":url.substring(pos, pathEndPos);
 
             // Canonize path: factor out '.' and '..' and replace '~' by the replacement string (if any)
             fileURL.setPath(pathCanonizer.canonize(path));
 
-            LOGGER.info("Warning: path should not be empty, url={}", url);
-
             // Parse query part (if any)
             if(questionMarkPos!=-1)
                 fileURL.setQuery(url.substring(questionMarkPos+1));     // Do not include the question mark
@@ -0,0 +1,202 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.impl.ProxyFile;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * <code>FileCapabilities</code> describes what an {@link AbstractFile} implementation can do and how it performs:
+ * the set of {@link FileOperation file operations} it supports, and the {@link PerformanceHints performance hints}
+ * declared by the implementation.
+ *
+ * <p>The capabilities of a class are computed once, the first time they are requested, by looking up the
+ * {@link UnsupportedFileOperation} annotation on the method corresponding to each operation, and are cached for
+ * the lifetime of the class. Checking whether an operation is supported thus costs a set lookup rather than a
+ * reflective method lookup, which matters since it is done for every file in many code paths.</p>
+ *
+ * <p>The capabilities of a {@link ProxyFile} depend on the file it proxies: see {@link ProxyFile#getCapabilities()}.
+ * </p>
+ * @see AbstractFile#getCapabilities()
+ */
+public class FileCapabilities {
+
+    /** Default value of {@link #getMaxConcurrency()}: the number of connections kept open for a realm */
+    public final static int DEFAULT_MAX_CONCURRENCY = 4;
+
+    /** Capabilities of each AbstractFile class, computed the first time they are requested */
+    private final static ClassValue<FileCapabilities> CLASS_CAPABILITIES = new ClassValue<FileCapabilities>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected FileCapabilities computeValue(Class<?> type) {
+            return new FileCapabilities((Class<? extends AbstractFile>)type);
+        }
+    };
+
+    /** Operations supported by the class */
+    private final Set<FileOperation> supportedOperations;
+
+    /** Operations whose method is implemented by ProxyFile and delegated to the proxied file */
+    private final Set<FileOperation> delegatedOperations;
+
+    private final int preferredBlockSize;
+    private final boolean rangedReadsCheap;
+    private final int maxConcurrency;
+    private final LatencyClass latency;
+
+
+    private FileCapabilities(Class<? extends AbstractFile> c) {
+        EnumSet<FileOperation> supported = EnumSet.noneOf(FileOperation.class);
+        EnumSet<FileOperation> delegated = EnumSet.noneOf(FileOperation.class);
+        boolean isProxy = ProxyFile.class.isAssignableFrom(c);
+
+        for(FileOperation op : FileOperation.values()) {
+            Method method = op.getCorrespondingMethod(c);
+            if(method==null)
+                continue;
+
+            if(!method.isAnnotationPresent(UnsupportedFileOperation.class))
+                supported.add(op);
+
+            if(isProxy && method.getDeclaringClass().equals(ProxyFile.class))
+                delegated.add(op);
+        }
+
+        this.supportedOperations = Collections.unmodifiableSet(supported);
+        this.delegatedOperations = Collections.unmodifiableSet(delegated);
+
+        PerformanceHints hints = c.getAnnotation(PerformanceHints.class);
+        if(hints==null) {
+            preferredBlockSize = AbstractFile.IO_BUFFER_SIZE;
+            rangedReadsCheap = true;
+            maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+            latency = LatencyClass.LAN;
+        }
+        else {
+            preferredBlockSize = hints.preferredBlockSize();
+            rangedReadsCheap = hints.rangedReadsCheap();
+            maxConcurrency = hints.maxConcurrency();
+            latency = hints.latency();
+        }
+    }
+
+    private FileCapabilities(Set<FileOperation> supportedOperations, FileCapabilities hints) {
+        this.supportedOperations = supportedOperations;
+        this.delegatedOperations = Collections.emptySet();
+        this.preferredBlockSize = hints.preferredBlockSize;
+        this.rangedReadsCheap = hints.rangedReadsCheap;
+        this.maxConcurrency = hints.maxConcurrency;
+        this.latency = hints.latency;
+    }
+
+    /**
+     * Returns the capabilities of the given <code>AbstractFile</code> implementation.
+     *
+     * @param c an <code>AbstractFile</code> implementation
+     * @return the capabilities of the given implementation
+     */
+    public static FileCapabilities get(Class<? extends AbstractFile> c) {
+        return CLASS_CAPABILITIES.get(c);
+    }
+
+    /**
+     * Returns the capabilities of a proxy whose class has the given capabilities, and which proxies a file with the
+     * given capabilities: operations that the proxy class does not override are supported if the proxied file
+     * supports them, and the performance hints are those of the proxied file.
+     *
+     * @param proxyCapabilities the capabilities of the proxy's class
+     * @param proxiedCapabilities the capabilities of the proxied file
+     * @return the capabilities of the proxy
+     */
+    public static FileCapabilities getProxyCapabilities(FileCapabilities proxyCapabilities, FileCapabilities proxiedCapabilities) {
+        EnumSet<FileOperation> supported = EnumSet.noneOf(FileOperation.class);
+        for(FileOperation op : FileOperation.values()) {
+            if(proxyCapabilities.delegatedOperations.contains(op)?proxiedCapabilities.isSupported(op):proxyCapabilities.isSupported(op))
+                supported.add(op);
+        }
+
+        return new FileCapabilities(Collections.unmodifiableSet(supported), proxiedCapabilities);
+    }
+
+    /**
+     * Returns <code>true</code> if the given file operation is supported.
+     *
+     * @param op a file operation
+     * @return <code>true</code> if the given file operation is supported
+     */
+    public boolean isSupported(FileOperation op) {
+        return supportedOperations.contains(op);
+    }
+
+    /**
+     * Returns the set of supported file operations. The returned set cannot be modified.
+     *
+     * @return the set of supported file operations
+     */
+    public Set<FileOperation> getSupportedOperations() {
+        return supportedOperations;
+    }
+
+    /**
+     * Returns the size of the blocks in which data is best read and written.
+     *
+     * @return the size of the blocks in which data is best read and written
+     * @see PerformanceHints#preferredBlockSize()
+     */
+    public int getPreferredBlockSize() {
+        return preferredBlockSize;
+    }
+
+    /**
+     * Returns <code>true</code> if {@link FileOperation#RANDOM_READ_FILE random reads} are supported and reading a
+     * range of the file with them costs little more than reading the same amount of data sequentially.
+     * Callers that need a few small ranges of a file, such as archive readers, should read it sequentially if this
+     * method returns <code>false</code>.
+     *
+     * @return <code>true</code> if random reads are supported and cheap
+     * @see PerformanceHints#rangedReadsCheap()
+     */
+    public boolean areRangedReadsCheap() {
+        return rangedReadsCheap && isSupported(FileOperation.RANDOM_READ_FILE);
+    }
+
+    /**
+     * Returns the maximum number of operations that are worth performing concurrently, <code>Integer.MAX_VALUE</code>
+     * if it is not bounded by the protocol.
+     *
+     * @return the maximum number of operations that are worth performing concurrently
+     * @see PerformanceHints#maxConcurrency()
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the round-trip time to the file's storage.
+     *
+     * @return the round-trip time to the file's storage
+     * @see PerformanceHints#latency()
+     */
+    public LatencyClass getLatency() {
+        return latency;
+    }
+}
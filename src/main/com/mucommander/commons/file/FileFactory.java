@@ -33,10 +33,13 @@ import org.slf4j.LoggerFactory;
 import com.mucommander.commons.file.FileProtocols.CustomLoadableProtocol;
 import com.mucommander.commons.file.icon.FileIconProvider;
 import com.mucommander.commons.file.icon.impl.SwingFileIconProvider;
+import com.mucommander.commons.file.impl.DebugFile;
+import com.mucommander.commons.file.impl.DebugProfile;
 import com.mucommander.commons.file.impl.hadoop.HDFSProtocolProvider;
 import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.file.impl.local.LocalProtocolProvider;
 import com.mucommander.commons.file.impl.qfs.QFSProtocolProvider;
+import com.mucommander.commons.file.metrics.FileMetrics;
 import com.mucommander.commons.file.util.FilePool;
 import com.mucommander.commons.file.util.JarClassLoader;
 import com.mucommander.commons.file.util.PathTokenizer;
@@ -98,12 +101,21 @@ public class FileFactory {
     /** Local file provider to avoid hashtable lookups (faster). */
     private static ProtocolProvider localFileProvider;
 
+    /** Debug profiles installed for protocols, see {@link #installDebugProfile(String, DebugProfile)} */
+    private static Hashtable<String, DebugProfile> debugProfiles = new Hashtable<String, DebugProfile>();
+
     /** Vector of registered ArchiveFormatMapping instances */
     private static Vector<ArchiveFormatProvider> archiveFormatProvidersV = new Vector<ArchiveFormatProvider>();
 
     /** Array of registered FileProtocolMapping instances, for quicker access */
     private static ArchiveFormatProvider[] archiveFormatProviders;
 
+    /** Matches filenames against the extensions of the registered archive formats */
+    private static ArchiveFormatTrie archiveFormatTrie;
+
+    /** Matches file contents against the signatures of the registered archive formats */
+    private static ArchiveFormatSniffer archiveFormatSniffer;
+
     /** Contains a FilePool instance for each registered scheme */
     private static final HashMap<String, FilePool> FILE_POOL_MAP = new HashMap<String, FilePool>();
 
@@ -302,6 +314,61 @@ public class FileFactory {
         return protocolProviders.remove(protocol);
     }
 
+    /**
+     * Installs a debug profile for the specified protocol: files of this protocol that are created by this factory
+     * from now on are wrapped in a {@link DebugFile} that behaves as described by the profile. This allows the
+     * latency, bandwidth and errors of a slow or unreliable filesystem to be simulated, and the calls made to it to
+     * be traced and counted, without modifying the code that uses the files.
+     *
+     * <p>The file pool of the protocol is cleared, so that files created before the profile was installed are not
+     * returned anymore.</p>
+     *
+     * @param  protocol identifier of the protocol to debug.
+     * @param  profile  describes the behavior of the files of this protocol.
+     * @return          the previously installed debug profile if any, <code>null</code> otherwise.
+     */
+    public static DebugProfile installDebugProfile(String protocol, DebugProfile profile) {
+        protocol = protocol.toLowerCase();
+        clearFilePool(protocol);
+
+        return debugProfiles.put(protocol, profile);
+    }
+
+    /**
+     * Uninstalls the debug profile of the specified protocol: files of this protocol that are created by this factory
+     * from now on are not wrapped in a {@link DebugFile} anymore.
+     *
+     * @param  protocol identifier of the protocol to stop debugging.
+     * @return          the debug profile that has been uninstalled, or <code>null</code> if none.
+     */
+    public static DebugProfile uninstallDebugProfile(String protocol) {
+        protocol = protocol.toLowerCase();
+        clearFilePool(protocol);
+
+        return debugProfiles.remove(protocol);
+    }
+
+    /**
+     * Returns the debug profile installed for the specified protocol, or <code>null</code> if there is none.
+     *
+     * @param  protocol identifier of the protocol.
+     * @return          the debug profile installed for the specified protocol, or <code>null</code> if none.
+     */
+    public static DebugProfile getDebugProfile(String protocol) {
+        return debugProfiles.get(protocol.toLowerCase());
+    }
+
+    /**
+     * Clears the file pool of the specified protocol, if it has one.
+     *
+     * @param protocol identifier of the protocol, in lower case.
+     */
+    private static void clearFilePool(String protocol) {
+        FilePool filePool = FILE_POOL_MAP.get(protocol);
+        if(filePool!=null)
+            filePool.clear();
+    }
+
     /**
      * Returns the protocol provider associated with the specified protocol identifer, or <code>null</code> if there
      * is none.
@@ -368,11 +435,15 @@ public class FileFactory {
     }
 
     /**
-     * Updates the <code>ArchiveFormatProvider</code> array to reflect the contents of the Vector.
+     * Updates the <code>ArchiveFormatProvider</code> array to reflect the contents of the Vector, and recompiles the
+     * filename and content matchers.
      */
     private static void updateArchiveFormatProviderArray() {
         archiveFormatProviders = new ArchiveFormatProvider[archiveFormatProvidersV.size()];
         archiveFormatProvidersV.toArray(archiveFormatProviders);
+
+        archiveFormatTrie = new ArchiveFormatTrie(archiveFormatProviders);
+        archiveFormatSniffer = new ArchiveFormatSniffer(archiveFormatProviders);
     }
 
     /**
@@ -380,6 +451,9 @@ public class FileFactory {
      * if there is none. Note that if a filename matches the {@link java.io.FilenameFilter} of several registered
      * providers, the first provider matching the filename will be returned.
      *
+     * <p>The extensions of the registered providers are compiled into a trie, which allows the filename to be matched
+     * in a single pass, regardless of the number of registered formats.</p>
+     *
      * @param filename an archive filename that potentially matches one of the registered <code>ArchiveFormatProvider</code>
      * @return the first <code>ArchiveFormatProvider</code> that matches the specified filename, <code>null</code> if there is none
      */
@@ -387,11 +461,29 @@ public class FileFactory {
         if(filename == null)
             return null;
 
-        for (ArchiveFormatProvider provider : archiveFormatProviders) {
-            if (provider.getFilenameFilter().accept(filename))
-                return provider;
-        }
-        return null;
+        return archiveFormatTrie.getProvider(filename);
+    }
+
+    /**
+     * Returns the first <code>ArchiveFormatProvider</code> that matches the specified file's name, <code>null</code>
+     * if there is none. If the filename doesn't match any provider and <code>sniffContent</code> is <code>true</code>,
+     * the beginning of the file is read and matched against the signatures of the registered
+     * {@link SniffableArchiveFormatProvider} instances, which allows archives without a proper extension to be
+     * identified.
+     *
+     * <p>Sniffing results are cached and reused as long as the file's date and size do not change.</p>
+     *
+     * @param file the file that potentially is an archive
+     * @param sniffContent <code>true</code> to look at the file's contents if its name doesn't match any provider
+     * @return the first <code>ArchiveFormatProvider</code> that matches the specified file, <code>null</code> if there is none
+     * @throws IOException if an error occurred while reading the file's contents
+     */
+    public static ArchiveFormatProvider getArchiveFormatProvider(AbstractFile file, boolean sniffContent) throws IOException {
+        ArchiveFormatProvider provider = getArchiveFormatProvider(file.getName());
+        if(provider==null && sniffContent)
+            provider = archiveFormatSniffer.getProvider(file);
+
+        return provider;
     }
 
     /**
@@ -532,6 +624,7 @@ public class FileFactory {
             // Note: FileURL#equals(Object) and #hashCode() take into account credentials and properties and are
             // trailing slash insensitive (e.g. '/root' and '/root/' URLS are one and the same)
             AbstractFile file = filePool.get(fileURL);
+            FileMetrics.cacheAccess(fileURL.getScheme(), "filePool", file!=null);
             if(file!=null)
                 return file;
         }
@@ -623,6 +716,53 @@ public class FileFactory {
         return currentFile;
     }
 
+    /**
+     * Creates and returns an instance of AbstractFile for a child of the given parent, as found by listing the parent's
+     * contents. This method is meant to be called by {@link AbstractFile#ls()} implementations of protocol files,
+     * and is more efficient than {@link #getFile(FileURL, AbstractFile, Object...)}.
+     *
+     * <p>Since the parent is a protocol file that has been listed, it is known not to be located inside an archive:
+     * unlike {@link #getFile(FileURL, AbstractFile, Object...)}, this method does not tokenize the whole path to look
+     * for archives in it, it only tests whether the child's filename matches an archive format. Like
+     * {@link #getFile(FileURL, AbstractFile, Object...)}, the file pool is looked up for children whose filename matches
+     * an archive format, so that archive files keep their entries tree from one listing to the next. Other children are
+     * created anew, replacing any file instance the pool contains for them.</p>
+     *
+     * @param childURL the URL of the child, which path must be that of the parent, plus the child's filename
+     * @param parent the protocol file that was listed, to use as the created file's parent, can be <code>null</code>
+     * @param instantiationParams file implementation-specific parameters, as passed to
+     * {@link ProtocolProvider#getFile(FileURL, Object...)}
+     * @return an instance of {@link AbstractFile} for the given child URL
+     * @throws java.io.IOException if something went wrong during file creation
+     */
+    public static AbstractFile getChildFile(FileURL childURL, AbstractFile parent, Object... instantiationParams) throws IOException {
+        String protocol = childURL.getScheme();
+        FilePool filePool = FILE_POOL_MAP.get(protocol.toLowerCase());
+        if(filePool==null)
+            throw new IOException("Unsupported file protocol: "+protocol);
+
+        AbstractFile file;
+        if(isArchiveFilename(childURL.getFilename())) {
+            // Reuse the archive file instance of the pool if there is one, as it caches the archive's entries tree
+            file = filePool.get(childURL);
+            FileMetrics.cacheAccess(protocol, "filePool", file!=null);
+            if(file==null) {
+                file = wrapArchive(createRawFile(childURL, defaultAuthenticator, instantiationParams));
+                filePool.put(childURL, file);
+            }
+        }
+        else {
+            file = createRawFile(childURL, defaultAuthenticator, instantiationParams);
+            filePool.put(childURL, file);
+        }
+
+        // Reuse existing parent file instance if one was specified
+        if(parent!=null)
+            file.setParent(parent);
+
+        return file;
+    }
+
     private static AbstractFile createRawFile(FileURL fileURL, Authenticator authenticator, Object... instantiationParams) throws IOException {
         String scheme = fileURL.getScheme().toLowerCase();
 
@@ -632,10 +772,7 @@ public class FileFactory {
             if(localFileProvider == null)
                 throw new IOException("Unknown file protocol: " + scheme);
 
-            return localFileProvider.getFile(fileURL, instantiationParams);
-
-            // Uncomment this line and comment the previous one to simulate a slow filesystem
-            //file = new DebugFile(file, 0, 50);
+            return debug(scheme, localFileProvider.getFile(fileURL, instantiationParams));
         }
         // Use the protocol hashtable for any other file protocol
         else {
@@ -649,10 +786,26 @@ public class FileFactory {
             if(provider == null)
                 throw new IOException("Unknown file protocol: " + scheme);
 
-            return provider.getFile(fileURL, instantiationParams);
+            return debug(scheme, provider.getFile(fileURL, instantiationParams));
         }
     }
 
+    /**
+     * Wraps the given file in a {@link DebugFile} if a debug profile is installed for its protocol, returns it as-is
+     * otherwise.
+     *
+     * @param  scheme the file's protocol, in lower case.
+     * @param  file   the file to wrap.
+     * @return        the given file, wrapped in a <code>DebugFile</code> if its protocol is debugged.
+     */
+    private static AbstractFile debug(String scheme, AbstractFile file) {
+        if(debugProfiles.isEmpty())
+            return file;
+
+        DebugProfile profile = debugProfiles.get(scheme);
+        return profile==null ? file : new DebugFile(file, profile);
+    }
+
     /**
      * Returns a variation of the given filename, appending a pseudo-unique ID to the filename's prefix while keeping
      * the same filename extension.
@@ -755,9 +908,8 @@ public class FileFactory {
         String filename = file.getName();
 
         // Looks for an archive FilenameFilter that matches the given filename.
-        // Comparing the filename against each and every archive extension has a cost, so we only perform the test if
-        // the filename contains a dot '.' character, since most of the time this method is called with a filename that
-        // doesn't match any of the filters.
+        // Matching the filename has a cost, so we only perform the test if the filename contains a dot '.' character,
+        // since most of the time this method is called with a filename that doesn't match any of the filters.
         if(filename.indexOf('.')!=-1) {
             ArchiveFormatProvider provider;
             if((provider = getArchiveFormatProvider(filename)) != null) {
@@ -768,6 +920,29 @@ public class FileFactory {
         return file;
     }
 
+    /**
+     * Same as {@link #wrapArchive(AbstractFile)}, except that if <code>sniffContent</code> is <code>true</code> and
+     * the file's name doesn't match any of the registered archive formats, the file's contents are matched against the
+     * signatures of the registered {@link SniffableArchiveFormatProvider} instances.
+     * Since this involves reading the file, content sniffing should be reserved to files that are about to be opened.
+     *
+     * @param file the file to wrap
+     * @param sniffContent <code>true</code> to look at the file's contents if its name doesn't match any format
+     * @return an {@link AbstractArchiveFile} wrapping the file if it matches an archive format, the file otherwise
+     * @throws IOException if an error occurred while reading the file's contents or creating the archive file
+     * @see #getArchiveFormatProvider(AbstractFile, boolean)
+     */
+    public static AbstractFile wrapArchive(AbstractFile file, boolean sniffContent) throws IOException {
+        if(file instanceof AbstractArchiveFile)
+            return file;
+
+        ArchiveFormatProvider provider = getArchiveFormatProvider(file, sniffContent);
+        if(provider != null)
+            return provider.getFile(file);
+
+        return file;
+    }
+
 
     /**
      * Returns the default {@link com.mucommander.commons.file.icon.FileIconProvider} instance. The default provider class
@@ -24,15 +24,11 @@ import com.mucommander.commons.file.compat.CompatURLStreamHandler;
 import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.file.util.PathUtils;
 import com.mucommander.commons.runtime.OsFamily;
-import com.mucommander.commons.util.StringUtils;
 
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.NoSuchElementException;
 
 /**
  * This class represents a Uniform Resource Locator (URL). The general format of a URL is as follows:
@@ -45,6 +41,9 @@ import java.util.NoSuchElementException;
  * FileURL cannot be instantiated directly, instances can be created using {@link #getFileURL(String)}.
  * Unlike the <code>java.net.URL</code> and <code>java.net.URI</code> classes, FileURL instances are mutable --
  * all URL parts can be freely modified. FileURL instances can also be cloned using the standard {@link #clone()} method.
+ * The parts of a FileURL are held by an {@link ImmutableFileURL}, which is replaced whenever a part is set: clones,
+ * children and parents share the parts they have in common rather than copying them. The immutable value can be
+ * retrieved with {@link #getImmutableURL()} and turned back into a FileURL with {@link #getFileURL(ImmutableFileURL)}.
  * </p>
  *
  * <h3>Handlers and Scheme-specific attributes</h3>
@@ -110,29 +109,8 @@ public class FileURL implements Cloneable {
     // Todo: add support for the fragment part
     // Todo: add percent encoding/decoding
 
-    /** Handler instance that provides the scheme-specific features of this FileURL */
-    private SchemeHandler handler;
-
-    /** Scheme part */
-    private String scheme;
-    /** Port part, -1 if this URL has none */
-    private int port = -1;
-    /** Host part, null if this URL has none */
-    private String host;
-    /** Path part */
-    private String path;
-    /** Filename, extracted from the path, null if the path has none */
-    private String filename;
-    /** Query part, null if this URL has none */
-    private String query;
-
-    /** Properties, null if none have been set thus far */
-    private Hashtable<String, String> properties;
-    /** Credentials (login and password parts), null if this URL has none */
-    private Credentials credentials;
-
-    /** Caches the value returned by #hashCode() for as long as this instance is not modified */
-    private int hashCode;
+    /** Immutable value holding the parts of this URL, replaced whenever a part is set */
+    private ImmutableFileURL url;
 
     /** Default handler for schemes that do not have a specific handler */
     private final static SchemeHandler DEFAULT_HANDLER = new DefaultSchemeHandler();
@@ -140,6 +118,12 @@ public class FileURL implements Cloneable {
     /** Maps schemes (String) onto SchemeHandler instances */
     private final static Hashtable<String, SchemeHandler> handlers = new Hashtable<String, SchemeHandler>();
 
+    /** Keys of {@link #handlers}, which allow schemes to be looked up in a location without extracting them first */
+    private static volatile String[] registeredSchemes = new String[0];
+
+    /** True if paths are compared case-sensitively, i.e. unless the current OS is Windows or OS/2 */
+    final static boolean CASE_SENSITIVE_PATHS = !(OsFamily.getCurrent().equals(OsFamily.WINDOWS) || OsFamily.getCurrent().equals(OsFamily.OS_2));
+
     /** String designating the localhost */
     public final static String LOCALHOST = "localhost";
 
@@ -189,14 +173,37 @@ public class FileURL implements Cloneable {
      * @param handler the handler to have this FileURL use
      */
     private FileURL(SchemeHandler handler) {
-        this.handler = handler;
+        this.url = ImmutableFileURL.getEmptyURL(handler);
+    }
+
+    /**
+     * Private constructor. Creates a FileURL holding the parts of the given immutable URL.
+     *
+     * @param url the immutable URL holding the parts of this FileURL
+     */
+    private FileURL(ImmutableFileURL url) {
+        this.url = url;
     }
 
     /**
-     * This method is called whenever this instance is modified to invalidate caches.
+     * Returns a new FileURL holding the parts of the given immutable URL. No URL part is copied: setting a part of
+     * the returned FileURL has no effect on the given URL.
+     *
+     * @param url the immutable URL for which to get a <code>FileURL</code> instance
+     * @return a FileURL holding the parts of the given immutable URL
+     */
+    public static FileURL getFileURL(ImmutableFileURL url) {
+        return new FileURL(url);
+    }
+
+    /**
+     * Returns the immutable value that holds the current parts of this URL. The returned value is not affected by
+     * subsequent changes to this FileURL.
+     *
+     * @return the immutable value that holds the current parts of this URL
      */
-    private void urlModified() {
-        hashCode = 0;
+    public ImmutableFileURL getImmutableURL() {
+        return url;
     }
 
     /**
@@ -219,7 +226,7 @@ public class FileURL implements Cloneable {
             handler = getDefaultHandler();
         }
         else {
-            handler = getSchemeHandler(location.substring(0, schemeDelimPos));
+            handler = getSchemeHandler(location, schemeDelimPos);
         }
 
         FileURL fileURL = new FileURL(handler);
@@ -239,17 +246,49 @@ public class FileURL implements Cloneable {
     }
 
     /**
-     * Returns the handler registered the specified scheme if there is one, the default handler otherwise.
+     * Returns the handler registered for the scheme of the given location if there is one, the default handler
+     * otherwise. The scheme is matched in place, without being extracted from the location.
      *
-     * @param scheme the scheme for which to return a handler
-     * @return a handler for the specified scheme
+     * @param location the location whose scheme is to be looked up
+     * @param schemeDelimPos position of the <code>://</code> delimiter in the location, i.e. the length of its scheme
+     * @return a handler for the specified location's scheme
      */
-    private static SchemeHandler getSchemeHandler(String scheme) {
-        SchemeHandler handler = getRegisteredHandler(scheme);
-        if(handler==null)
-            return getDefaultHandler();
+    private static SchemeHandler getSchemeHandler(String location, int schemeDelimPos) {
+        for(String scheme : registeredSchemes) {
+            if(scheme.length()==schemeDelimPos && location.regionMatches(true, 0, scheme, 0, schemeDelimPos)) {
+                SchemeHandler handler = handlers.get(scheme);
+                if(handler!=null)
+                    return handler;
+            }
+        }
+
+        return getDefaultHandler();
+    }
+
+    /**
+     * Returns the scheme of the given location. The returned string is the one the scheme was registered with if
+     * it matches (case-sensitive) the location's scheme, saving a substring for the most common schemes.
+     *
+     * @param location the location whose scheme is to be returned
+     * @param schemeDelimPos position of the <code>://</code> delimiter in the location, i.e. the length of its scheme
+     * @return the scheme of the specified location
+     */
+    static String getScheme(String location, int schemeDelimPos) {
+        for(String scheme : registeredSchemes) {
+            if(scheme.length()==schemeDelimPos && location.startsWith(scheme))
+                return scheme;
+        }
 
-        return handler;
+        return location.substring(0, schemeDelimPos);
+    }
+
+    /**
+     * Updates {@link #registeredSchemes} after a handler has been registered or unregistered.
+     */
+    private static synchronized void updateRegisteredSchemes() {
+        synchronized(handlers) {
+            registeredSchemes = handlers.keySet().toArray(new String[handlers.size()]);
+        }
     }
 
     /**
@@ -258,7 +297,7 @@ public class FileURL implements Cloneable {
      * @return the <code>SchemeHandler</code> instance that provides the scheme-specific features of this FileURL
      */
     public SchemeHandler getHandler() {
-        return handler;
+        return url.getHandler();
     }
 
     /**
@@ -272,7 +311,7 @@ public class FileURL implements Cloneable {
      * @param handler the <code>SchemeHandler</code> instance that provides the scheme-specific features of this FileURL
      */
     public void setHandler(SchemeHandler handler) {
-        this.handler = handler;
+        url = url.withHandler(handler);
     }
 
     /**
@@ -284,6 +323,7 @@ public class FileURL implements Cloneable {
      */
     public static void registerHandler(String scheme, SchemeHandler handler) {
         handlers.put(scheme.toLowerCase(), handler);
+        updateRegisteredSchemes();
     }
 
     /**
@@ -294,6 +334,7 @@ public class FileURL implements Cloneable {
      */
     public static void unregisterHandler(String scheme) {
         handlers.remove(scheme.toLowerCase());
+        updateRegisteredSchemes();
     }
 
     /**
@@ -350,7 +391,7 @@ public class FileURL implements Cloneable {
      * @see #setScheme(String)
      */
     public String getScheme() {
-        return scheme;
+        return url.getScheme();
     }
 
     /**
@@ -367,12 +408,7 @@ public class FileURL implements Cloneable {
      * @see #getScheme()
      */
     public void setScheme(String scheme) {
-        if(scheme==null)
-            throw new IllegalArgumentException();
-
-        this.scheme = scheme;
-
-        urlModified();
+        url = url.withScheme(scheme);
     }
 
     /**
@@ -382,7 +418,7 @@ public class FileURL implements Cloneable {
      * @see #setHost(String)
      */
     public String getHost() {
-        return host;
+        return url.getHost();
     }
 
     /**
@@ -392,9 +428,7 @@ public class FileURL implements Cloneable {
      * @see #getHost()
      */
     public void setHost(String host) {
-        this.host = host;
-
-        urlModified();
+        url = url.withHost(host);
     }
 
     /**
@@ -405,7 +439,7 @@ public class FileURL implements Cloneable {
      * @see #getDefaultHandler()
      */
     public int getPort() {
-        return port;
+        return url.getPort();
     }
 	
     /**
@@ -416,9 +450,7 @@ public class FileURL implements Cloneable {
      * @see #getDefaultHandler()
      */
     public void setPort(int port) {
-        this.port = port;
-
-        urlModified();
+        url = url.withPort(port);
     }
 
     /**
@@ -434,7 +466,7 @@ public class FileURL implements Cloneable {
      * @see #getPort()
      */
     public int getStandardPort() {
-        return handler.getStandardPort();
+        return url.getStandardPort();
     }
     
 
@@ -445,6 +477,7 @@ public class FileURL implements Cloneable {
      * @see #getCredentials()
      */
     public String getLogin() {
+        Credentials credentials = url.getCredentials();
         return credentials==null?null:credentials.getLogin();
     }
 
@@ -455,6 +488,7 @@ public class FileURL implements Cloneable {
      * @see #getCredentials()
      */
     public String getPassword() {
+        Credentials credentials = url.getCredentials();
         return credentials==null?null:credentials.getPassword();
     }
 
@@ -467,7 +501,7 @@ public class FileURL implements Cloneable {
      * @return the type of authentication used by the scheme's file protocol
      */
     public AuthenticationType getAuthenticationType() {
-        return handler.getAuthenticationType();
+        return url.getHandler().getAuthenticationType();
     }
 
     /**
@@ -477,7 +511,7 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if this URL contains credentials, <code>false</code> otherwise.
      */
     public boolean containsCredentials() {
-        return credentials!=null;
+        return url.getCredentials()!=null;
     }
 
     /**
@@ -492,7 +526,7 @@ public class FileURL implements Cloneable {
      * @see #getAuthenticationType()
      */
     public Credentials getCredentials() {
-        return credentials;
+        return url.getCredentials();
     }
 
     /**
@@ -507,12 +541,7 @@ public class FileURL implements Cloneable {
      * @see #getCredentials()
      */
     public void setCredentials(Credentials credentials) {
-        if(credentials==null || credentials.isEmpty())  // Empty credentials are equivalent to null credentials
-            this.credentials = null;
-        else
-            this.credentials = credentials;
-
-        urlModified();
+        url = url.withCredentials(credentials);
     }
 
     /**
@@ -529,7 +558,7 @@ public class FileURL implements Cloneable {
      * @return the scheme's guest credentials, <code>null</code> if the scheme doesn't have any
      */
     public Credentials getGuestCredentials() {
-        return handler.getGuestCredentials();
+        return url.getHandler().getGuestCredentials();
     }
 
 
@@ -537,11 +566,24 @@ public class FileURL implements Cloneable {
      * Returns the path part of this URL. The returned value will never be <code>null</code> and always start with a
      * leading '/' character.
      *
+     * <p>The path of URLs created by {@link #getChild(String)} is stored as a reference to the parent URL's path and
+     * the child's name: it is built every time this method is called, callers that need it repeatedly should retain
+     * it.</p>
+     *
      * @return the path part of this URL.
      * @see    #setPath(String)
      */
     public String getPath() {
-        return path;
+        return url.getPath();
+    }
+
+    /**
+     * Returns the node that holds the path part of this URL.
+     *
+     * @return the node that holds the path part of this URL
+     */
+    PathNode getPathNode() {
+        return url.getPathNode();
     }
 
     /**
@@ -553,17 +595,7 @@ public class FileURL implements Cloneable {
      * @see #getPath()
      */
     public void setPath(String path) {
-        if(path==null || path.equals(""))
-            path = "/";
-
-        if(!path.startsWith("/"))
-            path = "/"+path;
-
-        this.path = path;
-        // Extract new filename from path
-        this.filename = getFilenameFromPath(path, getPathSeparator());
-
-        urlModified();
+        url = url.withPath(path);
     }
 
     /**
@@ -575,7 +607,7 @@ public class FileURL implements Cloneable {
      * @return this scheme's path separator
      */
     public String getPathSeparator() {
-        return handler.getPathSeparator();
+        return url.getPathSeparator();
     }
 
 
@@ -585,45 +617,39 @@ public class FileURL implements Cloneable {
      * The returned FileURL will have the same handler, scheme, host, port, credentials and properties as this one.
      * The query part of the returned parent URL will always be <code>null</code>, even if this URL had one.
      * </p>
-     * <p>Note: this method returns a new FileURL instance every time it is called, and all mutable fields of this FileURL
-     * are cloned. Therefore, the returned URL can be safely modified without any risk of side effects.</p>
+     * <p>Note: this method returns a new FileURL instance every time it is called, which shares the immutable parts of
+     * this FileURL. Therefore, the returned URL can be safely modified without any risk of side effects.</p>
+     * <p>The path of the returned URL always ends with a separator. If this URL was created by
+     * {@link #getChild(String)}, the parent path is derived from the path of the URL it was created from, without being
+     * parsed.</p>
      *
      * @return this URL's parent, <code>null</code> if it doesn't have one.
      */
     public FileURL getParent() {
-        // If path equals '/', url has no parent
-        if(!(path.equals("/") || path.equals(""))) {
-            String separator = getPathSeparator();
-
-            // Remove any trailing separator
-            String parentPath = path.endsWith(separator)?path.substring(0, path.length()-separator.length()):path;
-
-            // Resolve parent folder's path and reconstruct parent URL
-            int lastSeparatorPos = parentPath.lastIndexOf(separator);
-            if(lastSeparatorPos!=-1) {
-                FileURL parentURL = new FileURL(handler);
-
-                parentURL.scheme = scheme;
-                parentURL.host = host;
-                parentURL.port = port;
-                parentURL.path = parentPath.substring(0, lastSeparatorPos+1);  // Keep trailing slash
-                parentURL.filename = getFilenameFromPath(parentURL.path, separator);
-
-                // Set same credentials for parent, (if any)
-                // Note: Credentials are immutable.
-                parentURL.credentials = credentials;
-
-                // Copy properties to parent (if any)
-                if(properties!=null)
-                    parentURL.properties = new Hashtable<String, String>(properties);
-
-                return parentURL;
-            }
-        }
+        ImmutableFileURL parentURL = url.getParent();
 
-        return null;    // URL has no parent
+        return parentURL==null?null:new FileURL(parentURL);
     }
 
+    /**
+     * Returns a new FileURL designating the child with the given name of the location this URL designates. The child's
+     * path is the concatenation of this URL's path, a path separator (unless the path already ends with one) and
+     * the given name.
+     * <p>
+     * The returned FileURL will have the same handler, scheme, host, port, credentials and properties as this one.
+     * The query part of the returned child URL will always be <code>null</code>, even if this URL had one.
+     * </p>
+     * <p>This method is cheaper than cloning this URL and setting its path: no URL part gets copied. The child's path
+     * is not concatenated: it is stored as a reference to this URL's path and the given name, so that the children of
+     * a same folder share their parent's path. Like {@link #clone()}, the returned URL can be safely modified without
+     * any risk of side effects.</p>
+     *
+     * @param name name of the child, or path relative to this URL's path
+     * @return a new FileURL designating the child with the given name
+     */
+    public FileURL getChild(String name) {
+        return new FileURL(url.getChild(name));
+    }
 
     /**
      * Returns the authentication realm corresponding to this URL, i.e. the base location throughout which credentials
@@ -638,7 +664,7 @@ public class FileURL implements Cloneable {
      * @return this url's authentication realm
      */
     public FileURL getRealm() {
-        return handler.getRealm(this);
+        return url.getHandler().getRealm(this);
     }
 
 
@@ -653,7 +679,7 @@ public class FileURL implements Cloneable {
      * @see    #setPath(String)
      */
     public String getFilename() {
-        return filename;
+        return url.getFilename();
     }
 
 
@@ -664,7 +690,7 @@ public class FileURL implements Cloneable {
      * @see    #setQuery(String)
      */
     public String getQuery() {
-        return query;
+        return url.getQuery();
     }
 
     /**
@@ -674,9 +700,7 @@ public class FileURL implements Cloneable {
      * @see #getQuery()
      */
     public void setQuery(String query) {
-        this.query = query;
-
-        urlModified();
+        url = url.withQuery(query);
     }
 
 	
@@ -688,7 +712,7 @@ public class FileURL implements Cloneable {
      * @see #setProperty(String,String)
      */
     public String getProperty(String name) {
-        return properties==null?null:properties.get(name);
+        return url.getProperty(name);
     }
 	
     /**
@@ -700,16 +724,7 @@ public class FileURL implements Cloneable {
      * @see #getProperty(String)
      */
     public void setProperty(String name, String value) {
-        // Create the property hashtable only when a property is set for the first time
-        if(properties==null)
-            properties = new Hashtable<String, String>();
-
-        if(value==null)
-            properties.remove(name);
-        else
-            properties.put(name, value);
-
-        urlModified();
+        url = url.withProperty(name, value);
     }
 
 
@@ -719,20 +734,7 @@ public class FileURL implements Cloneable {
      * @return an <code>Enumeration</code> of all property names this FileURL contains
      */
     public Enumeration<String> getPropertyNames() {
-        // Return an empty enumeration if the property hashtable is null
-        if(properties==null) {
-            return new Enumeration<String>() {
-                public boolean hasMoreElements() {
-                    return false;
-                }
-
-                public String nextElement() {
-                    throw new NoSuchElementException();
-                }
-            };
-        }
-
-        return properties.keys();
+        return url.getPropertyNames();
     }
 
     /**
@@ -742,7 +744,7 @@ public class FileURL implements Cloneable {
      */
     public void importProperties(FileURL url) {
         // Slight optimization to avoid creating an enumeration if the FileURL doesn't have any property
-        if(url.properties==null)
+        if(!url.url.hasProperties())
             return;
 
         Enumeration<String> propertyKeys = url.getPropertyNames();
@@ -765,61 +767,7 @@ public class FileURL implements Cloneable {
      * @return a string representation of this <code>FileURL</code>
      */
     public String toString(boolean includeCredentials, boolean maskPassword) {
-        StringBuffer sb = new StringBuffer(scheme);
-        sb.append("://");
-
-        if(includeCredentials && credentials!=null) {
-            try {
-                sb.append(URLEncoder.encode(credentials.getLogin(), "UTF-8"));
-            }
-            catch(UnsupportedEncodingException e) {
-                // This can't happen in practice, UTF-8 is necessarily supported
-            }
-
-            String password = credentials.getPassword();
-            if(!"".equals(password)) {
-                sb.append(':');
-                if(maskPassword)
-                    sb.append(credentials.getMaskedPassword());
-                else {
-                    try {
-                        sb.append(URLEncoder.encode(password, "UTF-8"));
-                    }
-                    catch(UnsupportedEncodingException e) {
-                        // This can't happen in practice, UTF-8 is necessarily supported
-                    }
-                }
-            }
-            sb.append('@');
-        }
-
-        if(host!=null)
-            sb.append(host);
-
-        // Set the port only if it has a value that is different from the standard port
-        if(port!=-1 && port!=handler.getStandardPort()) {
-            sb.append(':');
-            sb.append(port);
-        }
-
-        if(host!=null || !path.equals("/"))	{ // Test to avoid URLs like 'smb:///'
-            if(path.startsWith("/")) {
-                sb.append(path);
-            }
-            else {
-                // Add a leading '/' if path doesn't already start with one, needed for scheme paths that are not
-                // forward slash-separated
-                sb.append('/');
-                sb.append(path);
-            }
-        }
-
-        if(query!=null) {
-            sb.append('?');
-            sb.append(query);
-        }
-
-        return sb.toString();
+        return url.toString(includeCredentials, maskPassword);
     }
 
     /**
@@ -862,7 +810,7 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the scheme part of this URL and the given URL are equal
      */
     public boolean schemeEquals(FileURL url) {
-        return this.scheme.equalsIgnoreCase(url.scheme);
+        return this.url.schemeEquals(url.url);
     }
 
     /**
@@ -873,8 +821,7 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the host part of this URL and the given URL are equal
      */
     public boolean hostEquals(FileURL url) {
-        // Note: StringUtils#equals is null-safe 
-        return StringUtils.equals(this.host, url.host, false);
+        return this.url.hostEquals(url.url);
     }
 
     /**
@@ -887,12 +834,7 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the port of this URL and the given one are equal
      */
     public boolean portEquals(FileURL url) {
-        int port1 = this.port;
-        int port2 = url.port;
-        int standardPort = getStandardPort();
-
-        return port1==port2 ||
-            (standardPort==url.getStandardPort() && ((port1==-1 && port2==standardPort || (port2==-1 && port1==standardPort))));
+        return this.url.portEquals(url.url);
     }
 
     /**
@@ -910,26 +852,33 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the path of this URL and the given URL are equal
      */
     public boolean pathEquals(FileURL url) {
-    	boolean isCaseSensitiveOS = !(OsFamily.getCurrent().equals(OsFamily.WINDOWS) || OsFamily.getCurrent().equals(OsFamily.OS_2));
-    	
-        String path1 = isCaseSensitiveOS ? this.getPath() : this.getPath().toLowerCase();
-        String path2 = isCaseSensitiveOS ? url.getPath() : url.getPath().toLowerCase();
+        return this.url.pathEquals(url.url);
+    }
 
-        if(path1.equals(path2))
-            return true;
+    /**
+     * Returns <code>true</code> if the given paths are equal, following the rules of {@link #pathEquals(FileURL)}.
+     * The comparison is performed in place, without creating any string.
+     *
+     * @param path1 the first path to compare
+     * @param path2 the second path to compare
+     * @param separator the path separator shared by both paths, <code>null</code> if they use different separators
+     * @return <code>true</code> if the given paths are equal
+     */
+    static boolean pathEquals(String path1, String path2, String separator) {
+        int len1 = path1.length();
+        int len2 = path2.length();
 
-        String separator = getPathSeparator();
+        if(len1==len2)
+            return path1.regionMatches(!CASE_SENSITIVE_PATHS, 0, path2, 0, len1);
 
-        if(separator.equals(url.getPathSeparator())) {
+        if(separator!=null) {
             int separatorLen = separator.length();
-            int len1 = path1.length();
-            int len2 = path2.length();
 
             // If the difference between the 2 strings is just a trailing path separator, we consider the paths as equal
-            if(Math.abs(len1-len2)==separatorLen && (len1>len2 ? path1.startsWith(path2) : path2.startsWith(path1))) {
-                String diff = len1>len2 ? path1.substring(len1-separatorLen) : path2.substring(len2-separatorLen);
-                return separator.equals(diff);
-            }
+            if(len1-len2==separatorLen)
+                return path1.endsWith(separator) && path1.regionMatches(!CASE_SENSITIVE_PATHS, 0, path2, 0, len2);
+            if(len2-len1==separatorLen)
+                return path2.endsWith(separator) && path2.regionMatches(!CASE_SENSITIVE_PATHS, 0, path1, 0, len1);
         }
 
         return false;
@@ -943,7 +892,7 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the query part of this URL and the given URL are equal
      */
     public boolean queryEquals(FileURL url) {
-        return StringUtils.equals(this.query, url.query, true);
+        return this.url.queryEquals(url.url);
     }
 
     /**
@@ -954,12 +903,7 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the credentials of this URL and the given URL are equal
      */
     public boolean credentialsEquals(FileURL url) {
-        Credentials creds1 = this.credentials;
-        Credentials creds2 = url.credentials;
-
-        return (creds1==null && creds2==null)
-            || (creds1!=null && creds1.equals(creds2, true))
-            || (creds2!=null && creds2.equals(creds1, true));
+        return this.url.credentialsEquals(url.url);
     }
 
     /**
@@ -970,9 +914,7 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the properties contained by this URL and the given URL are equal
      */
     public boolean propertiesEquals(FileURL url) {
-        return (this.properties==null && url.properties==null)
-           ||  (this.properties!=null && this.properties.equals(url.properties))
-           ||  (url.properties!=null && url.properties.equals(this.properties));
+        return this.url.propertiesEquals(url.url);
     }
 
 
@@ -990,31 +932,12 @@ public class FileURL implements Cloneable {
 
     /**
      * Returns a clone of this FileURL. The returned instance can safely be modified without any impact on this FileURL
-     * or any previously cloned URL.
+     * or any previously cloned URL: both share the same immutable parts until either URL is modified.
      */
     @Override
     public Object clone() {
-        // Create a new FileURL return it, instead of using Object.clone() which is probably way slower;
-        // most FileURL fields are immutable and as such reused in cloned instance
-        FileURL clonedURL = new FileURL(handler);
-
-        // Immutable fields
-        clonedURL.scheme = scheme;
-        clonedURL.host = host;
-        clonedURL.port = port;
-        clonedURL.path = path;
-        clonedURL.filename = filename;
-        clonedURL.query = query;
-        clonedURL.credentials = credentials;  // Note: Credentials are immutable.
-
-        // Mutable fields
-        if(properties!=null)    // Copy properties (if any)
-            clonedURL.properties = new Hashtable<String, String>(properties);
-
-        // Caches
-        clonedURL.hashCode = hashCode;
-
-        return clonedURL;
+        // The parts of this URL are immutable and shared with the clone
+        return new FileURL(url);
     }
 
     /**
@@ -1062,15 +985,7 @@ public class FileURL implements Cloneable {
         if(o==null || !(o instanceof FileURL))
             return false;
 
-        FileURL url = (FileURL)o;
-
-        return pathEquals(url)      // Compare the path first as it is the most likely to be different
-            && schemeEquals(url)
-            && hostEquals(url)
-            && portEquals(url)
-            && queryEquals(url)
-            && (!compareCredentials || credentialsEquals(url))
-            && (!compareProperties || propertiesEquals(url));
+        return url.equals(((FileURL)o).url, compareCredentials, compareProperties);
     }
 
     /**
@@ -1078,31 +993,30 @@ public class FileURL implements Cloneable {
      * so that <code>url1.equals(url2)</code> implies <code>url1.hashCode()==url2.hashCode()</code>.
      */
     public int hashCode() {
-        if(hashCode==0) {
-            String separator = handler.getPathSeparator();
-
-            // #equals(Object) is trailing separator insensitive, so the hashCode must be trailing separator invariant
-            int h = PathUtils.getPathHashCode(path, separator);
-
-            h = 31* h + scheme.toLowerCase().hashCode();
-            h = 31* h + (port==-1?handler.getStandardPort():port);
-
-            if(host!=null)
-                h = 31* h + host.toLowerCase().hashCode();
-
-            if(query!=null)
-                h = 31* h + query.hashCode();
-
-            if(credentials!=null)
-                h = 31* h + credentials.hashCode();
-
-            if(properties!=null)
-                h = 31* h + properties.hashCode();
+        return url.hashCode();
+    }
 
-            // Cache the value until for as long as this instance is not modified
-            hashCode = h;
+    /**
+     * Continues the given path hash code with the characters of the specified string region, folding the case of
+     * characters if paths are not {@link #CASE_SENSITIVE_PATHS case-sensitive}. Starting from <code>0</code>,
+     * the returned value is the hash code of the (possibly lower-cased) region.
+     *
+     * @param h the hash code of the path that precedes the region
+     * @param s the string containing the region
+     * @param start index of the first character of the region
+     * @param end index after the last character of the region
+     * @return the hash code of the path followed by the region
+     */
+    static int hashPath(int h, String s, int start, int end) {
+        if(CASE_SENSITIVE_PATHS) {
+            for(int i=start; i<end; i++)
+                h = 31*h + s.charAt(i);
+        }
+        else {
+            for(int i=start; i<end; i++)
+                h = 31*h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
         }
 
-        return hashCode;
+        return h;
     }
 }
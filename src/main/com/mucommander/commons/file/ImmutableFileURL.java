@@ -0,0 +1,800 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.util.StringUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
+
+/**
+ * <code>ImmutableFileURL</code> is the immutable value that holds the parts of a {@link FileURL}. <code>FileURL</code>
+ * is a mutable facade over an instance of this class, which it replaces whenever one of its parts is set: cloning a
+ * <code>FileURL</code> or deriving a child or parent URL from it copies no URL part.
+ *
+ * <p>An <code>ImmutableFileURL</code> is made of:
+ * <ul>
+ *  <li>an authority that holds the handler, scheme, host, port, credentials and properties. Authorities are interned:
+ * all the URLs that have the same authority share a single instance, and the case-insensitive hash code of the
+ * scheme and host is computed once per authority</li>
+ *  <li>a {@link PathNode path}, which for URLs created by {@link #getChild(String)} references the path of the parent
+ * URL and holds the child's name only</li>
+ *  <li>a query part</li>
+ * </ul>
+ * The hash code is cached. The hash code of the path of a child URL is derived from its parent's in constant time
+ * if the parent's is known.</p>
+ *
+ * <p>Instances are obtained from {@link FileURL#getImmutableURL()} or {@link #getFileURL(String)}, and turned back
+ * into a <code>FileURL</code> with {@link FileURL#getFileURL(ImmutableFileURL)}. The <code>with</code> methods return
+ * a copy of a URL with one part replaced. The semantics of the accessors, {@link #equals(Object)} and
+ * {@link #hashCode()} are those of the corresponding {@link FileURL} methods.</p>
+ *
+ * @see FileURL
+ */
+public final class ImmutableFileURL {
+
+    /** Handler, scheme, host, port, credentials and properties, shared by all the URLs that have the same */
+    private final Authority authority;
+    /** Path part, shared with the parent URL for URLs created by #getChild(String), null until one is set */
+    private final PathNode path;
+    /** Filename, extracted from the path, null if the path has none */
+    private final String filename;
+    /** Query part, null if this URL has none */
+    private final String query;
+
+    /** Caches the hash code of the path, 0 until it is computed */
+    private int pathHashCode;
+    /** Caches the value returned by #hashCode(), 0 until it is computed */
+    private int hashCode;
+
+    /** Interned authorities, which are discarded once no URL references them */
+    private final static Map<Authority, WeakReference<Authority>> AUTHORITIES = new WeakHashMap<Authority, WeakReference<Authority>>();
+
+
+    /**
+     * Creates a new URL made of the given parts.
+     *
+     * @param authority the interned authority of the URL
+     * @param path the path of the URL, <code>null</code> if it has not been set yet
+     * @param filename the filename extracted from the path, <code>null</code> if it has none
+     * @param query the query part, <code>null</code> for none
+     */
+    private ImmutableFileURL(Authority authority, PathNode path, String filename, String query) {
+        this.authority = authority;
+        this.path = path;
+        this.filename = filename;
+        this.query = query;
+    }
+
+    /**
+     * Returns an empty URL that uses the given handler, all other parts have to be set.
+     *
+     * @param handler the handler the URL uses
+     * @return an empty URL that uses the given handler
+     */
+    static ImmutableFileURL getEmptyURL(SchemeHandler handler) {
+        return new ImmutableFileURL(Authority.get(handler, null, null, -1, null, null), null, null, null);
+    }
+
+    /**
+     * Parses the given location and returns the corresponding URL. This method is a shorthand for
+     * <code>FileURL.getFileURL(location).getImmutableURL()</code>.
+     *
+     * @param location the URL or path for which to get an <code>ImmutableFileURL</code> instance
+     * @return an ImmutableFileURL corresponding to the given location
+     * @throws MalformedURLException if the specified string isn't a valid URL
+     * @see FileURL#getFileURL(String)
+     */
+    public static ImmutableFileURL getFileURL(String location) throws MalformedURLException {
+        return FileURL.getFileURL(location).getImmutableURL();
+    }
+
+    /**
+     * Returns a copy of this URL with the given authority, keeping the path (and its hash code) and query parts.
+     *
+     * @param newAuthority the authority of the returned URL
+     * @return a copy of this URL with the given authority
+     */
+    private ImmutableFileURL withAuthority(Authority newAuthority) {
+        if(newAuthority==authority)
+            return this;
+
+        ImmutableFileURL url = new ImmutableFileURL(newAuthority, path, filename, query);
+        // The hash code of the path does not depend on the authority if the path separator is the same
+        if(newAuthority.handler.getPathSeparator().equals(authority.handler.getPathSeparator()))
+            url.pathHashCode = pathHashCode;
+
+        return url;
+    }
+
+
+    //////////////////
+    // URL parts    //
+    //////////////////
+
+    /**
+     * Returns the <code>SchemeHandler</code> instance that provides the scheme-specific features of this URL.
+     *
+     * @return the <code>SchemeHandler</code> instance that provides the scheme-specific features of this URL
+     */
+    public SchemeHandler getHandler() {
+        return authority.handler;
+    }
+
+    /**
+     * Returns a copy of this URL that uses the given handler. The scheme should also be changed to match the new
+     * handler.
+     *
+     * @param handler the handler of the returned URL
+     * @return a copy of this URL that uses the given handler
+     * @see FileURL#setHandler(SchemeHandler)
+     */
+    public ImmutableFileURL withHandler(SchemeHandler handler) {
+        return withAuthority(authority.with(handler, authority.scheme, authority.host, authority.port, authority.credentials, authority.properties));
+    }
+
+    /**
+     * Returns the scheme part of this URL.
+     *
+     * @return the scheme part of this URL
+     */
+    public String getScheme() {
+        return authority.scheme;
+    }
+
+    /**
+     * Returns a copy of this URL with the given scheme part.
+     *
+     * @param scheme the scheme part of the returned URL
+     * @return a copy of this URL with the given scheme part
+     * @throws IllegalArgumentException if the specified scheme is <code>null</code>
+     * @see FileURL#setScheme(String)
+     */
+    public ImmutableFileURL withScheme(String scheme) {
+        if(scheme==null)
+            throw new IllegalArgumentException();
+
+        return withAuthority(authority.with(authority.handler, scheme, authority.host, authority.port, authority.credentials, authority.properties));
+    }
+
+    /**
+     * Returns the host part of this URL, <code>null</code> if it doesn't contain any.
+     *
+     * @return the host part of this URL
+     */
+    public String getHost() {
+        return authority.host;
+    }
+
+    /**
+     * Returns a copy of this URL with the given host part, <code>null</code> for no host.
+     *
+     * @param host the host part of the returned URL
+     * @return a copy of this URL with the given host part
+     */
+    public ImmutableFileURL withHost(String host) {
+        return withAuthority(authority.with(authority.handler, authority.scheme, host, authority.port, authority.credentials, authority.properties));
+    }
+
+    /**
+     * Returns the port part of this URL, <code>-1</code> if none was specified in the URL.
+     *
+     * @return the port part of this URL, -1 if there isn't any
+     */
+    public int getPort() {
+        return authority.port;
+    }
+
+    /**
+     * Returns a copy of this URL with the given port part, <code>-1</code> for no specific port.
+     *
+     * @param port the port part of the returned URL
+     * @return a copy of this URL with the given port part
+     */
+    public ImmutableFileURL withPort(int port) {
+        return withAuthority(authority.with(authority.handler, authority.scheme, authority.host, port, authority.credentials, authority.properties));
+    }
+
+    /**
+     * Returns this scheme's standard port, <code>-1</code> if the scheme doesn't have any.
+     *
+     * @return the scheme's standard port
+     * @see FileURL#getStandardPort()
+     */
+    public int getStandardPort() {
+        return authority.handler.getStandardPort();
+    }
+
+    /**
+     * Returns the credentials contained by this URL, <code>null</code> if it doesn't have a login or password part.
+     *
+     * @return the credentials contained by this URL, <code>null</code> if it doesn't have any
+     */
+    public Credentials getCredentials() {
+        return authority.credentials;
+    }
+
+    /**
+     * Returns a copy of this URL with the given credentials, <code>null</code> or empty credentials for none.
+     *
+     * @param credentials the credentials of the returned URL
+     * @return a copy of this URL with the given credentials
+     */
+    public ImmutableFileURL withCredentials(Credentials credentials) {
+        // Empty credentials are equivalent to null credentials
+        if(credentials!=null && credentials.isEmpty())
+            credentials = null;
+
+        return withAuthority(authority.with(authority.handler, authority.scheme, authority.host, authority.port, credentials, authority.properties));
+    }
+
+    /**
+     * Returns the path part of this URL. The path of URLs created by {@link #getChild(String)} is built every time
+     * this method is called.
+     *
+     * @return the path part of this URL
+     * @see FileURL#getPath()
+     */
+    public String getPath() {
+        return path.getPath(getPathSeparator());
+    }
+
+    /**
+     * Returns the node that holds the path part of this URL.
+     *
+     * @return the node that holds the path part of this URL
+     */
+    PathNode getPathNode() {
+        return path;
+    }
+
+    /**
+     * Returns a copy of this URL with the given path part. A <code>null</code> or empty path is replaced with "/",
+     * and a leading '/' is added to paths that do not start with one.
+     *
+     * @param path the path part of the returned URL
+     * @return a copy of this URL with the given path part
+     * @see FileURL#setPath(String)
+     */
+    public ImmutableFileURL withPath(String path) {
+        if(path==null || path.equals(""))
+            path = "/";
+
+        if(!path.startsWith("/"))
+            path = "/"+path;
+
+        return new ImmutableFileURL(authority, new PathNode(path), FileURL.getFilenameFromPath(path, getPathSeparator()), query);
+    }
+
+    /**
+     * Returns this scheme's path separator.
+     *
+     * @return this scheme's path separator
+     */
+    public String getPathSeparator() {
+        return authority.handler.getPathSeparator();
+    }
+
+    /**
+     * Returns the filename of this URL, <code>null</code> if it doesn't have one (e.g. if the path is "/").
+     *
+     * @return the filename of this URL, <code>null</code> if it doesn't have one
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Returns the query part of this URL if it has one, <code>null</code> otherwise.
+     *
+     * @return the query part of this URL if it has one, <code>null</code> otherwise
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns a copy of this URL with the given query part, <code>null</code> for no query part.
+     *
+     * @param query the query part of the returned URL
+     * @return a copy of this URL with the given query part
+     */
+    public ImmutableFileURL withQuery(String query) {
+        ImmutableFileURL url = new ImmutableFileURL(authority, path, filename, query);
+        url.pathHashCode = pathHashCode;
+
+        return url;
+    }
+
+    /**
+     * Returns the value of the given property, <code>null</code> if the property has no value.
+     *
+     * @param name name of the property whose value is to be retrieved
+     * @return the value of the given property, <code>null</code> if it has no value
+     */
+    public String getProperty(String name) {
+        return authority.properties==null?null:authority.properties.get(name);
+    }
+
+    /**
+     * Returns a copy of this URL with the given property set. A <code>null</code> value removes the property.
+     *
+     * @param name name of the property to set
+     * @param value value of the property, <code>null</code> to remove it
+     * @return a copy of this URL with the given property set
+     */
+    public ImmutableFileURL withProperty(String name, String value) {
+        Hashtable<String, String> properties = authority.properties==null
+            ?new Hashtable<String, String>()
+            :new Hashtable<String, String>(authority.properties);
+
+        if(value==null)
+            properties.remove(name);
+        else
+            properties.put(name, value);
+
+        return withAuthority(authority.with(authority.handler, authority.scheme, authority.host, authority.port, authority.credentials, properties.isEmpty()?null:properties));
+    }
+
+    /**
+     * Returns an <code>Enumeration</code> of all the property names this URL contains.
+     *
+     * @return an <code>Enumeration</code> of all the property names this URL contains
+     */
+    public Enumeration<String> getPropertyNames() {
+        // Return an empty enumeration if there are no properties
+        if(authority.properties==null) {
+            return new Enumeration<String>() {
+                public boolean hasMoreElements() {
+                    return false;
+                }
+
+                public String nextElement() {
+                    throw new NoSuchElementException();
+                }
+            };
+        }
+
+        return authority.properties.keys();
+    }
+
+    /**
+     * Returns <code>true</code> if this URL has properties.
+     *
+     * @return <code>true</code> if this URL has properties
+     */
+    boolean hasProperties() {
+        return authority.properties!=null;
+    }
+
+
+    ///////////////////////
+    // Derived URLs      //
+    ///////////////////////
+
+    /**
+     * Returns the parent of this URL according to its path, <code>null</code> if this URL has no parent (its path is
+     * "/"). The returned URL has the same authority as this one and no query part.
+     *
+     * @return this URL's parent, <code>null</code> if it doesn't have one
+     * @see FileURL#getParent()
+     */
+    public ImmutableFileURL getParent() {
+        String separator = getPathSeparator();
+
+        // Resolve parent folder's path, null if path equals '/'
+        PathNode parentPath = path.getParent(separator);
+        if(parentPath==null)
+            return null;    // URL has no parent
+
+        return new ImmutableFileURL(authority, parentPath.withTrailingSeparator(separator), parentPath.getFilename(separator), null);
+    }
+
+    /**
+     * Returns the URL of the child with the given name. The returned URL has the same authority as this one and no
+     * query part. Nothing is copied: its path references this URL's path and holds the given name, and the hash code
+     * of its path is derived from this URL's if it has been computed.
+     *
+     * @param name name of the child, or path relative to this URL's path
+     * @return the URL of the child with the given name
+     * @see FileURL#getChild(String)
+     */
+    public ImmutableFileURL getChild(String name) {
+        String separator = getPathSeparator();
+        PathNode childPath = path.getChild(name);
+
+        // The name is the child's filename, unless it is a relative path
+        ImmutableFileURL childURL = new ImmutableFileURL(authority, childPath, childPath.getFilename(separator), null);
+        if(pathHashCode!=0)
+            childURL.pathHashCode = path.getChildHashCode(pathHashCode, name, separator);
+
+        return childURL;
+    }
+
+
+    /////////////////
+    // Comparisons //
+    /////////////////
+
+    /**
+     * Returns <code>true</code> if the scheme part of this URL and the given URL are equal (case-insensitive).
+     *
+     * @param url the URL to test for scheme equality
+     * @return <code>true</code> if the scheme part of this URL and the given URL are equal
+     */
+    public boolean schemeEquals(ImmutableFileURL url) {
+        return authority.scheme.equalsIgnoreCase(url.authority.scheme);
+    }
+
+    /**
+     * Returns <code>true</code> if the host part of this URL and the given URL are equal (case-insensitive).
+     *
+     * @param url the URL to test for host equality
+     * @return <code>true</code> if the host part of this URL and the given URL are equal
+     */
+    public boolean hostEquals(ImmutableFileURL url) {
+        // Note: StringUtils#equals is null-safe
+        return StringUtils.equals(authority.host, url.authority.host, false);
+    }
+
+    /**
+     * Returns <code>true</code> if the port of this URL and the given URL's are equal, following the rules of
+     * {@link FileURL#portEquals(FileURL)}.
+     *
+     * @param url the URL to test for port equality
+     * @return <code>true</code> if the port of this URL and the given one are equal
+     */
+    public boolean portEquals(ImmutableFileURL url) {
+        int port1 = authority.port;
+        int port2 = url.authority.port;
+        int standardPort = getStandardPort();
+
+        return port1==port2 ||
+            (standardPort==url.getStandardPort() && ((port1==-1 && port2==standardPort || (port2==-1 && port1==standardPort))));
+    }
+
+    /**
+     * Returns <code>true</code> if the path of this URL and the given URL are equal, following the rules of
+     * {@link FileURL#pathEquals(FileURL)}.
+     *
+     * @param url the URL to test for path equality
+     * @return <code>true</code> if the path of this URL and the given URL are equal
+     */
+    public boolean pathEquals(ImmutableFileURL url) {
+        return path==url.path
+            || PathNode.pathEquals(path, getPathSeparator(), url.path, url.getPathSeparator());
+    }
+
+    /**
+     * Returns <code>true</code> if the query part of this URL and the given URL are equal (case-sensitive).
+     *
+     * @param url the URL to test for query equality
+     * @return <code>true</code> if the query part of this URL and the given URL are equal
+     */
+    public boolean queryEquals(ImmutableFileURL url) {
+        return StringUtils.equals(query, url.query, true);
+    }
+
+    /**
+     * Returns <code>true</code> if the credentials of this URL and the given URL are equal (case-sensitive).
+     *
+     * @param url the URL to test for credentials equality
+     * @return <code>true</code> if the credentials of this URL and the given URL are equal
+     */
+    public boolean credentialsEquals(ImmutableFileURL url) {
+        return credentialsEquals(authority.credentials, url.authority.credentials);
+    }
+
+    /**
+     * Returns <code>true</code> if the properties of this URL and the given URL are equal (case-sensitive).
+     *
+     * @param url the URL to test for properties equality
+     * @return <code>true</code> if the properties of this URL and the given URL are equal
+     */
+    public boolean propertiesEquals(ImmutableFileURL url) {
+        return propertiesEquals(authority.properties, url.authority.properties);
+    }
+
+    /**
+     * Returns <code>true</code> if the given credentials are equal, both in login and password.
+     */
+    private static boolean credentialsEquals(Credentials creds1, Credentials creds2) {
+        return (creds1==null && creds2==null)
+            || (creds1!=null && creds1.equals(creds2, true))
+            || (creds2!=null && creds2.equals(creds1, true));
+    }
+
+    /**
+     * Returns <code>true</code> if the given properties are equal.
+     */
+    private static boolean propertiesEquals(Hashtable<String, String> properties1, Hashtable<String, String> properties2) {
+        return properties1==null?properties2==null:properties1.equals(properties2);
+    }
+
+
+    ////////////////////////
+    // Overridden methods //
+    ////////////////////////
+
+    /**
+     * Returns a string representation of this URL, including the credentials only if specified, and masking the
+     * password as requested.
+     *
+     * @param includeCredentials if <code>true</code>, the login and password parts (if any) will be included
+     * @param maskPassword if <code>true</code> and credentials are included, the password's characters are replaced
+     * by '*' characters
+     * @return a string representation of this URL
+     * @see FileURL#toString(boolean, boolean)
+     */
+    public String toString(boolean includeCredentials, boolean maskPassword) {
+        Credentials credentials = authority.credentials;
+        StringBuffer sb = new StringBuffer(authority.scheme);
+        sb.append("://");
+
+        if(includeCredentials && credentials!=null) {
+            try {
+                sb.append(URLEncoder.encode(credentials.getLogin(), "UTF-8"));
+            }
+            catch(UnsupportedEncodingException e) {
+                // This can't happen in practice, UTF-8 is necessarily supported
+            }
+
+            String password = credentials.getPassword();
+            if(!"".equals(password)) {
+                sb.append(':');
+                if(maskPassword)
+                    sb.append(credentials.getMaskedPassword());
+                else {
+                    try {
+                        sb.append(URLEncoder.encode(password, "UTF-8"));
+                    }
+                    catch(UnsupportedEncodingException e) {
+                        // This can't happen in practice, UTF-8 is necessarily supported
+                    }
+                }
+            }
+            sb.append('@');
+        }
+
+        String host = authority.host;
+        if(host!=null)
+            sb.append(host);
+
+        // Set the port only if it has a value that is different from the standard port
+        int port = authority.port;
+        if(port!=-1 && port!=getStandardPort()) {
+            sb.append(':');
+            sb.append(port);
+        }
+
+        String path = getPath();
+        if(host!=null || !path.equals("/"))	{ // Test to avoid URLs like 'smb:///'
+            if(path.startsWith("/")) {
+                sb.append(path);
+            }
+            else {
+                // Add a leading '/' if path doesn't already start with one, needed for scheme paths that are not
+                // forward slash-separated
+                sb.append('/');
+                sb.append(path);
+            }
+        }
+
+        if(query!=null) {
+            sb.append('?');
+            sb.append(query);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns a string representation of this URL, without its credentials.
+     */
+    @Override
+    public String toString() {
+        return toString(false, false);
+    }
+
+    /**
+     * This method is equivalent to calling {@link #equals(Object, boolean, boolean)} with credentials and properties
+     * comparisons enabled.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return equals(o, true, true);
+    }
+
+    /**
+     * Tests the given URL for equality with this one, following the rules of
+     * {@link FileURL#equals(Object, boolean, boolean)}. <code>false</code> is returned if the specified object is not
+     * an <code>ImmutableFileURL</code>.
+     *
+     * @param o object to compare against this URL
+     * @param compareCredentials if <code>true</code>, the login and password parts of both URLs need to be equal
+     * @param compareProperties if <code>true</code>, all properties need to be equal in both URLs
+     * @return true if both URLs are equal
+     */
+    public boolean equals(Object o, boolean compareCredentials, boolean compareProperties) {
+        if(o==this)
+            return true;
+
+        if(!(o instanceof ImmutableFileURL))
+            return false;
+
+        ImmutableFileURL url = (ImmutableFileURL)o;
+
+        if(!pathEquals(url) || !queryEquals(url))    // Compare the path first as it is the most likely to be different
+            return false;
+
+        // URLs that share their authority have the same scheme, host, port, credentials and properties
+        return authority==url.authority
+            || (schemeEquals(url)
+                && hostEquals(url)
+                && portEquals(url)
+                && (!compareCredentials || credentialsEquals(url))
+                && (!compareProperties || propertiesEquals(url)));
+    }
+
+    /**
+     * Returns a hash code consistent with {@link #equals(Object)}. The value is cached, and the case-insensitive hash
+     * code of the scheme and host is shared by all the URLs that have the same authority.
+     */
+    @Override
+    public int hashCode() {
+        if(hashCode==0) {
+            // #equals(Object) is trailing separator insensitive, so the hashCode must be trailing separator invariant
+            if(pathHashCode==0)
+                pathHashCode = path.getHashCode(getPathSeparator());
+
+            int h = 31*pathHashCode + authority.urlHashCode;
+
+            if(query!=null)
+                h = 31* h + query.hashCode();
+
+            hashCode = h;
+        }
+
+        return hashCode;
+    }
+
+    /**
+     * Returns a case-insensitive hash code of the given string, consistent with
+     * <code>String#equalsIgnoreCase(String)</code>.
+     *
+     * @param s the string to hash
+     * @return a case-insensitive hash code of the given string
+     */
+    private static int hashIgnoreCase(String s) {
+        int h = 0;
+        int len = s.length();
+        for(int i=0; i<len; i++)
+            h = 31*h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+
+        return h;
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Holds the handler, scheme, host, port, credentials and properties of URLs. Instances are interned by
+     * {@link #get(SchemeHandler, String, String, int, Credentials, Hashtable)} and never modified: the properties
+     * hashtable is not exposed.
+     */
+    private static class Authority {
+        private final SchemeHandler handler;
+        private final String scheme;
+        private final String host;
+        private final int port;
+        private final Credentials credentials;
+        /** Properties, null if there are none */
+        private final Hashtable<String, String> properties;
+
+        /** Hash code of the exact values of the parts, used for interning */
+        private final int hashCode;
+        /** Part of the URL hash code that is contributed by the authority, consistent with URL equality */
+        private final int urlHashCode;
+
+        private Authority(SchemeHandler handler, String scheme, String host, int port, Credentials credentials, Hashtable<String, String> properties) {
+            this.handler = handler;
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+            this.credentials = credentials;
+            this.properties = properties;
+
+            int h = System.identityHashCode(handler);
+            h = 31*h + (scheme==null?0:scheme.hashCode());
+            h = 31*h + (host==null?0:host.hashCode());
+            h = 31*h + port;
+            h = 31*h + (credentials==null?0:credentials.hashCode());
+            h = 31*h + (properties==null?0:properties.hashCode());
+            hashCode = h;
+
+            // Scheme and host are compared case-insensitively, and an undefined port is equal to the standard port
+            h = scheme==null?0:hashIgnoreCase(scheme);
+            h = 31*h + (port==-1?handler.getStandardPort():port);
+            h = 31*h + (host==null?0:hashIgnoreCase(host));
+            h = 31*h + (credentials==null?0:credentials.hashCode());
+            h = 31*h + (properties==null?0:properties.hashCode());
+            urlHashCode = h;
+        }
+
+        /**
+         * Returns the interned authority made of the given parts.
+         */
+        static Authority get(SchemeHandler handler, String scheme, String host, int port, Credentials credentials, Hashtable<String, String> properties) {
+            Authority authority = new Authority(handler, scheme, host, port, credentials, properties);
+
+            synchronized(AUTHORITIES) {
+                WeakReference<Authority> ref = AUTHORITIES.get(authority);
+                Authority interned = ref==null?null:ref.get();
+                if(interned!=null)
+                    return interned;
+
+                AUTHORITIES.put(authority, new WeakReference<Authority>(authority));
+                return authority;
+            }
+        }
+
+        /**
+         * Returns the interned authority made of the given parts, this one if they are the same.
+         */
+        Authority with(SchemeHandler handler, String scheme, String host, int port, Credentials credentials, Hashtable<String, String> properties) {
+            if(handler==this.handler && scheme==this.scheme && host==this.host && port==this.port
+                    && credentials==this.credentials && properties==this.properties)
+                return this;
+
+            return get(handler, scheme, host, port, credentials, properties);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(o==this)
+                return true;
+
+            if(!(o instanceof Authority))
+                return false;
+
+            Authority authority = (Authority)o;
+
+            return hashCode==authority.hashCode
+                && handler==authority.handler
+                && port==authority.port
+                && StringUtils.equals(scheme, authority.scheme, true)
+                && StringUtils.equals(host, authority.host, true)
+                && credentialsEquals(credentials, authority.credentials)
+                && propertiesEquals(properties, authority.properties);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
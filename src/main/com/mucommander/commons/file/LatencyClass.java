@@ -0,0 +1,35 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+/**
+ * Describes how long a round-trip to a file's storage takes, in orders of magnitude. This hint is carried by
+ * {@link FileCapabilities} and lets callers decide, for instance, whether to cache or prefetch data.
+ * @see PerformanceHints
+ */
+public enum LatencyClass {
+
+    /** Files are on a local volume: round-trips take microseconds */
+    LOCAL,
+
+    /** Files are on a server that is usually on the local network: round-trips take about a millisecond */
+    LAN,
+
+    /** Files are on a server that is usually remote: round-trips take tens to hundreds of milliseconds */
+    WAN
+}
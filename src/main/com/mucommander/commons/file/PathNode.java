@@ -0,0 +1,301 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+/**
+ * <code>PathNode</code> is the immutable, parent-linked representation of a URL path that is used by {@link FileURL}.
+ * A node is either:
+ * <ul>
+ *  <li>a root node, that holds a whole path. Paths that are parsed or set explicitly are stored as root nodes</li>
+ *  <li>a child node, that holds a name and a reference to the node of its parent's path. The path of a child node
+ * is the concatenation of its parent's path, a path separator (unless the parent's path already ends with one) and
+ * its name</li>
+ * </ul>
+ * Children of a same folder share their parent's node, so that holding a large tree of files in memory costs a node
+ * and a name per file, rather than the whole path of each file. Path strings are built when they are requested and
+ * are not retained.
+ *
+ * <p>Nodes do not hold the path separator: it is passed to the methods that need it, so that nodes can be shared by
+ * URLs whose handler changes.</p>
+ */
+final class PathNode {
+
+    /** Node of the parent's path, null if this node holds a whole path */
+    private final PathNode parent;
+
+    /** Name relative to the parent's path, or whole path if this node has no parent */
+    private final String name;
+
+
+    /**
+     * Creates a new root node holding the given path.
+     *
+     * @param path the whole path
+     */
+    PathNode(String path) {
+        this(null, path);
+    }
+
+    /**
+     * Creates a new node with the given parent and name.
+     *
+     * @param parent node of the parent's path, <code>null</code> if <code>name</code> is a whole path
+     * @param name name relative to the parent's path, or whole path if <code>parent</code> is <code>null</code>
+     */
+    private PathNode(PathNode parent, String name) {
+        this.parent = parent;
+        this.name = name;
+    }
+
+    /**
+     * Returns a new node for the child with the given name, that references this node as its parent.
+     *
+     * @param name name of the child, or path relative to this node's path
+     * @return a new node for the child with the given name
+     */
+    PathNode getChild(String name) {
+        return new PathNode(this, name);
+    }
+
+    /**
+     * Returns the node of the parent path, <code>null</code> if the path has no parent (the path is "/").
+     * If this node is a single path fragment, its parent node is returned as is and may not end with a separator.
+     * Otherwise, a new root node is created with the parent path, including a trailing separator.
+     *
+     * @param separator the path separator
+     * @return the node of the parent path, <code>null</code> if the path has no parent
+     */
+    PathNode getParent(String separator) {
+        if(isSingleFragment(separator) && !parent.isSeparatorlessRoot(separator))
+            return parent;
+
+        String path = getPath(separator);
+
+        // If path equals '/', it has no parent
+        if(path.equals("/") || path.equals(""))
+            return null;
+
+        // Remove any trailing separator
+        int len = path.endsWith(separator)?path.length()-separator.length():path.length();
+
+        // Resolve parent folder's path
+        int lastSeparatorPos = path.lastIndexOf(separator, len-separator.length());
+        if(lastSeparatorPos==-1)
+            return null;
+
+        return new PathNode(path.substring(0, lastSeparatorPos+1));     // Keep trailing separator
+    }
+
+    /**
+     * Returns a node for the same path with a trailing separator: this node if its path already ends with one or
+     * is "/", a new node that shares this node's parent otherwise.
+     *
+     * @param separator the path separator
+     * @return a node for the same path with a trailing separator
+     */
+    PathNode withTrailingSeparator(String separator) {
+        if(isPathPrefix(separator))
+            return this;
+
+        return new PathNode(parent, name.concat(separator));
+    }
+
+    /**
+     * Returns <code>true</code> if children names can be appended to this node's path as it is, i.e. if the path
+     * ends with a separator or is "/".
+     *
+     * @param separator the path separator
+     * @return <code>true</code> if children names can be appended to this node's path as it is
+     */
+    private boolean isPathPrefix(String separator) {
+        return name.endsWith(separator) || isSeparatorlessRoot(separator);
+    }
+
+    /**
+     * Returns <code>true</code> if this node's path is "/" and the path separator is not, as it is the case for local
+     * paths under Windows. Children names are appended to such a path without a separator.
+     *
+     * @param separator the path separator
+     * @return <code>true</code> if this node's path is "/" and the path separator is not
+     */
+    private boolean isSeparatorlessRoot(String separator) {
+        return parent==null && name.equals("/") && !separator.equals("/");
+    }
+
+    /**
+     * Returns <code>true</code> if this node is a child node whose name is a single path fragment.
+     *
+     * @param separator the path separator
+     * @return <code>true</code> if this node's name is a single path fragment
+     */
+    private boolean isSingleFragment(String separator) {
+        return parent!=null && name.length()>0 && name.indexOf(separator)==-1;
+    }
+
+    /**
+     * Returns the path this node represents. The path of child nodes is built every time this method is called.
+     *
+     * @param separator the path separator
+     * @return the path this node represents
+     */
+    String getPath(String separator) {
+        if(parent==null)
+            return name;
+
+        StringBuilder sb = new StringBuilder(getLength(separator));
+        appendPath(sb, separator);
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the length of the path this node represents.
+     *
+     * @param separator the path separator
+     * @return the length of the path this node represents
+     */
+    private int getLength(String separator) {
+        if(parent==null)
+            return name.length();
+
+        return parent.getLength(separator) + (parent.isPathPrefix(separator)?0:separator.length()) + name.length();
+    }
+
+    /**
+     * Appends the path this node represents to the given <code>StringBuilder</code>.
+     *
+     * @param sb the StringBuilder to append the path to
+     * @param separator the path separator
+     */
+    private void appendPath(StringBuilder sb, String separator) {
+        if(parent!=null) {
+            parent.appendPath(sb, separator);
+            if(!parent.isPathPrefix(separator))
+                sb.append(separator);
+        }
+
+        sb.append(name);
+    }
+
+    /**
+     * Returns the filename of the path this node represents, <code>null</code> if it doesn't have one (e.g. if the path
+     * is "/"). No string is created for child nodes that are single path fragments.
+     *
+     * @param separator the path separator
+     * @return the filename of the path, <code>null</code> if it doesn't have one
+     * @see FileURL#getFilenameFromPath(String, String)
+     */
+    String getFilename(String separator) {
+        if(isSingleFragment(separator) && !parent.isSeparatorlessRoot(separator))
+            return name;
+
+        return FileURL.getFilenameFromPath(getPath(separator), separator);
+    }
+
+    /**
+     * Returns <code>true</code> if this node's path is "/".
+     *
+     * @return <code>true</code> if this node's path is "/"
+     */
+    boolean isRoot() {
+        return parent==null?name.equals("/"):name.length()==0 && parent.isRoot();
+    }
+
+    /**
+     * Returns the hash code of the path this node represents, without its trailing separator (if any) and with
+     * the case of characters folded if paths are not {@link FileURL#CASE_SENSITIVE_PATHS case-sensitive}.
+     * The path is hashed in place: no string is created.
+     *
+     * @param separator the path separator
+     * @return the hash code of the path
+     */
+    int getHashCode(String separator) {
+        return parent==null
+            ?hashName(0, separator)
+            :parent.getChildHashCode(parent.getHashCode(separator), name, separator);
+    }
+
+    /**
+     * Returns the hash code of the path of this node's child with the given name, continuing the given hash code of
+     * this node's path. This allows the hash code of a child path to be computed from its parent's in constant time.
+     *
+     * @param hashCode the hash code of this node's path, as returned by {@link #getHashCode(String)}
+     * @param name name of the child
+     * @param separator the path separator
+     * @return the hash code of the child's path
+     */
+    int getChildHashCode(int hashCode, String name, String separator) {
+        // Continue the hash code with the separator that precedes the name (if any), and the name itself
+        if(!isSeparatorlessRoot(separator))
+            hashCode = FileURL.hashPath(hashCode, separator, 0, separator.length());
+
+        return hashName(hashCode, name, separator);
+    }
+
+    /**
+     * Continues the given hash code with this node's name, without its trailing separator.
+     *
+     * @param h the hash code to continue
+     * @param separator the path separator
+     * @return the continued hash code
+     */
+    private int hashName(int h, String separator) {
+        return hashName(h, name, separator);
+    }
+
+    /**
+     * Continues the given hash code with the given name, without its trailing separator.
+     *
+     * @param h the hash code to continue
+     * @param name the name to hash
+     * @param separator the path separator
+     * @return the continued hash code
+     */
+    private static int hashName(int h, String name, String separator) {
+        return FileURL.hashPath(h, name, 0, name.endsWith(separator)?name.length()-separator.length():name.length());
+    }
+
+    /**
+     * Returns <code>true</code> if the paths of the given nodes are equal, following the rules of
+     * {@link FileURL#pathEquals(FileURL)}. Paths are compared one name at a time for as long as both nodes are single
+     * path fragments, which saves building the paths of children that share a parent.
+     *
+     * @param node1 the first node to compare
+     * @param separator1 the path separator of the first node
+     * @param node2 the second node to compare
+     * @param separator2 the path separator of the second node
+     * @return <code>true</code> if the paths of the given nodes are equal
+     */
+    static boolean pathEquals(PathNode node1, String separator1, PathNode node2, String separator2) {
+        String separator = separator1.equals(separator2)?separator1:null;
+
+        while(node1.parent!=node2.parent) {
+            if(separator==null || !(node1.isSingleFragment(separator) && node2.isSingleFragment(separator)))
+                return FileURL.pathEquals(node1.getPath(separator1), node2.getPath(separator2), separator);
+
+            if(!FileURL.pathEquals(node1.name, node2.name, null))
+                return false;
+
+            node1 = node1.parent;
+            node2 = node2.parent;
+        }
+
+        // Both nodes have the same parent, or hold a whole path
+        return FileURL.pathEquals(node1.name, node2.name, separator);
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares the performance characteristics of an {@link AbstractFile} implementation. These hints are read once per
+ * class by {@link FileCapabilities}, and are inherited by subclasses. Implementations that are not annotated get the
+ * default values.
+ * @see FileCapabilities
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+@Documented
+public @interface PerformanceHints {
+
+    /**
+     * Size of the blocks in which the file's data is best read and written.
+     */
+    int preferredBlockSize() default AbstractFile.IO_BUFFER_SIZE;
+
+    /**
+     * <code>true</code> if reading a range of the file with a random access stream costs little more than reading
+     * the same amount of data sequentially, <code>false</code> if each seek implies a new request.
+     */
+    boolean rangedReadsCheap() default true;
+
+    /**
+     * Maximum number of operations that are worth performing concurrently on the file's storage,
+     * <code>Integer.MAX_VALUE</code> if the protocol does not bound it.
+     */
+    int maxConcurrency() default FileCapabilities.DEFAULT_MAX_CONCURRENCY;
+
+    /**
+     * Round-trip time to the file's storage.
+     */
+    LatencyClass latency() default LatencyClass.LAN;
+}
@@ -0,0 +1,46 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+/**
+ * An {@link ArchiveFormatProvider} whose archives can be recognized by their contents, using one or several
+ * signatures (a.k.a. magic bytes) located at a fixed offset from the beginning of the file.
+ *
+ * <p>Archive formats are normally associated with files based on their filename, see
+ * {@link ArchiveFormatProvider#getFilenameFilter()}. Providers implementing this interface allow archives that lack
+ * a proper extension to be identified with {@link FileFactory#getArchiveFormatProvider(AbstractFile, boolean)}
+ * and {@link FileFactory#wrapArchive(AbstractFile, boolean)}.</p>
+ * @see FileFactory#getArchiveFormatProvider(AbstractFile, boolean)
+ */
+public interface SniffableArchiveFormatProvider extends ArchiveFormatProvider {
+
+    /**
+     * Returns the offset of the signatures returned by {@link #getSignatures()}, from the beginning of the file.
+     *
+     * @return the offset of the signatures, from the beginning of the file
+     */
+    public int getSignatureOffset();
+
+    /**
+     * Returns the signatures that identify archives of this format. A file is considered to be an archive of this
+     * format if its contents at {@link #getSignatureOffset()} start with any of the returned signatures.
+     *
+     * @return the signatures that identify archives of this format
+     */
+    public byte[][] getSignatures();
+}
@@ -18,9 +18,11 @@
 
 package com.mucommander.commons.file.archiver;
 
+import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FileAttributes;
 import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.SimpleFilePermissions;
+import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.file.impl.tar.provider.TarEntry;
 import com.mucommander.commons.file.impl.tar.provider.TarOutputStream;
 
@@ -42,8 +44,9 @@ class TarArchiver extends Archiver {
         super(outputStream);
 
         this.tos = new TarOutputStream(outputStream);
-        // Specifies how to handle files which filename is > 100 chars (default is to fail!)
-        this.tos.setLongFileMode(TarOutputStream.LONGFILE_GNU);
+        // Specifies how to handle files which filename is > 100 chars (default is to fail!). PAX extended headers
+        // also preserve non-ASCII names, sub-second dates and sizes of 8GB and more.
+        this.tos.setLongFileMode(TarOutputStream.LONGFILE_POSIX);
     }
 
 
@@ -66,6 +69,16 @@ class TarArchiver extends Archiver {
         if(!isDirectory && size>=0)		// Do not set size if file is directory or file size is unknown!
             entry.setSize(size);
 
+        // Store only the data regions of sparse local files
+        if(!isDirectory && size>0 && (attributes instanceof AbstractFile)) {
+            LocalFile localFile = ((AbstractFile)attributes).getAncestor(LocalFile.class);
+            if(localFile!=null) {
+                long dataRegions[] = localFile.getDataRegions();
+                if(dataRegions!=null && isSparse(dataRegions, size))
+                    entry.setSparseMap(dataRegions);
+            }
+        }
+
         // Set the entry's date and permissions
         entry.setModTime(attributes.getDate());
         entry.setMode(SimpleFilePermissions.padPermissions(attributes.getPermissions(), isDirectory
@@ -83,6 +96,21 @@ class TarArchiver extends Archiver {
     }
 
 
+    /**
+     * Returns <code>true</code> if the given data regions do not cover the whole file.
+     *
+     * @param dataRegions offset/length pairs of the data regions of the file
+     * @param size size of the file
+     * @return true if the file contains holes
+     */
+    private static boolean isSparse(long dataRegions[], long size) {
+        long dataSize = 0;
+        for(int i=1; i<dataRegions.length; i+=2)
+            dataSize += dataRegions[i];
+
+        return dataSize<size;
+    }
+
     @Override
     public void close() throws IOException {
         // Close current entry
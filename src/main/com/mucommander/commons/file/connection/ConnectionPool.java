@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.Credentials;
 import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.metrics.FileMetrics;
 
 
 /**
@@ -83,7 +84,9 @@ public class ConnectionPool implements Runnable {
                         LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
                         try {
                             // Wait for a ConnectionHandler to be released or removed from the pool
+                            long waitStart = FileMetrics.start();
                             connectionHandlers.wait();      // relinquishes the lock on connectionHandlers
+                            FileMetrics.poolWait(realm.getScheme(), waitStart);
                             break;
                         }
                         catch(InterruptedException e) {
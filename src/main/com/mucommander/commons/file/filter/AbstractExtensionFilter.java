@@ -50,6 +50,19 @@ public class AbstractExtensionFilter extends AbstractStringCriterionFilter {
             this.extensions[i] = extensions[i].toCharArray();
     }
 
+    /**
+     * Returns the extensions this filter matches criterion values against.
+     *
+     * @return the extensions this filter matches criterion values against
+     */
+    public String[] getExtensions() {
+        String[] extensions = new String[this.extensions.length];
+        for(int i = 0; i < extensions.length; i++)
+            extensions[i] = new String(this.extensions[i]);
+
+        return extensions;
+    }
+
 
     //////////////////////////////////////////////////
     // AbstractStringCriterionFilter implementation //
@@ -207,11 +207,13 @@ public class CachedFile extends ProxyFile {
      * using the <code>java.io.FileSystem#getBooleanAttributes(java.io.File)</code> method.
      * The given {@link AbstractFile} must be a local file or a proxy to a local file ('file' protocol). This method
      * must only be called if the {@link #getFileAttributesAvailable} field is <code>true</code>.
+     * Nothing is done if the file holds attributes that were {@link LocalFile#hasPrefetchedAttributes() prefetched}
+     * by its parent, as those are cheaper to access.
      */
     private void getFileAttributes(AbstractFile file) {
         file = file.getTopAncestor();
 
-        if(file instanceof LocalFile) {
+        if(file instanceof LocalFile && !((LocalFile)file).hasPrefetchedAttributes()) {
             try {
                 int ba = (Integer) mGetBooleanAttributes.invoke(fs, new Object[]{file.getUnderlyingFileObject()});
 
@@ -307,6 +309,9 @@ public class CachedFile extends ProxyFile {
     public String getAbsolutePath() {
         if(!getAbsolutePathSet) {
             getAbsolutePath = file.getAbsolutePath();
+            // The absolute path is most often equal to the canonical path: retain a single copy of the string
+            if(getCanonicalPathSet && getAbsolutePath!=null && getAbsolutePath.equals(getCanonicalPath))
+                getAbsolutePath = getCanonicalPath;
             getAbsolutePathSet = true;
         }
 
@@ -317,6 +322,9 @@ public class CachedFile extends ProxyFile {
     public String getCanonicalPath() {
         if(!getCanonicalPathSet) {
             getCanonicalPath = file.getCanonicalPath();
+            // Likewise, whichever of the two paths is requested first
+            if(getAbsolutePathSet && getCanonicalPath!=null && getCanonicalPath.equals(getAbsolutePath))
+                getCanonicalPath = getAbsolutePath;
             getCanonicalPathSet = true;
         }
 
@@ -15,36 +15,51 @@
  * You should have received a copy of the GNU Lesser General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-
-
 package com.mucommander.commons.file.impl;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileCapabilities;
 import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
+import com.mucommander.commons.file.filter.FileFilter;
+import com.mucommander.commons.file.filter.FilenameFilter;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.mucommander.commons.io.RandomAccessOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.util.Random;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * DebugFile is a {@link ProxyFile} to be used for debugging purposes. It allows to track the calls made to
  * {@link com.mucommander.commons.file.AbstractFile} methods that are commonly I/O-bound, by logging calls to each of those
  * methods. It also allows to slow those methods down to simulate a slow filesytem.
  *
+ * <p>The behavior of a DebugFile is described by a {@link DebugProfile}, which specifies the latency added to metadata
+ * calls, requests and seeks, the bandwidth available to streams and the rate at which requests fail. Every call is
+ * recorded in the profile's {@link DebugStatistics}. Streams returned by a DebugFile are themselves traced and
+ * throttled, and the children and parent it returns are DebugFile instances sharing the same profile, so a whole
+ * file tree can be debugged from its root. To debug all the files of a protocol, install a profile with
+ * {@link com.mucommander.commons.file.FileFactory#installDebugProfile(String, DebugProfile)}.</p>
+ *
+ * <p>A DebugFile reports the {@link #getCapabilities() capabilities} of the file it proxies, so that code which tunes
+ * itself to the filesystem behaves as it would with the proxied file.</p>
+ *
+ * @see DebugProfile
  * @author Maxence Bernard
  */
 public class DebugFile extends ProxyFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(DebugFile.class);
 
-    /** Maximum latency in milliseconds */
-    private int maxLatency;
+    /** Describes the behavior of this file */
+    private DebugProfile profile;
 
-    /** Used to randomize the latency for each calls to slowed-down methods */
-    private static Random random = new Random();
 
-    
     /**
      * Creates a DebugFile that proxies the calls made to the given AbstractFile's methods, with no latency.
      *
@@ -62,9 +77,22 @@ public class DebugFile extends ProxyFile {
      * @param maxLatency the maximum amount of latency in milliseconds
      */
     public DebugFile(AbstractFile file, int maxLatency) {
+        this(file, new DebugProfile());
+
+        setMaxLatency(maxLatency);
+    }
+
+    /**
+     * Creates a DebugFile that proxies the calls made to the given AbstractFile and behaves as described by the
+     * given profile.
+     *
+     * @param file the AbstractFile to proxy and debug
+     * @param profile describes the latency, bandwidth and errors to simulate, and accounts for the calls
+     */
+    public DebugFile(AbstractFile file, DebugProfile profile) {
         super(file);
-        
-        this.maxLatency = maxLatency;
+
+        this.profile = profile;
     }
 
 
@@ -73,26 +101,39 @@ public class DebugFile extends ProxyFile {
      * (i.e. those that are overridden by this class). The latency is randomized for each method call and uniformly 
      * distributed, the specified value serving as the maximum.
      *
+     * <p>This is a shorthand for setting a uniform metadata and request latency on this file's profile.</p>
+     *
      * @param maxLatency the maximum amount of latency in milliseconds to add to IO-bound AbstractFile method calls
      * (those overridden by this class).
      */
     public void setMaxLatency(int maxLatency) {
-        this.maxLatency = maxLatency;
+        DebugProfile.LatencyDistribution latency = maxLatency>0
+                ?DebugProfile.uniform(0, maxLatency*1000L)
+                :DebugProfile.NO_LATENCY;
+
+        profile.setMetadataLatency(latency);
+        profile.setRequestLatency(latency);
     }
 
+    /**
+     * Returns the profile that describes the behavior of this file.
+     *
+     * @return the profile that describes the behavior of this file
+     */
+    public DebugProfile getProfile() {
+        return profile;
+    }
 
     /**
-     * Sleeps a random number of milliseconds, up to {@link #maxLatency}.
+     * Returns the statistics of the calls made to this file, and to the other files sharing its profile.
+     *
+     * @return the statistics of the calls made to this file
      */
-    private void lag() {
-        if(maxLatency>0) {
-            try {
-                Thread.sleep(random.nextInt(maxLatency));
-            }
-            catch(InterruptedException e) {}
-        }
+    public DebugStatistics getStatistics() {
+        return profile.getStatistics();
     }
 
+
     /**
      * Returns the debug string printed for all calls made to the AbstractFile methods overridden by this class.
      */
@@ -100,6 +141,83 @@ public class DebugFile extends ProxyFile {
         return "called on "+super.getAbsolutePath()+" ("+file.getClass().getName()+")";
     }
 
+    /**
+     * Traces a call to the given operation, sleeps for the given latency and returns the time at which the call
+     * started.
+     *
+     * @param operation name of the operation
+     * @param latency the latency to add to the call
+     * @return the time at which the call started, in System.nanoTime() time
+     */
+    private long begin(String operation, DebugProfile.LatencyDistribution latency) {
+        if(LOGGER.isTraceEnabled())
+            LOGGER.trace(operation+" "+getDebugString());
+
+        long start = System.nanoTime();
+        profile.lag(latency);
+
+        return start;
+    }
+
+    /**
+     * Begins a call to a method that does not query the storage: the call is traced and recorded, but not slowed down.
+     */
+    private long beginLocal(String operation) {
+        return begin(operation, DebugProfile.NO_LATENCY);
+    }
+
+    /**
+     * Begins a metadata call, slowed down by the profile's metadata latency.
+     */
+    private long beginMetadata(String operation) {
+        return begin(operation, profile.getMetadataLatency());
+    }
+
+    /**
+     * Begins a request, slowed down by the profile's request latency, and throws an <code>IOException</code> if the
+     * request is chosen to fail.
+     *
+     * @throws IOException if the request is chosen to fail
+     */
+    private long beginRequest(String operation) throws IOException {
+        long start = begin(operation, profile.getRequestLatency());
+        if(profile.shouldFail()) {
+            end(operation, start, true);
+            throw new IOException("Injected failure: "+operation+" "+getDebugString());
+        }
+
+        return start;
+    }
+
+    /**
+     * Records the end of a call started at the given time.
+     */
+    private void end(String operation, long start, boolean failed) {
+        profile.getStatistics().record(operation, System.nanoTime()-start, failed);
+    }
+
+    /**
+     * Wraps the given file in a DebugFile sharing this file's profile, unless it already is one.
+     */
+    private AbstractFile wrap(AbstractFile file) {
+        if(file==null || file.hasAncestor(DebugFile.class))
+            return file;
+
+        return new DebugFile(file, profile);
+    }
+
+    /**
+     * Wraps the given files in DebugFile instances sharing this file's profile.
+     */
+    private AbstractFile[] wrap(AbstractFile[] files) {
+        if(files!=null) {
+            for(int i=0; i<files.length; i++)
+                files[i] = wrap(files[i]);
+        }
+
+        return files;
+    }
+
 
     /////////////////////////////////////////////////////
     // Overridden methods (traced/slowed down methods) //
@@ -107,177 +225,831 @@ public class DebugFile extends ProxyFile {
 
     @Override
     public long getDate() {
-        LOGGER.trace(getDebugString());
-        lag();
+        long start = beginMetadata("getDate");
+        try {
+            return super.getDate();
+        }
+        finally {
+            end("getDate", start, false);
+        }
+    }
 
-        return super.getDate();
+    @Override
+    public void changeDate(long lastModified) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("changeDate");
+        boolean failed = true;
+        try {
+            super.changeDate(lastModified);
+            failed = false;
+        }
+        finally {
+            end("changeDate", start, failed);
+        }
     }
 
     @Override
     public long getSize() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.getSize();
+        long start = beginMetadata("getSize");
+        try {
+            return super.getSize();
+        }
+        finally {
+            end("getSize", start, false);
+        }
     }
 
     @Override
     public boolean exists() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.exists();
+        long start = beginMetadata("exists");
+        try {
+            return super.exists();
+        }
+        finally {
+            end("exists", start, false);
+        }
     }
 
     @Override
     public boolean isDirectory() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.isDirectory();
+        long start = beginMetadata("isDirectory");
+        try {
+            return super.isDirectory();
+        }
+        finally {
+            end("isDirectory", start, false);
+        }
     }
 
     @Override
     public boolean isSymlink() {
-        LOGGER.trace(getDebugString());
-        lag();
+        long start = beginMetadata("isSymlink");
+        try {
+            return super.isSymlink();
+        }
+        finally {
+            end("isSymlink", start, false);
+        }
+    }
 
-        return super.isSymlink();
+    @Override
+    public AbstractFile[] ls() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("ls");
+        boolean failed = true;
+        try {
+            AbstractFile[] children = wrap(super.ls());
+            failed = false;
+            return children;
+        }
+        finally {
+            end("ls", start, failed);
+        }
     }
 
     @Override
-    public long getFreeSpace() throws IOException, UnsupportedFileOperationException {
-        LOGGER.trace(getDebugString());
-        lag();
+    public AbstractFile[] ls(FileFilter filter) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("ls");
+        boolean failed = true;
+        try {
+            AbstractFile[] children = wrap(super.ls(filter));
+            failed = false;
+            return children;
+        }
+        finally {
+            end("ls", start, failed);
+        }
+    }
 
-        return super.getFreeSpace();
+    @Override
+    public AbstractFile[] ls(FilenameFilter filter) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("ls");
+        boolean failed = true;
+        try {
+            AbstractFile[] children = wrap(super.ls(filter));
+            failed = false;
+            return children;
+        }
+        finally {
+            end("ls", start, failed);
+        }
     }
 
     @Override
-    public long getTotalSpace() throws IOException, UnsupportedFileOperationException {
-        LOGGER.trace(getDebugString());
-        lag();
+    public void mkdir() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("mkdir");
+        boolean failed = true;
+        try {
+            super.mkdir();
+            failed = false;
+        }
+        finally {
+            end("mkdir", start, failed);
+        }
+    }
 
-        return super.getTotalSpace();
+    @Override
+    public void mkfile() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("mkfile");
+        boolean failed = true;
+        try {
+            super.mkfile();
+            failed = false;
+        }
+        finally {
+            end("mkfile", start, failed);
+        }
     }
 
     @Override
-    public String getName() {
-        LOGGER.trace(getDebugString());
-        lag();
+    public InputStream getInputStream() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getInputStream");
+        boolean failed = true;
+        try {
+            InputStream in = new DebugInputStream(super.getInputStream(), profile, false);
+            failed = false;
+            return in;
+        }
+        finally {
+            end("getInputStream", start, failed);
+        }
+    }
 
-        return super.getName();
+    @Override
+    public InputStream getInputStream(long offset) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getInputStream");
+        boolean failed = true;
+        try {
+            InputStream in = new DebugInputStream(super.getInputStream(offset), profile, false);
+            failed = false;
+            return in;
+        }
+        finally {
+            end("getInputStream", start, failed);
+        }
     }
 
     @Override
-    public String getExtension() {
-        LOGGER.trace(getDebugString());
-        lag();
+    public OutputStream getOutputStream() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getOutputStream");
+        boolean failed = true;
+        try {
+            OutputStream out = new DebugOutputStream(super.getOutputStream(), profile);
+            failed = false;
+            return out;
+        }
+        finally {
+            end("getOutputStream", start, failed);
+        }
+    }
 
-        return super.getExtension();
+    @Override
+    public OutputStream getAppendOutputStream() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getAppendOutputStream");
+        boolean failed = true;
+        try {
+            OutputStream out = new DebugOutputStream(super.getAppendOutputStream(), profile);
+            failed = false;
+            return out;
+        }
+        finally {
+            end("getAppendOutputStream", start, failed);
+        }
     }
 
     @Override
-    public String getAbsolutePath() {
-        LOGGER.trace(getDebugString());
-        lag();
+    public RandomAccessInputStream getRandomAccessInputStream() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getRandomAccessInputStream");
+        boolean failed = true;
+        try {
+            RandomAccessInputStream rais = new DebugRandomAccessInputStream(super.getRandomAccessInputStream(), profile);
+            failed = false;
+            return rais;
+        }
+        finally {
+            end("getRandomAccessInputStream", start, failed);
+        }
+    }
 
-        return super.getAbsolutePath();
+    @Override
+    public RandomAccessOutputStream getRandomAccessOutputStream() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getRandomAccessOutputStream");
+        boolean failed = true;
+        try {
+            RandomAccessOutputStream raos = new DebugRandomAccessOutputStream(super.getRandomAccessOutputStream(), profile);
+            failed = false;
+            return raos;
+        }
+        finally {
+            end("getRandomAccessOutputStream", start, failed);
+        }
     }
 
     @Override
-    public String getCanonicalPath() {
-        LOGGER.trace(getDebugString());
-        lag();
+    public void copyStream(InputStream in, boolean append, long length) throws FileTransferException {
+        // The proxied file writes to its own output stream: account for the data it reads from the stream instead
+        long start = beginLocal("copyStream");
+        boolean failed = true;
+        try {
+            super.copyStream(new DebugInputStream(in, profile, true), append, length);
+            failed = false;
+        }
+        finally {
+            end("copyStream", start, failed);
+        }
+    }
+
+    @Override
+    public void delete() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("delete");
+        boolean failed = true;
+        try {
+            super.delete();
+            failed = false;
+        }
+        finally {
+            end("delete", start, failed);
+        }
+    }
+
+    @Override
+    public void deleteRecursively() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("deleteRecursively");
+        boolean failed = true;
+        try {
+            super.deleteRecursively();
+            failed = false;
+        }
+        finally {
+            end("deleteRecursively", start, failed);
+        }
+    }
+
+    @Override
+    public void copyRemotelyTo(AbstractFile destFile) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("copyRemotelyTo");
+        boolean failed = true;
+        try {
+            super.copyRemotelyTo(destFile);
+            failed = false;
+        }
+        finally {
+            end("copyRemotelyTo", start, failed);
+        }
+    }
+
+    @Override
+    public void renameTo(AbstractFile destFile) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("renameTo");
+        boolean failed = true;
+        try {
+            super.renameTo(destFile);
+            failed = false;
+        }
+        finally {
+            end("renameTo", start, failed);
+        }
+    }
+
+    @Override
+    public void changePermission(int access, int permission, boolean enabled) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("changePermission");
+        boolean failed = true;
+        try {
+            super.changePermission(access, permission, enabled);
+            failed = false;
+        }
+        finally {
+            end("changePermission", start, failed);
+        }
+    }
+
+    @Override
+    public void changePermissions(int permissions) throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("changePermissions");
+        boolean failed = true;
+        try {
+            super.changePermissions(permissions);
+            failed = false;
+        }
+        finally {
+            end("changePermissions", start, failed);
+        }
+    }
+
+    @Override
+    public long getFreeSpace() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getFreeSpace");
+        boolean failed = true;
+        try {
+            long freeSpace = super.getFreeSpace();
+            failed = false;
+            return freeSpace;
+        }
+        finally {
+            end("getFreeSpace", start, failed);
+        }
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException, UnsupportedFileOperationException {
+        long start = beginRequest("getTotalSpace");
+        boolean failed = true;
+        try {
+            long totalSpace = super.getTotalSpace();
+            failed = false;
+            return totalSpace;
+        }
+        finally {
+            end("getTotalSpace", start, failed);
+        }
+    }
+
+    @Override
+    public String getName() {
+        long start = beginLocal("getName");
+        try {
+            return super.getName();
+        }
+        finally {
+            end("getName", start, false);
+        }
+    }
+
+    @Override
+    public String getExtension() {
+        long start = beginLocal("getExtension");
+        try {
+            return super.getExtension();
+        }
+        finally {
+            end("getExtension", start, false);
+        }
+    }
 
-        return super.getCanonicalPath();
+    @Override
+    public String getAbsolutePath() {
+        long start = beginLocal("getAbsolutePath");
+        try {
+            return super.getAbsolutePath();
+        }
+        finally {
+            end("getAbsolutePath", start, false);
+        }
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        long start = beginMetadata("getCanonicalPath");
+        try {
+            return super.getCanonicalPath();
+        }
+        finally {
+            end("getCanonicalPath", start, false);
+        }
     }
 
     @Override
     public AbstractFile getCanonicalFile() {
-        LOGGER.trace(getDebugString());
-        lag();
+        long start = beginMetadata("getCanonicalFile");
+        try {
+            return super.getCanonicalFile();
+        }
+        finally {
+            end("getCanonicalFile", start, false);
+        }
+    }
 
-        return super.getCanonicalFile();
+    @Override
+    public AbstractFile getSymlinkTarget() throws IOException {
+        long start = beginMetadata("getSymlinkTarget");
+        boolean failed = true;
+        try {
+            AbstractFile target = super.getSymlinkTarget();
+            failed = false;
+            return target;
+        }
+        finally {
+            end("getSymlinkTarget", start, failed);
+        }
     }
 
     @Override
-    public boolean isArchive() {
-        LOGGER.trace(getDebugString());
-        lag();
+    public Object getFileKey() {
+        long start = beginMetadata("getFileKey");
+        try {
+            return super.getFileKey();
+        }
+        finally {
+            end("getFileKey", start, false);
+        }
+    }
 
-        return super.isArchive();
+    @Override
+    public boolean isArchive() {
+        long start = beginLocal("isArchive");
+        try {
+            return super.isArchive();
+        }
+        finally {
+            end("isArchive", start, false);
+        }
     }
 
     @Override
     public boolean isHidden() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.isHidden();
+        long start = beginMetadata("isHidden");
+        try {
+            return super.isHidden();
+        }
+        finally {
+            end("isHidden", start, false);
+        }
     }
 
     @Override
     public FilePermissions getPermissions() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.getPermissions();
+        long start = beginMetadata("getPermissions");
+        try {
+            return super.getPermissions();
+        }
+        finally {
+            end("getPermissions", start, false);
+        }
     }
 
     @Override
     public String getOwner() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.getOwner();
+        long start = beginMetadata("getOwner");
+        try {
+            return super.getOwner();
+        }
+        finally {
+            end("getOwner", start, false);
+        }
     }
 
     @Override
     public String getGroup() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.getGroup();
+        long start = beginMetadata("getGroup");
+        try {
+            return super.getGroup();
+        }
+        finally {
+            end("getGroup", start, false);
+        }
     }
 
     @Override
     public AbstractFile getRoot() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.getRoot();
+        long start = beginLocal("getRoot");
+        try {
+            return wrap(super.getRoot());
+        }
+        finally {
+            end("getRoot", start, false);
+        }
     }
 
     @Override
     public boolean isRoot() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.isRoot();
+        long start = beginLocal("isRoot");
+        try {
+            return super.isRoot();
+        }
+        finally {
+            end("isRoot", start, false);
+        }
     }
 
     @Override
     public boolean equalsCanonical(Object f) {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.equals(f);
+        long start = beginMetadata("equalsCanonical");
+        try {
+            return super.equalsCanonical(f);
+        }
+        finally {
+            end("equalsCanonical", start, false);
+        }
     }
 
     public String toString() {
-        LOGGER.trace(getDebugString());
-        lag();
-
-        return super.toString();
+        long start = beginLocal("toString");
+        try {
+            return super.toString();
+        }
+        finally {
+            end("toString", start, false);
+        }
     }
 
     @Override
     public AbstractFile getParent() {
-        LOGGER.trace(getDebugString());
-        lag();
+        long start = beginLocal("getParent");
+        try {
+            return wrap(super.getParent());
+        }
+        finally {
+            end("getParent", start, false);
+        }
+    }
+
+    /**
+     * Returns the capabilities of the proxied file, so that this file is tuned for as the proxied file would be.
+     */
+    @Override
+    public FileCapabilities getCapabilities() {
+        return file.getCapabilities();
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Traces and throttles the data read from an <code>InputStream</code>. The stream either accounts for data read
+     * from the file, or for data that the file reads from a stream to write it (see {@link DebugFile#copyStream}).
+     */
+    private static class DebugInputStream extends FilterInputStream {
+
+        private final DebugProfile profile;
+
+        /** true if the data read is written to the file */
+        private final boolean upload;
+
+        private DebugInputStream(InputStream in, DebugProfile profile, boolean upload) {
+            super(in);
+
+            this.profile = profile;
+            this.upload = upload;
+        }
+
+        private void transferred(long start, int nbBytes, boolean failed) {
+            if(nbBytes>0) {
+                if(upload) {
+                    profile.throttleWrite(nbBytes);
+                    profile.getStatistics().addBytesWritten(nbBytes);
+                }
+                else {
+                    profile.throttleRead(nbBytes);
+                    profile.getStatistics().addBytesRead(nbBytes);
+                }
+            }
+
+            profile.getStatistics().record(upload?"write":"read", System.nanoTime()-start, failed);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = -1;
+            boolean failed = true;
+            try {
+                b = super.read();
+                failed = false;
+                return b;
+            }
+            finally {
+                transferred(start, b==-1?0:1, failed);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int nbRead = -1;
+            boolean failed = true;
+            try {
+                nbRead = super.read(b, off, len);
+                failed = false;
+                return nbRead;
+            }
+            finally {
+                transferred(start, nbRead, failed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                super.close();
+                failed = false;
+            }
+            finally {
+                profile.getStatistics().record("close", System.nanoTime()-start, failed);
+            }
+        }
+    }
+
+    /**
+     * Traces and throttles the data written to an <code>OutputStream</code>.
+     */
+    private static class DebugOutputStream extends FilterOutputStream {
+
+        private final DebugProfile profile;
+
+        private DebugOutputStream(OutputStream out, DebugProfile profile) {
+            super(out);
+
+            this.profile = profile;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
 
-        return super.getParent();
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                // FilterOutputStream would write bytes one by one
+                out.write(b, off, len);
+                failed = false;
+            }
+            finally {
+                if(!failed) {
+                    profile.throttleWrite(len);
+                    profile.getStatistics().addBytesWritten(len);
+                }
+                profile.getStatistics().record("write", System.nanoTime()-start, failed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                super.close();
+                failed = false;
+            }
+            finally {
+                profile.getStatistics().record("close", System.nanoTime()-start, failed);
+            }
+        }
     }
 
+    /**
+     * Traces and throttles the data read from a <code>RandomAccessInputStream</code>, and slows seeks down.
+     */
+    private static class DebugRandomAccessInputStream extends RandomAccessInputStream {
+
+        private final RandomAccessInputStream rais;
+        private final DebugProfile profile;
+
+        private DebugRandomAccessInputStream(RandomAccessInputStream rais, DebugProfile profile) {
+            this.rais = rais;
+            this.profile = profile;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1)==-1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int nbRead = -1;
+            boolean failed = true;
+            try {
+                nbRead = rais.read(b, off, len);
+                failed = false;
+                return nbRead;
+            }
+            finally {
+                if(nbRead>0) {
+                    profile.throttleRead(nbRead);
+                    profile.getStatistics().addBytesRead(nbRead);
+                }
+                profile.getStatistics().record("read", System.nanoTime()-start, failed);
+            }
+        }
+
+        public void seek(long offset) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                profile.lag(profile.getSeekLatency());
+                rais.seek(offset);
+                failed = false;
+            }
+            finally {
+                profile.getStatistics().record("seek", System.nanoTime()-start, failed);
+            }
+        }
+
+        public long getOffset() throws IOException {
+            return rais.getOffset();
+        }
+
+        public long getLength() throws IOException {
+            return rais.getLength();
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                rais.close();
+                failed = false;
+            }
+            finally {
+                profile.getStatistics().record("close", System.nanoTime()-start, failed);
+            }
+        }
+    }
+
+    /**
+     * Traces and throttles the data written to a <code>RandomAccessOutputStream</code>, and slows seeks down.
+     */
+    private static class DebugRandomAccessOutputStream extends RandomAccessOutputStream {
+
+        private final RandomAccessOutputStream raos;
+        private final DebugProfile profile;
+
+        private DebugRandomAccessOutputStream(RandomAccessOutputStream raos, DebugProfile profile) {
+            this.raos = raos;
+            this.profile = profile;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                raos.write(b, off, len);
+                failed = false;
+            }
+            finally {
+                if(!failed) {
+                    profile.throttleWrite(len);
+                    profile.getStatistics().addBytesWritten(len);
+                }
+                profile.getStatistics().record("write", System.nanoTime()-start, failed);
+            }
+        }
+
+        @Override
+        public void setLength(long newLength) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                raos.setLength(newLength);
+                failed = false;
+            }
+            finally {
+                profile.getStatistics().record("setLength", System.nanoTime()-start, failed);
+            }
+        }
+
+        public void seek(long offset) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                profile.lag(profile.getSeekLatency());
+                raos.seek(offset);
+                failed = false;
+            }
+            finally {
+                profile.getStatistics().record("seek", System.nanoTime()-start, failed);
+            }
+        }
+
+        public long getOffset() throws IOException {
+            return raos.getOffset();
+        }
+
+        public long getLength() throws IOException {
+            return raos.getLength();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            raos.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                raos.close();
+                failed = false;
+            }
+            finally {
+                profile.getStatistics().record("close", System.nanoTime()-start, failed);
+            }
+        }
+    }
 }
@@ -0,0 +1,423 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl;
+
+import java.util.Random;
+
+/**
+ * A <code>DebugProfile</code> describes how the files wrapped in a {@link DebugFile} behave: how much latency is added
+ * to metadata calls and to requests, how fast data can be transferred, how often requests fail, and where the
+ * resulting calls are accounted for. A profile is typically shared by all the files of a protocol, and installed
+ * for this protocol with {@link com.mucommander.commons.file.FileFactory#installDebugProfile(String, DebugProfile)}.
+ *
+ * <p>Latencies are drawn from {@link LatencyDistribution}s, and are applied to the following calls:
+ * <ul>
+ *  <li>metadata calls, i.e. methods that query the storage for a file's attributes: {@link DebugFile#getDate()},
+ * {@link DebugFile#getSize()}, {@link DebugFile#exists()}...</li>
+ *  <li>requests, i.e. methods that list, open, create or modify files: {@link DebugFile#ls()},
+ * {@link DebugFile#getInputStream()}, {@link DebugFile#mkdir()}, {@link DebugFile#delete()}...
+ * These are also the calls that fail at the {@link #setErrorRate(double) error rate}.</li>
+ *  <li>seeks within random access streams, which are requests of their own on protocols like HTTP or Amazon S3.</li>
+ * </ul>
+ * Data read and written through streams is throttled to the read and write bandwidths. Each bandwidth is shared by
+ * all the streams of the profile, like the bandwidth of a network link.</p>
+ *
+ * <p>The {@link #createLANProfile() LAN}, {@link #createSFTPProfile() SFTP} and {@link #createS3Profile() S3} profiles
+ * approximate the behavior of these filesystems, which allows caching and concurrency features to be benchmarked
+ * against local files. A profile created with the default constructor adds no latency and no limits, which is useful
+ * to count and time calls.</p>
+ *
+ * @see DebugFile
+ * @see DebugStatistics
+ */
+public class DebugProfile {
+
+    /** A distribution that always returns a latency of zero */
+    public final static LatencyDistribution NO_LATENCY = fixed(0);
+
+    /** Latency added to metadata calls */
+    private volatile LatencyDistribution metadataLatency = NO_LATENCY;
+
+    /** Latency added to requests */
+    private volatile LatencyDistribution requestLatency = NO_LATENCY;
+
+    /** Latency added to seeks within random access streams */
+    private volatile LatencyDistribution seekLatency = NO_LATENCY;
+
+    /** Probability that a request fails */
+    private volatile double errorRate;
+
+    /** Shared by the streams reading data */
+    private final Link readLink = new Link();
+
+    /** Shared by the streams writing data */
+    private final Link writeLink = new Link();
+
+    /** Calls made to the files of this profile */
+    private final DebugStatistics statistics = new DebugStatistics();
+
+    /** Draws latencies and failures */
+    private final Random random;
+
+
+    /**
+     * Creates a profile that adds no latency, does not limit bandwidth and does not inject errors.
+     */
+    public DebugProfile() {
+        this(new Random());
+    }
+
+    /**
+     * Creates a profile that adds no latency, does not limit bandwidth and does not inject errors, and that draws
+     * latencies and failures from the given random number generator, allowing runs to be reproduced.
+     *
+     * @param random the random number generator to draw latencies and failures from
+     */
+    public DebugProfile(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Creates a profile that approximates a file server on the local network: sub-millisecond metadata calls, requests
+     * of about a millisecond and 100 MB/s transfers.
+     *
+     * @return a profile that approximates a file server on the local network
+     */
+    public static DebugProfile createLANProfile() {
+        DebugProfile profile = new DebugProfile();
+        profile.setMetadataLatency(logNormal(500, 0.3));
+        profile.setRequestLatency(logNormal(1000, 0.5));
+        profile.setReadBandwidth(100*1024*1024);
+        profile.setWriteBandwidth(100*1024*1024);
+
+        return profile;
+    }
+
+    /**
+     * Creates a profile that approximates an SFTP server over the Internet: every call is a round-trip of about
+     * 40 ms, opening a file takes two round-trips, and transfers are limited to 10 MB/s down and 5 MB/s up.
+     *
+     * @return a profile that approximates an SFTP server over the Internet
+     */
+    public static DebugProfile createSFTPProfile() {
+        DebugProfile profile = new DebugProfile();
+        profile.setMetadataLatency(logNormal(40000, 0.3));
+        profile.setRequestLatency(logNormal(80000, 0.4));
+        profile.setReadBandwidth(10*1024*1024);
+        profile.setWriteBandwidth(5*1024*1024);
+
+        return profile;
+    }
+
+    /**
+     * Creates a profile that approximates Amazon S3 accessed from outside its region: metadata calls (HEAD requests)
+     * take about 30 ms and requests about 60 ms with a long tail, seeks issue a new request, transfers are limited to
+     * 50 MB/s and one request in a thousand fails.
+     *
+     * @return a profile that approximates Amazon S3
+     */
+    public static DebugProfile createS3Profile() {
+        DebugProfile profile = new DebugProfile();
+        profile.setMetadataLatency(logNormal(30000, 0.5));
+        profile.setRequestLatency(logNormal(60000, 0.6));
+        profile.setSeekLatency(logNormal(60000, 0.6));
+        profile.setReadBandwidth(50*1024*1024);
+        profile.setWriteBandwidth(50*1024*1024);
+        profile.setErrorRate(0.001);
+
+        return profile;
+    }
+
+
+    ///////////////////
+    // Configuration //
+    ///////////////////
+
+    /**
+     * Sets the latency added to metadata calls.
+     *
+     * @param metadataLatency the latency added to metadata calls
+     */
+    public void setMetadataLatency(LatencyDistribution metadataLatency) {
+        this.metadataLatency = metadataLatency;
+    }
+
+    /**
+     * Returns the latency added to metadata calls.
+     *
+     * @return the latency added to metadata calls
+     */
+    public LatencyDistribution getMetadataLatency() {
+        return metadataLatency;
+    }
+
+    /**
+     * Sets the latency added to requests.
+     *
+     * @param requestLatency the latency added to requests
+     */
+    public void setRequestLatency(LatencyDistribution requestLatency) {
+        this.requestLatency = requestLatency;
+    }
+
+    /**
+     * Returns the latency added to requests.
+     *
+     * @return the latency added to requests
+     */
+    public LatencyDistribution getRequestLatency() {
+        return requestLatency;
+    }
+
+    /**
+     * Sets the latency added to seeks within random access streams.
+     *
+     * @param seekLatency the latency added to seeks within random access streams
+     */
+    public void setSeekLatency(LatencyDistribution seekLatency) {
+        this.seekLatency = seekLatency;
+    }
+
+    /**
+     * Returns the latency added to seeks within random access streams.
+     *
+     * @return the latency added to seeks within random access streams
+     */
+    public LatencyDistribution getSeekLatency() {
+        return seekLatency;
+    }
+
+    /**
+     * Sets the number of bytes per second that can be read, <code>0</code> for no limit.
+     *
+     * @param bandwidth the number of bytes per second that can be read, 0 for no limit
+     */
+    public void setReadBandwidth(long bandwidth) {
+        readLink.bandwidth = bandwidth;
+    }
+
+    /**
+     * Returns the number of bytes per second that can be read, <code>0</code> if there is no limit.
+     *
+     * @return the number of bytes per second that can be read, 0 if there is no limit
+     */
+    public long getReadBandwidth() {
+        return readLink.bandwidth;
+    }
+
+    /**
+     * Sets the number of bytes per second that can be written, <code>0</code> for no limit.
+     *
+     * @param bandwidth the number of bytes per second that can be written, 0 for no limit
+     */
+    public void setWriteBandwidth(long bandwidth) {
+        writeLink.bandwidth = bandwidth;
+    }
+
+    /**
+     * Returns the number of bytes per second that can be written, <code>0</code> if there is no limit.
+     *
+     * @return the number of bytes per second that can be written, 0 if there is no limit
+     */
+    public long getWriteBandwidth() {
+        return writeLink.bandwidth;
+    }
+
+    /**
+     * Sets the probability that a request fails with an <code>IOException</code>, between <code>0</code> (never)
+     * and <code>1</code> (always).
+     *
+     * @param errorRate the probability that a request fails
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Returns the probability that a request fails with an <code>IOException</code>.
+     *
+     * @return the probability that a request fails
+     */
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Returns the statistics of the calls made to the files of this profile.
+     *
+     * @return the statistics of the calls made to the files of this profile
+     */
+    public DebugStatistics getStatistics() {
+        return statistics;
+    }
+
+
+    /////////////////////////////
+    // Package-private methods //
+    /////////////////////////////
+
+    /**
+     * Sleeps for a latency drawn from the given distribution.
+     *
+     * @param latency the distribution to draw the latency from
+     */
+    void lag(LatencyDistribution latency) {
+        if(latency!=NO_LATENCY)
+            sleep(latency.nextLatency(random)*1000);
+    }
+
+    /**
+     * Returns <code>true</code> if a request should fail, according to the error rate.
+     *
+     * @return true if a request should fail
+     */
+    boolean shouldFail() {
+        double errorRate = this.errorRate;
+        return errorRate>0 && random.nextDouble()<errorRate;
+    }
+
+    /**
+     * Waits until the given number of bytes has been read at the read bandwidth.
+     *
+     * @param nbBytes number of bytes read
+     */
+    void throttleRead(long nbBytes) {
+        readLink.transfer(nbBytes);
+    }
+
+    /**
+     * Waits until the given number of bytes has been written at the write bandwidth.
+     *
+     * @param nbBytes number of bytes written
+     */
+    void throttleWrite(long nbBytes) {
+        writeLink.transfer(nbBytes);
+    }
+
+    /**
+     * Sleeps for the given number of nanoseconds, restoring the interrupted status of the thread if it is
+     * interrupted.
+     *
+     * @param nanos number of nanoseconds to sleep
+     */
+    private static void sleep(long nanos) {
+        if(nanos<=0)
+            return;
+
+        try {
+            Thread.sleep(nanos/1000000, (int)(nanos%1000000));
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    ///////////////////////////
+    // Latency distributions //
+    ///////////////////////////
+
+    /**
+     * Returns a distribution that always returns the given latency.
+     *
+     * @param latency the latency, in microseconds
+     * @return a distribution that always returns the given latency
+     */
+    public static LatencyDistribution fixed(final long latency) {
+        return new LatencyDistribution() {
+            public long nextLatency(Random random) {
+                return latency;
+            }
+        };
+    }
+
+    /**
+     * Returns a distribution of latencies uniformly distributed between the given bounds.
+     *
+     * @param minLatency the minimum latency, in microseconds
+     * @param maxLatency the maximum latency, in microseconds
+     * @return a distribution of latencies uniformly distributed between the given bounds
+     */
+    public static LatencyDistribution uniform(final long minLatency, final long maxLatency) {
+        return new LatencyDistribution() {
+            public long nextLatency(Random random) {
+                return minLatency+(long)(random.nextDouble()*(maxLatency-minLatency));
+            }
+        };
+    }
+
+    /**
+     * Returns a log-normal distribution of latencies, which models the long tail of network round-trips: half of the
+     * latencies are below the median, and the spread of the other half grows with <code>sigma</code>
+     * (0.3 for a steady link, 1 for a congested one).
+     *
+     * @param medianLatency the median latency, in microseconds
+     * @param sigma the standard deviation of the latency's logarithm
+     * @return a log-normal distribution of latencies
+     */
+    public static LatencyDistribution logNormal(final long medianLatency, final double sigma) {
+        return new LatencyDistribution() {
+            public long nextLatency(Random random) {
+                return (long)(medianLatency*Math.exp(sigma*random.nextGaussian()));
+            }
+        };
+    }
+
+    /**
+     * A distribution of latencies.
+     */
+    public interface LatencyDistribution {
+
+        /**
+         * Draws a latency from this distribution.
+         *
+         * @param random the random number generator to use
+         * @return a latency, in microseconds
+         */
+        public long nextLatency(Random random);
+    }
+
+
+    /**
+     * A link with a limited bandwidth, shared by the streams that transfer data over it. Transfers are serialized:
+     * each of them is scheduled after the previous one, and waits until it is over.
+     */
+    private static class Link {
+
+        /** Number of bytes per second, 0 for no limit */
+        private volatile long bandwidth;
+
+        /** Time at which the last scheduled transfer ends, in System.nanoTime() time */
+        private long busyUntil;
+
+        private void transfer(long nbBytes) {
+            long bandwidth = this.bandwidth;
+            if(bandwidth<=0 || nbBytes<=0)
+                return;
+
+            long end;
+            synchronized(this) {
+                long start = Math.max(System.nanoTime(), busyUntil);
+                end = start + nbBytes*1000000000L/bandwidth;
+                busyUntil = end;
+            }
+
+            sleep(end-System.nanoTime());
+        }
+    }
+}
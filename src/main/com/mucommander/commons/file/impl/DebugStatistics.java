@@ -0,0 +1,222 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl;
+
+import com.mucommander.commons.file.metrics.LatencyHistogram;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>DebugStatistics</code> accounts for the calls made to {@link DebugFile} instances sharing the same
+ * {@link DebugProfile}: for each operation (named after the <code>AbstractFile</code> method, or after the stream
+ * method for calls made to streams), it counts calls and failures, sums the time spent in calls and keeps a histogram
+ * of their durations. The number of bytes read and written through streams is counted as well.
+ *
+ * <p>Durations are kept in {@link LatencyHistogram}s, whose buckets are of exponentially increasing width.
+ * Percentiles are approximated by the upper bound of the bucket they fall in.</p>
+ *
+ * <p>This class is thread-safe and lock-free: statistics can be read while calls are being recorded.</p>
+ *
+ * @see DebugProfile#getStatistics()
+ */
+public class DebugStatistics {
+
+    /** Number of buckets of a histogram */
+    public final static int NB_BUCKETS = LatencyHistogram.NB_BUCKETS;
+
+    /** Statistics of each operation, keyed by operation name */
+    private final ConcurrentMap<String, OperationStatistics> operations = new ConcurrentHashMap<String, OperationStatistics>();
+
+    /** Number of bytes read through streams */
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /** Number of bytes written through streams */
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+
+    /**
+     * Records a call to the given operation.
+     *
+     * @param operation name of the operation
+     * @param nanos duration of the call, in nanoseconds
+     * @param failed <code>true</code> if the call threw an exception
+     */
+    void record(String operation, long nanos, boolean failed) {
+        OperationStatistics stats = operations.get(operation);
+        if(stats==null) {
+            stats = new OperationStatistics();
+            OperationStatistics existingStats = operations.putIfAbsent(operation, stats);
+            if(existingStats!=null)
+                stats = existingStats;
+        }
+
+        stats.latencies.record(nanos);
+        if(failed)
+            stats.errors.incrementAndGet();
+    }
+
+    /**
+     * Adds the given number of bytes to the number of bytes read.
+     *
+     * @param nbBytes number of bytes read
+     */
+    void addBytesRead(long nbBytes) {
+        bytesRead.addAndGet(nbBytes);
+    }
+
+    /**
+     * Adds the given number of bytes to the number of bytes written.
+     *
+     * @param nbBytes number of bytes written
+     */
+    void addBytesWritten(long nbBytes) {
+        bytesWritten.addAndGet(nbBytes);
+    }
+
+    /**
+     * Returns the names of the operations that have been called at least once, in alphabetical order.
+     *
+     * @return the names of the operations that have been called
+     */
+    public Set<String> getOperations() {
+        return new TreeSet<String>(operations.keySet());
+    }
+
+    /**
+     * Returns the number of calls made to the given operation.
+     *
+     * @param operation name of the operation
+     * @return the number of calls made to the given operation
+     */
+    public long getCallCount(String operation) {
+        OperationStatistics stats = operations.get(operation);
+        return stats==null?0:stats.latencies.getCount();
+    }
+
+    /**
+     * Returns the number of calls made to the given operation that threw an exception, whether it was injected by the
+     * profile or thrown by the proxied file.
+     *
+     * @param operation name of the operation
+     * @return the number of calls made to the given operation that failed
+     */
+    public long getErrorCount(String operation) {
+        OperationStatistics stats = operations.get(operation);
+        return stats==null?0:stats.errors.get();
+    }
+
+    /**
+     * Returns the time spent in calls to the given operation, in nanoseconds, including the latency added by the
+     * profile.
+     *
+     * @param operation name of the operation
+     * @return the time spent in calls to the given operation, in nanoseconds
+     */
+    public long getTotalTime(String operation) {
+        OperationStatistics stats = operations.get(operation);
+        return stats==null?0:stats.latencies.getTotalTime();
+    }
+
+    /**
+     * Returns a copy of the histogram of the durations of calls to the given operation.
+     *
+     * @param operation name of the operation
+     * @return the histogram of the durations of calls to the given operation, {@link #NB_BUCKETS} long
+     * @see LatencyHistogram#getBuckets()
+     */
+    public long[] getHistogram(String operation) {
+        OperationStatistics stats = operations.get(operation);
+        return stats==null?new long[NB_BUCKETS]:stats.latencies.getBuckets();
+    }
+
+    /**
+     * Returns an approximation of the given percentile of the durations of calls to the given operation, i.e. the
+     * upper bound of the histogram bucket the percentile falls in. Returns <code>0</code> if the operation has not
+     * been called.
+     *
+     * @param operation name of the operation
+     * @param percentile the percentile, between 0 and 100
+     * @return an approximation of the percentile, in microseconds
+     */
+    public long getPercentile(String operation, double percentile) {
+        OperationStatistics stats = operations.get(operation);
+        return stats==null?0:stats.latencies.getPercentile(percentile);
+    }
+
+    /**
+     * Returns the number of bytes read through streams.
+     *
+     * @return the number of bytes read through streams
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Returns the number of bytes written through streams.
+     *
+     * @return the number of bytes written through streams
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Discards all the statistics recorded so far.
+     */
+    public void reset() {
+        operations.clear();
+        bytesRead.set(0);
+        bytesWritten.set(0);
+    }
+
+    /**
+     * Returns a report of the statistics, with one line per operation.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for(String operation : getOperations()) {
+            long nbCalls = getCallCount(operation);
+            sb.append(operation)
+              .append(": calls=").append(nbCalls)
+              .append(", errors=").append(getErrorCount(operation))
+              .append(", mean=").append(nbCalls==0?0:getTotalTime(operation)/nbCalls/1000).append("us")
+              .append(", p50<=").append(getPercentile(operation, 50)).append("us")
+              .append(", p99<=").append(getPercentile(operation, 99)).append("us")
+              .append('\n');
+        }
+        sb.append("bytesRead=").append(getBytesRead())
+          .append(", bytesWritten=").append(getBytesWritten());
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Statistics of a single operation.
+     */
+    private static class OperationStatistics {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+    }
+}
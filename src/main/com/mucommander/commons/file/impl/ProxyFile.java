@@ -25,13 +25,10 @@ import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -56,11 +53,15 @@ import java.net.URL;
  * @author Maxence Bernard
  */
 public abstract class ProxyFile extends AbstractFile {
-    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyFile.class);
-
     /** The proxied file instance */
     protected AbstractFile file;
 
+    /** The capabilities of this proxy, null if they haven't been computed yet */
+    private FileCapabilities capabilities;
+
+    /** The proxied file the capabilities were computed for */
+    private AbstractFile capabilitiesFile;
+
 
     /**
      * Creates a new ProxyFile using the given file to delegate AbstractFile method calls to.
@@ -223,21 +224,25 @@ public abstract class ProxyFile extends AbstractFile {
 
     @Override
     public final boolean isFileOperationSupported(FileOperation op) {
-        Class<? extends AbstractFile> thisClass = getClass();
-        Method opMethod = op.getCorrespondingMethod(thisClass);
-        // If the method corresponding to the file operation has been overridden by this class (a ProxyFile subclass),
-        // check the presence of the UnsupportedFileOperation annotation in this class.
-        try {
-            if(!thisClass.getMethod(opMethod.getName(), opMethod.getParameterTypes()).getDeclaringClass().equals(ProxyFile.class))
-                return AbstractFile.isFileOperationSupported(op, thisClass);
-        }
-        catch(Exception e) {
-            // Should never happen, unless AbstractFile method signatures have changed and FileOperation has not been updated
-            LOGGER.warn("Exception caught, this should not have happened", e);
+        return getCapabilities().isSupported(op);
+    }
+
+    /**
+     * Returns the capabilities of this proxy: operations whose method is overridden by this class (a ProxyFile
+     * subclass) are supported unless the overriding method is annotated with {@link UnsupportedFileOperation},
+     * others are supported if the proxied file supports them. The performance hints are those of the proxied file.
+     *
+     * @return the capabilities of this proxy
+     */
+    @Override
+    public FileCapabilities getCapabilities() {
+        AbstractFile proxiedFile = file;
+        if(capabilities==null || capabilitiesFile!=proxiedFile) {
+            capabilities = FileCapabilities.getProxyCapabilities(FileCapabilities.get(getClass()), proxiedFile.getCapabilities());
+            capabilitiesFile = proxiedFile;
         }
 
-        // Otherwise, check for the presence of the UnsupportedFileOperation annotation in the wrapped AbstractFile.
-        return file.isFileOperationSupported(op);
+        return capabilities;
     }
 
     @Override
@@ -280,6 +285,16 @@ public abstract class ProxyFile extends AbstractFile {
         return file.getCanonicalFile();
     }
 
+    @Override
+    public AbstractFile getSymlinkTarget() throws IOException {
+        return file.getSymlinkTarget();
+    }
+
+    @Override
+    public Object getFileKey() {
+        return file.getFileKey();
+    }
+
     @Override
     public String getSeparator() {
         return file.getSeparator();
@@ -360,6 +375,11 @@ public abstract class ProxyFile extends AbstractFile {
         file.deleteRecursively();
     }
 
+    @Override
+    public boolean canDeleteInBulk() {
+        return file.canDeleteInBulk();
+    }
+
     public boolean equals(Object f) {
         return file.equals(f);
     }
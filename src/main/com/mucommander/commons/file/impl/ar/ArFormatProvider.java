@@ -21,7 +21,7 @@ package com.mucommander.commons.file.impl.ar;
 
 import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.ArchiveFormatProvider;
+import com.mucommander.commons.file.SniffableArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 
@@ -33,13 +33,21 @@ import java.io.IOException;
  * @see com.mucommander.commons.file.impl.ar.ArArchiveFile
  * @author Nicolas Rinaudo, Maxence Bernard
  */
-public class ArFormatProvider implements ArchiveFormatProvider {
+public class ArFormatProvider implements SniffableArchiveFormatProvider {
 
     /** Static instance of the filename filter that matches archive filenames */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(new String[]
         {".ar", ".a", ".deb", ".udeb"}
     );
 
+    /** Offset of the signatures, from the beginning of the file */
+    private final static int SIGNATURE_OFFSET = 0;
+
+    /** Signature of AR files */
+    private final static byte SIGNATURES[][] = {
+        {'!', '<', 'a', 'r', 'c', 'h', '>', '\n'}
+    };
+
 
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
@@ -52,4 +60,17 @@ public class ArFormatProvider implements ArchiveFormatProvider {
     public FilenameFilter getFilenameFilter() {
         return filenameFilter;
     }
+
+
+    ///////////////////////////////////////////////////
+    // SniffableArchiveFormatProvider implementation //
+    ///////////////////////////////////////////////////
+
+    public int getSignatureOffset() {
+        return SIGNATURE_OFFSET;
+    }
+
+    public byte[][] getSignatures() {
+        return SIGNATURES;
+    }
 }
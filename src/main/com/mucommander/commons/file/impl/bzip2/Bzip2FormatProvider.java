@@ -21,7 +21,7 @@ package com.mucommander.commons.file.impl.bzip2;
 
 import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.ArchiveFormatProvider;
+import com.mucommander.commons.file.SniffableArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 
@@ -33,11 +33,19 @@ import java.io.IOException;
  * @see com.mucommander.commons.file.impl.bzip2.Bzip2ArchiveFile
  * @author Nicolas Rinaudo, Maxence Bernard
  */
-public class Bzip2FormatProvider implements ArchiveFormatProvider {
+public class Bzip2FormatProvider implements SniffableArchiveFormatProvider {
 
     /** Static instance of the filename filter that matches archive filenames */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(".bz2");
 
+    /** Offset of the signatures, from the beginning of the file */
+    private final static int SIGNATURE_OFFSET = 0;
+
+    /** Signature of Bzip2 files */
+    private final static byte SIGNATURES[][] = {
+        {'B', 'Z', 'h'}
+    };
+
 
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
@@ -50,4 +58,17 @@ public class Bzip2FormatProvider implements ArchiveFormatProvider {
     public FilenameFilter getFilenameFilter() {
         return filenameFilter;
     }
+
+
+    ///////////////////////////////////////////////////
+    // SniffableArchiveFormatProvider implementation //
+    ///////////////////////////////////////////////////
+
+    public int getSignatureOffset() {
+        return SIGNATURE_OFFSET;
+    }
+
+    public byte[][] getSignatures() {
+        return SIGNATURES;
+    }
 }
@@ -24,6 +24,8 @@ import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.connection.ConnectionHandler;
 import com.mucommander.commons.file.connection.ConnectionHandlerFactory;
 import com.mucommander.commons.file.connection.ConnectionPool;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 import com.mucommander.commons.io.ByteUtils;
 import com.mucommander.commons.io.FilteredOutputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
@@ -77,6 +79,7 @@ import java.util.Date;
  * @see ConnectionPool
  * @author Maxence Bernard
  */
+@PerformanceHints(rangedReadsCheap=false, latency=LatencyClass.WAN)
 public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger(FTPFile.class);
 
@@ -164,6 +167,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             return createFTPFile("/", true);
         }
         else {
+            long start = FileMetrics.start();
+            boolean failed = true;
             FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
             org.apache.commons.net.ftp.FTPFile files[];
             try {
@@ -173,10 +178,12 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
                 // List files contained by this file's parent in order to retrieve the FTPFile instance corresponding
                 // to this file
                 files = listFiles(connHandler, parentURL.getPath());
+                failed = false;
             }
             finally {
                 // Release the lock on the ConnectionHandler
                 connHandler.releaseLock();
+                FileMetrics.end(fileURL.getScheme(), MeteredOperation.STAT, start, failed);
             }
 
             // File doesn't exist
@@ -474,12 +481,25 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
     @Override
     public OutputStream getOutputStream() throws IOException {
-        return new FTPOutputStream(false);
+        return getOutputStream(false);
     }
 
     @Override
     public OutputStream getAppendOutputStream() throws IOException {
-        return new FTPOutputStream(true);
+        return getOutputStream(true);
+    }
+
+    private OutputStream getOutputStream(boolean append) throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            OutputStream out = FileMetrics.meter(fileURL.getScheme(), new FTPOutputStream(append));
+            failed = false;
+            return out;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_WRITE, start, failed);
+        }
     }
 
     /**
@@ -510,6 +530,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
     @Override
     public void delete() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         // Retrieve a ConnectionHandler and lock it
         FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
         try {
@@ -523,6 +545,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
             // Throw an IOException if server replied with an error
             connHandler.checkServerReply();
+            failed = false;
         }
         catch(IOException e) {
             // Checks if the IOException corresponds to a socket error and in that case, closes the connection
@@ -534,12 +557,15 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         finally {
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.DELETE, start, failed);
         }
     }
 
 
     @Override
     public AbstractFile[] ls() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         // Retrieve a ConnectionHandler and lock it
         FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
         org.apache.commons.net.ftp.FTPFile files[];
@@ -548,10 +574,12 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             connHandler.checkConnection();
 
             files = listFiles(connHandler, absPath);
+            failed = false;
         }
         finally {
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.LIST, start, failed);
         }
 
         if(files==null || files.length==0)
@@ -563,10 +591,6 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         String childName;
         int nbFiles = files.length;
         int fileCount = 0;
-        String parentPath = fileURL.getPath();
-        if(!parentPath.endsWith(SEPARATOR))
-            parentPath += SEPARATOR;
-
         for(int i=0; i<nbFiles; i++) {
             if(files[i]==null)
                 continue;
@@ -575,15 +599,14 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             if(childName.equals(".") || childName.equals(".."))
                 continue;
 
-            // Note: properties and credentials are cloned for every children's url
-            childURL = (FileURL)fileURL.clone();
-            childURL.setPath(parentPath+childName);
+            // Note: properties and credentials are shared with every children's url
+            childURL = fileURL.getChild(childName);
 
             // Discard '.' and '..' files
             if(childName.equals(".") || childName.equals(".."))
                 continue;
 
-            child = FileFactory.getFile(childURL, this, files[i]);
+            child = FileFactory.getChildFile(childURL, this, files[i]);
             children[fileCount++] = child;
         }
 
@@ -600,6 +623,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
     @Override
     public void mkdir() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         // Retrieve a ConnectionHandler and lock it
         FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
         try {
@@ -612,6 +637,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
             file.setType(org.apache.commons.net.ftp.FTPFile.DIRECTORY_TYPE);
             fileExists = true;
+            failed = false;
         }
         catch(IOException e) {
             // Checks if the IOException corresponds to a socket error and in that case, closes the connection
@@ -623,6 +649,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         finally {
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.MKDIR, start, failed);
         }
     }
 
@@ -738,6 +765,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         // Throw an exception if the file cannot be renamed to the specified destination
         checkRenamePrerequisites(destFile, false, false);
 
+        long start = FileMetrics.start();
+        boolean failed = true;
         FTPConnectionHandler connHandler = null;
         try {
             // Retrieve a ConnectionHandler and lock it
@@ -747,6 +776,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
             if(!connHandler.ftpClient.rename(absPath, destFile.getURL().getPath()))
                 throw new IOException();
+
+            failed = false;
         }
         catch(IOException e) {
             // Checks if the IOException corresponds to a socket error and in that case, closes the connection
@@ -759,13 +790,24 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             // Release the lock on the ConnectionHandler
             if(connHandler!=null)
                 connHandler.releaseLock();
+
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.RENAME, start, failed);
         }
     }
 
 
     @Override
     public InputStream getInputStream(long offset) throws IOException {
-        return new FTPInputStream(offset);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            InputStream in = FileMetrics.meter(fileURL.getScheme(), new FTPInputStream(offset));
+            failed = false;
+            return in;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
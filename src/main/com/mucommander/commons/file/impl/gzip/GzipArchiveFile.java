@@ -20,20 +20,48 @@
 package com.mucommander.commons.file.impl.gzip;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.GZIPInputStream;
 
 /**
  * GzipArchiveFile provides read-only access to archives in the Gzip format.
  *
- * <p>The actual decompression work is performed by the {@link java.util.zip.GZIPInputStream} class.</p>
+ * <p>The actual decompression work is performed by the {@link java.util.zip.GZIPInputStream} class, except for files
+ * in the BGZF format (as written by <i>bgzip</i>), whose blocks are decompressed concurrently by
+ * {@link ParallelGzipInputStream}.</p>
+ *
+ * <p>The entry's size is known once the {@link GzipIndex index} of the members has been built. The index, which allows
+ * random access to the entry's data, is only built when it is requested: see {@link #getEntryRandomAccessInputStream()}.
+ * Until then, the size of BGZF files whose ranged reads are cheap is read from the trailers of all their blocks, and
+ * the size of other files is reported as unknown: the Gzip trailer only holds the size of the last member, which is
+ * not the size of the entry if the file is made of several members.</p>
  *
  * @see com.mucommander.commons.file.impl.gzip.GzipFormatProvider
  * @author Maxence Bernard
  */
 public class GzipArchiveFile extends AbstractROArchiveFile {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GzipArchiveFile.class);
+
+    /** Number of threads that decompress BGZF blocks */
+    private final static int DECOMPRESSION_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Decompresses BGZF blocks, created the first time it is needed */
+    private static ExecutorService decompressionExecutor;
+
+    /** The index of the members of the Gzip file, null if it hasn't been built yet */
+    private GzipIndex index;
+
+    /** The date of the file when the index was built */
+    private long lastIndexDate;
 
     /**
      * Creates a GzipArchiveFile on top of the given file.
@@ -64,12 +92,134 @@ public class GzipArchiveFile extends AbstractROArchiveFile {
                 name = name.substring(0, name.length()-3);
         }
 
-        return new SingleArchiveEntryIterator(new ArchiveEntry("/"+name, false, getDate(), -1, true));
+        return new SingleArchiveEntryIterator(new ArchiveEntry("/"+name, false, getDate(), getEntrySize(), true));
     }
 
-
     @Override
     public InputStream getEntryInputStream(ArchiveEntry entry, ArchiveEntryIterator entryIterator) throws IOException, UnsupportedFileOperationException {
-        return new GZIPInputStream(getInputStream());
+        // Blocks are located by seeking, which is only worth it if ranged reads are cheap
+        if(!file.getCapabilities().areRangedReadsCheap())
+            return new GZIPInputStream(getInputStream());
+
+        // The stream that sniffs the format is the one the file is then read from, whatever its format
+        RandomAccessInputStream rais = file.getRandomAccessInputStream();
+        try {
+            boolean bgzf = GzipIndex.isBGZF(rais);
+            rais.seek(0);
+
+            if(bgzf)
+                return new ParallelGzipInputStream(rais, getDecompressionExecutor(), 2*DECOMPRESSION_THREADS);
+
+            return new GZIPInputStream(rais);
+        }
+        catch(IOException e) {
+            rais.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Returns the uncompressed size of the entry, <code>-1</code> if it cannot be determined without decompressing
+     * the file. The size is taken from the index if it has already been built. Otherwise, it is read from the trailers
+     * of all the blocks of BGZF files if ranged reads are cheap. The index itself is only built when the entry is read
+     * randomly.
+     *
+     * @return the uncompressed size of the entry, -1 if it is not known
+     */
+    private long getEntrySize() {
+        synchronized(this) {
+            if(isIndexUpToDate())
+                return index.getUncompressedSize();
+        }
+
+        // Blocks are located by seeking, which is only worth it if ranged reads are cheap
+        if(!file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE) || !file.getCapabilities().areRangedReadsCheap())
+            return -1;
+
+        try {
+            RandomAccessInputStream rais = file.getRandomAccessInputStream();
+            try {
+                // The trailer of the last member only holds the size of that member
+                return GzipIndex.isBGZF(rais) ? GzipIndex.getBGZFSize(rais) : -1;
+            }
+            finally {
+                rais.close();
+            }
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not determine the uncompressed size of {}", file, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the index has been built and the file hasn't changed since then.
+     *
+     * @return true if the index is up-to-date
+     */
+    private boolean isIndexUpToDate() {
+        return index!=null && lastIndexDate==file.getDate();
+    }
+
+    /**
+     * Returns the index of the members of the Gzip file, building it if it hasn't been built yet or if the file has
+     * changed since. Building the index of a file that is not in the BGZF format requires decompressing it entirely.
+     * The entry then reports its actual size.
+     *
+     * @return the index of the members of the Gzip file
+     * @throws IOException if the file is not a valid Gzip file or could not be read
+     * @throws UnsupportedFileOperationException if the underlying file does not provide random read access
+     */
+    public synchronized GzipIndex getIndex() throws IOException, UnsupportedFileOperationException {
+        if(!isIndexUpToDate()) {
+            long date = file.getDate();
+            RandomAccessInputStream rais = file.getRandomAccessInputStream();
+            try {
+                index = GzipIndex.build(rais);
+                lastIndexDate = date;
+            }
+            finally {
+                rais.close();
+            }
+
+            // The size of the entry is now known: update the entry that has already been listed, if any
+            if(entryTreeRoot!=null && entryTreeRoot.getChildCount()>0)
+                ((ArchiveEntry)((DefaultMutableTreeNode)entryTreeRoot.getChildAt(0)).getUserObject()).setSize(index.getUncompressedSize());
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns a stream that provides random read access to the entry's uncompressed data, and to BGZF virtual
+     * offsets. The {@link #getIndex() index} is built first if needed.
+     *
+     * @return a stream that provides random read access to the entry's uncompressed data
+     * @throws IOException if the file is not a valid Gzip file or could not be read
+     * @throws UnsupportedFileOperationException if the underlying file does not provide random read access
+     */
+    public GzipRandomAccessInputStream getEntryRandomAccessInputStream() throws IOException, UnsupportedFileOperationException {
+        GzipIndex index = getIndex();
+        return new GzipRandomAccessInputStream(file.getRandomAccessInputStream(), index);
+    }
+
+    /**
+     * Returns the executor that decompresses BGZF blocks, creating it if necessary.
+     *
+     * @return the executor that decompresses BGZF blocks
+     */
+    private static synchronized ExecutorService getDecompressionExecutor() {
+        if(decompressionExecutor==null) {
+            decompressionExecutor = Executors.newFixedThreadPool(DECOMPRESSION_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Gzip decompression");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return decompressionExecutor;
     }
 }
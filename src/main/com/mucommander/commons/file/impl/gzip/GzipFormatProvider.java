@@ -21,7 +21,7 @@ package com.mucommander.commons.file.impl.gzip;
 
 import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.ArchiveFormatProvider;
+import com.mucommander.commons.file.SniffableArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 
@@ -33,11 +33,19 @@ import java.io.IOException;
  * @see com.mucommander.commons.file.impl.gzip.GzipArchiveFile
  * @author Nicolas Rinaudo, Maxence Bernard
  */
-public class GzipFormatProvider implements ArchiveFormatProvider {
+public class GzipFormatProvider implements SniffableArchiveFormatProvider {
 
     /** Static instance of the filename filter that matches archive filenames */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(".gz");
 
+    /** Offset of the signatures, from the beginning of the file */
+    private final static int SIGNATURE_OFFSET = 0;
+
+    /** Signature of Gzip files */
+    private final static byte SIGNATURES[][] = {
+        {(byte)0x1F, (byte)0x8B}
+    };
+
 
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
@@ -50,4 +58,17 @@ public class GzipFormatProvider implements ArchiveFormatProvider {
     public FilenameFilter getFilenameFilter() {
         return filenameFilter;
     }
+
+
+    ///////////////////////////////////////////////////
+    // SniffableArchiveFormatProvider implementation //
+    ///////////////////////////////////////////////////
+
+    public int getSignatureOffset() {
+        return SIGNATURE_OFFSET;
+    }
+
+    public byte[][] getSignatures() {
+        return SIGNATURES;
+    }
 }
@@ -0,0 +1,531 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.gzip;
+
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <code>GzipIndex</code> records the offsets of the members of a Gzip file, both in the compressed file and in the
+ * uncompressed data. A Gzip file is made of one or more members, each of them being a complete Gzip stream: files
+ * that are compressed in parallel (<i>pigz</i>) or by blocks (<i>bgzip</i>) are made of several members, which can be
+ * decompressed independently from each other.
+ *
+ * <p>Files in the BGZF format (as written by <i>bgzip</i>) store the size of each member in its header: the index of
+ * these files is built without decompressing them, by reading the header and trailer of each member. The members of
+ * other Gzip files can only be located by decompressing them, which {@link #build(RandomAccessInputStream)} does once.
+ * The size held by the trailer of the last member is not the size of the whole file if it has several members, so
+ * the uncompressed size of these files is only known once they have been indexed.</p>
+ *
+ * @see GzipRandomAccessInputStream
+ */
+public class GzipIndex {
+
+    /** First magic byte of a Gzip member */
+    private final static int ID1 = 0x1F;
+    /** Second magic byte of a Gzip member */
+    private final static int ID2 = 0x8B;
+    /** The deflate compression method, the only one defined by RFC 1952 */
+    private final static int CM_DEFLATE = 8;
+
+    /** Header flag: the header is followed by a CRC16 */
+    private final static int FHCRC = 0x02;
+    /** Header flag: the header contains extra fields */
+    private final static int FEXTRA = 0x04;
+    /** Header flag: the header contains the original file name */
+    private final static int FNAME = 0x08;
+    /** Header flag: the header contains a comment */
+    private final static int FCOMMENT = 0x10;
+
+    /** Size of the fixed part of a member header */
+    final static int HEADER_SIZE = 10;
+    /** Size of a member trailer: the CRC32 and size of the uncompressed data */
+    final static int TRAILER_SIZE = 8;
+
+    /** Size of the buffers used to decompress members */
+    final static int BUFFER_SIZE = 65536;
+
+    /** Offset of each member in the compressed file, followed by the offset of the end of the last member */
+    private final long[] compressedOffsets;
+    /** Offset of each member in the uncompressed data, followed by the uncompressed size */
+    private final long[] uncompressedOffsets;
+    /** True if the file is in the BGZF format */
+    private final boolean bgzf;
+
+
+    private GzipIndex(List<Long> compressedOffsets, List<Long> uncompressedOffsets, boolean bgzf) {
+        this.compressedOffsets = toArray(compressedOffsets);
+        this.uncompressedOffsets = toArray(uncompressedOffsets);
+        this.bgzf = bgzf;
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] array = new long[list.size()];
+        for(int i=0; i<array.length; i++)
+            array[i] = list.get(i);
+
+        return array;
+    }
+
+    /**
+     * Builds the index of the Gzip file read by the given stream. If the file is in the BGZF format, the index is
+     * built from the headers and trailers of its members. Otherwise, the file is decompressed to locate the end of
+     * each member.
+     *
+     * @param rais the stream to read the Gzip file from
+     * @return the index of the Gzip file
+     * @throws IOException if the file is not a Gzip file, is corrupt or could not be read
+     */
+    public static GzipIndex build(RandomAccessInputStream rais) throws IOException {
+        Header header = readHeader(rais, 0);
+        if(header==null)
+            throw new IOException("Not in gzip format");
+
+        return header.isBGZF() ? buildBGZF(rais) : buildByInflating(rais);
+    }
+
+    /**
+     * Builds the index of a BGZF file by reading the block size from the header of each member, and the uncompressed
+     * size from its trailer.
+     */
+    private static GzipIndex buildBGZF(RandomAccessInputStream rais) throws IOException {
+        List<Long> compressedOffsets = new ArrayList<Long>();
+        List<Long> uncompressedOffsets = new ArrayList<Long>();
+        readBGZFBlocks(rais, compressedOffsets, uncompressedOffsets);
+
+        return new GzipIndex(compressedOffsets, uncompressedOffsets, true);
+    }
+
+    /**
+     * Returns the uncompressed size of the BGZF file read by the given stream, by reading the header and trailer of
+     * each of its members as {@link #build(RandomAccessInputStream)} does, but without recording their offsets.
+     *
+     * @param rais the stream to read the BGZF file from
+     * @return the uncompressed size of the file
+     * @throws IOException if the file is not a valid BGZF file or could not be read
+     */
+    public static long getBGZFSize(RandomAccessInputStream rais) throws IOException {
+        return readBGZFBlocks(rais, null, null);
+    }
+
+    /**
+     * Reads the header and trailer of each member of a BGZF file, adding the offset of each member in the compressed
+     * file and in the uncompressed data to the given lists, followed by the offset of the end of the last member and
+     * the uncompressed size.
+     *
+     * @param rais the stream to read the BGZF file from
+     * @param compressedOffsets the list to add compressed offsets to, <code>null</code> to not record them
+     * @param uncompressedOffsets the list to add uncompressed offsets to, <code>null</code> to not record them
+     * @return the uncompressed size of the file
+     * @throws IOException if the file is not a valid BGZF file or could not be read
+     */
+    private static long readBGZFBlocks(RandomAccessInputStream rais, List<Long> compressedOffsets, List<Long> uncompressedOffsets) throws IOException {
+        long length = rais.getLength();
+        long offset = 0;
+        long uncompressedOffset = 0;
+        byte[] isize = new byte[4];
+
+        while(offset<length) {
+            Header header = readHeader(rais, offset);
+            // Ignore trailing garbage, as GZIPInputStream does
+            if(header==null)
+                break;
+
+            if(!header.isBGZF() || header.blockSize<header.length+TRAILER_SIZE)
+                throw new IOException("Member at offset "+offset+" is not a valid BGZF block");
+
+            rais.seek(offset+header.blockSize-4);
+            rais.readFully(isize);
+
+            if(compressedOffsets!=null) {
+                compressedOffsets.add(offset);
+                uncompressedOffsets.add(uncompressedOffset);
+            }
+
+            offset += header.blockSize;
+            uncompressedOffset += getUInt32(isize, 0);
+        }
+
+        if(compressedOffsets!=null) {
+            compressedOffsets.add(offset);
+            uncompressedOffsets.add(uncompressedOffset);
+        }
+
+        return uncompressedOffset;
+    }
+
+    /**
+     * Builds the index of a Gzip file by decompressing it, the end of a member's data being known only once it has
+     * been decompressed.
+     */
+    private static GzipIndex buildByInflating(RandomAccessInputStream rais) throws IOException {
+        List<Long> compressedOffsets = new ArrayList<Long>();
+        List<Long> uncompressedOffsets = new ArrayList<Long>();
+        long length = rais.getLength();
+        long offset = 0;
+        long uncompressedOffset = 0;
+
+        Inflater inflater = new Inflater(true);
+        byte[] in = new byte[BUFFER_SIZE];
+        byte[] out = new byte[BUFFER_SIZE];
+        byte[] trailer = new byte[TRAILER_SIZE];
+        try {
+            while(offset<length) {
+                Header header = readHeader(rais, offset);
+                // Ignore trailing garbage, as GZIPInputStream does
+                if(header==null)
+                    break;
+
+                long dataOffset = header.getDataOffset();
+                rais.seek(dataOffset);
+                inflater.reset();
+
+                long memberSize = 0;
+                while(!inflater.finished()) {
+                    if(inflater.needsInput()) {
+                        int nbRead = rais.read(in, 0, in.length);
+                        if(nbRead<=0)
+                            throw new EOFException("Unexpected end of gzip member at offset "+offset);
+
+                        inflater.setInput(in, 0, nbRead);
+                    }
+
+                    memberSize += inflate(inflater, out, 0, out.length);
+                }
+
+                long dataEnd = dataOffset+inflater.getBytesRead();
+                rais.seek(dataEnd);
+                rais.readFully(trailer);
+
+                if(getUInt32(trailer, 4)!=(memberSize&0xFFFFFFFFL))
+                    throw new IOException("Corrupt gzip trailer at offset "+dataEnd);
+
+                compressedOffsets.add(offset);
+                uncompressedOffsets.add(uncompressedOffset);
+
+                offset = dataEnd+TRAILER_SIZE;
+                uncompressedOffset += memberSize;
+            }
+        }
+        finally {
+            inflater.end();
+        }
+
+        compressedOffsets.add(offset);
+        uncompressedOffsets.add(uncompressedOffset);
+
+        return new GzipIndex(compressedOffsets, uncompressedOffsets, false);
+    }
+
+    /**
+     * Returns <code>true</code> if the Gzip file read by the given stream is in the BGZF format, i.e. if its first
+     * member has a <code>BC</code> extra field holding the size of the member.
+     *
+     * @param rais the stream to read the Gzip file from
+     * @return true if the Gzip file is in the BGZF format
+     * @throws IOException if the file could not be read
+     */
+    public static boolean isBGZF(RandomAccessInputStream rais) throws IOException {
+        Header header = readHeader(rais, 0);
+        return header!=null && header.isBGZF();
+    }
+
+    /**
+     * Reads and parses the header of the member located at the given offset. <code>null</code> is returned if there
+     * is no Gzip member at this offset.
+     *
+     * @param rais the stream to read the Gzip file from
+     * @param offset offset of the member in the file
+     * @return the member header, null if there is no Gzip member at this offset
+     * @throws IOException if the header is corrupt or could not be read
+     */
+    static Header readHeader(RandomAccessInputStream rais, long offset) throws IOException {
+        // Most headers fit in 64 bytes, unless they contain a file name or a comment
+        byte[] b = new byte[64];
+        while(true) {
+            rais.seek(offset);
+            int len = readUpTo(rais, b);
+            if(len<2 || (b[0]&0xFF)!=ID1 || (b[1]&0xFF)!=ID2)
+                return null;
+
+            Header header = parseHeader(b, len, offset);
+            if(header!=null)
+                return header;
+
+            if(len<b.length)
+                throw new EOFException("Truncated gzip header at offset "+offset);
+
+            b = new byte[b.length*4];
+        }
+    }
+
+    /**
+     * Parses the member header contained in the given buffer. <code>null</code> is returned if the buffer does not
+     * contain the whole header.
+     *
+     * @param b buffer containing the header
+     * @param len number of valid bytes in the buffer
+     * @param offset offset of the member in the file
+     * @return the member header, null if the buffer does not contain the whole header
+     * @throws IOException if the header is not a valid Gzip header
+     */
+    static Header parseHeader(byte[] b, int len, long offset) throws IOException {
+        if(len<HEADER_SIZE)
+            return null;
+
+        if((b[0]&0xFF)!=ID1 || (b[1]&0xFF)!=ID2 || b[2]!=CM_DEFLATE)
+            throw new IOException("Not in gzip format");
+
+        int flags = b[3]&0xFF;
+        int pos = HEADER_SIZE;
+        int blockSize = -1;
+
+        if((flags&FEXTRA)!=0) {
+            if(pos+2>len)
+                return null;
+
+            int extraEnd = pos+2+getUInt16(b, pos);
+            if(extraEnd>len)
+                return null;
+
+            // Look for the 'BC' subfield which holds the size of a BGZF block, minus 1
+            pos += 2;
+            while(pos+4<=extraEnd) {
+                int subfieldLength = getUInt16(b, pos+2);
+                if(b[pos]=='B' && b[pos+1]=='C' && subfieldLength==2 && pos+6<=extraEnd)
+                    blockSize = getUInt16(b, pos+4)+1;
+
+                pos += 4+subfieldLength;
+            }
+            pos = extraEnd;
+        }
+
+        if((flags&FNAME)!=0 && (pos=skipString(b, pos, len))==-1)
+            return null;
+
+        if((flags&FCOMMENT)!=0 && (pos=skipString(b, pos, len))==-1)
+            return null;
+
+        if((flags&FHCRC)!=0)
+            pos += 2;
+
+        if(pos>len)
+            return null;
+
+        return new Header(offset, pos, blockSize);
+    }
+
+    /**
+     * Returns the position following the zero-terminated string starting at the given position, <code>-1</code> if
+     * the string is not terminated within the buffer.
+     */
+    private static int skipString(byte[] b, int pos, int len) {
+        while(pos<len) {
+            if(b[pos++]==0)
+                return pos;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Fills the given buffer with bytes read from the stream, stopping before if the end of the stream is reached.
+     */
+    private static int readUpTo(RandomAccessInputStream rais, byte[] b) throws IOException {
+        int off = 0;
+        int nbRead;
+        while(off<b.length && (nbRead=rais.read(b, off, b.length-off))!=-1)
+            off += nbRead;
+
+        return off;
+    }
+
+    /**
+     * Inflates data into the given buffer, turning a <code>DataFormatException</code> into an
+     * <code>IOException</code>.
+     */
+    static int inflate(Inflater inflater, byte[] b, int off, int len) throws IOException {
+        try {
+            int nbInflated = inflater.inflate(b, off, len);
+            if(nbInflated==0 && inflater.needsDictionary())
+                throw new IOException("Corrupt gzip data: preset dictionary");
+
+            return nbInflated;
+        }
+        catch(DataFormatException e) {
+            throw new IOException("Corrupt gzip data: "+e.getMessage());
+        }
+    }
+
+    static int getUInt16(byte[] b, int off) {
+        return (b[off]&0xFF) | ((b[off+1]&0xFF)<<8);
+    }
+
+    static long getUInt32(byte[] b, int off) {
+        return getUInt16(b, off) | ((long)getUInt16(b, off+2)<<16);
+    }
+
+
+    /////////////
+    // Getters //
+    /////////////
+
+    /**
+     * Returns <code>true</code> if the file is in the BGZF format, whose members are blocks of at most 64 KB
+     * addressed by virtual offsets.
+     *
+     * @return true if the file is in the BGZF format
+     */
+    public boolean isBGZF() {
+        return bgzf;
+    }
+
+    /**
+     * Returns the number of members in the file. BGZF files end with an empty member, which is counted.
+     *
+     * @return the number of members in the file
+     */
+    public int getMemberCount() {
+        return compressedOffsets.length-1;
+    }
+
+    /**
+     * Returns the offset of the given member in the compressed file.
+     *
+     * @param member index of a member, or the member count to get the offset of the end of the last member
+     * @return the offset of the given member in the compressed file
+     */
+    public long getCompressedOffset(int member) {
+        return compressedOffsets[member];
+    }
+
+    /**
+     * Returns the offset at which the data of the given member starts in the uncompressed data.
+     *
+     * @param member index of a member, or the member count to get the uncompressed size
+     * @return the offset of the given member's data in the uncompressed data
+     */
+    public long getUncompressedOffset(int member) {
+        return uncompressedOffsets[member];
+    }
+
+    /**
+     * Returns the size of the uncompressed data.
+     *
+     * @return the size of the uncompressed data
+     */
+    public long getUncompressedSize() {
+        return uncompressedOffsets[uncompressedOffsets.length-1];
+    }
+
+    /**
+     * Returns the index of the member containing the given offset of the uncompressed data. If several members start
+     * at this offset because some of them are empty, the last of them is returned. <code>-1</code> is returned if the
+     * offset is not within the uncompressed data.
+     *
+     * @param uncompressedOffset an offset in the uncompressed data
+     * @return the index of the member containing the given offset, -1 if the offset is out of bounds
+     */
+    public int getMemberAt(long uncompressedOffset) {
+        if(uncompressedOffset<0 || uncompressedOffset>=getUncompressedSize())
+            return -1;
+
+        // Find the last member starting at or before the offset
+        int low = 0;
+        int high = getMemberCount()-1;
+        while(low<high) {
+            int mid = (low+high+1)>>>1;
+            if(uncompressedOffsets[mid]<=uncompressedOffset)
+                low = mid;
+            else
+                high = mid-1;
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the index of the member starting at the given offset of the compressed file, <code>-1</code> if no
+     * member starts at this offset.
+     *
+     * @param compressedOffset an offset in the compressed file
+     * @return the index of the member starting at the given offset, -1 if there is none
+     */
+    public int getMemberStartingAt(long compressedOffset) {
+        int low = 0;
+        int high = getMemberCount()-1;
+        while(low<=high) {
+            int mid = (low+high)>>>1;
+            if(compressedOffsets[mid]<compressedOffset)
+                low = mid+1;
+            else if(compressedOffsets[mid]>compressedOffset)
+                high = mid-1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * The parsed header of a Gzip member.
+     */
+    static class Header {
+        /** Offset of the member in the file */
+        final long offset;
+        /** Length of the header */
+        final int length;
+        /** Size of the whole member as stored in a BGZF header, -1 if the member is not a BGZF block */
+        final int blockSize;
+
+        Header(long offset, int length, int blockSize) {
+            this.offset = offset;
+            this.length = length;
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * Returns the offset of the member's compressed data in the file.
+         *
+         * @return the offset of the member's compressed data in the file
+         */
+        long getDataOffset() {
+            return offset+length;
+        }
+
+        /**
+         * Returns <code>true</code> if this member is a BGZF block.
+         *
+         * @return true if this member is a BGZF block
+         */
+        boolean isBGZF() {
+            return blockSize!=-1;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.gzip;
+
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.Inflater;
+
+/**
+ * <code>GzipRandomAccessInputStream</code> provides random read access to the uncompressed data of a Gzip file.
+ * Seeking to an offset starts decompressing from the beginning of the member that contains it, as located by a
+ * {@link GzipIndex}, and decompresses the data that precedes the offset within this member. Seeking is thus cheap for
+ * files made of many small members such as BGZF files, and as expensive as reading from the start for files made of a
+ * single member.
+ *
+ * <p>BGZF files can also be accessed by the virtual offsets used to address them, which combine the offset of a block
+ * in the compressed file with an offset within the uncompressed block: see {@link #seekVirtualOffset(long)}.</p>
+ *
+ * @see GzipArchiveFile#getEntryRandomAccessInputStream()
+ */
+public class GzipRandomAccessInputStream extends RandomAccessInputStream {
+
+    /** The stream that reads the compressed file */
+    private final RandomAccessInputStream rais;
+
+    /** The index of the compressed file */
+    private final GzipIndex index;
+
+    /** Decompresses the current member */
+    private final Inflater inflater = new Inflater(true);
+
+    /** Buffer holding the compressed data fed to the inflater */
+    private final byte[] inBuffer = new byte[GzipIndex.BUFFER_SIZE];
+
+    /** Buffer used to decompress the data that is skipped, created the first time it is needed */
+    private byte[] skipBuffer;
+
+    /** Buffer used by {@link #read()} */
+    private final byte[] oneByteBuffer = new byte[1];
+
+    /** Index of the member being decompressed, -1 if none is */
+    private int member = -1;
+
+    /** Current offset in the uncompressed data */
+    private long position;
+
+
+    /**
+     * Creates a new <code>GzipRandomAccessInputStream</code> that reads the Gzip file from the given stream, and
+     * positions it at the start of the uncompressed data.
+     *
+     * @param rais the stream that reads the compressed file
+     * @param index the index of the compressed file
+     */
+    public GzipRandomAccessInputStream(RandomAccessInputStream rais, GzipIndex index) {
+        this.rais = rais;
+        this.index = index;
+    }
+
+    /**
+     * Starts decompressing the given member.
+     *
+     * @param member index of the member to decompress
+     * @throws IOException if the member's header could not be read
+     */
+    private void openMember(int member) throws IOException {
+        GzipIndex.Header header = GzipIndex.readHeader(rais, index.getCompressedOffset(member));
+        if(header==null)
+            throw new IOException("No gzip member at offset "+index.getCompressedOffset(member));
+
+        rais.seek(header.getDataOffset());
+        inflater.reset();
+
+        this.member = member;
+        this.position = index.getUncompressedOffset(member);
+    }
+
+    /**
+     * Seeks to the given offset of a BGZF file, expressed as a virtual offset: the offset of a block in the compressed
+     * file shifted left by 16 bits, combined with an offset in the uncompressed data of the block.
+     *
+     * @param virtualOffset the BGZF virtual offset to seek to
+     * @throws IOException if the file is not in the BGZF format, if no block starts at the virtual offset's block
+     * offset, or if an error occurred while decompressing the block
+     */
+    public void seekVirtualOffset(long virtualOffset) throws IOException {
+        if(!index.isBGZF())
+            throw new IOException("Not a BGZF file");
+
+        long blockOffset = virtualOffset>>>16;
+        int offsetInBlock = (int)(virtualOffset&0xFFFF);
+
+        int block = index.getMemberStartingAt(blockOffset);
+        if(block==-1) {
+            // The virtual offset of the end of the file may refer to the end of the last block
+            if(blockOffset==index.getCompressedOffset(index.getMemberCount()) && offsetInBlock==0) {
+                seek(getLength());
+                return;
+            }
+
+            throw new IOException("No BGZF block at offset "+blockOffset);
+        }
+
+        if(index.getUncompressedOffset(block)+offsetInBlock>index.getUncompressedOffset(block+1))
+            throw new IOException("Invalid BGZF virtual offset "+virtualOffset);
+
+        seek(index.getUncompressedOffset(block)+offsetInBlock);
+    }
+
+    /**
+     * Returns the BGZF virtual offset of the current position.
+     *
+     * @return the BGZF virtual offset of the current position
+     * @throws IOException if the file is not in the BGZF format
+     */
+    public long getVirtualOffset() throws IOException {
+        if(!index.isBGZF())
+            throw new IOException("Not a BGZF file");
+
+        int block = index.getMemberAt(position);
+        if(block==-1)
+            return index.getCompressedOffset(index.getMemberCount())<<16;
+
+        return (index.getCompressedOffset(block)<<16) | (position-index.getUncompressedOffset(block));
+    }
+
+
+    ////////////////////////////////////////////
+    // RandomAccessInputStream implementation //
+    ////////////////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        return read(oneByteBuffer, 0, 1)==-1 ? -1 : oneByteBuffer[0]&0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        while(position<index.getUncompressedSize()) {
+            if(member==-1) {
+                openMember(index.getMemberAt(position));
+            }
+            else if(inflater.finished()) {
+                openMember(member+1);
+                continue;
+            }
+
+            if(inflater.needsInput()) {
+                int nbRead = rais.read(inBuffer, 0, inBuffer.length);
+                if(nbRead<=0)
+                    throw new EOFException("Unexpected end of gzip member at offset "+index.getCompressedOffset(member));
+
+                inflater.setInput(inBuffer, 0, nbRead);
+            }
+
+            int nbInflated = GzipIndex.inflate(inflater, b, off, len);
+            if(nbInflated>0) {
+                position += nbInflated;
+                return nbInflated;
+            }
+        }
+
+        return -1;
+    }
+
+    public long getOffset() throws IOException {
+        return position;
+    }
+
+    public long getLength() throws IOException {
+        return index.getUncompressedSize();
+    }
+
+    public void seek(long offset) throws IOException {
+        if(offset<0)
+            throw new IOException("Negative seek offset");
+
+        if(offset>=getLength()) {
+            member = -1;
+            position = offset;
+            return;
+        }
+
+        // Decompress from the start of the member containing the offset, unless the offset is ahead in the
+        // current member
+        int target = index.getMemberAt(offset);
+        if(target!=member || offset<position)
+            openMember(target);
+
+        if(offset>position) {
+            if(skipBuffer==null)
+                skipBuffer = new byte[GzipIndex.BUFFER_SIZE];
+
+            while(position<offset) {
+                if(read(skipBuffer, 0, (int)Math.min(skipBuffer.length, offset-position))==-1)
+                    throw new EOFException();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        rais.close();
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.gzip;
+
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+/**
+ * <code>ParallelGzipInputStream</code> decompresses a BGZF file by decompressing several of its blocks concurrently.
+ * Blocks are read sequentially from the compressed file, handed to an executor for decompression, and returned in
+ * order: up to <code>readAhead</code> blocks are being decompressed while the data of the current block is read.
+ *
+ * @see GzipArchiveFile#getEntryInputStream
+ */
+class ParallelGzipInputStream extends InputStream {
+
+    /** Maximum size of the uncompressed data of a BGZF block */
+    private final static int MAX_BLOCK_SIZE = 65536;
+
+    /** The stream that reads the compressed file */
+    private final RandomAccessInputStream rais;
+
+    /** Decompresses blocks */
+    private final ExecutorService executor;
+
+    /** Maximum number of blocks being decompressed ahead of the current one */
+    private final int readAhead;
+
+    /** Blocks being decompressed, in order */
+    private final LinkedList<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+
+    /** Offset of the next block to hand to the executor in the compressed file */
+    private long nextBlockOffset;
+
+    /** Length of the compressed file */
+    private final long length;
+
+    /** Uncompressed data of the current block, null before the first block */
+    private byte[] block;
+
+    /** Offset of the next byte to return in the current block */
+    private int blockPos;
+
+
+    /**
+     * Creates a new <code>ParallelGzipInputStream</code> that decompresses the BGZF file read by the given stream.
+     *
+     * @param rais the stream that reads the compressed file
+     * @param executor the executor that decompresses blocks
+     * @param readAhead maximum number of blocks being decompressed ahead of the current one
+     * @throws IOException if the length of the file could not be retrieved
+     */
+    ParallelGzipInputStream(RandomAccessInputStream rais, ExecutorService executor, int readAhead) throws IOException {
+        this.rais = rais;
+        this.executor = executor;
+        this.readAhead = readAhead;
+        this.length = rais.getLength();
+    }
+
+    /**
+     * Reads blocks from the compressed file and hands them to the executor, until <code>readAhead</code> blocks are
+     * pending or the end of the file is reached.
+     *
+     * @throws IOException if a block could not be read
+     */
+    private void submitBlocks() throws IOException {
+        while(pendingBlocks.size()<readAhead && nextBlockOffset<length) {
+            GzipIndex.Header header = GzipIndex.readHeader(rais, nextBlockOffset);
+            // Ignore trailing garbage, as GZIPInputStream does
+            if(header==null) {
+                nextBlockOffset = length;
+                break;
+            }
+
+            if(!header.isBGZF() || header.blockSize<header.length+GzipIndex.TRAILER_SIZE)
+                throw new IOException("Member at offset "+nextBlockOffset+" is not a valid BGZF block");
+
+            final byte[] compressedBlock = new byte[header.blockSize];
+            final int dataOffset = header.length;
+            rais.seek(nextBlockOffset);
+            rais.readFully(compressedBlock);
+
+            pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    return inflateBlock(compressedBlock, dataOffset);
+                }
+            }));
+
+            nextBlockOffset += header.blockSize;
+        }
+    }
+
+    /**
+     * Decompresses the given BGZF block and checks its CRC.
+     *
+     * @param compressedBlock the whole BGZF block, including its header and trailer
+     * @param dataOffset offset of the compressed data in the block
+     * @return the uncompressed data of the block
+     * @throws IOException if the block is corrupt
+     */
+    private static byte[] inflateBlock(byte[] compressedBlock, int dataOffset) throws IOException {
+        int trailerOffset = compressedBlock.length-GzipIndex.TRAILER_SIZE;
+        long size = GzipIndex.getUInt32(compressedBlock, trailerOffset+4);
+        if(size>MAX_BLOCK_SIZE)
+            throw new IOException("Corrupt BGZF block: invalid size "+size);
+
+        byte[] data = new byte[(int)size];
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressedBlock, dataOffset, trailerOffset-dataOffset);
+
+            int off = 0;
+            while(off<data.length) {
+                int nbInflated = GzipIndex.inflate(inflater, data, off, data.length-off);
+                if(nbInflated==0 && (inflater.finished() || inflater.needsInput()))
+                    throw new IOException("Corrupt BGZF block: truncated data");
+
+                off += nbInflated;
+            }
+        }
+        finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if(crc.getValue()!=GzipIndex.getUInt32(compressedBlock, trailerOffset))
+            throw new IOException("Corrupt BGZF block: CRC mismatch");
+
+        return data;
+    }
+
+    /**
+     * Makes the next non-empty block the current one, returning <code>false</code> if there is none.
+     *
+     * @return false if the end of the file has been reached
+     * @throws IOException if a block could not be read or decompressed
+     */
+    private boolean nextBlock() throws IOException {
+        do {
+            submitBlocks();
+            if(pendingBlocks.isEmpty())
+                return false;
+
+            Future<byte[]> pendingBlock = pendingBlocks.removeFirst();
+            // Keep the executor busy while the current block is being read
+            submitBlocks();
+
+            try {
+                block = pendingBlock.get();
+            }
+            catch(InterruptedException e) {
+                throw new IOException("Interrupted while decompressing");
+            }
+            catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof IOException)
+                    throw (IOException)cause;
+
+                throw new IOException("Error while decompressing: "+cause);
+            }
+            blockPos = 0;
+        }
+        while(block.length==0);
+
+        return true;
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        if((block==null || blockPos==block.length) && !nextBlock())
+            return -1;
+
+        return block[blockPos++]&0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        if((block==null || blockPos==block.length) && !nextBlock())
+            return -1;
+
+        int nbRead = Math.min(len, block.length-blockPos);
+        System.arraycopy(block, blockPos, b, off, nbRead);
+        blockPos += nbRead;
+
+        return nbRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return block==null ? 0 : block.length-blockPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(Future<byte[]> pendingBlock : pendingBlocks)
+            pendingBlock.cancel(false);
+        pendingBlocks.clear();
+
+        rais.close();
+    }
+}
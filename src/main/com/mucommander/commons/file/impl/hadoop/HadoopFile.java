@@ -37,6 +37,8 @@ import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.LatencyClass;
+import com.mucommander.commons.file.PerformanceHints;
 import com.mucommander.commons.file.PermissionBits;
 import com.mucommander.commons.file.ProtocolFile;
 import com.mucommander.commons.file.SimpleFilePermissions;
@@ -50,6 +52,8 @@ import com.mucommander.commons.file.impl.hadoop.wrapper.FileStatus;
 import com.mucommander.commons.file.impl.hadoop.wrapper.FileSystem;
 import com.mucommander.commons.file.impl.hadoop.wrapper.Path;
 import com.mucommander.commons.file.impl.s3.S3File;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 import com.mucommander.commons.file.util.ClassLoaderUtils;
 import com.mucommander.commons.io.ByteCounter;
 import com.mucommander.commons.io.ByteUtils;
@@ -68,6 +72,7 @@ import com.mucommander.commons.io.RandomAccessOutputStream;
  * @see S3File
  * @author Maxence Bernard
  */
+@PerformanceHints(preferredBlockSize=128*1024, latency=LatencyClass.LAN)
 public abstract class HadoopFile extends ProtocolFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(HadoopFile.class);
 
@@ -124,32 +129,62 @@ public abstract class HadoopFile extends ProtocolFile {
     }
 
     private OutputStream getOutputStream(boolean append) throws IOException {
-        OutputStream out = new CounterOutputStream(
-            append ? (OutputStream)fs.append(path).getFsDataOutputStream() :
-                (OutputStream)fs.create(path, true).getFsDataOutputStream(),
-            new ByteCounter() {
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            OutputStream out = new CounterOutputStream(
+                append ? (OutputStream)fs.append(path).getFsDataOutputStream() :
+                    (OutputStream)fs.create(path, true).getFsDataOutputStream(),
+                new ByteCounter() {
+                    @Override
+                    public synchronized void add(long nbBytes) {
+                        fileAttributes.addToSize(nbBytes);
+                        fileAttributes.setDate(System.currentTimeMillis());
+                    }
+                }
+            ) {
                 @Override
-                public synchronized void add(long nbBytes) {
-                    fileAttributes.addToSize(nbBytes);
-                    fileAttributes.setDate(System.currentTimeMillis());
+                public void close() throws IOException {
+                    super.close();
+                    isWriting = false;
                 }
-            }
-        ) {
-            @Override
-            public void close() throws IOException {
-                super.close();
-                isWriting = false;
-            }
-        };
+            };
 
-        // Update local attributes
-        fileAttributes.setExists(true);
-        fileAttributes.setDate(System.currentTimeMillis());
-        fileAttributes.setSize(0);
+            // Update local attributes
+            fileAttributes.setExists(true);
+            fileAttributes.setDate(System.currentTimeMillis());
+            fileAttributes.setSize(0);
 
-        isWriting = true;
+            isWriting = true;
 
-        return out;
+            OutputStream meteredOut = FileMetrics.meter(fileURL.getScheme(), out);
+            failed = false;
+            return meteredOut;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_WRITE, start, failed);
+        }
+    }
+
+    /**
+     * Lists the contents of this directory, applying the given Hadoop <code>PathFilter</code> if it is not
+     * <code>null</code>.
+     *
+     * @param hadoopFilter a Hadoop <code>PathFilter</code> instance, <code>null</code> to list all files
+     * @return the status of the files contained by this directory
+     * @throws IOException if the directory could not be listed
+     */
+    private FileStatus[] listStatus(Object hadoopFilter) throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            FileStatus[] statuses = hadoopFilter==null ? fs.listStatus(path) : fs.listStatus(path, hadoopFilter);
+            failed = false;
+            return statuses;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.LIST, start, failed);
+        }
     }
 
 
@@ -249,25 +284,69 @@ public abstract class HadoopFile extends ProtocolFile {
 
     @Override
     public void mkdir() throws IOException {
-        if(exists() || !fs.mkdirs(path))
-            throw new IOException();
-
-        // Update local attributes
-        fileAttributes.setExists(true);
-        fileAttributes.setDirectory(true);
-        fileAttributes.setDate(System.currentTimeMillis());
-        fileAttributes.setSize(0);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            if(exists() || !fs.mkdirs(path))
+                throw new IOException();
+
+            // Update local attributes
+            fileAttributes.setExists(true);
+            fileAttributes.setDirectory(true);
+            fileAttributes.setDate(System.currentTimeMillis());
+            fileAttributes.setSize(0);
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.MKDIR, start, failed);
+        }
     }
 
     @Override
     public void delete() throws IOException {
-        if(!fs.delete(path, false))
-            throw new IOException();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            if(!fs.delete(path, false))
+                throw new IOException();
+
+            // Update local attributes
+            fileAttributes.setExists(false);
+            fileAttributes.setDirectory(false);
+            fileAttributes.setSize(0);
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.DELETE, start, failed);
+        }
+    }
 
-        // Update local attributes
-        fileAttributes.setExists(false);
-        fileAttributes.setDirectory(false);
-        fileAttributes.setSize(0);
+    /**
+     * Deletes this file and, if it is a directory, its contents with a single recursive
+     * <code>FileSystem#delete</code> call, rather than listing and deleting files one by one.
+     */
+    @Override
+    public void deleteRecursively() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            if(!fs.delete(path, true))
+                throw new IOException();
+
+            // Update local attributes
+            fileAttributes.setExists(false);
+            fileAttributes.setDirectory(false);
+            fileAttributes.setSize(0);
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.DELETE, start, failed);
+        }
+    }
+
+    @Override
+    public boolean canDeleteInBulk() {
+        return true;
     }
 
     @Override
@@ -275,21 +354,29 @@ public abstract class HadoopFile extends ProtocolFile {
         // Throw an exception if the file cannot be renamed to the specified destination
         checkRenamePrerequisites(destFile, false, false);
 
-        // Delete the destination if it already exists as FileSystem#rename would otherwise fail.
-        // Note: HadoopFile#delete() does not delete directories recursively (good).
-        if(destFile.exists())
-            destFile.delete();
-
-        if(!fs.rename(path, ((HadoopFile)destFile).path))
-            throw new IOException();
-
-        // Update destination file attributes by fetching them from the server
-        ((HadoopFileAttributes)destFile.getUnderlyingFileObject()).fetchAttributes();
-
-        // Update this file's attributes locally
-        fileAttributes.setExists(false);
-        fileAttributes.setDirectory(false);
-        fileAttributes.setSize(0);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            // Delete the destination if it already exists as FileSystem#rename would otherwise fail.
+            // Note: HadoopFile#delete() does not delete directories recursively (good).
+            if(destFile.exists())
+                destFile.delete();
+
+            if(!fs.rename(path, ((HadoopFile)destFile).path))
+                throw new IOException();
+
+            // Update destination file attributes by fetching them from the server
+            ((HadoopFileAttributes)destFile.getUnderlyingFileObject()).fetchAttributes();
+
+            // Update this file's attributes locally
+            fileAttributes.setExists(false);
+            fileAttributes.setDirectory(false);
+            fileAttributes.setSize(0);
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.RENAME, start, failed);
+        }
     }
 
     @Override
@@ -308,7 +395,16 @@ public abstract class HadoopFile extends ProtocolFile {
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return (InputStream) fs.open(path).getFsDataInputStream();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            InputStream in = FileMetrics.meter(fileURL.getScheme(), (InputStream) fs.open(path).getFsDataInputStream());
+            failed = false;
+            return in;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
@@ -318,7 +414,16 @@ public abstract class HadoopFile extends ProtocolFile {
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new HadoopRandomAccessInputStream(fs.open(path), getSize());
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            RandomAccessInputStream rais = FileMetrics.meter(fileURL.getScheme(), new HadoopRandomAccessInputStream(fs.open(path), getSize()));
+            failed = false;
+            return rais;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
@@ -390,7 +495,7 @@ public abstract class HadoopFile extends ProtocolFile {
 
         FileStatus[] statuses;
         if (filter == null) {
-            statuses = fs.listStatus(path);
+            statuses = listStatus(null);
         }
         else {
             //creating an org.apache.hadoop.fs.PathFilter implementing class on the fly
@@ -422,24 +527,20 @@ public abstract class HadoopFile extends ProtocolFile {
                         }
                     });
             
-            statuses = fs.listStatus(path, hadoopFilenameFilter);
+            statuses = listStatus(hadoopFilenameFilter);
         }
 
         int nbChildren = (statuses == null) ? 0 : statuses.length;
         AbstractFile[] children = new AbstractFile[nbChildren];
-        String parentPath = fileURL.getPath();
-        if(!parentPath.endsWith("/"))
-            parentPath += "/";
         FileURL childURL;
         FileStatus childStatus;
 
         for(int i=0; i<nbChildren; i++) {
             childStatus = statuses[i];
 
-            childURL = (FileURL)fileURL.clone();
-            childURL.setPath(parentPath + childStatus.getPath().getName());
+            childURL = fileURL.getChild(childStatus.getPath().getName());
 
-            children[i] = FileFactory.getFile(childURL, this, fs, childStatus);
+            children[i] = FileFactory.getChildFile(childURL, this, fs, childStatus);
         }
 
         return children;
@@ -514,9 +615,12 @@ public abstract class HadoopFile extends ProtocolFile {
             if(isWriting)
                 return;
 
+            long start = FileMetrics.start();
+            boolean failed = true;
             try {
                 setAttributes(fs.getFileStatus(path));
                 setExists(true);
+                failed = false;
             }
             catch(IOException e) {
                 // File doesn't exist on the server
@@ -527,6 +631,9 @@ public abstract class HadoopFile extends ProtocolFile {
                 if(e instanceof AuthException)
                     throw (AuthException)e;
             }
+            finally {
+                FileMetrics.end(fileURL.getScheme(), MeteredOperation.STAT, start, failed);
+            }
         }
 
         /**
@@ -20,6 +20,8 @@
 package com.mucommander.commons.file.impl.http;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 import com.mucommander.commons.io.BlockRandomInputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
@@ -76,6 +78,7 @@ import java.util.regex.Pattern;
  *
  * @author Maxence Bernard
  */
+@PerformanceHints(rangedReadsCheap=false, latency=LatencyClass.WAN)
 public class HTTPFile extends ProtocolFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(HTTPFile.class);
 
@@ -177,6 +180,8 @@ public class HTTPFile extends ProtocolFile {
      * reason
      */
     private void resolveFile() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         try {
             LOGGER.info("Resolving {}", url);
 
@@ -211,6 +216,7 @@ public class HTTPFile extends ProtocolFile {
 
             // File was successfully resolved on the remote HTTP server and thus exists
             attributes.setExists(true);
+            failed = false;
         }
         catch(IOException e) {
             LOGGER.info("Failed to resolve file {}", url, e);
@@ -218,6 +224,7 @@ public class HTTPFile extends ProtocolFile {
         finally {
             // Mark the file as resolved, even if the request failed
             fileResolved = true;
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.STAT, start, failed);
         }
     }
 
@@ -398,15 +405,24 @@ public class HTTPFile extends ProtocolFile {
 
     @Override
     public InputStream getInputStream() throws IOException {
-        HttpURLConnection conn = getHttpURLConnection(this.url);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            HttpURLConnection conn = getHttpURLConnection(this.url);
 
-        // Establish connection
-        conn.connect();
+            // Establish connection
+            conn.connect();
 
-        // Check HTTP response code and throw appropriate IOException if request failed
-        checkHTTPResponse(conn);
+            // Check HTTP response code and throw appropriate IOException if request failed
+            checkHTTPResponse(conn);
 
-        return conn.getInputStream();
+            InputStream in = FileMetrics.meter(fileURL.getScheme(), conn.getInputStream());
+            failed = false;
+            return in;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     /**
@@ -433,7 +449,7 @@ public class HTTPFile extends ProtocolFile {
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new HTTPRandomAccessInputStream();
+        return FileMetrics.meter(fileURL.getScheme(), new HTTPRandomAccessInputStream());
     }
 
     /**
@@ -525,6 +541,8 @@ public class HTTPFile extends ProtocolFile {
     public AbstractFile[] ls() throws IOException {
         // Implementation note: javax.swing.text.html.HTMLEditorKit isn't quite powerful enough to be used
 
+        long start = FileMetrics.start();
+        boolean failed = true;
         BufferedReader br = null;
         try {
             URL contextURL = this.url;
@@ -648,6 +666,7 @@ public class HTTPFile extends ProtocolFile {
 
             AbstractFile childrenArray[] = new AbstractFile[children.size()];
             children.toArray(childrenArray);
+            failed = false;
             return childrenArray;
         }
         catch (Exception e) {
@@ -665,6 +684,8 @@ public class HTTPFile extends ProtocolFile {
                     br.close();
             }
             catch(IOException e) {}
+
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.LIST, start, failed);
         }
     }
 
@@ -690,18 +711,27 @@ public class HTTPFile extends ProtocolFile {
      */
     @Override
     public InputStream getInputStream(long offset) throws IOException {
-        HttpURLConnection conn = getHttpURLConnection(this.url);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            HttpURLConnection conn = getHttpURLConnection(this.url);
 
-        // Set header that allows to resume transfer
-        conn.setRequestProperty("Range", "bytes="+offset+"-");
+            // Set header that allows to resume transfer
+            conn.setRequestProperty("Range", "bytes="+offset+"-");
 
-        // Establish connection
-        conn.connect();
+            // Establish connection
+            conn.connect();
 
-        // Check HTTP response code and throw appropriate IOException if request failed
-        checkHTTPResponse(conn);
+            // Check HTTP response code and throw appropriate IOException if request failed
+            checkHTTPResponse(conn);
 
-        return conn.getInputStream();
+            InputStream in = FileMetrics.meter(fileURL.getScheme(), conn.getInputStream());
+            failed = false;
+            return in;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
 
@@ -742,13 +772,22 @@ public class HTTPFile extends ProtocolFile {
 
         @Override
         protected int readBlock(long fileOffset, byte block[], int blockLen) throws IOException {
+            long start = FileMetrics.start();
+            boolean failed = true;
             HttpURLConnection conn = getHttpURLConnection(url);
 
             // Note: 'Range' may not be supported by the HTTP server, in that case an IOException will be thrown
             conn.setRequestProperty("Range", "bytes="+fileOffset +"-"+ Math.min(fileOffset+blockLen, length-1));
 
-            conn.connect();
-            checkHTTPResponse(conn);
+            try {
+                conn.connect();
+                checkHTTPResponse(conn);
+                failed = false;
+            }
+            finally {
+                // Each block is fetched with a ranged GET request
+                FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+            }
 
             // Read up to blockLen bytes
             InputStream in = conn.getInputStream();
@@ -20,24 +20,123 @@
 package com.mucommander.commons.file.impl.iso;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.io.FilterRandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
 
+import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * IsoArchiveFile provides read-only access to archives in the ISO and NRG formats.
  *
+ * <p>The entries tree of ISO images is populated lazily: {@link #createEntriesTree()} only reads the root directory,
+ * and the other directories are read the first time they are listed or looked up, through an
+ * {@link IsoDirectoryReader}. Images are not kept open between two listings, sectors that have already been read
+ * being held in the reader's sector cache. NRG images are still parsed at once.</p>
+ *
  * @author Maxence Bernard
  * @see com.mucommander.commons.file.impl.iso.IsoFormatProvider
  */
 public class IsoArchiveFile extends AbstractROArchiveFile {
 
+    /** Reads directories on demand, null if the tree was created from the entry iterator */
+    private IsoDirectoryReader directoryReader;
+
+    /** Nodes whose children have been added to the entries tree */
+    private Set<DefaultMutableTreeNode> loadedNodes;
+
     public IsoArchiveFile(AbstractFile file) {
         super(file);
     }
 
+    /**
+     * Adds the entries contained by the directory designated by the given node to the tree, the node being
+     * either the tree's root or a directory entry node.
+     */
+    private void loadDirectory(RandomAccessInputStream rais, DefaultMutableTreeNode node) throws IOException {
+        List<IsoArchiveEntry> entries = node == entryTreeRoot
+                ? directoryReader.readRootDirectory(rais)
+                : directoryReader.readDirectory(rais, (IsoArchiveEntry) node.getUserObject());
+
+        for (IsoArchiveEntry entry : entries) {
+            entry.setExists(true);
+            node.add(new DefaultMutableTreeNode(entry, true));
+        }
+
+        loadedNodes.add(node);
+    }
+
+
+    ////////////////////////////////////////
+    // AbstractArchiveFile implementation //
+    ////////////////////////////////////////
+
+    @Override
+    protected synchronized void createEntriesTree() throws IOException, UnsupportedFileOperationException {
+        if (!IsoParser.canReadDirectories(this)) {
+            directoryReader = null;
+            loadedNodes = null;
+            super.createEntriesTree();
+            return;
+        }
+
+        RandomAccessInputStream rais = getRandomAccessInputStream();
+        try {
+            directoryReader = IsoParser.getDirectoryReader(this, rais);
+            loadedNodes = new HashSet<DefaultMutableTreeNode>();
+            archiveEntryFiles = new WeakHashMap<ArchiveEntry, AbstractArchiveEntryFile>();
+            entryTreeRoot = new ArchiveEntryTree();
+            loadDirectory(rais, entryTreeRoot);
+
+            declareEntriesTreeUpToDate();
+        }
+        finally {
+            rais.close();
+        }
+    }
+
+    @Override
+    protected synchronized void loadEntryNode(DefaultMutableTreeNode entryNode) throws IOException {
+        if (directoryReader == null || loadedNodes.contains(entryNode))
+            return;
+
+        RandomAccessInputStream rais = getRandomAccessInputStream();
+        try {
+            loadDirectory(rais, entryNode);
+        }
+        finally {
+            rais.close();
+        }
+    }
+
+    @Override
+    protected synchronized DefaultMutableTreeNode findEntryNode(String entryPath) throws IOException {
+        if (directoryReader == null)
+            return super.findEntryNode(entryPath);
+
+        // Load the ancestors of the entry, from the top down
+        DefaultMutableTreeNode node = entryTreeRoot;
+        int slashPos = 0;
+        while (true) {
+            loadEntryNode(node);
+
+            slashPos = entryPath.indexOf('/', slashPos) + 1;
+            if (slashPos == 0 || slashPos == entryPath.length())
+                return entryTreeRoot.findEntryNode(entryPath);
+
+            node = entryTreeRoot.findEntryNode(entryPath.substring(0, slashPos));
+            if (node == null)
+                return null;
+        }
+    }
+
     //////////////////////////////////////////
     // AbstractROArchiveFile implementation //
     //////////////////////////////////////////
@@ -69,6 +168,11 @@ public class IsoArchiveFile extends AbstractROArchiveFile {
             rais = getRandomAccessInputStream();
         }
 
-        return new IsoEntryInputStream(rais, isoEntry);
+        // Let the entry be transferred without copying it through the heap if the image is a local file
+        FileChannel channel = null;
+        if (rais instanceof LocalFile.LocalRandomAccessInputStream)
+            channel = ((LocalFile.LocalRandomAccessInputStream) rais).getChannel();
+
+        return new IsoEntryInputStream(rais, isoEntry, channel);
     }
 }
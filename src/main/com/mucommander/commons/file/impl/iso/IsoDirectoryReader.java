@@ -0,0 +1,367 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file.impl.iso;
+
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SimpleTimeZone;
+import java.util.Vector;
+
+/**
+ * Reads the directories of an ISO 9660 volume one at a time, so that listing a directory only requires reading the
+ * extent of that directory and not the whole hierarchy.
+ *
+ * <p>The volume descriptors are read when the reader is created, to choose the directory hierarchy to read:
+ * <ul>
+ *  <li>the primary hierarchy if it carries Rock Ridge extensions, names being read from <code>NM</code> entries</li>
+ *  <li>otherwise, the Joliet hierarchy if the image has one</li>
+ *  <li>otherwise, the primary hierarchy with plain ISO 9660 names</li>
+ * </ul>
+ * </p>
+ *
+ * <p>Sectors are read through an {@link IsoSectorCache}, which allows a reader to be used with any number of streams
+ * over the same image, for as long as the image does not change.</p>
+ */
+class IsoDirectoryReader {
+
+    /** Index of the first volume descriptor */
+    private static final int FIRST_VOLUME_DESCRIPTOR = 16;
+
+    /** Length of a directory record, without the file identifier */
+    private static final int DR_LENGTH = 33;
+
+    /** Offset of the root directory record within a volume descriptor */
+    private static final int ROOT_DR_OFFSET = 156;
+
+    /** Maximum depth of Rock Ridge continuation areas followed for a single record */
+    private static final int MAX_CONTINUATION_AREAS = 8;
+
+    private final IsoSectorCache cache;
+    private final int sectSize;
+    private final long sectorOffset;
+    private final long shiftOffset;
+
+    /** Joliet level of the hierarchy being read, 0 if names are not UCS-2 */
+    private int level;
+
+    /** True if the hierarchy being read carries Rock Ridge extensions */
+    private boolean rockRidge;
+
+    /** Number of bytes to skip at the beginning of each System Use area, as specified by the SUSP 'SP' entry */
+    private int suspSkip;
+
+    private long rootExtent;
+    private long rootLength;
+
+    IsoDirectoryReader(RandomAccessInputStream rais, IsoSectorCache cache, int sectSize, long sectorOffset, long shiftOffset) throws IOException {
+        this.cache = cache;
+        this.sectSize = sectSize;
+        this.sectorOffset = sectorOffset;
+        this.shiftOffset = shiftOffset;
+
+        readVolumeDescriptors(rais);
+    }
+
+    int getSectSize() {
+        return sectSize;
+    }
+
+    long getShiftOffset() {
+        return shiftOffset;
+    }
+
+    /**
+     * Returns <code>true</code> if names are read from Rock Ridge extensions.
+     *
+     * @return <code>true</code> if names are read from Rock Ridge extensions
+     */
+    boolean isRockRidge() {
+        return rockRidge;
+    }
+
+    /**
+     * Returns the Joliet level of the hierarchy being read, <code>0</code> if it is not a Joliet hierarchy.
+     *
+     * @return the Joliet level of the hierarchy being read
+     */
+    int getJolietLevel() {
+        return level;
+    }
+
+    private void readVolumeDescriptors(RandomAccessInputStream rais) throws IOException {
+        int jolietLevel = 0;
+        byte[] svd = null;
+
+        for (int i = 1; i < 17; i++) {  // fuzzy search, can have type=0 (bootable el torito), type=2 (svd)
+            byte[] vd = cache.getSector(rais, FIRST_VOLUME_DESCRIPTOR + i);
+            if (vd[0] == 2 && vd[1] == 'C' && vd[2] == 'D' && vd[3] == '0' && vd[4] == '0' && vd[5] == '1') {
+                // UCS-2 escape sequence
+                switch (vd[90]) {
+                    case 0x40:
+                        jolietLevel = 1;
+                        break;
+                    case 0x43:
+                        jolietLevel = 2;
+                        break;
+                    case 0x45:
+                        jolietLevel = 3;
+                }
+                svd = vd;
+                break;
+            }
+        }
+
+        byte[] pvd = cache.getSector(rais, FIRST_VOLUME_DESCRIPTOR);
+        rootExtent = toUnsignedInt(pvd, ROOT_DR_OFFSET + 2);
+        rootLength = toUnsignedInt(pvd, ROOT_DR_OFFSET + 10);
+
+        // Rock Ridge names are preferred over Joliet ones, as they are neither truncated nor case-mangled
+        if (detectRockRidge(rais))
+            return;
+
+        if (jolietLevel != 0) {
+            level = jolietLevel;
+            rootExtent = toUnsignedInt(svd, ROOT_DR_OFFSET + 2);
+            rootLength = toUnsignedInt(svd, ROOT_DR_OFFSET + 10);
+        }
+    }
+
+    /**
+     * Looks for the SUSP 'SP' entry in the System Use area of the root directory's '.' record, which indicates that
+     * the hierarchy carries Rock Ridge extensions.
+     */
+    private boolean detectRockRidge(RandomAccessInputStream rais) throws IOException {
+        byte[] buffer = cache.getSector(rais, rootExtent - sectorOffset);
+
+        int recordLength = buffer[0] & 0xff;
+        int nameLength = buffer[32] & 0xff;
+        int suOffset = DR_LENGTH + nameLength + ((nameLength & 1) == 0 ? 1 : 0);
+
+        if (recordLength >= suOffset + 7
+                && buffer[suOffset] == 'S' && buffer[suOffset + 1] == 'P'
+                && (buffer[suOffset + 4] & 0xff) == 0xBE && (buffer[suOffset + 5] & 0xff) == 0xEF) {
+            rockRidge = true;
+            suspSkip = buffer[suOffset + 6] & 0xff;
+        }
+
+        return rockRidge;
+    }
+
+    /**
+     * Returns the entries contained by the root directory.
+     *
+     * @param rais the stream to read uncached sectors from
+     * @return the entries contained by the root directory
+     * @throws IOException if an error occurred while reading the directory
+     */
+    List<IsoArchiveEntry> readRootDirectory(RandomAccessInputStream rais) throws IOException {
+        return readDirectory(rais, "", rootExtent, rootLength);
+    }
+
+    /**
+     * Returns the entries contained by the given directory entry, which must have been returned by this reader.
+     *
+     * @param rais the stream to read uncached sectors from
+     * @param directory a directory entry
+     * @return the entries contained by the directory
+     * @throws IOException if an error occurred while reading the directory
+     */
+    List<IsoArchiveEntry> readDirectory(RandomAccessInputStream rais, IsoArchiveEntry directory) throws IOException {
+        return readDirectory(rais, directory.getPath(), directory.getIndex() + sectorOffset, directory.getSize());
+    }
+
+    /**
+     * Returns all the entries of the hierarchy, directories being read in breadth-first order.
+     *
+     * @param rais the stream to read uncached sectors from
+     * @return all the entries of the hierarchy
+     * @throws IOException if an error occurred while reading a directory
+     */
+    Vector<IsoArchiveEntry> readAllEntries(RandomAccessInputStream rais) throws IOException {
+        Vector<IsoArchiveEntry> entries = new Vector<IsoArchiveEntry>();
+        LinkedList<IsoArchiveEntry> todo = new LinkedList<IsoArchiveEntry>();
+
+        List<IsoArchiveEntry> children = readRootDirectory(rais);
+        while (true) {
+            for (IsoArchiveEntry child : children) {
+                entries.add(child);
+                if (child.isDirectory())
+                    todo.add(child);
+            }
+
+            if (todo.isEmpty())
+                return entries;
+
+            children = readDirectory(rais, todo.removeFirst());
+        }
+    }
+
+    private List<IsoArchiveEntry> readDirectory(RandomAccessInputStream rais, String path, long extent, long length) throws IOException {
+        List<IsoArchiveEntry> entries = new Vector<IsoArchiveEntry>();
+        Calendar calendar = Calendar.getInstance();
+
+        int nbSectors = (int) ((length + IsoUtil.MODE1_2048 - 1) / IsoUtil.MODE1_2048);
+        cache.prefetch(rais, extent - sectorOffset, nbSectors);
+
+        for (int s = 0; s < nbSectors; s++) {
+            byte[] buffer = cache.getSector(rais, extent + s - sectorOffset);
+
+            int i = 0;
+            while (i <= IsoUtil.MODE1_2048 - DR_LENGTH - 1) {
+                int recordLength = buffer[i] & 0xff;
+                if (recordLength == 0)
+                    break;
+
+                // Records may not span sectors
+                if (recordLength < DR_LENGTH || i + recordLength > IsoUtil.MODE1_2048)
+                    throw new IOException("Invalid directory record length " + recordLength + " at offset " + i + " of sector " + (extent + s));
+
+                IsoArchiveEntry entry = readRecord(rais, buffer, i, recordLength, path, calendar);
+                if (entry != null)
+                    entries.add(entry);
+
+                i += recordLength;
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Creates an entry from the directory record located at the given offset, <code>null</code> if the record
+     * designates the directory itself or its parent.
+     */
+    private IsoArchiveEntry readRecord(RandomAccessInputStream rais, byte[] buffer, int offset, int recordLength, String parentPath, Calendar calendar) throws IOException {
+        int nameLength = buffer[offset + 32] & 0xff;
+        int nameOffset = offset + DR_LENGTH;
+        if (nameOffset + nameLength > offset + recordLength)
+            throw new IOException("Invalid file identifier length " + nameLength + " for a directory record of length " + recordLength);
+
+        // '.' and '..'
+        if (nameLength == 1 && (buffer[nameOffset] == 0 || buffer[nameOffset] == 1))
+            return null;
+
+        boolean dir = (buffer[offset + 25] & 2) != 0;
+
+        String name = null;
+        if (rockRidge) {
+            int suOffset = nameOffset + nameLength + ((nameLength & 1) == 0 ? 1 : 0) + suspSkip;
+            name = readRockRidgeName(rais, buffer, suOffset, offset + recordLength, 0);
+        }
+        if (name == null)
+            name = readName(buffer, nameOffset, nameLength);
+
+        StringBuffer path = new StringBuffer(parentPath);
+        path.append(name);
+        if (dir && !name.endsWith("/"))
+            path.append('/');
+
+        calendar.set((buffer[offset + 18] & 0xff) + 1900, buffer[offset + 19] - 1, buffer[offset + 20], buffer[offset + 21], buffer[offset + 22], buffer[offset + 23]);
+        // offset from Greenwich Mean Time, in 15-minute intervals, as a twos complement signed number,
+        // positive for time zones east of Greenwich, and negative for time zones
+        calendar.setTimeZone(new SimpleTimeZone(15 * 60 * 1000 * buffer[offset + 24], ""));
+
+        return new IsoArchiveEntry(
+                path.toString(),
+                dir,
+                calendar.getTimeInMillis(),
+                toUnsignedInt(buffer, offset + 10),
+                toUnsignedInt(buffer, offset + 2) - sectorOffset,
+                sectSize,
+                shiftOffset,
+                false);
+    }
+
+    /**
+     * Decodes an ISO 9660 or Joliet file identifier, stripping the version number and empty extension.
+     */
+    private String readName(byte[] buffer, int nameOffset, int nameLength) throws UnsupportedEncodingException {
+        StringBuffer name = new StringBuffer(level == 0
+                ? new String(buffer, nameOffset, nameLength)
+                : new String(buffer, nameOffset, nameLength, "UnicodeBigUnmarked"));
+
+        int p = name.lastIndexOf(";");   // strip ;VERSION
+        if (p != -1)
+            name.setLength(p);
+        p = name.lastIndexOf(".");       // strip empty extension
+        if (p != -1) {
+            int s = name.length() - 1;
+            if (p == s)
+                name.setLength(s);
+        }
+
+        return name.toString();
+    }
+
+    /**
+     * Looks for Rock Ridge 'NM' entries in the given System Use area and returns the alternate name they hold,
+     * <code>null</code> if there is none. 'CE' entries are followed to read continuation areas.
+     */
+    private String readRockRidgeName(RandomAccessInputStream rais, byte[] buffer, int start, int end, int depth) throws IOException {
+        StringBuffer name = null;
+
+        int i = start;
+        while (i + 4 <= end) {
+            int entryLength = buffer[i + 2] & 0xff;
+            if (entryLength < 4 || i + entryLength > end)
+                break;
+
+            if (buffer[i] == 'N' && buffer[i + 1] == 'M' && entryLength >= 5) {
+                int flags = buffer[i + 4] & 0xff;
+                // Skip entries that designate the current or parent directory
+                if ((flags & 6) == 0) {
+                    if (name == null)
+                        name = new StringBuffer();
+                    name.append(new String(buffer, i + 5, entryLength - 5, "UTF-8"));
+                }
+            } else if (buffer[i] == 'C' && buffer[i + 1] == 'E' && entryLength >= 28 && depth < MAX_CONTINUATION_AREAS) {
+                long ceBlock = toUnsignedInt(buffer, i + 4);
+                long ceOffset = toUnsignedInt(buffer, i + 12);
+                long ceLength = toUnsignedInt(buffer, i + 20);
+                // Continuation areas may not span sectors
+                if (ceOffset + ceLength > IsoUtil.MODE1_2048)
+                    throw new IOException("Invalid continuation area of length " + ceLength + " at offset " + ceOffset + " of sector " + ceBlock);
+
+                String continued = readRockRidgeName(rais, cache.getSector(rais, ceBlock - sectorOffset), (int) ceOffset, (int) (ceOffset + ceLength), depth + 1);
+                if (continued != null) {
+                    if (name == null)
+                        name = new StringBuffer();
+                    name.append(continued);
+                }
+            } else if (buffer[i] == 'S' && buffer[i + 1] == 'T') {
+                // End of the System Use area
+                break;
+            }
+
+            i += entryLength;
+        }
+
+        return name == null || name.length() == 0 ? null : name.toString();
+    }
+
+    private static long toUnsignedInt(byte[] b, int offset) {
+        return IsoUtil.toDwordBE(b, offset) & 0xffffffffL;
+    }
+}
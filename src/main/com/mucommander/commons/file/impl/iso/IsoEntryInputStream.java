@@ -19,32 +19,161 @@
 
 package com.mucommander.commons.file.impl.iso;
 
+import com.mucommander.commons.file.util.ChannelTransferable;
+import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.StreamUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * <code>IsoEntryInputStream</code> allows to reads an ISO entry.
  *
+ * <p>In images with 2048-byte sectors and in audio tracks, the entry's data is contiguous and is read straight into
+ * the caller's buffer. If the image is a local file, {@link #transferTo(WritableByteChannel, long)} lets the OS transfer
+ * the data without copying it through the Java heap.<br/>
+ * In images with raw sectors (2352 or 2336 bytes), each 2048-byte block of user data is surrounded by sector headers
+ * and error correction codes: sectors are then read by runs of {@link #BULK_SECTORS} sectors with a single I/O, into a
+ * pooled buffer in which the user data is compacted.</p>
+ *
  * @author Xavier Martin
  */
-class IsoEntryInputStream extends InputStream {
+class IsoEntryInputStream extends InputStream implements ChannelTransferable {
+
+    /** Number of raw sectors read at once */
+    static final int BULK_SECTORS = 32;
 
     private RandomAccessInputStream rais;
-    private int pos;
+
+    /** Channel of the image, null if the image is not a local file */
+    private FileChannel channel;
+
+    /** Position within the entry */
+    private long pos;
     private long size;
     private int sectSize;
     private boolean audio;
 
+    /** Offset within the image of the entry's first data byte */
+    private long dataOffset;
+
+    /** Offset within the image of the next byte rais will return */
+    private long raisOffset;
+
+    /** True if the user data is interleaved with sector headers and error correction codes */
+    private boolean rawSectors;
+
+    /** WAV header prepended to audio tracks */
+    private byte[] wavHeader;
+
+    /** Holds raw sectors, then the user data they contain. Null until the first raw sectors are read */
+    private byte[] sectorBuffer;
+
+    /** Position within the entry of the first byte of user data held by the sector buffer */
+    private long bufferPos;
+
+    /** Number of bytes of user data held by the sector buffer */
+    private int bufferLength;
+
     IsoEntryInputStream(RandomAccessInputStream rais, IsoArchiveEntry entry) throws IOException {
+        this(rais, entry, null);
+    }
+
+    /**
+     * Creates a new <code>IsoEntryInputStream</code>.
+     *
+     * @param rais the image's stream, closed when this stream is closed
+     * @param entry the entry to read
+     * @param channel the image's channel if the image is a local file, <code>null</code> otherwise. Used only by
+     * {@link #transferTo(WritableByteChannel, long)}, it is not closed when this stream is closed.
+     * @throws IOException if an I/O error occurred while seeking to the beginning of the entry
+     */
+    IsoEntryInputStream(RandomAccessInputStream rais, IsoArchiveEntry entry, FileChannel channel) throws IOException {
         this.rais = rais;
+        this.channel = channel;
         this.size = entry.getSize();
         this.pos = 0;
         this.sectSize = entry.getSectSize();
         this.audio = entry.getAudio();
-        rais.seek(IsoUtil.offsetInSector(entry.getIndex(), sectSize, audio) + entry.getShiftOffset());
+        this.rawSectors = !audio && sectSize != IsoUtil.MODE1_2048;
+        this.dataOffset = IsoUtil.offsetInSector(entry.getIndex(), sectSize, audio) + entry.getShiftOffset();
+
+        if (audio)
+            wavHeader = createWavHeader(size);
+
+        rais.seek(dataOffset);
+        raisOffset = dataOffset;
+    }
+
+    /**
+     * Generates a valid WAV header for an audio track of the given size, header included.
+     */
+    private static byte[] createWavHeader(long size) {
+        byte b[] = new byte[IsoUtil.WAV_header];
+        IsoUtil.toArray(0x46464952, b, 0);                         // "RIFF"
+        IsoUtil.toArray((int) size - 8, b, 4);                     // size of file - 8
+        IsoUtil.toArray(0x45564157, b, 8);                         // "WAVE"
+        IsoUtil.toArray(0x20746D66, b, 12);                        // "fmt "
+        b[16] = 0x10;                                              // Chunk Data Size
+        IsoUtil.toArray(0x00020001, b, 20);                        // WAVE type format : PCM header 0100, stereo 0200
+        IsoUtil.toArray(0x0000AC44, b, 24);                        // sample rate : 44100hz
+        IsoUtil.toArray(0x0002B110, b, 28);                        // bytes/sec : 176400
+        IsoUtil.toArray(0x00100004, b, 32);                        // Block alignment 0400  + Bits/sample 1000
+        IsoUtil.toArray(0x61746164, b, 36);                        // "data"
+        IsoUtil.toArray((int) size - IsoUtil.WAV_header, b, 40);   // size of 'real' data
+        return b;
+    }
+
+    /**
+     * Reads contiguous data at the given position within the track's data, straight into the given buffer.
+     */
+    private int readContiguous(long dataPos, byte b[], int off, int len) throws IOException {
+        long offset = dataOffset + dataPos;
+        if (raisOffset != offset) {
+            rais.seek(offset);
+            raisOffset = offset;
+        }
+
+        int ret = rais.read(b, off, len);
+        if (ret > 0)
+            raisOffset += ret;
+
+        return ret;
+    }
+
+    /**
+     * Fills the sector buffer with the user data of the run of raw sectors that starts with the sector holding the
+     * given position. Sectors are read with a single I/O, then their headers and error correction codes are stripped
+     * by moving the user data to the front of the buffer.
+     */
+    private void fillSectorBuffer(long dataPos) throws IOException {
+        if (sectorBuffer == null)
+            sectorBuffer = BufferPool.getByteArray(BULK_SECTORS * sectSize);
+
+        long firstSector = dataPos / IsoUtil.MODE1_2048;
+        long remaining = size - firstSector * IsoUtil.MODE1_2048;
+        int nbSectors = (int) Math.min(BULK_SECTORS, (remaining + IsoUtil.MODE1_2048 - 1) / IsoUtil.MODE1_2048);
+
+        // The headers and error correction codes of the last sector are not needed
+        int rawLength = (nbSectors - 1) * sectSize + IsoUtil.MODE1_2048;
+
+        long offset = dataOffset + firstSector * sectSize;
+        if (raisOffset != offset)
+            rais.seek(offset);
+        StreamUtils.readFully(rais, sectorBuffer, 0, rawLength);
+        raisOffset = offset + rawLength;
+
+        // The first sector's user data is already in place
+        for (int i = 1; i < nbSectors; i++)
+            System.arraycopy(sectorBuffer, i * sectSize, sectorBuffer, i * IsoUtil.MODE1_2048, IsoUtil.MODE1_2048);
+
+        bufferPos = firstSector * IsoUtil.MODE1_2048;
+        bufferLength = (int) Math.min(nbSectors * IsoUtil.MODE1_2048, remaining);
     }
 
 
@@ -54,7 +183,8 @@ class IsoEntryInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
-        return rais.read();
+        byte b[] = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
     }
 
 
@@ -69,90 +199,150 @@ class IsoEntryInputStream extends InputStream {
 
     @Override
     public int read(byte b[], int off, int len) throws IOException {
-        int available = available();
-        int toRead = len;
+        if (len == 0)
+            return 0;
 
-        if (toRead > available) {
-            toRead = available;
-        }
-
-        if (available == 0) {
+        if (pos >= size)
             return -1;
-        }
 
-        int ret;
-        int cur = off;
-        int before = pos;
-        int skip = 0;
-
-        // on the 1st run : generate a valid wav header
-        if (audio && pos == 0) {
-            IsoUtil.toArray(0x46464952, b, 0);                         // "RIFF"
-            IsoUtil.toArray((int) size - 8, b, 4);                     // size of file - 8
-            IsoUtil.toArray(0x45564157, b, 8);                         // "WAVE"
-            IsoUtil.toArray(0x20746D66, b, 12);                        // "fmt "
-            b[16] = 0x10;                                              // Chunk Data Size
-            IsoUtil.toArray(0x00020001, b, 20);                        // WAVE type format : PCM header 0100, stereo 0200
-            IsoUtil.toArray(0x0000AC44, b, 24);                        // sample rate : 44100hz
-            IsoUtil.toArray(0x0002B110, b, 28);                        // bytes/sec : 176400
-            IsoUtil.toArray(0x00100004, b, 32);                        // Block alignment 0400  + Bits/sample 1000
-            IsoUtil.toArray(0x61746164, b, 36);                        // "data"
-            IsoUtil.toArray((int) size - IsoUtil.WAV_header, b, 40);   // size of 'real' data
-            cur = IsoUtil.WAV_header;
-            toRead -= IsoUtil.WAV_header;
-            pos += IsoUtil.WAV_header;
-        }
+        len = (int) Math.min(len, size - pos);
 
-        switch (sectSize) {
-            case IsoUtil.MODE2_2336:
-                skip = IsoUtil.MODE2_2336_skip;
-                break;
-            case IsoUtil.MODE2_2352:
-                skip = IsoUtil.MODE2_2352_skip;
-                break;
-            case IsoUtil.MODE1_2048:
-                // shortcut
-                ret = rais.read(b, off, toRead);
-                if (ret != -1)
-                    pos += ret;
-                return ret;
+        // on the 1st run : return the generated wav header
+        if (audio && pos < IsoUtil.WAV_header) {
+            int n = Math.min(len, IsoUtil.WAV_header - (int) pos);
+            System.arraycopy(wavHeader, (int) pos, b, off, n);
+            pos += n;
+            return n;
         }
 
-        // atm it work because it's called for 8192 (2048 * 4)
-        int full = toRead >> 11;
-        int half = toRead % IsoUtil.MODE1_2048;
-        if (full >= 1) {
-            for (int i = 0; i < full; i++) {
-                ret = rais.read(b, cur, IsoUtil.MODE1_2048);
-                if (ret != -1)
-                    pos += ret;
-                if (!audio)
-                    StreamUtils.skipFully(rais, IsoUtil.MODE2_EC_skip + skip);
-                cur += IsoUtil.MODE1_2048;
-            }
-            ret = rais.read(b, cur, half);
-            if (ret != -1)
-                pos += ret;
+        int ret;
+        if (!rawSectors) {
+            // shortcut: data is contiguous
+            ret = readContiguous(audio ? pos - IsoUtil.WAV_header : pos, b, off, len);
         } else {
-            // in fact it doesn't work for internal viewer, because it's called by chunk of 1024
-            ret = rais.read(b, cur, half);
-            if (ret != -1)
-                pos += ret;
-            if (((pos % 2048) == 0) && !audio)
-                StreamUtils.skipFully(rais, IsoUtil.MODE2_EC_skip + skip);
+            if (pos < bufferPos || pos >= bufferPos + bufferLength)
+                fillSectorBuffer(pos);
+
+            ret = Math.min(len, (int) (bufferPos + bufferLength - pos));
+            System.arraycopy(sectorBuffer, (int) (pos - bufferPos), b, off, ret);
         }
 
-        return pos - before;
+        if (ret > 0)
+            pos += ret;
+
+        return ret;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+
+        // Seeking is deferred to the next read
+        long skipped = Math.min(n, size - pos);
+        pos += skipped;
+        return skipped;
     }
 
     @Override
     public int available() throws IOException {
-        int available = (int) (size - pos);
-        return (available < 0) ? 0 : available;
+        long available = size - pos;
+        return available < 0 ? 0 : (int) Math.min(available, Integer.MAX_VALUE);
     }
 
     @Override
     public void close() throws IOException {
+        if (sectorBuffer != null) {
+            BufferPool.releaseByteArray(sectorBuffer);
+            sectorBuffer = null;
+        }
+
         rais.close();
     }
-}
\ No newline at end of file
+
+
+    ////////////////////////////////////////
+    // ChannelTransferable implementation //
+    ////////////////////////////////////////
+
+    /**
+     * Transfers the remaining bytes of the entry to the given channel. If the entry's data is contiguous and the
+     * image's channel is available, the bytes are transferred using {@link FileChannel#transferTo}, which does not
+     * copy them through the Java heap. Otherwise, they are read and written by chunks.
+     */
+    public long transferTo(WritableByteChannel target, long length) throws IOException {
+        long end = length < 0 ? size : Math.min(size, pos + length);
+        long total = 0;
+
+        // Zero-copy: the OS moves the bytes from the image to the target
+        if (channel != null && !rawSectors && !(audio && pos < IsoUtil.WAV_header)) {
+            long dataPos = audio ? pos - IsoUtil.WAV_header : pos;
+            while (pos < end) {
+                long n;
+                try {
+                    n = channel.transferTo(dataOffset + dataPos, end - pos, target);
+                }
+                catch (IOException e) {
+                    // The failed side cannot be told from the exception: if the image can still be read, writing failed
+                    if (isReadable(dataOffset + dataPos))
+                        throw getWriteException(e);
+                    throw e;
+                }
+                if (n <= 0)
+                    break;
+
+                pos += n;
+                dataPos += n;
+                total += n;
+            }
+
+            if (pos >= end)
+                return total;
+        }
+
+        byte b[] = BufferPool.getByteArray();
+        try {
+            int n;
+            while (pos < end && (n = read(b, 0, (int) Math.min(b.length, end - pos))) != -1) {
+                ByteBuffer bb = ByteBuffer.wrap(b, 0, n);
+                try {
+                    while (bb.hasRemaining())
+                        target.write(bb);
+                }
+                catch (IOException e) {
+                    throw getWriteException(e);
+                }
+
+                total += n;
+            }
+        }
+        finally {
+            BufferPool.releaseByteArray(b);
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns <code>true</code> if the byte at the given offset of the image's channel can be read.
+     */
+    private boolean isReadable(long offset) {
+        try {
+            channel.read(ByteBuffer.allocate(1), offset);
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a {@link FileTransferException} that reports the given error as a failure to write the destination.
+     */
+    private static FileTransferException getWriteException(IOException cause) {
+        FileTransferException e = new FileTransferException(FileTransferException.WRITING_DESTINATION);
+        e.initCause(cause);
+
+        return e;
+    }
+}
@@ -21,7 +21,7 @@ package com.mucommander.commons.file.impl.iso;
 
 import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.ArchiveFormatProvider;
+import com.mucommander.commons.file.SniffableArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 
@@ -33,7 +33,7 @@ import java.io.IOException;
  * @author Nicolas Rinaudo, Maxence Bernard
  * @see com.mucommander.commons.file.impl.iso.IsoArchiveFile
  */
-public class IsoFormatProvider implements ArchiveFormatProvider {
+public class IsoFormatProvider implements SniffableArchiveFormatProvider {
 
     /**
      * Array of format extensions
@@ -48,6 +48,15 @@ public class IsoFormatProvider implements ArchiveFormatProvider {
      */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(FORMAT_EXTENSIONS);
 
+    /** Offset of the signatures, from the beginning of the file */
+    private final static int SIGNATURE_OFFSET = 32769;
+
+    /** Signature of ISO 9660 images, located in the first volume descriptor */
+    private final static byte SIGNATURES[][] = {
+        {'C', 'D', '0', '0', '1'}
+    };
+
+
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
     //////////////////////////////////////////
@@ -59,4 +68,17 @@ public class IsoFormatProvider implements ArchiveFormatProvider {
     public FilenameFilter getFilenameFilter() {
         return filenameFilter;
     }
+
+
+    ///////////////////////////////////////////////////
+    // SniffableArchiveFormatProvider implementation //
+    ///////////////////////////////////////////////////
+
+    public int getSignatureOffset() {
+        return SIGNATURE_OFFSET;
+    }
+
+    public byte[][] getSignatures() {
+        return SIGNATURES;
+    }
 }
@@ -0,0 +1,122 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file.impl.iso;
+
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.mucommander.commons.io.StreamUtils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the 2048-byte user data blocks of an ISO image's sectors. The cache does not hold any stream: sectors
+ * that are not cached are read from the {@link RandomAccessInputStream} passed to {@link #getSector}, so that the
+ * cache can outlive the streams used to read the image.
+ *
+ * <p>Sector indexes are translated into offsets within the image using the image's sector size and shift offset, the
+ * same way {@link IsoEntryInputStream} does it.</p>
+ */
+class IsoSectorCache {
+
+    /** Default maximum number of sectors held by the cache (1 MB of data) */
+    static final int DEFAULT_CAPACITY = 512;
+
+    /** Maximum number of sectors read at once when a run of sectors is prefetched */
+    private static final int MAX_PREFETCH_SECTORS = 64;
+
+    private final int sectSize;
+    private final long shiftOffset;
+
+    /** Cached sectors, in access order */
+    private final Map<Long, byte[]> sectors;
+
+    IsoSectorCache(int sectSize, long shiftOffset) {
+        this(sectSize, shiftOffset, DEFAULT_CAPACITY);
+    }
+
+    IsoSectorCache(int sectSize, long shiftOffset, final int capacity) {
+        this.sectSize = sectSize;
+        this.shiftOffset = shiftOffset;
+        this.sectors = new LinkedHashMap<Long, byte[]>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the user data of the sector with the given index, reading it from the specified stream if it is not
+     * cached. The returned array must not be modified.
+     *
+     * @param rais the stream to read the sector from if it isn't cached
+     * @param sectorIndex index of the sector to return
+     * @return the 2048-byte user data of the sector
+     * @throws IOException if an error occurred while reading the sector
+     */
+    synchronized byte[] getSector(RandomAccessInputStream rais, long sectorIndex) throws IOException {
+        byte[] sector = sectors.get(sectorIndex);
+        if (sector == null) {
+            sector = new byte[IsoUtil.MODE1_2048];
+            rais.seek(IsoUtil.offsetInSector(sectorIndex, sectSize, false) + shiftOffset);
+            StreamUtils.readFully(rais, sector);
+            sectors.put(sectorIndex, sector);
+        }
+
+        return sector;
+    }
+
+    /**
+     * Loads the given run of consecutive sectors into the cache. For images with 2048-byte sectors, sectors that are
+     * missing from the cache are read with a single I/O per run of up to {@link #MAX_PREFETCH_SECTORS} sectors instead
+     * of one I/O per sector. This method does nothing for other sector layouts, as sectors are not contiguous.
+     *
+     * @param rais the stream to read the sectors from
+     * @param firstSector index of the first sector to load
+     * @param nbSectors number of sectors to load
+     * @throws IOException if an error occurred while reading the sectors
+     */
+    synchronized void prefetch(RandomAccessInputStream rais, long firstSector, int nbSectors) throws IOException {
+        if (sectSize != IsoUtil.MODE1_2048)
+            return;
+
+        nbSectors = Math.min(nbSectors, MAX_PREFETCH_SECTORS);
+
+        // Skip the sectors that are already cached at the beginning of the run
+        while (nbSectors > 0 && sectors.containsKey(firstSector)) {
+            firstSector++;
+            nbSectors--;
+        }
+
+        if (nbSectors <= 1)
+            return;
+
+        byte[] run = new byte[nbSectors * IsoUtil.MODE1_2048];
+        rais.seek(IsoUtil.offsetInSector(firstSector, sectSize, false) + shiftOffset);
+        StreamUtils.readFully(rais, run);
+
+        for (int i = 0; i < nbSectors; i++) {
+            byte[] sector = new byte[IsoUtil.MODE1_2048];
+            System.arraycopy(run, i * IsoUtil.MODE1_2048, sector, 0, IsoUtil.MODE1_2048);
+            sectors.put(firstSector + i, sector);
+        }
+    }
+}
@@ -21,10 +21,12 @@ package com.mucommander.commons.file.impl.local;
 
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.filter.FilenameFilter;
+import com.mucommander.commons.file.util.ChannelTransferable;
 import com.mucommander.commons.file.util.Kernel32;
 import com.mucommander.commons.file.util.Kernel32API;
 import com.mucommander.commons.file.util.PathUtils;
 import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.FilteredOutputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
@@ -36,6 +38,18 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.regex.Matcher;
@@ -71,8 +85,14 @@ import java.util.regex.Pattern;
  * <p>Access to local files is provided by the <code>java.io</code> API, {@link #getUnderlyingFileObject()} allows
  * to retrieve an <code>java.io.File</code> instance corresponding to this LocalFile.
  *
+ * <p>If {@link #setAttributesPrefetchEnabled(boolean) enabled}, {@link #ls()} reads the attributes of all children
+ * in bulk using the <code>java.nio.file</code> API, a single <code>stat</code> per child. Children then return the
+ * prefetched values instead of querying the filesystem, until they are older than the
+ * {@link #setAttributesFreshnessWindow(long) freshness window}.
+ *
  * @author Maxence Bernard
  */
+@PerformanceHints(maxConcurrency=Integer.MAX_VALUE, latency=LatencyClass.LOCAL)
 public class LocalFile extends ProtocolFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(LocalFile.class);
 
@@ -86,6 +106,9 @@ public class LocalFile extends ProtocolFile {
     protected AbstractFile parent;
     /** Indicates whether the parent folder instance has been retrieved and cached or not (parent can be null) */
     protected boolean parentValueSet;
+
+    /** Attributes prefetched by the parent's {@link #ls()}, null if there are none */
+    private PrefetchedAttributes prefetchedAttributes;
 	
     /** Underlying local filesystem's path separator: "/" under UNIX systems, "\" under Windows and OS/2 */
     public final static String SEPARATOR = File.separator;
@@ -97,6 +120,29 @@ public class LocalFile extends ProtocolFile {
      * of having single a root folder '/' */
     public final static boolean USES_ROOT_DRIVES = IS_WINDOWS || OsFamilies.OS_2.isCurrent();
 
+    /** Default value of {@link #getAttributesFreshnessWindow()}, in milliseconds */
+    public final static long DEFAULT_ATTRIBUTES_FRESHNESS_WINDOW = 2000;
+
+    /** True if {@link #ls()} prefetches the attributes of children */
+    private static boolean attributesPrefetchEnabled;
+
+    /** Period of time during which prefetched attributes are used, in milliseconds */
+    private static long attributesFreshnessWindow = DEFAULT_ATTRIBUTES_FRESHNESS_WINDOW;
+
+    /** Default value of {@link #getVolumeInfoCacheTTL()}, in milliseconds */
+    public final static long DEFAULT_VOLUME_INFO_CACHE_TTL = 1000;
+
+    /** Period of time during which the total and free space of a volume are cached, in milliseconds */
+    private static long volumeInfoCacheTTL = DEFAULT_VOLUME_INFO_CACHE_TTL;
+
+    /** Attributes class read when prefetching attributes, the most detailed one supported by the default filesystem */
+    private final static Class<? extends BasicFileAttributes> PREFETCHED_ATTRIBUTES_CLASS =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("posix")
+            ?PosixFileAttributes.class
+            :FileSystems.getDefault().supportedFileAttributeViews().contains("dos")
+                ?DosFileAttributes.class
+                :BasicFileAttributes.class;
+
     /** Pattern matching Windows-like drives' root, e.g. C:\ */
     final static Pattern DRIVE_ROOT_PATTERN = Pattern.compile("^[a-zA-Z]{1}[:]{1}[\\\\]{1}");
 
@@ -170,11 +216,10 @@ public class LocalFile extends ProtocolFile {
         }
         // the java.io.File instance was created by ls(), no need to re-create it or call the costly File#getAbsolutePath()
         else {
-            this.absPath = fileURL.getPath();
-
-            // Remove the leading '/' for Windows-like paths
-            if(USES_ROOT_DRIVES)
-                absPath = absPath.substring(1, absPath.length());
+            // The absolute path created by ls() for the File is the URL's path, free of the leading '/' for
+            // Windows-like paths. Sharing it spares building the URL's path, which is stored as a reference to
+            // the parent URL's path and the filename.
+            this.absPath = file.getPath();
         }
 
         this.file = file;
@@ -201,26 +246,241 @@ public class LocalFile extends ProtocolFile {
     }
 
     /**
-     * Returns the total and free space on the volume where this file resides.
+     * Returns <code>true</code> if {@link #ls()} prefetches the attributes of the files it returns.
+     * Attributes prefetching is disabled by default.
+     *
+     * @return <code>true</code> if {@link #ls()} prefetches the attributes of the files it returns
+     */
+    public static boolean isAttributesPrefetchEnabled() {
+        return attributesPrefetchEnabled;
+    }
+
+    /**
+     * Enables or disables attributes prefetching. If enabled, {@link #ls()} reads the attributes of all children in
+     * a single pass, using <code>java.nio.file</code> and a single <code>stat</code> per child. The values returned by
+     * {@link #exists()}, {@link #isDirectory()}, {@link #isSymlink()}, {@link #isHidden()}, {@link #getSize()},
+     * {@link #getDate()} and {@link #getPermissions()} are then those read by <code>ls()</code>, as long as they are
+     * not older than the {@link #getAttributesFreshnessWindow() freshness window}. This considerably speeds up
+     * operations that query the attributes of a large number of files, such as sorting or filtering.
+     *
+     * @param enabled <code>true</code> to prefetch attributes in {@link #ls()}
+     */
+    public static void setAttributesPrefetchEnabled(boolean enabled) {
+        attributesPrefetchEnabled = enabled;
+    }
+
+    /**
+     * Returns the period of time, in milliseconds, during which attributes prefetched by {@link #ls()} are used.
+     * Defaults to {@link #DEFAULT_ATTRIBUTES_FRESHNESS_WINDOW}.
+     *
+     * @return the period of time, in milliseconds, during which prefetched attributes are used
+     */
+    public static long getAttributesFreshnessWindow() {
+        return attributesFreshnessWindow;
+    }
+
+    /**
+     * Sets the period of time, in milliseconds, during which attributes prefetched by {@link #ls()} are used. Past
+     * that period, attributes are queried from the filesystem again. Attributes are also discarded when the file is
+     * modified through this instance.
+     *
+     * @param millis the period of time, in milliseconds, during which prefetched attributes are used
+     * @see #setAttributesPrefetchEnabled(boolean)
+     */
+    public static void setAttributesFreshnessWindow(long millis) {
+        attributesFreshnessWindow = millis;
+    }
+
+    /**
+     * Returns the period of time, in milliseconds, during which the total and free space of a volume are cached by
+     * {@link #getVolumeInfo()}, {@link #getFreeSpace()} and {@link #getTotalSpace()}.
+     * Defaults to {@link #DEFAULT_VOLUME_INFO_CACHE_TTL}.
+     *
+     * @return the period of time, in milliseconds, during which volume information is cached
+     */
+    public static long getVolumeInfoCacheTTL() {
+        return volumeInfoCacheTTL;
+    }
+
+    /**
+     * Sets the period of time, in milliseconds, during which the total and free space of a volume are cached.
+     * <code>0</code> disables the cache: the volume is queried on each call. Changing this value clears the cache.
+     *
+     * @param millis the period of time, in milliseconds, during which volume information is cached
+     */
+    public static void setVolumeInfoCacheTTL(long millis) {
+        volumeInfoCacheTTL = millis;
+        LocalVolumeInfo.clearCache();
+    }
+
+    /**
+     * Returns <code>true</code> if this file holds attributes that were prefetched by its parent's {@link #ls()} and
+     * that are still within the {@link #getAttributesFreshnessWindow() freshness window}.
+     *
+     * @return <code>true</code> if this file holds prefetched attributes that are still fresh
+     */
+    public boolean hasPrefetchedAttributes() {
+        return getPrefetchedAttributes()!=null;
+    }
+
+    /**
+     * Returns the attributes prefetched by the parent's {@link #ls()} if they are still fresh, <code>null</code>
+     * otherwise.
+     *
+     * @return the prefetched attributes if they are still fresh, <code>null</code> otherwise
+     */
+    private PrefetchedAttributes getPrefetchedAttributes() {
+        PrefetchedAttributes attributes = prefetchedAttributes;
+        if(attributes!=null && System.currentTimeMillis()-attributes.time>attributesFreshnessWindow) {
+            prefetchedAttributes = null;
+            return null;
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Discards the prefetched attributes of the given file, if it is a local file, so that its attributes are read
+     * again the next time they are queried. This method is called whenever a file is modified through this class, and
+     * should be called by code that learns of changes made by other means, e.g. by a <code>WatchService</code>.
+     *
+     * @param file the file which attributes to discard
+     */
+    public static void discardPrefetchedAttributes(AbstractFile file) {
+        file = file.getTopAncestor();
+        if(file instanceof LocalFile)
+            ((LocalFile)file).prefetchedAttributes = null;
+    }
+
+    /**
+     * Reads the attributes of the given file, without following symbolic links unless the file is a symbolic link,
+     * in which case the link's target attributes are read, as <code>java.io.File</code> does.
+     *
+     * @param path path of the file which attributes to read
+     * @param name name of the file
+     * @param time time at which the attributes are read
+     * @return the file's attributes
+     * @throws IOException if the attributes could not be read
+     */
+    private static PrefetchedAttributes readAttributes(Path path, String name, long time) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, PREFETCHED_ATTRIBUTES_CLASS, LinkOption.NOFOLLOW_LINKS);
+        PrefetchedAttributes attributes = new PrefetchedAttributes(time);
+
+        attributes.symlink = attrs.isSymbolicLink();
+        if(attributes.symlink) {
+            try {
+                attrs = Files.readAttributes(path, PREFETCHED_ATTRIBUTES_CLASS);
+            }
+            catch(IOException e) {
+                // Broken link: java.io.File reports that the file doesn't exist
+                attributes.hidden = !IS_WINDOWS && name.startsWith(".");
+                return attributes;
+            }
+        }
+
+        attributes.exists = true;
+        attributes.fileKey = attrs.fileKey();
+        attributes.directory = attrs.isDirectory();
+        attributes.size = attrs.size();
+        attributes.date = attrs.lastModifiedTime().toMillis();
+
+        if(attrs instanceof DosFileAttributes)
+            attributes.hidden = ((DosFileAttributes)attrs).isHidden();
+        else
+            attributes.hidden = name.startsWith(".");
+
+        if(attrs instanceof PosixFileAttributes) {
+            int perms = 0;
+            for(PosixFilePermission permission: ((PosixFileAttributes)attrs).permissions())
+                perms |= 256 >> permission.ordinal();     // PosixFilePermission values are ordered from 400 to 001 octal
+
+            // Report the same permissions as when attributes are not prefetched
+            attributes.permissions = new SimpleFilePermissions(perms & LocalFilePermissions.MASK.getIntValue(), LocalFilePermissions.MASK);
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Lists this folder using <code>java.nio.file</code>, prefetching the attributes of the children.
+     *
+     * @param filenameFilter the filter that children must match, <code>null</code> to return all children
+     * @return the children of this folder
+     * @throws IOException if this folder could not be listed
+     */
+    private AbstractFile[] lsWithAttributes(FilenameFilter filenameFilter) throws IOException {
+        Vector<AbstractFile> children = new Vector<AbstractFile>();
+        FileURL childURL;
+
+        DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath());
+        try {
+            for(Path path: stream) {
+                String name = path.getFileName().toString();
+                if(filenameFilter!=null && !filenameFilter.accept(name))
+                    continue;
+
+                PrefetchedAttributes attributes;
+                try {
+                    attributes = readAttributes(path, name, System.currentTimeMillis());
+                }
+                catch(IOException e) {
+                    // The file may have been deleted in the meantime, let the file query its attributes itself
+                    attributes = null;
+                }
+
+                childURL = fileURL.getChild(name);
+
+                AbstractFile child = FileFactory.getChildFile(childURL, this, new File(file, name));
+                AbstractFile localChild = child.getTopAncestor();
+                if(localChild instanceof LocalFile)
+                    ((LocalFile)localChild).prefetchedAttributes = attributes;
+
+                children.add(child);
+            }
+        }
+        finally {
+            stream.close();
+        }
+
+        return children.toArray(new AbstractFile[children.size()]);
+    }
+
+    /**
+     * Returns the total and free space on the volume where this file resides. If this file does not exist, the volume
+     * of its closest existing ancestor is used.
      *
      * <p>Using this method to retrieve both free space and volume space is more efficient than calling
      * {@link #getFreeSpace()} and {@link #getTotalSpace()} separately -- the underlying method retrieving both
      * attributes at the same time.</p>
      *
-     * @return a {totalSpace, freeSpace} long array, both values can be null if the information could not be retrieved
+     * <p>No process is spawned: under Linux, both values are retrieved with a single <code>statvfs</code> call, and
+     * elsewhere using the file's <code>java.nio.file.FileStore</code>. Values are cached by volume for
+     * {@link #getVolumeInfoCacheTTL()} milliseconds.</p>
+     *
+     * @return a {totalSpace, freeSpace} long array, both values can be -1 if the information could not be retrieved
      * @throws IOException if an I/O error occurred
      */
     public long[] getVolumeInfo() throws IOException {
-        // Under Java 1.6 and up, use the (new) java.io.File methods
-        if(JavaVersions.JAVA_1_6.isCurrentOrHigher()) {
-            return new long[] {
-                getTotalSpace(),
-                getFreeSpace()
-            };
-        }
+        return LocalVolumeInfo.getVolumeInfo(file, volumeInfoCacheTTL);
+    }
 
-        // Under Java 1.5 or lower, use native methods
-        return getNativeVolumeInfo();
+    /**
+     * Returns the regions of this file that contain data, as an array of <code>offset, length</code> pairs in
+     * ascending order. The rest of the file is made of holes, which read as zeros and occupy no space on disk.
+     * A file that is not sparse has a single region spanning the whole file.
+     *
+     * <p>Regions are located with <code>SEEK_DATA</code>/<code>SEEK_HOLE</code>, which is only available under
+     * Linux. This method returns <code>null</code> on other platforms, if the filesystem doesn't report holes, or if
+     * this file is not a regular file.</p>
+     *
+     * @return the data regions of this file, null if they cannot be located
+     * @throws IOException if an I/O error occurred
+     */
+    public long[] getDataRegions() throws IOException {
+        if(!file.isFile())
+            return null;
+
+        return LocalFileCopier.getDataRegions(file, file.length());
     }
 
     /**
@@ -299,70 +559,10 @@ public class LocalFile extends ProtocolFile {
                 }
             }
             else if(OsFamily.getCurrent().isUnixBased()) {
-                // Parses the output of 'df -P -k "filePath"' command on UNIX-based systems to retrieve free and total space information
-
-                // 'df -P -k' returns totals in block of 1K = 1024 bytes, -P uses the POSIX output format, ensures that line won't break
-                Process process = Runtime.getRuntime().exec(new String[]{"df", "-P", "-k", absPath}, null, file);
-
-                // Check that the process was correctly started
-                if(process!=null) {
-                    br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    // Discard the first line ("Filesystem   1K-blocks     Used    Avail Capacity  Mounted on");
-                    br.readLine();
-                    String line = br.readLine();
-
-                    // Sample lines:
-                    // /dev/disk0s2            116538416 109846712  6179704    95%    /
-                    // automount -fstab [202]          0         0        0   100%    /automount/Servers
-                    // /dev/disk2s2                 2520      1548      972    61%    /Volumes/muCommander 0.8
-
-                    // We're interested in the '1K-blocks' and 'Avail' fields (only).
-                    // The 'Filesystem' and 'Mounted On' fields can contain spaces (e.g. 'automount -fstab [202]' and
-                    // '/Volumes/muCommander 0.8' resp.) and therefore be made of several tokens. A stable way to
-                    // determine the position of the fields we're interested in is to look for the last token that
-                    // starts with a '/' character which should necessarily correspond to the first token of the
-                    // 'Mounted on' field. The '1K-blocks' and 'Avail' fields are 4 and 2 tokens away from it
-                    // respectively.
-
-                    // Start by tokenizing the whole line
-                    Vector<String> tokenV = new Vector<String>();
-                    if(line!=null) {
-                        StringTokenizer st = new StringTokenizer(line);
-                        while(st.hasMoreTokens())
-                            tokenV.add(st.nextToken());
-                    }
-
-                    int nbTokens = tokenV.size();
-                    if(nbTokens<6) {
-                        // This shouldn't normally happen
-                        LOGGER.warn("Failed to parse output of df -k {} line={}", absPath, line);
-                        return dfInfo;
-                    }
-
-                    // Find the last token starting with '/'
-                    int pos = nbTokens-1;
-                    while(!tokenV.elementAt(pos).startsWith("/")) {
-                        if(pos==0) {
-                            // This shouldn't normally happen
-                            LOGGER.warn("Failed to parse output of df -k {} line={}", absPath, line);
-                            return dfInfo;
-                        }
-
-                        --pos;
-                    }
-
-                    // '1-blocks' field (total space)
-                    dfInfo[0] = Long.parseLong(tokenV.elementAt(pos-4)) * 1024;
-                    // 'Avail' field (free space)
-                    dfInfo[1] = Long.parseLong(tokenV.elementAt(pos-2)) * 1024;
-                }
-
-//                // Retrieves the total and free space information using the POSIX statvfs function
-//                POSIX.STATVFSSTRUCT struct = new POSIX.STATVFSSTRUCT();
-//                if(POSIX.INSTANCE.statvfs(absPath, struct)==0) {
-//                    dfInfo[0] = struct.f_blocks * (long)struct.f_frsize;
-//                    dfInfo[1] = struct.f_bfree * (long)struct.f_frsize;
-//                }
+                // Retrieves the total and free space information using the POSIX statvfs function
+                long info[] = LocalVolumeInfo.statvfs(absPath);
+                if(info!=null)
+                    dfInfo = info;
             }
         }
         finally {
@@ -457,6 +657,34 @@ public class LocalFile extends ProtocolFile {
     }
 
 
+    /**
+     * Returns the total and free space of all the {@link #getVolumes() local volumes}, in the order in which they are
+     * returned by {@link #getVolumes()}. Volumes that reside on the same filesystem are queried only once.
+     *
+     * @return a map of {totalSpace, freeSpace} long arrays keyed by volume, values are -1 for volumes whose information
+     * could not be retrieved
+     */
+    public static Map<AbstractFile, long[]> getVolumesInfo() {
+        AbstractFile volumes[] = getVolumes();
+        Map<AbstractFile, long[]> volumesInfo = new LinkedHashMap<AbstractFile, long[]>(volumes.length*2);
+        for(AbstractFile volume : volumes) {
+            long info[];
+            try {
+                LocalFile localVolume = volume.getAncestor(LocalFile.class);
+                info = localVolume==null?new long[]{-1, -1}:localVolume.getVolumeInfo();
+            }
+            catch(IOException e) {
+                LOGGER.info("Could not retrieve the volume information of {}", volume, e);
+                info = new long[]{-1, -1};
+            }
+
+            volumesInfo.put(volume, info);
+        }
+
+        return volumesInfo;
+    }
+
+
     ////////////////////
     // Helper methods //
     ////////////////////
@@ -578,28 +806,74 @@ public class LocalFile extends ProtocolFile {
         return file;
     }
 
+    /**
+     * Implementation notes: symbolic links are detected with <code>lstat</code> semantics, which costs a single system
+     * call. NTFS symbolic links are detected under Windows, but junction points are not reported as symbolic links.
+     */
     @Override
     public boolean isSymlink() {
-        // At the moment symlinks under Windows (aka NTFS junction points) are not supported because java.io.File
-        // knows nothing about them and there is no way to discriminate them. So there is no need to waste time
-        // comparing canonical paths, just return false.
-        // Todo: add support for .lnk files (~hard links)
-        if(IS_WINDOWS)
-            return false;
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        if(attributes!=null)
+            return attributes.symlink;
 
-        // Note: this value must not be cached as its value can change over time (canonical path can change)
-        AbstractFile parent = getParent();
-        String canonPath = getCanonicalPath(false);
-        if(parent==null || canonPath==null)
+        // Note: this value must not be cached as it can change over time
+        try {
+            return Files.isSymbolicLink(file.toPath());
+        }
+        catch(InvalidPathException e) {
             return false;
-        else {
-            String parentCanonPath = parent.getCanonicalPath(true);
-            return !canonPath.equalsIgnoreCase(parentCanonPath+getName());
         }
     }
 
+    /**
+     * Implementation notes: the link is read without resolving the links its target may be, relative targets are
+     * resolved against this file's parent folder.
+     */
+    @Override
+    public AbstractFile getSymlinkTarget() throws IOException {
+        if(!isSymlink())
+            return null;
+
+        Path path = file.toPath();
+        Path target = path.resolveSibling(Files.readSymbolicLink(path)).normalize();
+
+        AbstractFile targetFile = FileFactory.getFile(target.toString());
+        if(targetFile==null)
+            throw new IOException("Could not resolve link target: "+target);
+
+        return targetFile;
+    }
+
+    /**
+     * Implementation notes: the returned key is the one that the filesystem provides to identify files, e.g. the
+     * device and inode numbers, if it does. Symbolic links are followed.
+     */
+    @Override
+    public Object getFileKey() {
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        Object key = attributes==null ? null : attributes.fileKey;
+
+        if(key==null) {
+            try {
+                key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            }
+            catch(IOException e) {
+                // Fall back to the canonical path
+            }
+            catch(InvalidPathException e) {
+                // Fall back to the canonical path
+            }
+        }
+
+        return key==null ? super.getFileKey() : key;
+    }
+
     @Override
     public long getDate() {
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        if(attributes!=null)
+            return attributes.date;
+
         return file.lastModified();
     }
 
@@ -610,12 +884,18 @@ public class LocalFile extends ProtocolFile {
         if(lastModified < 0)
             lastModified = 0;
 
+        prefetchedAttributes = null;
+
         if(!file.setLastModified(lastModified))
             throw new IOException();
     }
 		
     @Override
     public long getSize() {
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        if(attributes!=null)
+            return attributes.size;
+
         return file.length();
     }
 	
@@ -642,11 +922,19 @@ public class LocalFile extends ProtocolFile {
 		
     @Override
     public boolean exists() {
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        if(attributes!=null)
+            return attributes.exists;
+
         return file.exists();
     }
 	
     @Override
     public FilePermissions getPermissions() {
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        if(attributes!=null && attributes.permissions!=null)
+            return attributes.permissions;
+
         return permissions;
     }
 
@@ -661,6 +949,8 @@ public class LocalFile extends ProtocolFile {
         if(access!=USER_ACCESS || JavaVersions.JAVA_1_6.isCurrentLower())
             throw new IOException();
 
+        prefetchedAttributes = null;
+
         boolean success = false;
         if(permission==READ_PERMISSION)
             success = file.setReadable(enabled);
@@ -715,6 +1005,10 @@ public class LocalFile extends ProtocolFile {
 //        if(IS_WINDOWS && guessFloppyDrive())
 //            return true;
 
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        if(attributes!=null)
+            return attributes.directory;
+
         return file.isDirectory();
     }
 
@@ -735,6 +1029,8 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public OutputStream getOutputStream() throws IOException {
+        prefetchedAttributes = null;
+
         return new LocalOutputStream(new FileOutputStream(absPath, false).getChannel());
     }
 
@@ -745,6 +1041,8 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public OutputStream getAppendOutputStream() throws IOException {
+        prefetchedAttributes = null;
+
         return new LocalOutputStream(new FileOutputStream(absPath, true).getChannel());
     }
 
@@ -765,11 +1063,15 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public RandomAccessOutputStream getRandomAccessOutputStream() throws IOException {
+        prefetchedAttributes = null;
+
         return new LocalRandomAccessOutputStream(new RandomAccessFile(file, "rw").getChannel());
     }
 
     @Override
     public void delete() throws IOException {
+        prefetchedAttributes = null;
+
         boolean ret = file.delete();
 		
         if(!ret)
@@ -784,6 +1086,8 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public void mkdir() throws IOException {
+        prefetchedAttributes = null;
+
         if(!file.mkdir())
             throw new IOException();
     }
@@ -796,6 +1100,9 @@ public class LocalFile extends ProtocolFile {
         // perform all those checks even if some are not necessary on this or that platform.
         checkRenamePrerequisites(destFile, true, false);
 
+        prefetchedAttributes = null;
+        discardPrefetchedAttributes(destFile);
+
         // The behavior of java.io.File#renameTo() when the destination file already exists is not consistent
         // across platforms:
         // - Under UNIX, it succeeds and return true
@@ -850,31 +1157,34 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public long getFreeSpace() throws IOException {
-        if(JavaVersions.JAVA_1_6.isCurrentOrHigher())
-            return file.getUsableSpace();
-
         return getVolumeInfo()[1];
     }
 	
     @Override
     public long getTotalSpace() throws IOException {
-        if(JavaVersions.JAVA_1_6.isCurrentOrHigher())
-            return file.getTotalSpace();
-
         return getVolumeInfo()[0];
     }	
 
-    // Unsupported file operations
-
     /**
-     * Always throws {@link UnsupportedFileOperationException} when called.
-     *
-     * @throws UnsupportedFileOperationException, always
+     * Implementation notes: files are copied without their contents going through the Java heap, using reflinks,
+     * <code>copy_file_range</code> or <code>FileChannel#transferTo</code>, whichever is the fastest method supported by
+     * the platform and filesystem. Sparse regions (under Linux), dates and permissions are preserved. Symbolic links
+     * are skipped, as with {@link #copyTo(AbstractFile)}. If the copy fails, the files and directories it has created
+     * are deleted, so that {@link #copyTo(AbstractFile)} can fall back to a manual copy.
      */
     @Override
-    @UnsupportedFileOperation
-    public void copyRemotelyTo(AbstractFile destFile) throws UnsupportedFileOperationException {
-        throw new UnsupportedFileOperationException(FileOperation.COPY_REMOTELY);
+    public void copyRemotelyTo(AbstractFile destFile) throws IOException {
+        checkCopyRemotelyPrerequisites(destFile, false, false);
+
+        LocalFile destLocalFile = (LocalFile)destFile.getTopAncestor();
+        destLocalFile.prefetchedAttributes = null;
+
+        try {
+            LocalFileCopier.copy(file, destLocalFile.file);
+        }
+        catch(InvalidPathException e) {
+            throw new IOException(e);
+        }
     }
 
 
@@ -938,6 +1248,16 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public AbstractFile[] ls(FilenameFilter filenameFilter) throws IOException {
+        if(attributesPrefetchEnabled) {
+            try {
+                return lsWithAttributes(filenameFilter);
+            }
+            catch(InvalidPathException e) {
+                // The path cannot be handled by java.nio.file, use java.io instead
+                LOGGER.info("Could not list {} with attributes", absPath, e);
+            }
+        }
+
         File files[] = file.listFiles(filenameFilter==null?null:new LocalFilenameFilter(filenameFilter));
 
         if(files==null)
@@ -948,15 +1268,15 @@ public class LocalFile extends ProtocolFile {
         FileURL childURL;
 
         for(int i=0; i<nbFiles; i++) {
-            // Clone the FileURL of this file and set the child's path, this is more efficient than creating a new
+            // Derive the child's FileURL from the FileURL of this file, this is more efficient than creating a new
             // FileURL instance from scratch.
-            childURL = (FileURL)fileURL.clone();
-
-			childURL.setPath(absPath+SEPARATOR+files[i].getName());
+            childURL = fileURL.getChild(files[i].getName());
 
-            // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
-            // the cache, reuse this file as the file's parent, and the already-created java.io.File instance.
-            children[i] = FileFactory.getFile(childURL, this, files[i]);
+            // Creates an AbstractFile (LocalFile or AbstractArchiveFile) instance, reusing this file as the file's parent
+            // and the already-created java.io.File instance. Archive files that are already in the cache are reused:
+            // attributes they may have prefetched during a previous listing are discarded.
+            children[i] = FileFactory.getChildFile(childURL, this, files[i]);
+            discardPrefetchedAttributes(children[i]);
         }
 
         return children;
@@ -964,6 +1284,10 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public boolean isHidden() {
+        PrefetchedAttributes attributes = getPrefetchedAttributes();
+        if(attributes!=null)
+            return attributes.hidden;
+
         return file.isHidden();
     }
 
@@ -1041,6 +1365,58 @@ public class LocalFile extends ProtocolFile {
         return getRoot();
     }
 
+    /**
+     * Overridden to let streams that implement {@link ChannelTransferable} transfer their bytes straight to this
+     * file's <code>FileChannel</code>, which can spare copying them through the Java heap. Other streams are copied
+     * by the super implementation.
+     */
+    @Override
+    public void copyStream(InputStream in, boolean append, long length) throws FileTransferException {
+        if(!(in instanceof ChannelTransferable)) {
+            super.copyStream(in, append, length);
+            return;
+        }
+
+        prefetchedAttributes = null;
+
+        FileChannel channel;
+        try {
+            channel = new FileOutputStream(absPath, append).getChannel();
+        }
+        catch(IOException e) {
+            throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
+        }
+
+        boolean transferred = false;
+        try {
+            ((ChannelTransferable)in).transferTo(channel, length);
+            transferred = true;
+        }
+        catch(FileTransferException e) {
+            // Writing to the channel failed
+            throw e;
+        }
+        catch(IOException e) {
+            FileTransferException fte = new FileTransferException(FileTransferException.READING_SOURCE);
+            fte.initCause(e);
+            throw fte;
+        }
+        finally {
+            // Close channel even if transferTo() threw an IOException
+            try {
+                channel.close();
+            }
+            catch(IOException e) {
+                // Do not hide the exception that is being thrown, if any
+                if(transferred) {
+                    FileTransferException fte = new FileTransferException(FileTransferException.CLOSING_DESTINATION);
+                    fte.initCause(e);
+                    throw fte;
+                }
+            }
+        }
+    }
+
 
     ///////////////////
     // Inner classes //
@@ -1110,6 +1486,15 @@ public class LocalFile extends ProtocolFile {
         public void seek(long offset) throws IOException {
             channel.position(offset);
         }
+
+        /**
+         * Returns the <code>FileChannel</code> this stream reads from.
+         *
+         * @return the <code>FileChannel</code> this stream reads from
+         */
+        public FileChannel getChannel() {
+            return channel;
+        }
     }
 
     /**
@@ -1143,8 +1528,20 @@ public class LocalFile extends ProtocolFile {
      */
     public static class LocalOutputStream extends FilteredOutputStream {
 
+        private final FileChannel channel;
+
         public LocalOutputStream(FileChannel channel) {
             super(new LocalRandomAccessOutputStream(channel));
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the <code>FileChannel</code> this stream writes to.
+         *
+         * @return the <code>FileChannel</code> this stream writes to
+         */
+        public FileChannel getChannel() {
+            return channel;
         }
     }
 
@@ -1245,6 +1642,15 @@ public class LocalFile extends ProtocolFile {
         public void seek(long offset) throws IOException {
             channel.position(offset);
         }
+
+        /**
+         * Returns the <code>FileChannel</code> this stream writes to.
+         *
+         * @return the <code>FileChannel</code> this stream writes to
+         */
+        public FileChannel getChannel() {
+            return channel;
+        }
     }
 
 
@@ -1315,6 +1721,33 @@ public class LocalFile extends ProtocolFile {
     }
 
 
+    /**
+     * Holds the attributes of a file, as read by {@link LocalFile#ls()} when attributes prefetching is enabled.
+     */
+    private static class PrefetchedAttributes {
+
+        /** Time at which the attributes were read */
+        private final long time;
+
+        private boolean exists;
+        private boolean directory;
+        private boolean symlink;
+        private boolean hidden;
+        private long size;
+        private long date;
+
+        /** Key identifying the file, null if the filesystem does not provide one */
+        private Object fileKey;
+
+        /** Permissions of the file, null if they could not be read in bulk */
+        private FilePermissions permissions;
+
+        private PrefetchedAttributes(long time) {
+            this.time = time;
+        }
+    }
+
+
     /**
      * Turns a {@link FilenameFilter} into a {@link java.io.FilenameFilter}.
      */
@@ -0,0 +1,460 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.local;
+
+import com.mucommander.commons.file.util.C;
+import com.mucommander.commons.file.util.CLibrary;
+import com.mucommander.commons.runtime.OsFamilies;
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Platform;
+import com.sun.jna.ptr.LongByReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <code>LocalFileCopier</code> copies local files and directories without their contents going through the Java heap.
+ * It implements {@link LocalFile#copyRemotelyTo(com.mucommander.commons.file.AbstractFile)}.
+ *
+ * <p>The contents of regular files are copied using the fastest of the following methods that the platform and
+ * filesystem support:
+ * <ol>
+ *   <li>a <code>FICLONE</code> reflink, which makes the destination share the source's blocks (copy-on-write
+ * filesystems such as Btrfs or XFS, under Linux)</li>
+ *   <li><code>copy_file_range</code>, which copies data inside the kernel and may perform server-side copies on
+ * network filesystems (Linux 4.5 and up)</li>
+ *   <li><code>FileChannel#transferTo</code>, which lets the JVM use <code>sendfile</code> or equivalent</li>
+ * </ol>
+ * Under Linux, the data regions of the source are located with <code>SEEK_DATA</code>/<code>SEEK_HOLE</code> and only
+ * those are copied, which preserves sparse regions. Dates and permissions are preserved as well.</p>
+ *
+ * <p>Native methods are accessed through the JNA {@link CLibrary}, and are used only on 64-bit Linux platforms.</p>
+ */
+class LocalFileCopier {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalFileCopier.class);
+
+    /** Maximum number of bytes transferred by a single call, allows the copy to be interrupted */
+    final static long TRANSFER_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /** True if native copy methods can be used */
+    private final static boolean NATIVE_COPY_AVAILABLE = OsFamilies.LINUX.isCurrent() && Platform.is64Bit() && C.isAvailable();
+
+    /** Errors numbers returned by native functions when the operation is not supported by the file or filesystem */
+    private final static int EINVAL = 22;
+    private final static int ENOSYS = 38;
+    private final static int EXDEV = 18;
+    private final static int EOPNOTSUPP = 95;
+
+    /** Error returned by lseek when there is no data after the given offset */
+    private final static int ENXIO = 6;
+
+    /** False once copy_file_range has been found not to be implemented by the C library or kernel */
+    private static boolean copyFileRangeAvailable = NATIVE_COPY_AVAILABLE;
+
+    /**
+     * Copies the given file or directory to the specified destination, overwriting it if it exists. Directories are
+     * copied recursively. As with {@link com.mucommander.commons.file.AbstractFile#copyTo(com.mucommander.commons.file.AbstractFile)},
+     * symbolic links are skipped, as well as directories that loop back to one of the directories being copied.
+     *
+     * <p>If an error occurs, the files and directories that have been created by the copy are deleted, so that the
+     * copy can be retried by other means. Files that existed before the copy are left as they are, and may have been
+     * partially overwritten.</p>
+     *
+     * @param source the file or directory to copy
+     * @param dest the destination
+     * @throws IOException if an error occurred
+     */
+    static void copy(File source, File dest) throws IOException {
+        List<Path> created = new ArrayList<Path>();
+        try {
+            copy(source.toPath(), dest.toPath(), new HashSet<Object>(), created);
+        }
+        catch(IOException e) {
+            deleteCreated(created);
+            throw e;
+        }
+        catch(RuntimeException e) {
+            deleteCreated(created);
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the given file or directory to the specified destination, keeping track of the directories being copied
+     * and of the files and directories that are created.
+     *
+     * @param source the file or directory to copy
+     * @param dest the destination
+     * @param ancestors keys of the directories being copied
+     * @param created files and directories created so far, in the order they were created
+     * @throws IOException if an error occurred
+     */
+    private static void copy(Path source, Path dest, Set<Object> ancestors, List<Path> created) throws IOException {
+        if(Files.isSymbolicLink(source))
+            return;
+
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        if(!attrs.isDirectory()) {
+            if(!Files.exists(dest, LinkOption.NOFOLLOW_LINKS))
+                created.add(dest);
+
+            copyFile(source, dest, attrs.size());
+            copyAttributes(source, dest);
+            return;
+        }
+
+        Object key = attrs.fileKey()==null ? source.toRealPath() : attrs.fileKey();
+        if(!ancestors.add(key))
+            return;
+
+        if(!Files.isDirectory(dest)) {
+            Files.createDirectory(dest);
+            created.add(dest);
+        }
+
+        DirectoryStream<Path> stream = Files.newDirectoryStream(source);
+        try {
+            for(Path child: stream)
+                copy(child, dest.resolve(child.getFileName().toString()), ancestors, created);
+        }
+        finally {
+            stream.close();
+        }
+
+        ancestors.remove(key);
+
+        // Preserve the directory's date after its contents have been copied
+        copyAttributes(source, dest);
+    }
+
+    /**
+     * Deletes the given files and directories in the reverse order of their creation, so that directories are empty
+     * when they are deleted. Errors are logged and ignored.
+     *
+     * @param created files and directories created by a copy, in the order they were created
+     */
+    private static void deleteCreated(List<Path> created) {
+        for(int i=created.size()-1; i>=0; i--) {
+            try {
+                Files.deleteIfExists(created.get(i));
+            }
+            catch(IOException e) {
+                LOGGER.info("Could not delete {} after a failed copy", created.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * Copies the contents of the given regular file to the destination, replacing the destination's contents.
+     *
+     * @param source the file to copy
+     * @param dest the destination
+     * @param size the size of the source file
+     * @throws IOException if an error occurred
+     */
+    private static void copyFile(Path source, Path dest, long size) throws IOException {
+        if(NATIVE_COPY_AVAILABLE) {
+            try {
+                copyFileNative(source, dest, size);
+                return;
+            }
+            catch(UnsatisfiedLinkError e) {
+                LOGGER.info("Native file copy not available", e);
+            }
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(dest.toFile(), "rw");
+        try {
+            raf.setLength(0);
+            transfer(source, raf.getChannel(), 0, size);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copies the contents of the given regular file to the destination using native methods: the file is cloned if
+     * the filesystem supports it, its data regions are copied otherwise.
+     *
+     * @param source the file to copy
+     * @param dest the destination
+     * @param size the size of the source file
+     * @throws IOException if an error occurred
+     */
+    private static void copyFileNative(Path source, Path dest, long size) throws IOException {
+        CLibrary c = C.getInstance();
+
+        int in = open(c, source, CLibrary.O_RDONLY);
+        try {
+            int out = open(c, dest, CLibrary.O_WRONLY|CLibrary.O_CREAT|CLibrary.O_TRUNC);
+            FileChannel outChannel = null;
+            try {
+                // Share the source's blocks if the filesystem supports it
+                try {
+                    c.ioctl(out, CLibrary.FICLONE, in);
+                    return;
+                }
+                catch(LastErrorException e) {
+                    // Not a copy-on-write filesystem, or the files are on different filesystems
+                }
+
+                long offset = 0;
+                while(offset<size) {
+                    // Locate the next data region, skipping holes
+                    long start;
+                    long end;
+                    try {
+                        start = c.lseek(in, offset, CLibrary.SEEK_DATA);
+                        end = Math.min(size, c.lseek(in, start, CLibrary.SEEK_HOLE));
+                    }
+                    catch(LastErrorException e) {
+                        if(e.getErrorCode()==ENXIO)
+                            break;      // No more data, the rest of the file is a hole
+
+                        // Holes cannot be located on this filesystem, copy the rest of the file
+                        start = offset;
+                        end = size;
+                    }
+
+                    if(start>=size)
+                        break;
+
+                    if(!copyRangeNative(c, in, out, start, end-start)) {
+                        if(outChannel==null)
+                            outChannel = new RandomAccessFile(dest.toFile(), "rw").getChannel();
+
+                        transfer(source, outChannel, start, end-start);
+                    }
+
+                    offset = end;
+                }
+
+                // Restore the trailing hole, if any
+                c.ftruncate(out, size);
+            }
+            catch(LastErrorException e) {
+                throw new IOException("Could not copy "+source+": error "+e.getErrorCode());
+            }
+            finally {
+                if(outChannel!=null)
+                    outChannel.close();
+
+                c.close(out);
+            }
+        }
+        finally {
+            c.close(in);
+        }
+    }
+
+    /**
+     * Returns the data regions of the given regular file, as an array of <code>offset, length</code> pairs in
+     * ascending order, located with <code>SEEK_DATA</code>/<code>SEEK_HOLE</code>. Returns <code>null</code> if holes
+     * cannot be located on this platform or filesystem.
+     *
+     * @param file the file
+     * @param size the size of the file
+     * @return the data regions of the file, null if they cannot be located
+     * @throws IOException if the file could not be opened
+     */
+    static long[] getDataRegions(File file, long size) throws IOException {
+        if(!NATIVE_COPY_AVAILABLE)
+            return null;
+
+        CLibrary c = C.getInstance();
+        int fd = open(c, file.toPath(), CLibrary.O_RDONLY);
+        try {
+            long regions[] = new long[16];
+            int nbValues = 0;
+            long offset = 0;
+            while(offset<size) {
+                long start;
+                long end;
+                try {
+                    start = c.lseek(fd, offset, CLibrary.SEEK_DATA);
+                    end = Math.min(size, c.lseek(fd, start, CLibrary.SEEK_HOLE));
+                }
+                catch(LastErrorException e) {
+                    if(e.getErrorCode()==ENXIO)
+                        break;      // No more data, the rest of the file is a hole
+
+                    return null;
+                }
+
+                if(start>=size)
+                    break;
+
+                if(nbValues==regions.length) {
+                    long newRegions[] = new long[regions.length*2];
+                    System.arraycopy(regions, 0, newRegions, 0, nbValues);
+                    regions = newRegions;
+                }
+
+                regions[nbValues++] = start;
+                regions[nbValues++] = end-start;
+                offset = end;
+            }
+
+            long dataRegions[] = new long[nbValues];
+            System.arraycopy(regions, 0, dataRegions, 0, nbValues);
+            return dataRegions;
+        }
+        finally {
+            c.close(fd);
+        }
+    }
+
+    /**
+     * Opens the given file and returns its file descriptor.
+     *
+     * @param c the C library
+     * @param path the file to open
+     * @param flags open flags
+     * @return the file descriptor
+     * @throws IOException if the file could not be opened
+     */
+    private static int open(CLibrary c, Path path, int flags) throws IOException {
+        try {
+            return c.open(path.toString(), flags, 0666);
+        }
+        catch(LastErrorException e) {
+            throw new IOException("Could not open "+path+": error "+e.getErrorCode());
+        }
+    }
+
+    /**
+     * Copies a range of bytes between the given file descriptors using <code>copy_file_range</code>.
+     * Returns <code>false</code> if <code>copy_file_range</code> is not supported, in which case nothing has been
+     * copied.
+     *
+     * @param c the C library
+     * @param in descriptor of the file to read
+     * @param out descriptor of the file to write
+     * @param offset offset of the range, in both files
+     * @param length length of the range
+     * @return <code>true</code> if the range was copied, <code>false</code> if the operation is not supported
+     * @throws LastErrorException if an error occurred
+     */
+    private static boolean copyRangeNative(CLibrary c, int in, int out, long offset, long length) throws LastErrorException {
+        if(!copyFileRangeAvailable)
+            return false;
+
+        LongByReference inOffset = new LongByReference(offset);
+        LongByReference outOffset = new LongByReference(offset);
+        long remaining = length;
+        while(remaining>0) {
+            long copied;
+            try {
+                copied = c.copy_file_range(in, inOffset, out, outOffset, Math.min(remaining, TRANSFER_CHUNK_SIZE), 0);
+            }
+            catch(UnsatisfiedLinkError e) {
+                // C library older than glibc 2.27
+                copyFileRangeAvailable = false;
+                return false;
+            }
+            catch(LastErrorException e) {
+                int errno = e.getErrorCode();
+                if(remaining==length && (errno==ENOSYS || errno==EXDEV || errno==EINVAL || errno==EOPNOTSUPP)) {
+                    if(errno==ENOSYS)
+                        copyFileRangeAvailable = false;
+                    return false;
+                }
+
+                throw e;
+            }
+
+            // The source file has shrunk
+            if(copied==0)
+                break;
+
+            remaining -= copied;
+        }
+
+        return true;
+    }
+
+    /**
+     * Transfers a range of bytes from the given file to the given channel, at the same offset.
+     *
+     * @param source the file to read
+     * @param out the channel to write to
+     * @param offset offset of the range, in both files
+     * @param length length of the range
+     * @throws IOException if an error occurred
+     */
+    private static void transfer(Path source, FileChannel out, long offset, long length) throws IOException {
+        FileChannel in = new FileInputStream(source.toFile()).getChannel();
+        try {
+            out.position(offset);
+            long position = offset;
+            long end = offset+length;
+            while(position<end) {
+                long transferred = in.transferTo(position, Math.min(end-position, TRANSFER_CHUNK_SIZE), out);
+
+                // The source file has shrunk
+                if(transferred<=0)
+                    break;
+
+                position += transferred;
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the date and permissions of the source file to the destination.
+     *
+     * @param source the file which attributes to copy
+     * @param dest the destination
+     * @throws IOException if an error occurred
+     */
+    private static void copyAttributes(Path source, Path dest) throws IOException {
+        PosixFileAttributeView destView = Files.getFileAttributeView(dest, PosixFileAttributeView.class);
+        if(destView!=null) {
+            PosixFileAttributes attrs = Files.readAttributes(source, PosixFileAttributes.class);
+            destView.setTimes(attrs.lastModifiedTime(), null, null);
+            destView.setPermissions(attrs.permissions());
+        }
+        else {
+            Files.setLastModifiedTime(dest, Files.getLastModifiedTime(source));
+
+            File sourceFile = source.toFile();
+            File destFile = dest.toFile();
+            destFile.setWritable(sourceFile.canWrite());
+        }
+    }
+}
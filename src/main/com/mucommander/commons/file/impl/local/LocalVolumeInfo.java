@@ -0,0 +1,190 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.local;
+
+import com.mucommander.commons.file.util.C;
+import com.mucommander.commons.file.util.CLibrary;
+import com.mucommander.commons.runtime.OsFamilies;
+import com.sun.jna.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Retrieves the total and free space of local volumes without spawning processes, and caches them for a short period
+ * of time.
+ *
+ * <p>Under Linux, both values are retrieved with a single <code>statvfs</code> call, through JNA. On other
+ * platforms, or if the C library is not available, the <code>java.nio.file.FileStore</code> of the file is used.
+ * Values are cached by volume: on POSIX systems, volumes are identified by the device the file resides on, and
+ * elsewhere by the root of the file's path. This allows listings that display the free space of every folder, or of
+ * every {@link LocalFile#getVolumes() volume}, to query each volume once.</p>
+ */
+class LocalVolumeInfo {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalVolumeInfo.class);
+
+    /** True if volume information can be retrieved using statvfs */
+    private final static boolean STATVFS_AVAILABLE = OsFamilies.LINUX.isCurrent() && Platform.is64Bit() && C.isAvailable();
+
+    /** True if files expose the device they reside on through the 'unix' attribute view */
+    private final static boolean UNIX_VIEW_AVAILABLE = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    /** Cached {totalSpace, freeSpace, timestamp} arrays, keyed by volume */
+    private final static Map<Object, long[]> cache = new HashMap<Object, long[]>();
+
+    /**
+     * Returns the total and free space of the volume the given file resides on. If the file does not exist, the
+     * volume of its closest existing ancestor is used.
+     *
+     * @param file a local file
+     * @param ttl period of time in milliseconds during which cached values are returned, <code>0</code> to bypass
+     * the cache
+     * @return a {totalSpace, freeSpace} long array, both values are <code>-1</code> if the information could not be
+     * retrieved
+     * @throws IOException if an I/O error occurred
+     */
+    static long[] getVolumeInfo(File file, long ttl) throws IOException {
+        Path path = getExistingPath(file);
+        if(path==null)
+            return new long[]{-1, -1};
+
+        Object key = ttl>0?getVolumeKey(path):null;
+        long now = System.currentTimeMillis();
+        if(key!=null) {
+            synchronized(cache) {
+                long cached[] = cache.get(key);
+                if(cached!=null && now-cached[2]<ttl)
+                    return new long[]{cached[0], cached[1]};
+            }
+        }
+
+        long info[] = readVolumeInfo(path);
+
+        if(key!=null) {
+            synchronized(cache) {
+                cache.put(key, new long[]{info[0], info[1], now});
+            }
+        }
+
+        return info;
+    }
+
+    /**
+     * Removes all the values from the cache.
+     */
+    static void clearCache() {
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the total and free space of the volume the given file resides on, using <code>statvfs</code> if it is
+     * available.
+     *
+     * @param path path of an existing file
+     * @return a {totalSpace, freeSpace} long array
+     * @throws IOException if an I/O error occurred
+     */
+    private static long[] readVolumeInfo(Path path) throws IOException {
+        if(STATVFS_AVAILABLE) {
+            long info[] = statvfs(path.toString());
+            if(info!=null)
+                return info;
+        }
+
+        FileStore store = Files.getFileStore(path);
+        return new long[] {
+            store.getTotalSpace(),
+            store.getUsableSpace()
+        };
+    }
+
+    /**
+     * Returns the total and free space of the volume the given file resides on using the <code>statvfs</code> C
+     * function. Free space is the space available to unprivileged users.
+     *
+     * @param path path of an existing file
+     * @return a {totalSpace, freeSpace} long array, <code>null</code> if <code>statvfs</code> is not available or
+     * failed
+     */
+    static long[] statvfs(String path) {
+        if(!STATVFS_AVAILABLE)
+            return null;
+
+        CLibrary.STATVFSSTRUCT struct = new CLibrary.STATVFSSTRUCT();
+        if(C.getInstance().statvfs(path, struct)!=0) {
+            LOGGER.info("Call to statvfs failed, path={}", path);
+            return null;
+        }
+
+        long fragmentSize = struct.f_frsize.longValue();
+        return new long[] {
+            struct.f_blocks.longValue() * fragmentSize,
+            struct.f_bavail.longValue() * fragmentSize
+        };
+    }
+
+    /**
+     * Returns the key identifying the volume the given file resides on.
+     *
+     * @param path path of an existing file
+     * @return the key identifying the volume the given file resides on, <code>null</code> if it cannot be determined
+     */
+    private static Object getVolumeKey(Path path) {
+        if(UNIX_VIEW_AVAILABLE) {
+            try {
+                return Files.getAttribute(path, "unix:dev");
+            }
+            catch(IOException e) {
+                return null;
+            }
+        }
+
+        return path.toAbsolutePath().getRoot();
+    }
+
+    /**
+     * Returns the path of the given file, or of its closest existing ancestor if it does not exist.
+     *
+     * @param file a local file
+     * @return the path of the given file or of its closest existing ancestor, <code>null</code> if none of them exist
+     * or if the path is not valid
+     */
+    private static Path getExistingPath(File file) {
+        try {
+            Path path = file.getAbsoluteFile().toPath();
+            while(path!=null && !Files.exists(path))
+                path = path.getParent();
+
+            return path;
+        }
+        catch(InvalidPathException e) {
+            return null;
+        }
+    }
+}
@@ -485,15 +485,13 @@ public class UNCFile extends ProtocolFile {
         for(int i=0; i<nbFiles; i++) {
             file = files[i];
 
-            // Clone the FileURL of this file and set the child's path, this is more efficient than creating a new
+            // Derive the child's FileURL from the FileURL of this file, this is more efficient than creating a new
             // FileURL instance from scratch.
-            childURL = (FileURL)fileURL.clone();
-
-            childURL.setPath(addTrailingSeparator(fileURL.getPath())+file.getName());
+            childURL = fileURL.getChild(file.getName());
 
             // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
             // the cache, reuse this file as the file's parent, and the already-created java.io.File instance.
-            children[i] = FileFactory.getFile(childURL, this, file);
+            children[i] = FileFactory.getChildFile(childURL, this, file);
         }
 
         return children;
@@ -51,6 +51,7 @@ import java.io.OutputStream;
  *
  * @author Maxence Bernard
  */
+@PerformanceHints(preferredBlockSize=32768, latency=LatencyClass.LAN)
 public class NFSFile extends ProtocolFile {
 
     /** Underlying file instance */
@@ -395,17 +396,12 @@ public class NFSFile extends ProtocolFile {
 
         AbstractFile children[] = new AbstractFile[names.length];
         FileURL childURL;
-        String baseURLPath = fileURL.getPath();
-        if(!baseURLPath.endsWith("/"))
-            baseURLPath += SEPARATOR;
-
         for(int i=0; i<names.length; i++) {
-            // Clone this file's URL with the connection properties and set the child file's path
-            childURL = (FileURL)fileURL.clone();
-            childURL.setPath(baseURLPath+names[i]);
+            // Derive the child file's URL from this file's URL, sharing the connection properties
+            childURL = fileURL.getChild(names[i]);
 
             // Create the child NFSFile using this file as a parent
-            children[i] = FileFactory.getFile(childURL, this);
+            children[i] = FileFactory.getChildFile(childURL, this);
         }
 
         return children;
@@ -19,6 +19,8 @@ import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.LatencyClass;
+import com.mucommander.commons.file.PerformanceHints;
 import com.mucommander.commons.file.PermissionBits;
 import com.mucommander.commons.file.ProtocolFile;
 import com.mucommander.commons.file.SimpleFilePermissions;
@@ -40,6 +42,7 @@ import com.mucommander.commons.io.RandomAccessOutputStream;
  *
  * @author Lorand Bendig <lbendig@gmail.com>
  */
+@PerformanceHints(preferredBlockSize=128*1024, latency=LatencyClass.LAN)
 public class QFSFile extends ProtocolFile {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QFSFile.class);
@@ -348,10 +351,6 @@ public class QFSFile extends ProtocolFile {
 
         int nbChildren = (statuses == null) ? 0 : statuses.length;
         List<AbstractFile> children = new ArrayList<AbstractFile>();
-        String parentPath = fileURL.getPath();
-        if (!parentPath.endsWith("/")) {
-            parentPath += "/";
-        }
         FileURL childURL;
         KfsFileAttr childStatus;
 
@@ -361,9 +360,8 @@ public class QFSFile extends ProtocolFile {
             if (DOT.equals(filename) || DOTDOT.equals(filename)) {
                 continue;
             }
-            childURL = (FileURL) fileURL.clone();
-            childURL.setPath(parentPath + filename);
-            children.add(FileFactory.getFile(childURL, this, kfsAccess, childStatus));
+            childURL = fileURL.getChild(filename);
+            children.add(FileFactory.getChildFile(childURL, this, kfsAccess, childStatus));
         }
 
         return children.toArray(new AbstractFile[children.size()]);
@@ -66,6 +66,9 @@ public class RarArchiveFile extends AbstractROArchiveFile {
         long currentDate = file.getDate();
         
         if (rarFile==null || currentDate != lastRarFileDate) {
+        	if (rarFile != null)
+        		rarFile.close();
+
         	rarFile = new RarFile(file);
             declareRarFileUpToDate(currentDate);
         }
@@ -17,68 +17,117 @@
  */
 package com.mucommander.commons.file.impl.rar;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
 import com.mucommander.commons.util.CircularByteBuffer;
 
 import de.innosystec.unrar.Archive;
+import de.innosystec.unrar.Volume;
 import de.innosystec.unrar.exception.RarException;
 import de.innosystec.unrar.exception.RarException.RarExceptionType;
 import de.innosystec.unrar.rarfile.FileHeader;
 
 /**
- * 
+ * <code>RarFile</code> reads the entries of a RAR archive stored in any {@link AbstractFile}, using the junrar library.
+ *
+ * <p>The archive's contents are accessed through {@link RarVolume} instances rather than <code>java.io.File</code>,
+ * so archives located on remote filesystems or inside other archives are supported. The volumes of a multi-volume
+ * archive are located by {@link RarVolumeManager}, as siblings of the first volume.</p>
+ *
+ * <p>Headers are indexed by name when the archive is opened, so that looking up an entry does not require scanning
+ * all headers.</p>
+ *
  * @author Arik Hadas
  */
 public class RarFile {
 	
-    /** Interface to junrar library */
-    private Archive archive;
-    
+    /** Locates the volumes of the archive */
+    private RarVolumeManager volumeManager;
+
+    /** Interfaces to junrar library holding the headers of each volume, indexed by volume */
+    private List<Archive> volumeArchives = new ArrayList<Archive>();
+
+    /** Maps entry paths, as stored in the archive, to their header and volume */
+    private Map<String, IndexedHeader> headerIndex = new LinkedHashMap<String, IndexedHeader>();
+
 
     public RarFile(AbstractFile file) throws IOException, UnsupportedFileOperationException, RarException {
-    	InputStream fileIn = file.getInputStream();
-        try {
-            archive = new Archive(new File(file.getPath()));
+        volumeManager = new RarVolumeManager(file);
+        Archive volumeArchive = new Archive(volumeManager);
+        addVolume(volumeArchive);
+
+        // Index the headers of the following volumes, each volume being opened only once the previous one is indexed
+        while(volumeArchive.getMainHeader().isMultiVolume()) {
+            Volume nextVolume = volumeManager.nextArchive(volumeArchive, volumeArchive.getVolume());
+            if(nextVolume==null)
+                break;
+
+            volumeArchive = new Archive(new RarVolumeManager(volumeManager, volumeArchives.size()));
+            addVolume(volumeArchive);
         }
-        finally {
-            fileIn.close();
+    }
+
+    /**
+     * Adds the headers of the given volume to the index. Headers of entries that are continued from a previous
+     * volume are skipped, as they were indexed with the volume the entry starts in.
+     *
+     * @param volumeArchive the archive holding the volume's headers
+     */
+    private void addVolume(Archive volumeArchive) {
+        int volumeIndex = volumeArchives.size();
+        volumeArchives.add(volumeArchive);
+
+        for(FileHeader header : volumeArchive.getFileHeaders()) {
+            String path = header.getFileNameString();
+            if(!header.isSplitBefore() && !headerIndex.containsKey(path))
+                headerIndex.put(path, new IndexedHeader(header, volumeIndex));
         }
     }
 
     public Collection<FileHeader> getEntries() {
-    	return archive.getFileHeaders();
+        List<FileHeader> headers = new ArrayList<FileHeader>(headerIndex.size());
+        for(IndexedHeader indexedHeader : headerIndex.values())
+            headers.add(indexedHeader.header);
+
+        return headers;
     }
     
     public InputStream getEntryInputStream(String path) throws IOException, RarException {
-//    	final FileHeader header = archive.getgetFileHeader(path);
-    	FileHeader header1 = null;
-    	for (FileHeader h : archive.getFileHeaders()) {
-    		if (h.getFileNameString().equals(path)) {
-    			header1 = h;
-    			break;
-    		}
-    	}
-
-    	final FileHeader header = header1;
-
-    	// If the file that is going to be extracted is divided and continued in another archive 
-        // part - don't extract it and throw corresponding exception to raise an error. 
-        if (header.isSplitAfter())
-    		throw new RarException(RarExceptionType.notImplementedYet);
-    	
+        IndexedHeader indexedHeader = headerIndex.get(path);
+        if(indexedHeader==null)
+            throw new RarException(RarExceptionType.headerNotInArchive);
+
+        final Archive extractionArchive;
+        final FileHeader header;
+        final boolean closeArchive;
+        if(indexedHeader.header.isSplitAfter()) {
+            // Entries that are continued in the next volumes cause junrar to switch the archive's current volume:
+            // extract them using a dedicated archive so that the shared ones keep pointing to their volume.
+            extractionArchive = new Archive(new RarVolumeManager(volumeManager, indexedHeader.volumeIndex));
+            header = findHeader(extractionArchive, path);
+            closeArchive = true;
+        }
+        else {
+            extractionArchive = volumeArchives.get(indexedHeader.volumeIndex);
+            header = indexedHeader.header;
+            closeArchive = false;
+        }
+
         final CircularByteBuffer cbb = new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE);
         
         new Thread(
     		    new Runnable(){
     		      public void run(){
     		    	try {
-						archive.extractFile(header, cbb.getOutputStream());
+						extractionArchive.extractFile(header, cbb.getOutputStream());
 					} catch (RarException e) {
 						if (e.getType() != RarExceptionType.crcError)
 							e.printStackTrace();
@@ -86,6 +135,8 @@ public class RarFile {
     		    	finally {
     		    		try {
 							cbb.getOutputStream().close();
+							if (closeArchive)
+								extractionArchive.close();
 						} catch (IOException e1) {
 							// TODO Auto-generated catch block
 							e1.printStackTrace();
@@ -97,4 +148,45 @@ public class RarFile {
         
         return cbb.getInputStream();
     }
+
+    /**
+     * Closes the volumes opened by this <code>RarFile</code>.
+     *
+     * @throws IOException if an error occurred while closing a volume
+     */
+    public void close() throws IOException {
+        for(Archive volumeArchive : volumeArchives)
+            volumeArchive.close();
+    }
+
+    /**
+     * Returns the header with the specified path in the first volume of the given archive.
+     *
+     * @param archive the archive to look into
+     * @param path the path of the entry, as stored in the archive
+     * @return the header with the specified path
+     * @throws RarException if the archive does not contain the header
+     */
+    private static FileHeader findHeader(Archive archive, String path) throws RarException {
+        for(FileHeader header : archive.getFileHeaders()) {
+            if(header.getFileNameString().equals(path))
+                return header;
+        }
+
+        throw new RarException(RarExceptionType.headerNotInArchive);
+    }
+
+
+    /**
+     * Associates a header with the index of the volume it was read from.
+     */
+    private static class IndexedHeader {
+        private final FileHeader header;
+        private final int volumeIndex;
+
+        private IndexedHeader(FileHeader header, int volumeIndex) {
+            this.header = header;
+            this.volumeIndex = volumeIndex;
+        }
+    }
 }
@@ -21,7 +21,7 @@ package com.mucommander.commons.file.impl.rar;
 
 import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.ArchiveFormatProvider;
+import com.mucommander.commons.file.SniffableArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 
@@ -33,12 +33,20 @@ import java.io.IOException;
  * @see com.mucommander.commons.file.impl.rar.RarArchiveFile
  * @author Arik Hadas
  */
-public class RarFormatProvider implements ArchiveFormatProvider {
+public class RarFormatProvider implements SniffableArchiveFormatProvider {
 	/** Static instance of the filename filter that matches archive filenames */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(new String[]
         {".rar", ".cbr"}
     );
 
+    /** Offset of the signatures, from the beginning of the file */
+    private final static int SIGNATURE_OFFSET = 0;
+
+    /** Signature of RAR files */
+    private final static byte SIGNATURES[][] = {
+        {'R', 'a', 'r', '!', 0x1A, 0x07}
+    };
+
 
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
@@ -51,4 +59,17 @@ public class RarFormatProvider implements ArchiveFormatProvider {
     public FilenameFilter getFilenameFilter() {
         return filenameFilter;
     }
+
+
+    ///////////////////////////////////////////////////
+    // SniffableArchiveFormatProvider implementation //
+    ///////////////////////////////////////////////////
+
+    public int getSignatureOffset() {
+        return SIGNATURE_OFFSET;
+    }
+
+    public byte[][] getSignatures() {
+        return SIGNATURES;
+    }
 }
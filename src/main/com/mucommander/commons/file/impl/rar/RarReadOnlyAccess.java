@@ -0,0 +1,232 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.rar;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.LatencyClass;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import de.innosystec.unrar.io.IReadOnlyAccess;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <code>RarReadOnlyAccess</code> exposes the contents of an {@link AbstractFile} to the junrar library, without
+ * requiring the file to be a <code>java.io.File</code>.
+ *
+ * <p>Files with a {@link LatencyClass#LOCAL local} latency that provide random read access are read directly through
+ * their {@link RandomAccessInputStream}.
+ * Other files (remote files, files located inside another archive) are read by blocks of {@link #BLOCK_SIZE} bytes
+ * which are kept in a LRU cache of {@link #MAX_CACHED_BLOCKS} blocks: junrar seeks back and forth between headers and
+ * reads them in small chunks, which would otherwise translate into a round-trip per header field.
+ * If the file does not provide random read access, blocks are fetched using {@link AbstractFile#getInputStream(long)},
+ * and the stream is kept open as long as blocks are read sequentially.</p>
+ */
+class RarReadOnlyAccess implements IReadOnlyAccess {
+
+    /** Size of the blocks read from files that are not accessed directly */
+    final static int BLOCK_SIZE = 64 * 1024;
+
+    /** Maximum number of blocks kept in memory for a file */
+    final static int MAX_CACHED_BLOCKS = 32;
+
+    /** The file to read */
+    private final AbstractFile file;
+
+    /** Length of the file, -1 if unknown */
+    private final long length;
+
+    /** Random access stream to the file, null if the file does not provide random read access */
+    private RandomAccessInputStream rais;
+
+    /** Sequential stream used to fetch blocks when random access is not available, null if not opened yet */
+    private InputStream in;
+
+    /** Offset of the next byte that {@link #in} will return */
+    private long inOffset;
+
+    /** Cached blocks, in access order. null when the file is read directly */
+    private Map<Long, byte[]> blockCache;
+
+    /** Current position within the file */
+    private long position;
+
+
+    RarReadOnlyAccess(AbstractFile file) throws IOException {
+        this.file = file;
+
+        if(file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE)) {
+            rais = file.getRandomAccessInputStream();
+            length = rais.getLength();
+        }
+        else {
+            length = file.getSize();
+        }
+
+        if(rais==null || file.getCapabilities().getLatency()!=LatencyClass.LOCAL) {
+            blockCache = new LinkedHashMap<Long, byte[]>(MAX_CACHED_BLOCKS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                    return size() > MAX_CACHED_BLOCKS;
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the block with the given index, reading it from the file if it is not in the cache.
+     * The returned block may be shorter than {@link #BLOCK_SIZE} if it is the last one of the file.
+     *
+     * @param blockIndex index of the block to return
+     * @return the block with the given index
+     * @throws IOException if an error occurred while reading the file
+     */
+    private byte[] getBlock(long blockIndex) throws IOException {
+        byte[] block = blockCache.get(blockIndex);
+        if(block!=null)
+            return block;
+
+        long blockOffset = blockIndex * BLOCK_SIZE;
+        int blockLen = length<0 ? BLOCK_SIZE : (int)Math.min(BLOCK_SIZE, length - blockOffset);
+        block = new byte[blockLen];
+
+        int read;
+        if(rais!=null) {
+            rais.seek(blockOffset);
+            read = readBlock(rais, block);
+        }
+        else {
+            if(in==null || inOffset!=blockOffset) {
+                if(in!=null)
+                    in.close();
+
+                in = file.getInputStream(blockOffset);
+                inOffset = blockOffset;
+            }
+
+            read = readBlock(in, block);
+            inOffset += read;
+        }
+
+        if(read<block.length) {
+            byte[] truncatedBlock = new byte[read];
+            System.arraycopy(block, 0, truncatedBlock, 0, read);
+            block = truncatedBlock;
+        }
+
+        blockCache.put(blockIndex, block);
+
+        return block;
+    }
+
+    /**
+     * Fills the given block with bytes read from the stream, stopping before if the end of the stream is reached.
+     *
+     * @param in the stream to read
+     * @param block the block to fill
+     * @return the number of bytes read
+     * @throws IOException if an error occurred while reading the stream
+     */
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int off = 0;
+        int nbRead;
+        while(off<block.length && (nbRead=in.read(block, off, block.length-off))!=-1)
+            off += nbRead;
+
+        return off;
+    }
+
+
+    ////////////////////////////////////
+    // IReadOnlyAccess implementation //
+    ////////////////////////////////////
+
+    public long getPosition() throws IOException {
+        return position;
+    }
+
+    public void setPosition(long pos) throws IOException {
+        this.position = pos;
+    }
+
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1)==-1 ? -1 : b[0] & 0xFF;
+    }
+
+    public int read(byte[] buffer, int off, int count) throws IOException {
+        if(count==0)
+            return 0;
+
+        if(length>=0 && position>=length)
+            return -1;
+
+        int nbRead;
+        if(blockCache==null) {
+            if(rais.getOffset()!=position)
+                rais.seek(position);
+
+            nbRead = rais.read(buffer, off, count);
+        }
+        else {
+            byte[] block = getBlock(position / BLOCK_SIZE);
+            int offsetInBlock = (int)(position % BLOCK_SIZE);
+            if(offsetInBlock>=block.length)
+                return -1;
+
+            nbRead = Math.min(count, block.length - offsetInBlock);
+            System.arraycopy(block, offsetInBlock, buffer, off, nbRead);
+        }
+
+        if(nbRead>0)
+            position += nbRead;
+
+        return nbRead;
+    }
+
+    public int readFully(byte[] buffer, int count) throws IOException {
+        int off = 0;
+        while(off<count) {
+            int nbRead = read(buffer, off, count-off);
+            if(nbRead==-1)
+                throw new EOFException();
+
+            off += nbRead;
+        }
+
+        return count;
+    }
+
+    public void close() throws IOException {
+        if(blockCache!=null)
+            blockCache.clear();
+
+        try {
+            if(rais!=null)
+                rais.close();
+        }
+        finally {
+            if(in!=null)
+                in.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.rar;
+
+import com.mucommander.commons.file.AbstractFile;
+import de.innosystec.unrar.Archive;
+import de.innosystec.unrar.Volume;
+import de.innosystec.unrar.io.IReadOnlyAccess;
+
+import java.io.IOException;
+
+/**
+ * <code>RarVolume</code> is a junrar {@link Volume} backed by an {@link AbstractFile}. The file is only opened when
+ * junrar asks for its contents.
+ *
+ * @see RarVolumeManager
+ */
+class RarVolume implements Volume {
+
+    /** The archive this volume belongs to */
+    private final Archive archive;
+
+    /** The file that holds this volume */
+    private final AbstractFile file;
+
+    /** Index of this volume within the volume set, 0 for the first volume */
+    private final int index;
+
+
+    RarVolume(Archive archive, AbstractFile file, int index) {
+        this.archive = archive;
+        this.file = file;
+        this.index = index;
+    }
+
+    /**
+     * Returns the file that holds this volume.
+     *
+     * @return the file that holds this volume
+     */
+    AbstractFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the index of this volume within the volume set, <code>0</code> for the first volume.
+     *
+     * @return the index of this volume within the volume set
+     */
+    int getIndex() {
+        return index;
+    }
+
+
+    ///////////////////////////
+    // Volume implementation //
+    ///////////////////////////
+
+    public IReadOnlyAccess getReadOnlyAccess() throws IOException {
+        return new RarReadOnlyAccess(file);
+    }
+
+    public long getLength() {
+        return file.getSize();
+    }
+
+    public Archive getArchive() {
+        return archive;
+    }
+}
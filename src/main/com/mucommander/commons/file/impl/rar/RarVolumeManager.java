@@ -0,0 +1,120 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.rar;
+
+import com.mucommander.commons.file.AbstractFile;
+import de.innosystec.unrar.Archive;
+import de.innosystec.unrar.Volume;
+import de.innosystec.unrar.VolumeManager;
+import de.innosystec.unrar.rarfile.MainHeader;
+import de.innosystec.unrar.util.VolumeHelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>RarVolumeManager</code> locates the volumes of a (possibly multi-volume) RAR archive.
+ *
+ * <p>Volumes are resolved lazily, as siblings of the previous volume, only when junrar reaches the end of the
+ * previous volume. The list of volumes resolved so far can be shared by several managers, allowing an
+ * {@link Archive} to start reading at any volume without resolving the preceding ones again.</p>
+ */
+class RarVolumeManager implements VolumeManager {
+
+    /** Volumes resolved so far, the first one being the file the archive was opened with */
+    private final List<AbstractFile> volumeFiles;
+
+    /** Index of the volume returned when junrar asks for the first volume */
+    private final int firstVolumeIndex;
+
+
+    /**
+     * Creates a new <code>RarVolumeManager</code> whose first volume is the given file.
+     *
+     * @param firstVolume the first volume of the archive
+     */
+    RarVolumeManager(AbstractFile firstVolume) {
+        this.volumeFiles = new ArrayList<AbstractFile>();
+        this.volumeFiles.add(firstVolume);
+        this.firstVolumeIndex = 0;
+    }
+
+    /**
+     * Creates a new <code>RarVolumeManager</code> that shares the volumes resolved by the given manager, and that
+     * starts at the volume with the specified index. This volume must have already been resolved.
+     *
+     * @param manager the manager whose resolved volumes are shared
+     * @param firstVolumeIndex index of the volume to start reading at
+     */
+    RarVolumeManager(RarVolumeManager manager, int firstVolumeIndex) {
+        this.volumeFiles = manager.volumeFiles;
+        this.firstVolumeIndex = firstVolumeIndex;
+    }
+
+    /**
+     * Returns the volume with the specified index, resolving it and the volumes that precede it if they haven't
+     * been resolved yet. Returns <code>null</code> if the volume does not exist.
+     *
+     * @param oldNumbering <code>true</code> if volumes are named after the old scheme (<code>.rar</code>,
+     * <code>.r00</code>, <code>.r01</code>...), <code>false</code> for the new one (<code>.part1.rar</code>,
+     * <code>.part2.rar</code>...)
+     * @param index index of the volume to return
+     * @return the volume with the specified index, <code>null</code> if it does not exist
+     * @throws IOException if an error occurred while resolving the volume
+     */
+    AbstractFile getVolumeFile(boolean oldNumbering, int index) throws IOException {
+        synchronized(volumeFiles) {
+            while(volumeFiles.size()<=index) {
+                AbstractFile previousVolume = volumeFiles.get(volumeFiles.size()-1);
+                AbstractFile parent = previousVolume.getParent();
+                if(parent==null)
+                    return null;
+
+                // The name of the previous volume may not follow the naming scheme
+                String nextVolumeName = VolumeHelper.nextVolumeName(previousVolume.getName(), oldNumbering);
+                if(nextVolumeName==null)
+                    return null;
+
+                AbstractFile nextVolume = parent.getDirectChild(nextVolumeName);
+                if(!nextVolume.exists())
+                    return null;
+
+                volumeFiles.add(nextVolume);
+            }
+
+            return volumeFiles.get(index);
+        }
+    }
+
+
+    //////////////////////////////////
+    // VolumeManager implementation //
+    //////////////////////////////////
+
+    public Volume nextArchive(Archive archive, Volume lastVolume) throws IOException {
+        int index = lastVolume==null ? firstVolumeIndex : ((RarVolume)lastVolume).getIndex()+1;
+
+        MainHeader mainHeader = archive.getMainHeader();
+        AbstractFile volumeFile = getVolumeFile(mainHeader==null || !mainHeader.isNewNumbering(), index);
+        if(volumeFile==null)
+            return null;
+
+        return new RarVolume(archive, volumeFile, index);
+    }
+}
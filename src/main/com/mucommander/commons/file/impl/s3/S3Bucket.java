@@ -100,6 +100,21 @@ public class S3Bucket extends S3File {
         }
     }
 
+    /**
+     * Deletes all the objects contained in this bucket using {@link #deleteObjects(String, String) bulk requests},
+     * and then the bucket itself.
+     */
+    @Override
+    public void deleteRecursively() throws IOException {
+        deleteObjects(bucketName, "");
+        delete();
+    }
+
+    @Override
+    public boolean canDeleteInBulk() {
+        return true;
+    }
+
     @Override
     public void mkdir() throws IOException {
         try {
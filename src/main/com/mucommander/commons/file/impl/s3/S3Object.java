@@ -20,6 +20,8 @@
 package com.mucommander.commons.file.impl.s3;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 import com.mucommander.commons.io.BufferPool;
 import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.RandomAccessInputStream;
@@ -87,6 +89,8 @@ public class S3Object extends S3File {
      * @throws FileTransferException if an error occurred during the transfer
      */
     private void putObject(InputStream in, long objectLength) throws FileTransferException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         try {
             // Init S3 object
             org.jets3t.service.model.S3Object object = new org.jets3t.service.model.S3Object(getObjectKey(false));
@@ -97,11 +101,14 @@ public class S3Object extends S3File {
             atts.setAttributes(service.putObject(bucketName, object));
             atts.setExists(true);
             atts.updateExpirationDate();
+            failed = false;
         }
         catch(S3ServiceException e) {
             throw new FileTransferException(FileTransferException.UNKNOWN_REASON);
         }
         finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.WRITE, start, failed);
+
             // Close the InputStream, no matter what
             try {
                 in.close();
@@ -144,48 +151,108 @@ public class S3Object extends S3File {
 
     @Override
     public void mkdir() throws IOException {
-        if(exists())
-            throw new IOException();
-
+        long start = FileMetrics.start();
+        boolean failed = true;
         try {
-            atts.setAttributes(service.putObject(bucketName, new org.jets3t.service.model.S3Object(getObjectKey(true))));
-            atts.setExists(true);
-            atts.updateExpirationDate();
+            if(exists())
+                throw new IOException();
+
+            try {
+                atts.setAttributes(service.putObject(bucketName, new org.jets3t.service.model.S3Object(getObjectKey(true))));
+                atts.setExists(true);
+                atts.updateExpirationDate();
+            }
+            catch(S3ServiceException e) {
+                throw getIOException(e);
+            }
+            failed = false;
         }
-        catch(S3ServiceException e) {
-            throw getIOException(e);
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.MKDIR, start, failed);
         }
     }
 
     @Override
     public void delete() throws IOException {
-        // Note: DELETE on a non-existing resource is a successful request, so we need this check
-        if(!exists())
-            throw new IOException();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            // Note: DELETE on a non-existing resource is a successful request, so we need this check
+            if(!exists())
+                throw new IOException();
+
+            try {
+                // Make sure that the directory is empty, abort if not.
+                // Note that we must not count the parent directory (this file).
+                boolean isDirectory = isDirectory();
+                if(isDirectory && service.listObjectsChunked(bucketName, getObjectKey(true), "/", 2, null, false).getObjects().length>1)
+                    throw new IOException("Directory not empty");
+
+                service.deleteObject(bucketName, getObjectKey(isDirectory));
+
+                // Update file attributes locally
+                atts.setExists(false);
+                atts.setDirectory(false);
+                atts.setSize(0);
+            }
+            catch(S3ServiceException e) {
+                throw getIOException(e);
+            }
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.DELETE, start, failed);
+        }
+    }
 
+    /**
+     * Deletes this object and, if it is a directory, all the objects it contains using
+     * {@link #deleteObjects(String, String) bulk requests}.
+     */
+    @Override
+    public void deleteRecursively() throws IOException {
+        if(!isDirectory()) {
+            delete();
+            return;
+        }
+
+        long start = FileMetrics.start();
+        boolean failed = true;
         try {
-            // Make sure that the directory is empty, abort if not.
-            // Note that we must not count the parent directory (this file).
-            boolean isDirectory = isDirectory();
-            if(isDirectory && service.listObjectsChunked(bucketName, getObjectKey(true), "/", 2, null, false).getObjects().length>1)
-                throw new IOException("Directory not empty");
+            // Note: DELETE on a non-existing resource is a successful request, so we need this check
+            if(!exists())
+                throw new IOException();
 
-            service.deleteObject(bucketName, getObjectKey(isDirectory));
+            deleteObjects(bucketName, getObjectKey(true));
 
             // Update file attributes locally
             atts.setExists(false);
             atts.setDirectory(false);
             atts.setSize(0);
+            failed = false;
         }
-        catch(S3ServiceException e) {
-            throw getIOException(e);
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.DELETE, start, failed);
         }
     }
 
+    @Override
+    public boolean canDeleteInBulk() {
+        return true;
+    }
+
     @Override
     public void renameTo(AbstractFile destFile) throws IOException {
-        copyTo(destFile);
-        delete();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            copyTo(destFile);
+            delete();
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.RENAME, start, failed);
+        }
     }
 
     @Override
@@ -228,22 +295,39 @@ public class S3Object extends S3File {
 
     @Override
     public InputStream getInputStream(long offset) throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         try {
             // Note: do *not* use S3ObjectRandomAccessInputStream if the object is to be read sequentially, as it would
             // add unnecessary billing overhead since it reads the object chunk by chunk, each in a separate GET request.
-            return service.getObject(bucketName, getObjectKey(false), null, null, null, null, offset==0?null:offset, null).getDataInputStream();
+            InputStream in = FileMetrics.meter(fileURL.getScheme(),
+                    service.getObject(bucketName, getObjectKey(false), null, null, null, null, offset==0?null:offset, null).getDataInputStream());
+            failed = false;
+            return in;
         }
         catch(S3ServiceException e) {
             throw getIOException(e);
         }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        if(!exists())
-            throw new IOException();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            if(!exists())
+                throw new IOException();
 
-        return new S3ObjectRandomAccessInputStream();
+            RandomAccessInputStream rais = FileMetrics.meter(fileURL.getScheme(), new S3ObjectRandomAccessInputStream());
+            failed = false;
+            return rais;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
@@ -618,10 +702,13 @@ public class S3Object extends S3File {
         }
 
         private void fetchAttributes() throws AuthException {
+            long start = FileMetrics.start();
+            boolean failed = true;
             try {
                 setAttributes(service.getObjectDetails(bucketName, getObjectKey(), null, null, null, null));
                 // Object does not exist on the server
                 setExists(true);
+                failed = false;
             }
             catch(S3ServiceException e) {
                 // Object does not exist on the server, or could not be retrieved
@@ -635,6 +722,9 @@ public class S3Object extends S3File {
 
                 handleAuthException(e, fileURL);
             }
+            finally {
+                FileMetrics.end(fileURL.getScheme(), MeteredOperation.STAT, start, failed);
+            }
         }
 
 
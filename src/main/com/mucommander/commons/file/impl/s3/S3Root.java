@@ -20,6 +20,8 @@
 package com.mucommander.commons.file.impl.s3;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
@@ -82,7 +84,17 @@ public class S3Root extends S3File {
     @Override
     public AbstractFile[] ls() throws IOException {
         try {
-            org.jets3t.service.model.S3Bucket buckets[] = service.listAllBuckets();
+            org.jets3t.service.model.S3Bucket buckets[];
+            long start = FileMetrics.start();
+            boolean failed = true;
+            try {
+                buckets = service.listAllBuckets();
+                failed = false;
+            }
+            finally {
+                FileMetrics.end(fileURL.getScheme(), MeteredOperation.LIST, start, failed);
+            }
+
             int nbBuckets = buckets.length;
 
             AbstractFile bucketFiles[] = new AbstractFile[nbBuckets];
@@ -20,7 +20,7 @@ package com.mucommander.commons.file.impl.sevenzip;
 
 import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.ArchiveFormatProvider;
+import com.mucommander.commons.file.SniffableArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.file.impl.rar.RarArchiveFile;
@@ -33,12 +33,20 @@ import java.io.IOException;
  * @see com.mucommander.commons.file.impl.rar.RarArchiveFile
  * @author Arik Hadas
  */
-public class SevenZipFormatProvider implements ArchiveFormatProvider {
+public class SevenZipFormatProvider implements SniffableArchiveFormatProvider {
 	/** Static instance of the filename filter that matches archive filenames */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(new String[]
         {".7z", ".cb7"}
     );
 
+    /** Offset of the signatures, from the beginning of the file */
+    private final static int SIGNATURE_OFFSET = 0;
+
+    /** Signature of 7z files */
+    private final static byte SIGNATURES[][] = {
+        {'7', 'z', (byte)0xBC, (byte)0xAF, 0x27, 0x1C}
+    };
+
 
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
@@ -51,4 +59,17 @@ public class SevenZipFormatProvider implements ArchiveFormatProvider {
     public FilenameFilter getFilenameFilter() {
         return filenameFilter;
     }
+
+
+    ///////////////////////////////////////////////////
+    // SniffableArchiveFormatProvider implementation //
+    ///////////////////////////////////////////////////
+
+    public int getSignatureOffset() {
+        return SIGNATURE_OFFSET;
+    }
+
+    public byte[][] getSignatures() {
+        return SIGNATURES;
+    }
 }
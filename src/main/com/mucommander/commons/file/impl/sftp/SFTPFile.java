@@ -23,6 +23,8 @@ package com.mucommander.commons.file.impl.sftp;
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.connection.ConnectionHandler;
 import com.mucommander.commons.file.connection.ConnectionPool;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 import com.mucommander.commons.io.*;
 import com.sshtools.j2ssh.io.UnsignedInteger32;
 import com.sshtools.j2ssh.sftp.FileAttributes;
@@ -59,6 +61,7 @@ import java.util.List;
  * @see ConnectionPool
  * @author Maxence Bernard
  */
+@PerformanceHints(latency=LatencyClass.WAN)
 public class SFTPFile extends ProtocolFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(SFTPFile.class);
 
@@ -133,6 +136,19 @@ public class SFTPFile extends ProtocolFile {
     }
 
     private OutputStream getOutputStream(boolean append) throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            OutputStream out = FileMetrics.meter(fileURL.getScheme(), openOutputStream(append));
+            failed = false;
+            return out;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_WRITE, start, failed);
+        }
+    }
+
+    private OutputStream openOutputStream(boolean append) throws IOException {
         // Retrieve a ConnectionHandler and lock it
         final SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(connHandlerFactory, fileURL, true);
         try {
@@ -362,11 +378,22 @@ public class SFTPFile extends ProtocolFile {
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new SFTPRandomAccessInputStream();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            RandomAccessInputStream rais = FileMetrics.meter(fileURL.getScheme(), new SFTPRandomAccessInputStream());
+            failed = false;
+            return rais;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
     public void delete() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         // Retrieve a ConnectionHandler and lock it
         SFTPConnectionHandler connHandler = null;
         try {
@@ -386,17 +413,22 @@ public class SFTPFile extends ProtocolFile {
             fileAttributes.setDirectory(false);
             fileAttributes.setSymlink(false);
             fileAttributes.setSize(0);
+            failed = false;
         }
         finally {
             // Release the lock on the ConnectionHandler if the OutputStream could not be created
             if(connHandler!=null)
                 connHandler.releaseLock();
+
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.DELETE, start, failed);
         }
     }
 
 
     @Override
     public AbstractFile[] ls() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         // Retrieve a ConnectionHandler and lock it
         SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(connHandlerFactory, fileURL, true);
         List<SftpFile> files;
@@ -408,10 +440,12 @@ public class SFTPFile extends ProtocolFile {
 
             // Use SftpClient.ls() rather than SftpChannel.listChildren() as it seems to be working better
             files = connHandler.sftpClient.ls(absPath);
+            failed = false;
         }
         finally {
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.LIST, start, failed);
         }
 
         int nbFiles = files.size();
@@ -424,10 +458,6 @@ public class SFTPFile extends ProtocolFile {
         FileURL childURL;
         String filename;
         int fileCount = 0;
-        String parentPath = fileURL.getPath();
-        if(!parentPath .endsWith(SEPARATOR))
-            parentPath  += SEPARATOR;
-
         // Fill AbstractFile array and discard '.' and '..' files
         for (SftpFile file : files) {
             filename = file.getFilename();
@@ -435,10 +465,9 @@ public class SFTPFile extends ProtocolFile {
             if (filename.equals(".") || filename.equals(".."))
                 continue;
 
-            childURL = (FileURL) fileURL.clone();
-            childURL.setPath(parentPath + filename);
+            childURL = fileURL.getChild(filename);
 
-            children[fileCount++] = FileFactory.getFile(childURL, this, new SFTPFileAttributes(childURL, file.getAttributes()));
+            children[fileCount++] = FileFactory.getChildFile(childURL, this, new SFTPFileAttributes(childURL, file.getAttributes()));
         }
 
         // Create new array of the exact file count
@@ -454,6 +483,8 @@ public class SFTPFile extends ProtocolFile {
 	
     @Override
     public void mkdir() throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         // Retrieve a ConnectionHandler and lock it
         SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(connHandlerFactory, fileURL, true);
         try {
@@ -473,10 +504,12 @@ public class SFTPFile extends ProtocolFile {
             fileAttributes.setDirectory(true);
             fileAttributes.setDate(System.currentTimeMillis());
             fileAttributes.setSize(0);
+            failed = false;
         }
         finally {
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.MKDIR, start, failed);
         }
     }
 
@@ -490,6 +523,8 @@ public class SFTPFile extends ProtocolFile {
         // Fail in situations where SFTPFile#renameTo() does not, for instance when the source and destination are the same.
         checkRenamePrerequisites(destFile, true, false);
 
+        long start = FileMetrics.start();
+        boolean failed = true;
         // Retrieve a ConnectionHandler and lock it
         SFTPConnectionHandler connHandler = null;
         try {
@@ -512,11 +547,14 @@ public class SFTPFile extends ProtocolFile {
             fileAttributes.setExists(false);
             fileAttributes.setDirectory(false);
             fileAttributes.setSize(0);
+            failed = false;
         }
         finally {
             // Release the lock on the ConnectionHandler
             if(connHandler!=null)
                 connHandler.releaseLock();
+
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.RENAME, start, failed);
         }
     }
 
@@ -604,6 +642,19 @@ public class SFTPFile extends ProtocolFile {
 
     @Override
     public InputStream getInputStream(long offset) throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            InputStream in = FileMetrics.meter(fileURL.getScheme(), openInputStream(offset));
+            failed = false;
+            return in;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
+    }
+
+    private SftpFileInputStream openInputStream(long offset) throws IOException {
         // Retrieve a ConnectionHandler and lock it
         final SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(connHandlerFactory, fileURL, true);
         try {
@@ -733,6 +784,8 @@ public class SFTPFile extends ProtocolFile {
         }
 
         private void fetchAttributes() throws AuthException {
+            long start = FileMetrics.start();
+            boolean failed = true;
             SFTPConnectionHandler connHandler = null;
             try {
                 // Retrieve a ConnectionHandler and lock it
@@ -751,6 +804,7 @@ public class SFTPFile extends ProtocolFile {
                 // Todo: try and fix for this in J2SSH
                 setAttributes(connHandler.sftpSubsystem.getAttributes(url.getPath()));
                 setExists(true);
+                failed = false;
             }
             catch(IOException e) {
                 // File doesn't exist on the server
@@ -764,6 +818,8 @@ public class SFTPFile extends ProtocolFile {
                 // Release the lock on the ConnectionHandler
                 if(connHandler!=null)
                     connHandler.releaseLock();
+
+                FileMetrics.end(url.getScheme(), MeteredOperation.STAT, start, failed);
             }
         }
 
@@ -838,7 +894,7 @@ public class SFTPFile extends ProtocolFile {
         private SftpFileInputStream in;
 
         private SFTPRandomAccessInputStream() throws IOException {
-            this.in = (SftpFileInputStream)getInputStream();
+            this.in = openInputStream(0);
         }
 
         @Override
@@ -21,6 +21,8 @@ package com.mucommander.commons.file.impl.smb;
 
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.filter.FilenameFilter;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.file.metrics.MeteredOperation;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 import jcifs.smb.*;
@@ -59,7 +61,8 @@ import java.net.MalformedURLException;
  *
  * @author Maxence Bernard
  */
- public class SMBFile extends ProtocolFile {
+@PerformanceHints(latency=LatencyClass.LAN)
+public class SMBFile extends ProtocolFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(SMBFile.class);
 
     private SmbFile file;
@@ -337,17 +340,44 @@ import java.net.MalformedURLException;
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return new SmbFileInputStream(file);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            InputStream in = FileMetrics.meter(fileURL.getScheme(), new SmbFileInputStream(file));
+            failed = false;
+            return in;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
     public OutputStream getOutputStream() throws IOException {
-        return new SmbFileOutputStream(file, false);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            OutputStream out = FileMetrics.meter(fileURL.getScheme(), new SmbFileOutputStream(file, false));
+            failed = false;
+            return out;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_WRITE, start, failed);
+        }
     }
 
     @Override
     public OutputStream getAppendOutputStream() throws IOException {
-        return new SmbFileOutputStream(file, true);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            OutputStream out = FileMetrics.meter(fileURL.getScheme(), new SmbFileOutputStream(file, true));
+            failed = false;
+            return out;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_WRITE, start, failed);
+        }
     }
 
     @Override
@@ -358,19 +388,45 @@ import java.net.MalformedURLException;
 
 //        // Explicitly allow the file to be read/write/delete by another random access file while this one is open
 //        return new SMBRandomAccessInputStream(new SmbRandomAccessFile(fileURL.toString(true), "r", SmbFile.FILE_SHARE_READ | SmbFile.FILE_SHARE_WRITE | SmbFile.FILE_SHARE_DELETE));
-        return new SMBRandomAccessInputStream(new SmbRandomAccessFile(file, "r"));
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            RandomAccessInputStream rais = FileMetrics.meter(fileURL.getScheme(), new SMBRandomAccessInputStream(new SmbRandomAccessFile(file, "r")));
+            failed = false;
+            return rais;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_READ, start, failed);
+        }
     }
 
     @Override
     public RandomAccessOutputStream getRandomAccessOutputStream() throws IOException {
 //        // Explicitly allow the file to be read/write/delete by another random access file while this one is open
 //        return new SMBRandomAccessOutputStream(new SmbRandomAccessFile(fileURL.toString(true), "rw", SmbFile.FILE_SHARE_READ | SmbFile.FILE_SHARE_WRITE | SmbFile.FILE_SHARE_DELETE));
-        return new SMBRandomAccessOutputStream(new SmbRandomAccessFile(file, "rw"));
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            RandomAccessOutputStream raos = new SMBRandomAccessOutputStream(new SmbRandomAccessFile(file, "rw"));
+            failed = false;
+            return raos;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.OPEN_WRITE, start, failed);
+        }
     }
 
     @Override
     public void delete() throws IOException {
-        file.delete();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            file.delete();
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.DELETE, start, failed);
+        }
         checkSmbFile(false);
     }
 
@@ -386,7 +442,15 @@ import java.net.MalformedURLException;
 
         // Note: unlike java.io.File.mkdir(), SmbFile does not return a boolean value
         // to indicate if the folder could be created
-        file.mkdir();
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            file.mkdir();
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.MKDIR, start, failed);
+        }
     }
 
     @Override
@@ -428,7 +492,15 @@ import java.net.MalformedURLException;
             destFile.delete();
 
         // Rename the file
-        file.renameTo(((SMBFile)destFile).file);
+        long start = FileMetrics.start();
+        boolean failed = true;
+        try {
+            file.renameTo(((SMBFile)destFile).file);
+            failed = false;
+        }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.RENAME, start, failed);
+        }
 
         // Ensure that the destination jcifs.smb.SmbFile's path is consistent with its new directory/non-directory state
         ((SMBFile)destFile).checkSmbFile(isDirectory);
@@ -466,6 +538,8 @@ import java.net.MalformedURLException;
 
     @Override
     public AbstractFile[] ls(FilenameFilter filenameFilter) throws IOException {
+        long start = FileMetrics.start();
+        boolean failed = true;
         try {
             SmbFile smbFiles[] = file.listFiles(filenameFilter==null?null:new SMBFilenameFilter(filenameFilter));
 
@@ -501,14 +575,18 @@ import java.net.MalformedURLException;
                 childURL.setPath(smbFile.getURL().getPath());
 
                 // Use SMBFile private constructor to recycle the SmbFile instance
-                children[currentIndex++] = FileFactory.getFile(childURL, this, smbFile);
+                children[currentIndex++] = FileFactory.getChildFile(childURL, this, smbFile);
             }
 
+            failed = false;
             return children;
         }
         catch(SmbAuthException e) {
             throw new AuthException(fileURL, e.getMessage());
         }
+        finally {
+            FileMetrics.end(fileURL.getScheme(), MeteredOperation.LIST, start, failed);
+        }
     }
 
     @Override
@@ -60,6 +60,11 @@ public class TarArchiveFile extends AbstractROArchiveFile {
     /**
      * Returns a TarInputStream which can be used to read TAR entries.
      *
+     * <p>If the archive is not compressed and the underlying file supports {@link FileOperation#RANDOM_READ_FILE}
+     * {@link com.mucommander.commons.file.FileCapabilities#areRangedReadsCheap() cheaply}, the TarInputStream reads from a {@link com.mucommander.commons.io.RandomAccessInputStream}: it starts reading
+     * straight at the given offset, and seeks over entry bodies instead of reading them when skipping to the next
+     * entry. Listing such an archive thus only reads entry headers, regardless of the size of the entries.</p>
+     *
      * @param entryOffset offset from the start of the archive to an entry. Must be a multiple of recordSize, or
      * <code>0</code> to start at the first entry.
      * @return a TarInputStream which can be used to read TAR entries
@@ -68,17 +73,24 @@ public class TarArchiveFile extends AbstractROArchiveFile {
      * or is not implemented.
      */
     private TarInputStream createTarStream(long entryOffset) throws IOException, UnsupportedFileOperationException {
+        String name = getName();
+        boolean isGzipped = StringUtils.endsWithIgnoreCase(name, "tgz") || StringUtils.endsWithIgnoreCase(name, "tar.gz");
+        boolean isBzipped = StringUtils.endsWithIgnoreCase(name, "tbz2") || StringUtils.endsWithIgnoreCase(name, "tar.bz2");
+
+        // Uncompressed file that can be read randomly
+        if(!isGzipped && !isBzipped && file.getCapabilities().areRangedReadsCheap())
+            return new TarInputStream(file.getRandomAccessInputStream(), entryOffset);
+
         InputStream in = file.getInputStream();
 
-        String name = getName();
             // Gzip-compressed file
-        if(StringUtils.endsWithIgnoreCase(name, "tgz") || StringUtils.endsWithIgnoreCase(name, "tar.gz"))
+        if(isGzipped)
                 // Note: this will fail for gz/tgz entries inside a tar file (IOException: Not in GZIP format),
                 // why is a complete mystery: the gz/tgz entry can be extracted and then properly browsed
             in = new GZIPInputStream(in);
 
         // Bzip2-compressed file
-        else if(StringUtils.endsWithIgnoreCase(name, "tbz2") || StringUtils.endsWithIgnoreCase(name, "tar.bz2")) {
+        else if(isBzipped) {
             try {
                 // Skips the 2 magic bytes 'BZ', as required by CBZip2InputStream. Quoted from CBZip2InputStream's Javadoc:
                 // "Although BZip2 headers are marked with the magic 'Bz'. this constructor expects the next byte in the
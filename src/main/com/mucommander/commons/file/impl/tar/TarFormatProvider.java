@@ -21,7 +21,7 @@ package com.mucommander.commons.file.impl.tar;
 
 import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.ArchiveFormatProvider;
+import com.mucommander.commons.file.SniffableArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 
@@ -33,13 +33,21 @@ import java.io.IOException;
  * @see com.mucommander.commons.file.impl.tar.TarArchiveFile
  * @author Nicolas Rinaudo, Maxence Bernard
  */
-public class TarFormatProvider implements ArchiveFormatProvider {
+public class TarFormatProvider implements SniffableArchiveFormatProvider {
 
     /** Static instance of the filename filter that matches archive filenames */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(new String[]
         {".tar", ".tar.gz", ".tgz", ".tar.bz2", ".tbz2", ".cbt"}
     );
 
+    /** Offset of the signatures, from the beginning of the file */
+    private final static int SIGNATURE_OFFSET = 257;
+
+    /** Signature of POSIX and GNU TAR files, located in the header of the first entry */
+    private final static byte SIGNATURES[][] = {
+        {'u', 's', 't', 'a', 'r'}
+    };
+
 
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
@@ -52,4 +60,17 @@ public class TarFormatProvider implements ArchiveFormatProvider {
     public FilenameFilter getFilenameFilter() {
         return filenameFilter;
     }
+
+
+    ///////////////////////////////////////////////////
+    // SniffableArchiveFormatProvider implementation //
+    ///////////////////////////////////////////////////
+
+    public int getSignatureOffset() {
+        return SIGNATURE_OFFSET;
+    }
+
+    public byte[][] getSignatures() {
+        return SIGNATURES;
+    }
 }
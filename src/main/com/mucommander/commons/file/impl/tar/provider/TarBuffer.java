@@ -20,6 +20,7 @@
 package com.mucommander.commons.file.impl.tar.provider;
 
 import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.RandomAccessInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -60,6 +61,8 @@ public class TarBuffer {
     private int             recordSize;
     private int             recsPerBlock;
     private boolean         debug;
+    /** Offset from the start of the archive to the end of the current block */
+    private long            streamOffset;
 
     /**
      * Constructor for a TarBuffer on an input stream.
@@ -297,6 +300,7 @@ public class TarBuffer {
         }
 
         currBlkIdx++;
+        streamOffset += blockSize;
 
         return true;
     }
@@ -323,10 +327,64 @@ public class TarBuffer {
 
         currBlkIdx++;
         currRecIdx = recsPerBlock;
+        streamOffset += blockSize;
 
         return true;
     }
 
+    /**
+     * Returns <code>true</code> if the input stream is a {@link RandomAccessInputStream}, allowing
+     * {@link #seek(long)} to be used.
+     *
+     * @return true if this buffer can seek within the input stream
+     */
+    public boolean isSeekable() {
+        return inStream instanceof RandomAccessInputStream;
+    }
+
+    /**
+     * Repositions the input stream at the given offset from the start of the archive, without reading anything.
+     * The next record read will be the one located at this offset. This method may only be called if
+     * {@link #isSeekable()} returns <code>true</code>.
+     *
+     * @param offset offset from the start of the archive to a record. Must be a multiple of the record size.
+     * @throws IOException on error
+     */
+    public void seek(long offset) throws IOException {
+        if (debug) {
+            System.err.println("Seek: offset = " + offset);
+        }
+
+        if (!isSeekable()) {
+            throw new IOException("input stream doesn't support random access");
+        }
+
+        ((RandomAccessInputStream)inStream).seek(offset);
+
+        // The next record read will trigger a block read at the new offset
+        streamOffset = offset;
+        currRecIdx = recsPerBlock;
+    }
+
+    /**
+     * Returns the offset from the start of the archive to the end of the current block, that is the offset of the
+     * next byte that will be read from the input stream.
+     *
+     * @return the offset from the start of the archive to the end of the current block
+     */
+    public long getStreamOffset() {
+        return streamOffset;
+    }
+
+    /**
+     * Returns the offset from the start of the archive to the last record that was read or skipped.
+     *
+     * @return the offset from the start of the archive to the last record that was read or skipped
+     */
+    public long getCurrentRecordOffset() {
+        return streamOffset - blockSize + (long)(currRecIdx - 1) * recordSize;
+    }
+
 
     /**
      * Get the current block number, zero based.
@@ -156,4 +156,59 @@ public interface TarConstants {
      * Identifies the *next* file on the tape as having a long name.
      */
     byte LF_GNUTYPE_LONGNAME = (byte) 'L';
+
+    /**
+     * Identifies the *next* file on the tape as having a long link name.
+     */
+    byte LF_GNUTYPE_LONGLINK = (byte) 'K';
+
+    /**
+     * Sparse file type, in the old GNU format.
+     */
+    byte LF_GNUTYPE_SPARSE = (byte) 'S';
+
+    /**
+     * PAX extended header, which applies to the next file on the tape.
+     */
+    byte LF_PAX_EXTENDED_HEADER = (byte) 'x';
+
+    /**
+     * PAX global extended header, which applies to all the following files on the tape.
+     */
+    byte LF_PAX_GLOBAL_EXTENDED_HEADER = (byte) 'g';
+
+    /**
+     * The maximum value of an 8-byte numeric field in octal (that's 7 sevens, octal).
+     */
+    long   MAXID = 07777777L;
+
+    /**
+     * Offset of the sparse map in an old GNU format header.
+     */
+    int    OLDGNU_SPARSE_OFFSET = 386;
+
+    /**
+     * Number of sparse map entries in an old GNU format header.
+     */
+    int    OLDGNU_SPARSE_HEADERS = 4;
+
+    /**
+     * Offset of the 'is extended' flag in an old GNU format header.
+     */
+    int    OLDGNU_ISEXTENDED_OFFSET = 482;
+
+    /**
+     * Offset of the real size of a sparse file in an old GNU format header.
+     */
+    int    OLDGNU_REALSIZE_OFFSET = 483;
+
+    /**
+     * Number of sparse map entries in an old GNU format sparse extension header.
+     */
+    int    OLDGNU_SPARSE_EXTENSION_HEADERS = 21;
+
+    /**
+     * The length of the offset and size fields of a sparse map entry.
+     */
+    int    SPARSELEN = 12;
 }
@@ -19,7 +19,9 @@
 
 package com.mucommander.commons.file.impl.tar.provider;
 
+import java.io.IOException;
 import java.util.Date;
+import java.util.Map;
 
 /**
  * This class represents an entry in a Tar archive. It consists
@@ -68,6 +70,13 @@ import java.util.Date;
  * } header;
  * </pre>
  *
+ * <p>
+ * Values that do not fit in these fields are taken from PAX extended headers ({@link #applyPaxHeaders(Map)}) when
+ * reading, and numeric values may also be stored in base-256 (GNU tar and star extension).
+ * Sparse entries, either in the old GNU format or in the PAX 0.1 and 1.0 formats, have a
+ * {@link #getSparseMap() sparse map} which describes the data regions stored in the archive: {@link #getSize()}
+ * returns the real size of the file, {@link #getDataSize()} the number of bytes actually stored.
+ *
  * <p>-----------------------------------</p>
  * <p>This class is based off the <code>org.apache.tools.tar</code> package of the <i>Apache Ant</i> project. The Ant
  * code has been modified under the terms of the Apache License which you can find in the bundled muCommander license
@@ -91,7 +100,13 @@ public class TarEntry implements TarConstants {
     /** The entry's size. */
     private long size;
 
-    /** The entry's modification time. */
+    /** The number of bytes stored in the archive for this entry, -1 if it is the same as the size */
+    private long dataSize = -1;
+
+    /** Offsets and lengths of the data regions of a sparse entry, null if the entry is not sparse */
+    private long[] sparseMap;
+
+    /** The entry's modification time, in milliseconds. */
     private long modTime;
 
     /** The entry's link flag. */
@@ -169,7 +184,7 @@ public class TarEntry implements TarConstants {
         this.userId = 0;
         this.groupId = 0;
         this.size = 0;
-        this.modTime = (new Date()).getTime() / MILLIS_PER_SECOND;
+        this.modTime = (new Date()).getTime() / MILLIS_PER_SECOND * MILLIS_PER_SECOND;
         this.linkName = new StringBuffer("");
         this.userName = new StringBuffer("");
         this.groupName = new StringBuffer("");
@@ -282,6 +297,15 @@ public class TarEntry implements TarConstants {
         return linkName.toString();
     }
 
+    /**
+     * Set this entry's link name.
+     *
+     * @param linkName This entry's new link name.
+     */
+    public void setLinkName(String linkName) {
+        this.linkName = new StringBuffer(linkName);
+    }
+
     /**
      * Get this entry's user id.
      *
@@ -383,7 +407,7 @@ public class TarEntry implements TarConstants {
      * @param time This entry's new modification time.
      */
     public void setModTime(long time) {
-        modTime = time / MILLIS_PER_SECOND;
+        modTime = time;
     }
 
     /**
@@ -392,7 +416,7 @@ public class TarEntry implements TarConstants {
      * @param time This entry's new modification time.
      */
     public void setModTime(Date time) {
-        modTime = time.getTime() / MILLIS_PER_SECOND;
+        modTime = time.getTime();
     }
 
     /**
@@ -401,7 +425,16 @@ public class TarEntry implements TarConstants {
      * @return time This entry's new modification time.
      */
     public Date getModTime() {
-        return new Date(modTime * MILLIS_PER_SECOND);
+        return new Date(modTime);
+    }
+
+    /**
+     * Returns this entry's modification time in seconds, rounded down.
+     *
+     * @return this entry's modification time in seconds
+     */
+    long getModTimeSeconds() {
+        return modTime >= 0 ? modTime / MILLIS_PER_SECOND : -((-modTime + MILLIS_PER_SECOND - 1) / MILLIS_PER_SECOND);
     }
 
     /**
@@ -414,7 +447,7 @@ public class TarEntry implements TarConstants {
     }
 
     /**
-     * Get this entry's file size.
+     * Get this entry's file size. For sparse entries, this is the real size of the file, holes included.
      *
      * @return This entry's file size.
      */
@@ -422,6 +455,64 @@ public class TarEntry implements TarConstants {
         return size;
     }
 
+    /**
+     * Returns the number of bytes stored in the archive for this entry, which is less than the entry's size for
+     * sparse entries.
+     *
+     * @return the number of bytes stored in the archive for this entry
+     */
+    public long getDataSize() {
+        if (dataSize >= 0) {
+            return dataSize;
+        }
+
+        if (sparseMap == null) {
+            return size;
+        }
+
+        long total = 0;
+        for (int i = 1; i < sparseMap.length; i += 2) {
+            total += sparseMap[i];
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the sparse map of this entry, as an array of <code>offset, length</code> pairs describing the regions
+     * of the file that contain data, in ascending order. The rest of the file is made of holes, which read as zeros.
+     * Returns <code>null</code> if this entry is not sparse.
+     *
+     * @return the sparse map of this entry, null if this entry is not sparse
+     */
+    public long[] getSparseMap() {
+        return sparseMap;
+    }
+
+    /**
+     * Sets the sparse map of this entry, making it a sparse entry. The map is an array of <code>offset, length</code>
+     * pairs describing the regions of the file that contain data, in ascending order.
+     * The entry's {@link #getSize() size} must be set to the real size of the file.
+     * GNU tar pads each region to a record boundary when extracting, so regions should start and end on record
+     * boundaries (except for the last one, which may end at the end of the file) for the archive to be extracted
+     * properly by it.
+     *
+     * @param sparseMap the sparse map of this entry, null to make this entry non-sparse
+     */
+    public void setSparseMap(long[] sparseMap) {
+        this.sparseMap = sparseMap;
+        this.dataSize = -1;
+    }
+
+    /**
+     * Returns <code>true</code> if this entry is sparse.
+     *
+     * @return true if this entry is sparse
+     */
+    public boolean isSparse() {
+        return sparseMap != null;
+    }
+
     /**
      * Set this entry's file size.
      *
@@ -459,6 +550,181 @@ public class TarEntry implements TarConstants {
                            && name.toString().equals(GNU_LONGLINK);
     }
 
+    /**
+     * Indicate if this entry is a GNU long link name block
+     *
+     * @return true if this is a long link name extension provided by GNU tar
+     */
+    public boolean isGNULongLinkEntry() {
+        return linkFlag == LF_GNUTYPE_LONGLINK
+                           && name.toString().equals(GNU_LONGLINK);
+    }
+
+    /**
+     * Indicate if this entry is a sparse file in the old GNU format, whose sparse map is stored in the header and
+     * in the extension headers that follow it.
+     *
+     * @return true if this is a sparse file in the old GNU format
+     */
+    public boolean isOldGNUSparseEntry() {
+        return linkFlag == LF_GNUTYPE_SPARSE;
+    }
+
+    /**
+     * Indicate if this entry is a PAX extended header, either local or global.
+     *
+     * @return true if this is a PAX extended header
+     */
+    public boolean isPaxHeader() {
+        return linkFlag == LF_PAX_EXTENDED_HEADER || linkFlag == LF_PAX_GLOBAL_EXTENDED_HEADER;
+    }
+
+    /**
+     * Indicate if this entry is a PAX global extended header.
+     *
+     * @return true if this is a PAX global extended header
+     */
+    public boolean isGlobalPaxHeader() {
+        return linkFlag == LF_PAX_GLOBAL_EXTENDED_HEADER;
+    }
+
+    /**
+     * Overrides the fields of this entry with the values of the given PAX extended header records. The standard
+     * <code>path</code>, <code>linkpath</code>, <code>size</code>, <code>mtime</code>, <code>uid</code>,
+     * <code>gid</code>, <code>uname</code> and <code>gname</code> keywords are supported, as well as the
+     * <code>GNU.sparse.*</code> keywords of the PAX 0.1 and 1.0 sparse formats. For the 1.0 format, the sparse map
+     * is stored at the beginning of the entry's data: the map is left empty and must be read from the data.
+     * Records with an empty value are ignored.
+     *
+     * @param headers the PAX extended header records
+     * @throws IOException if a numeric value is malformed
+     */
+    public void applyPaxHeaders(Map<String, String> headers) throws IOException {
+        try {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                String key = header.getKey();
+                String value = header.getValue();
+
+                if (value.length() == 0) {
+                    continue;
+                }
+
+                if ("path".equals(key)) {
+                    setName(value);
+                } else if ("linkpath".equals(key)) {
+                    setLinkName(value);
+                } else if ("size".equals(key)) {
+                    size = Long.parseLong(value);
+                } else if ("mtime".equals(key)) {
+                    modTime = (long) (Double.parseDouble(value) * MILLIS_PER_SECOND);
+                } else if ("uid".equals(key)) {
+                    userId = (int) Long.parseLong(value);
+                } else if ("gid".equals(key)) {
+                    groupId = (int) Long.parseLong(value);
+                } else if ("uname".equals(key)) {
+                    setUserName(value);
+                } else if ("gname".equals(key)) {
+                    setGroupName(value);
+                }
+            }
+
+            // Sparse files: the header's size is the number of bytes stored in the archive
+            String realSize = headers.get("GNU.sparse.realsize");
+            if (realSize == null) {
+                realSize = headers.get("GNU.sparse.size");
+            }
+
+            if (realSize != null) {
+                dataSize = size;
+                size = Long.parseLong(realSize);
+
+                String sparseName = headers.get("GNU.sparse.name");
+                if (sparseName != null) {
+                    setName(sparseName);
+                }
+
+                String map = headers.get("GNU.sparse.map");
+                if (map != null) {
+                    String[] values = map.length() == 0 ? new String[0] : map.split(",");
+                    if (values.length % 2 != 0) {
+                        throw new IOException("malformed sparse map: " + map);
+                    }
+
+                    sparseMap = new long[values.length];
+                    for (int i = 0; i < values.length; ++i) {
+                        sparseMap[i] = Long.parseLong(values[i]);
+                    }
+                } else {
+                    sparseMap = new long[0];
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed PAX extended header: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the sparse map of this entry is stored at the beginning of its data, as in the
+     * PAX 1.0 sparse format.
+     *
+     * @param headers the PAX extended header records that were applied to this entry
+     * @return true if the sparse map of this entry is stored at the beginning of its data
+     */
+    public static boolean isSparseMapInData(Map<String, String> headers) {
+        return "1".equals(headers.get("GNU.sparse.major"));
+    }
+
+    /**
+     * Parses the sparse map of an old GNU format sparse entry from its header, and sets the entry's size to the
+     * real size of the file.
+     *
+     * @param header The tar entry header buffer to get information from.
+     * @return true if the sparse map continues in an extension header following the header
+     */
+    public boolean parseOldGNUSparseHeader(byte[] header) {
+        dataSize = size;
+        size = TarUtils.parseOctalOrBinary(header, OLDGNU_REALSIZE_OFFSET, SIZELEN);
+        sparseMap = new long[0];
+
+        return parseSparseEntries(header, OLDGNU_SPARSE_OFFSET, OLDGNU_SPARSE_HEADERS, OLDGNU_ISEXTENDED_OFFSET);
+    }
+
+    /**
+     * Parses the sparse map entries of an old GNU format sparse extension header, and adds them to this entry's
+     * sparse map.
+     *
+     * @param record The extension header.
+     * @return true if the sparse map continues in another extension header
+     */
+    public boolean parseOldGNUSparseExtension(byte[] record) {
+        return parseSparseEntries(record, 0, OLDGNU_SPARSE_EXTENSION_HEADERS,
+                                  OLDGNU_SPARSE_EXTENSION_HEADERS * 2 * SPARSELEN);
+    }
+
+    private boolean parseSparseEntries(byte[] buf, int offset, int nbEntries, int isExtendedOffset) {
+        long[] entries = new long[nbEntries * 2];
+        int nbValues = 0;
+        for (int i = 0; i < nbEntries; ++i) {
+            long regionOffset = TarUtils.parseOctalOrBinary(buf, offset + i * 2 * SPARSELEN, SPARSELEN);
+            long regionLength = TarUtils.parseOctalOrBinary(buf, offset + i * 2 * SPARSELEN + SPARSELEN, SPARSELEN);
+
+            // An empty entry marks the end of the map
+            if (regionOffset == 0 && regionLength == 0) {
+                break;
+            }
+
+            entries[nbValues++] = regionOffset;
+            entries[nbValues++] = regionLength;
+        }
+
+        long[] newMap = new long[sparseMap.length + nbValues];
+        System.arraycopy(sparseMap, 0, newMap, 0, sparseMap.length);
+        System.arraycopy(entries, 0, newMap, sparseMap.length, nbValues);
+        sparseMap = newMap;
+
+        return buf[isExtendedOffset] != 0;
+    }
+
     /**
      * Return whether or not this entry represents a directory.
      *
@@ -478,14 +744,26 @@ public class TarEntry implements TarConstants {
      * @param outbuf The tar entry header buffer to fill in.
      */
     public void writeEntryHeader(byte[] outbuf) {
+        writeEntryHeader(outbuf, name, getDataSize());
+    }
+
+    /**
+     * Write an entry's header information to a header buffer, using the given name and size instead of the entry's.
+     * Numeric values that do not fit in their octal field are written in base-256.
+     *
+     * @param outbuf The tar entry header buffer to fill in.
+     * @param headerName The name to write in the header.
+     * @param headerSize The size to write in the header.
+     */
+    void writeEntryHeader(byte[] outbuf, CharSequence headerName, long headerSize) {
         int offset = 0;
 
-        offset = TarUtils.getNameBytes(name, outbuf, offset, NAMELEN);
+        offset = TarUtils.getNameBytes(new StringBuffer(headerName), outbuf, offset, NAMELEN);
         offset = TarUtils.getOctalBytes(mode, outbuf, offset, MODELEN);
-        offset = TarUtils.getOctalBytes(userId, outbuf, offset, UIDLEN);
-        offset = TarUtils.getOctalBytes(groupId, outbuf, offset, GIDLEN);
-        offset = TarUtils.getLongOctalBytes(size, outbuf, offset, SIZELEN);
-        offset = TarUtils.getLongOctalBytes(modTime, outbuf, offset, MODTIMELEN);
+        offset = TarUtils.getOctalOrBinaryBytes(userId, outbuf, offset, UIDLEN);
+        offset = TarUtils.getOctalOrBinaryBytes(groupId, outbuf, offset, GIDLEN);
+        offset = TarUtils.getLongOctalOrBinaryBytes(headerSize, outbuf, offset, SIZELEN);
+        offset = TarUtils.getLongOctalOrBinaryBytes(getModTimeSeconds(), outbuf, offset, MODTIMELEN);
 
         int csOffset = offset;
 
@@ -522,13 +800,13 @@ public class TarEntry implements TarConstants {
         offset += NAMELEN;
         mode = (int) TarUtils.parseOctal(header, offset, MODELEN);
         offset += MODELEN;
-        userId = (int) TarUtils.parseOctal(header, offset, UIDLEN);
+        userId = (int) TarUtils.parseOctalOrBinary(header, offset, UIDLEN);
         offset += UIDLEN;
-        groupId = (int) TarUtils.parseOctal(header, offset, GIDLEN);
+        groupId = (int) TarUtils.parseOctalOrBinary(header, offset, GIDLEN);
         offset += GIDLEN;
-        size = TarUtils.parseOctal(header, offset, SIZELEN);
+        size = TarUtils.parseOctalOrBinary(header, offset, SIZELEN);
         offset += SIZELEN;
-        modTime = TarUtils.parseOctal(header, offset, MODTIMELEN);
+        modTime = TarUtils.parseOctalOrBinary(header, offset, MODTIMELEN) * MILLIS_PER_SECOND;
         offset += MODTIMELEN;
         offset += CHKSUMLEN;
         linkFlag = header[offset++];
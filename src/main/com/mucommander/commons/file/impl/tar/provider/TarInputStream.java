@@ -24,6 +24,9 @@ import com.mucommander.commons.io.BufferPool;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The TarInputStream reads a UNIX tar archive as an InputStream.
@@ -39,21 +42,35 @@ import java.io.InputStream;
  * @author Apache Ant, Maxence Bernard
  */
 public class TarInputStream extends InputStream {
-    private static final int NAME_BUFFER_SIZE = 256;
     private static final int BYTE_MASK = 0xFF;
 
+    /** Initial capacity of the buffers holding header data, which grow as data is read */
+    private static final int INITIAL_HEADER_BUFFER_SIZE = 8192;
+
     protected boolean debug;
     protected boolean hasHitEOF;
     protected long entrySize;
     protected long entryOffset;
     protected byte[] recordBuf;
-    protected byte[] nameBuf;
     protected int recordBufPos;
     protected int recordBufLeft;
     protected TarBuffer buffer;
     protected TarEntry currEntry;
     protected boolean closed;
 
+    /** Offset from the start of the archive to the current entry's data */
+    protected long dataOffset;
+
+    /** Sparse map of the current entry, null if the current entry is not sparse */
+    protected long[] sparseMap;
+    /** Index in the sparse map of the region that contains or follows the current position */
+    protected int sparseIndex;
+    /** Current position in the expanded data of a sparse entry */
+    protected long sparsePos;
+
+    /** Records of the PAX global extended headers read so far */
+    protected Map<String, String> globalPaxHeaders = new HashMap<String, String>();
+
     /**
      * This contents of this array is not used at all in this class,
      * it is only here to avoid repreated object creation during calls
@@ -91,6 +108,10 @@ public class TarInputStream extends InputStream {
      * Creates a new <code>TarInputStream</code> over the specified input stream, using the specified
      * block size, record size and start offset.
      *
+     * <p>If the input stream is a {@link com.mucommander.commons.io.RandomAccessInputStream}, the stream is
+     * positioned at the start offset and entry bodies are skipped by seeking over them, so that iterating through
+     * the entries only reads their headers.</p>
+     *
      * @param is the input stream to use
      * @param blockSize the block size to use
      * @param recordSize the record size to use
@@ -101,7 +122,6 @@ public class TarInputStream extends InputStream {
     public TarInputStream(InputStream is, int blockSize, int recordSize, long entryOffset) throws IOException {
         this.buffer = new TarBuffer(is, blockSize, recordSize);
         this.recordBuf = BufferPool.getByteArray(buffer.getRecordSize());
-        this.nameBuf = BufferPool.getByteArray(NAME_BUFFER_SIZE);
         this.oneBuf = BufferPool.getByteArray(1);
         this.debug = false;
         this.hasHitEOF = false;
@@ -110,7 +130,10 @@ public class TarInputStream extends InputStream {
             if((entryOffset%recordSize)!=0)
                 throw new IllegalArgumentException("entryOffset ("+entryOffset+") is not a multiple of recordSize ("+recordSize+")");
 
-            skipBytes(entryOffset);
+            if(buffer.isSeekable())
+                buffer.seek(entryOffset);
+            else
+                skipBytes(entryOffset);
         }
 
     }
@@ -137,7 +160,6 @@ public class TarInputStream extends InputStream {
             }
             finally {
                 BufferPool.releaseByteArray(recordBuf);
-                BufferPool.releaseByteArray(nameBuf);
                 BufferPool.releaseByteArray(oneBuf);
 
                 closed = true;
@@ -168,6 +190,10 @@ public class TarInputStream extends InputStream {
      */
     @Override
     public int available() throws IOException {
+        if (sparseMap != null) {
+            return (int) Math.min(Integer.MAX_VALUE, currEntry.getSize() - sparsePos);
+        }
+
         if (entrySize - entryOffset > Integer.MAX_VALUE) {
             return Integer.MAX_VALUE;
         }
@@ -237,6 +263,11 @@ public class TarInputStream extends InputStream {
      * be returned to indicate that the end of the archive has
      * been reached.
      *
+     * <p>GNU long name and long link name blocks, and PAX extended headers are applied to the entry they precede.
+     * The offset of the returned entry is that of the first of those blocks, so that the entry can be read again
+     * by starting at this offset. Sparse entries in the old GNU and PAX 0.1/1.0 formats are expanded when read:
+     * holes read as zeros.</p>
+     *
      * @return The next TarEntry in the archive, or null.
      * @throws IOException on error
      */
@@ -245,44 +276,41 @@ public class TarInputStream extends InputStream {
             return null;
         }
 
-        if (currEntry != null) {
-            long numToSkip = entrySize - entryOffset;
+        long headerOffset = -1;
+        String longName = null;
+        String longLinkName = null;
+        Map<String, String> paxHeaders = null;
 
-            if (debug) {
-                System.err.println("TarInputStream: SKIP currENTRY '"
-                        + currEntry.getName() + "' SZ "
-                        + entrySize + " OFF "
-                        + entryOffset + "  skipping "
-                        + numToSkip + " bytes");
-            }
+        while (true) {
+            skipToNextHeader();
 
-            if (numToSkip > 0) {
-                skipBytes(numToSkip);
+            // Read the header record
+            if (!readRecord()) {
+                if (debug) {
+                    System.err.println("READ NULL RECORD");
+                }
+                hasHitEOF = true;
+            } else if (buffer.isEOFRecord(recordBuf)) {
+                if (debug) {
+                    System.err.println("READ EOF RECORD");
+                }
+                hasHitEOF = true;
             }
-        }
 
-        // Read the header record
-        if (!readRecord()) {
-            if (debug) {
-                System.err.println("READ NULL RECORD");
-            }
-            hasHitEOF = true;
-        } else if (buffer.isEOFRecord(recordBuf)) {
-            if (debug) {
-                System.err.println("READ EOF RECORD");
+            if (hasHitEOF) {
+                currEntry = null;
+                sparseMap = null;
+                return null;
             }
-            hasHitEOF = true;
-        }
 
-        if (hasHitEOF) {
-            currEntry = null;
-        } else {
             currEntry = new TarEntry(recordBuf);
+            sparseMap = null;
 
-            // Offset of the current entry from the start of the archive,
-            // allows to reposition the stream at the start of the entry
-            currEntry.setOffset(buffer.getCurrentBlockNum()*buffer.getBlockSize()
-                               + buffer.getCurrentRecordNum()*buffer.getRecordSize());
+            // Offset of the current header from the start of the archive
+            long recordOffset = buffer.getCurrentRecordOffset();
+            if (headerOffset < 0) {
+                headerOffset = recordOffset;
+            }
 
             if (debug) {
                 System.err.println("TarInputStream: SET CURRENTRY '"
@@ -294,36 +322,229 @@ public class TarInputStream extends InputStream {
             // Update the current entry offset and size
             entryOffset = 0;
             entrySize = currEntry.getSize();
+            dataOffset = recordOffset + buffer.getRecordSize();
 
             // Consume the rest of the record
             recordBufPos = 0;
             recordBufLeft = 0;
-        }
 
-        if (currEntry != null && currEntry.isGNULongNameEntry()) {
-            // read in the name
-            StringBuffer longName = new StringBuffer();
-            int length;
-            while ((length = read(nameBuf)) >= 0) {
-                longName.append(new String(nameBuf, 0, length));
+            if (currEntry.isGNULongNameEntry()) {
+                longName = readEntryString();
+            } else if (currEntry.isGNULongLinkEntry()) {
+                longLinkName = readEntryString();
+            } else if (currEntry.isGlobalPaxHeader()) {
+                byte[] data = readEntryData();
+                globalPaxHeaders.putAll(TarUtils.parsePaxHeaders(data, data.length));
+            } else if (currEntry.isPaxHeader()) {
+                byte[] data = readEntryData();
+                paxHeaders = TarUtils.parsePaxHeaders(data, data.length);
+            } else {
+                break;
             }
-            getNextEntry();
-            if (currEntry == null) {
-                // Bugzilla: 40334
-                // Malformed tar file - long entry name not followed by entry
-                return null;
+        }
+
+        if (!globalPaxHeaders.isEmpty()) {
+            currEntry.applyPaxHeaders(globalPaxHeaders);
+        }
+
+        if (paxHeaders != null) {
+            currEntry.applyPaxHeaders(paxHeaders);
+        }
+
+        if (longName != null) {
+            currEntry.setName(longName);
+        }
+
+        if (longLinkName != null) {
+            currEntry.setLinkName(longLinkName);
+        }
+
+        // The entry can be read again by starting at its first header
+        currEntry.setOffset(headerOffset);
+
+        if (currEntry.isOldGNUSparseEntry()) {
+            // The sparse map continues in extension records that precede the data
+            boolean isExtended = currEntry.parseOldGNUSparseHeader(recordBuf);
+            while (isExtended) {
+                if (!readRecord()) {
+                    throw new EOFException("unexpected EOF in sparse map");
+                }
+
+                isExtended = currEntry.parseOldGNUSparseExtension(recordBuf);
+                dataOffset += buffer.getRecordSize();
+                recordBufPos = 0;
+                recordBufLeft = 0;
             }
-            // remove trailing null terminator
-            if (longName.length() > 0
-                && longName.charAt(longName.length() - 1) == 0) {
-                longName.deleteCharAt(longName.length() - 1);
+        }
+
+        entrySize = currEntry.getDataSize();
+
+        if (currEntry.isSparse()) {
+            if (paxHeaders != null && TarEntry.isSparseMapInData(paxHeaders)) {
+                currEntry.setSparseMap(readDataSparseMap());
             }
-            currEntry.setName(longName.toString());
+
+            sparseMap = currEntry.getSparseMap();
+            sparseIndex = 0;
+            sparsePos = 0;
         }
 
         return currEntry;
     }
 
+    /**
+     * Skips the remaining data of the current entry, if any, so that the next record read is the next header.
+     *
+     * @throws IOException on error
+     */
+    private void skipToNextHeader() throws IOException {
+        if (currEntry == null) {
+            return;
+        }
+
+        long numToSkip = entrySize - entryOffset;
+
+        if (debug) {
+            System.err.println("TarInputStream: SKIP currENTRY '"
+                    + currEntry.getName() + "' SZ "
+                    + entrySize + " OFF "
+                    + entryOffset + "  skipping "
+                    + numToSkip + " bytes");
+        }
+
+        if (numToSkip > 0) {
+            // The next header is located after the entry's data, padded to the record size
+            long nextHeaderOffset = dataOffset
+                    + (entrySize + buffer.getRecordSize() - 1) / buffer.getRecordSize() * buffer.getRecordSize();
+
+            if (buffer.isSeekable() && nextHeaderOffset >= buffer.getStreamOffset()) {
+                // The next header is not in the current block: seek to it rather than read the entry's data
+                buffer.seek(nextHeaderOffset);
+
+                recordBufPos = 0;
+                recordBufLeft = 0;
+                entryOffset = entrySize;
+            }
+            else {
+                skipBytes(numToSkip);
+            }
+        }
+    }
+
+    /**
+     * Reads the whole data of the current entry. The returned array grows as data is read rather than being allocated
+     * from the size in the header, so that a corrupt header cannot make this method allocate more memory than the
+     * archive holds: the size is checked against the data that is actually there.
+     *
+     * @return the data of the current entry
+     * @throws IOException on error, or if the entry has less data than its header says
+     */
+    private byte[] readEntryData() throws IOException {
+        if (entrySize > Integer.MAX_VALUE) {
+            throw new IOException("entry '" + currEntry.getName() + "' is too large: " + entrySize);
+        }
+
+        int size = (int) entrySize;
+        byte[] data = new byte[Math.min(size, INITIAL_HEADER_BUFFER_SIZE)];
+        int off = 0;
+        while (off < size) {
+            if (off == data.length) {
+                data = Arrays.copyOf(data, (int) Math.min(size, 2L * data.length));
+            }
+
+            int nbRead = readData(data, off, data.length - off);
+            if (nbRead == -1) {
+                throw new EOFException("unexpected EOF in entry '" + currEntry.getName() + "': "
+                        + off + " bytes read out of " + size);
+            }
+
+            off += nbRead;
+        }
+
+        return data;
+    }
+
+    /**
+     * Reads the whole data of the current entry as a name, stripping the trailing null terminator.
+     *
+     * @return the data of the current entry as a name
+     * @throws IOException on error
+     */
+    private String readEntryString() throws IOException {
+        byte[] data = readEntryData();
+        int length = data.length;
+        while (length > 0 && data[length - 1] == 0) {
+            --length;
+        }
+
+        return new String(data, 0, length);
+    }
+
+    /**
+     * Reads a sparse map in the PAX 1.0 format from the start of the current entry's data: the number of regions
+     * followed by the offset and length of each region, as decimal numbers terminated by a newline, padded to the
+     * record size.
+     *
+     * @return the sparse map
+     * @throws IOException on error
+     */
+    private long[] readDataSparseMap() throws IOException {
+        long nbRegions = readDecimalLine();
+        // Each region takes at least 4 bytes of data: two single-digit numbers, each followed by a newline
+        if (nbRegions < 0 || nbRegions > Integer.MAX_VALUE / 2 || nbRegions > (entrySize - entryOffset) / 4) {
+            throw new IOException("malformed sparse map for entry '" + currEntry.getName() + "': " + nbRegions
+                    + " regions do not fit in " + (entrySize - entryOffset) + " bytes");
+        }
+
+        // The map grows as regions are read, the entry size in the header may be corrupt as well
+        int length = (int) nbRegions * 2;
+        long[] map = new long[Math.min(length, INITIAL_HEADER_BUFFER_SIZE)];
+        for (int i = 0; i < length; ++i) {
+            if (i == map.length) {
+                map = Arrays.copyOf(map, (int) Math.min(length, 2L * map.length));
+            }
+
+            map[i] = readDecimalLine();
+        }
+
+        // Skip the padding that follows the map
+        int recordSize = buffer.getRecordSize();
+        long padding = (recordSize - entryOffset % recordSize) % recordSize;
+        if (padding > 0) {
+            skipBytes(padding);
+        }
+
+        return map;
+    }
+
+    /**
+     * Reads a decimal number terminated by a newline from the current entry's data.
+     *
+     * @return the number
+     * @throws IOException on error
+     */
+    private long readDecimalLine() throws IOException {
+        long value = 0;
+        int nbDigits = 0;
+        while (true) {
+            if (readData(oneBuf, 0, 1) == -1) {
+                throw new EOFException("unexpected EOF in sparse map");
+            }
+
+            if (oneBuf[0] == '\n') {
+                break;
+            }
+
+            if (oneBuf[0] < '0' || oneBuf[0] > '9' || ++nbDigits > 18) {
+                throw new IOException("malformed sparse map for entry '" + currEntry.getName() + "'");
+            }
+
+            value = value * 10 + (oneBuf[0] - '0');
+        }
+
+        return value;
+    }
+
     /**
      * Reads a byte from the current tar archive entry.
      *
@@ -345,7 +566,8 @@ public class TarInputStream extends InputStream {
      *
      * This method is aware of the boundaries of the current
      * entry in the archive and will deal with them as if they
-     * were this stream's start and EOF.
+     * were this stream's start and EOF. The holes of sparse
+     * entries are read as zeros.
      *
      * @param buf The buffer into which to place bytes read.
      * @param offset The offset at which to place bytes read.
@@ -355,6 +577,53 @@ public class TarInputStream extends InputStream {
      */
     @Override
     public int read(byte[] buf, int offset, int numToRead) throws IOException {
+        if (sparseMap == null) {
+            return readData(buf, offset, numToRead);
+        }
+
+        long realSize = currEntry.getSize();
+        if (sparsePos >= realSize) {
+            return -1;
+        }
+
+        if (numToRead > realSize - sparsePos) {
+            numToRead = (int) (realSize - sparsePos);
+        }
+
+        // Move on to the region that ends after the current position
+        while (sparseIndex < sparseMap.length && sparseMap[sparseIndex] + sparseMap[sparseIndex + 1] <= sparsePos) {
+            sparseIndex += 2;
+        }
+
+        int nbRead;
+        if (sparseIndex >= sparseMap.length || sparsePos < sparseMap[sparseIndex]) {
+            // In a hole
+            long holeEnd = sparseIndex < sparseMap.length ? sparseMap[sparseIndex] : realSize;
+            nbRead = (int) Math.min(numToRead, holeEnd - sparsePos);
+            Arrays.fill(buf, offset, offset + nbRead, (byte) 0);
+        } else {
+            long regionEnd = sparseMap[sparseIndex] + sparseMap[sparseIndex + 1];
+            nbRead = readData(buf, offset, (int) Math.min(numToRead, regionEnd - sparsePos));
+            if (nbRead == -1) {
+                throw new EOFException("unexpected EOF in sparse entry '" + currEntry.getName() + "'");
+            }
+        }
+
+        sparsePos += nbRead;
+
+        return nbRead;
+    }
+
+    /**
+     * Reads bytes from the data of the current tar archive entry, as stored in the archive.
+     *
+     * @param buf The buffer into which to place bytes read.
+     * @param offset The offset at which to place bytes read.
+     * @param numToRead The number of bytes to read.
+     * @return The number of bytes read, or -1 at EOF.
+     * @throws IOException on error
+     */
+    private int readData(byte[] buf, int offset, int numToRead) throws IOException {
         int totalRead = 0;
 
         // Have we already reached the end of file/entry ?
@@ -408,6 +677,27 @@ public class TarInputStream extends InputStream {
      */
     @Override
     public long skip(long numToSkip) throws IOException {
+        if (sparseMap != null) {
+            // Holes are not stored, read through the entry to keep track of the position
+            long totalSkipped = 0;
+            byte[] skipBuf = BufferPool.getByteArray(buffer.getRecordSize());
+            try {
+                while (totalSkipped < numToSkip) {
+                    int nbRead = read(skipBuf, 0, (int) Math.min(skipBuf.length, numToSkip - totalSkipped));
+                    if (nbRead == -1) {
+                        break;
+                    }
+
+                    totalSkipped += nbRead;
+                }
+            }
+            finally {
+                BufferPool.releaseByteArray(skipBuf);
+            }
+
+            return totalSkipped;
+        }
+
         // Have we already reached the end of file/entry ?
         if (entryOffset >= entrySize) {
             return -1;
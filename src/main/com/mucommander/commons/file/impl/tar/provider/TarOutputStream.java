@@ -24,12 +24,21 @@ import com.mucommander.commons.io.BufferPool;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * The TarOutputStream writes a UNIX tar archive as an OutputStream.
  * Methods are provided to put entries, and then write their contents
  * by writing to this stream using write().
  *
+ * <p>Numeric values that do not fit in the ustar header (e.g. sizes of 8 GB and more) are written in base-256,
+ * unless {@link #LONGFILE_POSIX} is used, in which case they are stored in PAX extended headers along with long and
+ * non-ASCII names, sub-second modification times, and large user and group ids.
+ * Sparse entries (see {@link TarEntry#setSparseMap(long[])}) are written in the PAX 1.0 sparse format: only their data
+ * regions are stored. Their contents are written in full, holes included, and the bytes of the holes are skipped.</p>
+ *
  * <p>-----------------------------------</p>
  * <p>This class is based off the <code>org.apache.tools.tar</code> package of the <i>Apache Ant</i> project. The Ant
  * code has been modified under the terms of the Apache License which you can find in the bundled muCommander license
@@ -47,6 +56,15 @@ public class TarOutputStream extends FilterOutputStream {
     /** GNU tar extensions are used to store long file names in the archive. */
     public static final int LONGFILE_GNU = 2;
 
+    /** POSIX.1-2001 (PAX) extended headers are used to store long file names and other values in the archive. */
+    public static final int LONGFILE_POSIX = 3;
+
+    /** Prefix of the name of the PAX extended header of an entry, before the entry's name */
+    private static final String PAX_HEADER_DIR = "PaxHeaders.0/";
+
+    /** Prefix of the name of the ustar header of a sparse entry, before the entry's name */
+    private static final String SPARSE_HEADER_DIR = "GNUSparseFile.0/";
+
     protected boolean   debug;
     protected long      currSize;
     protected String    currName;
@@ -57,6 +75,10 @@ public class TarOutputStream extends FilterOutputStream {
     protected byte[]    assemBuf;
     protected TarBuffer buffer;
     protected int       longFileMode = LONGFILE_ERROR;
+    protected long[]    sparseMap;
+    protected int       sparseIndex;
+    protected long      sparsePos;
+    protected long      sparseSize;
 
     private boolean closed = false;
 
@@ -96,7 +118,7 @@ public class TarOutputStream extends FilterOutputStream {
 
     /**
      * Set the long file mode.
-     * This can be LONGFILE_ERROR(0), LONGFILE_TRUNCATE(1) or LONGFILE_GNU(2).
+     * This can be LONGFILE_ERROR(0), LONGFILE_TRUNCATE(1), LONGFILE_GNU(2) or LONGFILE_POSIX(3).
      * This specifies the treatment of long file names (names >= TarConstants.NAMELEN).
      * Default is LONGFILE_ERROR.
      * @param longFileMode the mode to use
@@ -182,9 +204,23 @@ public class TarOutputStream extends FilterOutputStream {
      * @throws IOException on error
      */
     public void putNextEntry(TarEntry entry) throws IOException {
-        if (entry.getName().length() >= TarConstants.NAMELEN) {
-
-            if (longFileMode == LONGFILE_GNU) {
+        Map<String, String> paxHeaders = new LinkedHashMap<String, String>();
+        String name = entry.getName();
+        String headerName = name;
+
+        if (entry.isSparse()) {
+            // The real name and size are stored in the extended header, the ustar header carries a placeholder name
+            paxHeaders.put("GNU.sparse.major", "1");
+            paxHeaders.put("GNU.sparse.minor", "0");
+            paxHeaders.put("GNU.sparse.name", name);
+            paxHeaders.put("GNU.sparse.realsize", Long.toString(entry.getSize()));
+            headerName = getSubstituteName(name, SPARSE_HEADER_DIR);
+        } else if (name.length() >= TarConstants.NAMELEN
+                   || (longFileMode == LONGFILE_POSIX && !isAscii(name))) {
+
+            if (longFileMode == LONGFILE_POSIX) {
+                paxHeaders.put("path", name);
+            } else if (longFileMode == LONGFILE_GNU) {
                 // create a TarEntry for the LongLink, the contents
                 // of which are the entry's name
                 TarEntry longLinkEntry = new TarEntry(TarConstants.GNU_LONGLINK,
@@ -202,7 +238,19 @@ public class TarOutputStream extends FilterOutputStream {
             }
         }
 
-        entry.writeEntryHeader(recordBuf);
+        // Sparse entries start with their sparse map
+        byte[] sparseMapData = entry.isSparse() ? formatSparseMap(entry.getSparseMap(), entry.getSize()) : null;
+        long dataSize = entry.getDataSize() + (sparseMapData == null ? 0 : sparseMapData.length);
+
+        if (longFileMode == LONGFILE_POSIX) {
+            addPosixHeaders(entry, dataSize, paxHeaders);
+        }
+
+        if (!paxHeaders.isEmpty()) {
+            writePaxHeaders(name, paxHeaders);
+        }
+
+        entry.writeEntryHeader(recordBuf, headerName, dataSize);
         buffer.writeRecord(recordBuf);
 
         currBytes = 0;
@@ -210,9 +258,150 @@ public class TarOutputStream extends FilterOutputStream {
         if (entry.isDirectory()) {
             currSize = 0;
         } else {
-            currSize = entry.getSize();
+            currSize = dataSize;
+        }
+        currName = name;
+
+        if (sparseMapData != null && currSize > 0) {
+            writeData(sparseMapData, 0, sparseMapData.length);
+
+            sparseMap = entry.getSparseMap();
+            sparseIndex = 0;
+            sparsePos = 0;
+            sparseSize = entry.getSize();
+        }
+    }
+
+    /**
+     * Adds the PAX extended header records required to store the values of the given entry that do not fit in
+     * the ustar header, or that would lose precision.
+     *
+     * @param entry the entry
+     * @param dataSize the number of bytes that will be stored for the entry
+     * @param paxHeaders the records to add to
+     */
+    private void addPosixHeaders(TarEntry entry, long dataSize, Map<String, String> paxHeaders) {
+        String linkName = entry.getLinkName();
+        if (linkName.length() >= TarConstants.NAMELEN || !isAscii(linkName)) {
+            paxHeaders.put("linkpath", linkName);
+        }
+
+        if (dataSize > TarConstants.MAXSIZE) {
+            paxHeaders.put("size", Long.toString(dataSize));
+        }
+
+        long modTime = entry.getModTime().getTime();
+        long modTimeSeconds = entry.getModTimeSeconds();
+        if (modTime % TarEntry.MILLIS_PER_SECOND != 0 || modTimeSeconds < 0 || modTimeSeconds > TarConstants.MAXSIZE) {
+            paxHeaders.put("mtime", BigDecimal.valueOf(modTime, 3).toPlainString());
+        }
+
+        if (entry.getUserId() < 0 || entry.getUserId() > TarConstants.MAXID) {
+            paxHeaders.put("uid", Long.toString(entry.getUserId() & 0xFFFFFFFFL));
+        }
+
+        if (entry.getGroupId() < 0 || entry.getGroupId() > TarConstants.MAXID) {
+            paxHeaders.put("gid", Long.toString(entry.getGroupId() & 0xFFFFFFFFL));
+        }
+
+        if (entry.getUserName().length() > TarEntry.MAX_NAMELEN || !isAscii(entry.getUserName())) {
+            paxHeaders.put("uname", entry.getUserName());
+        }
+
+        if (entry.getGroupName().length() > TarEntry.MAX_NAMELEN || !isAscii(entry.getGroupName())) {
+            paxHeaders.put("gname", entry.getGroupName());
+        }
+    }
+
+    /**
+     * Writes a PAX extended header containing the given records, for the entry with the given name.
+     *
+     * @param name the name of the entry the extended header applies to
+     * @param paxHeaders the records to write
+     * @throws IOException on error
+     */
+    private void writePaxHeaders(String name, Map<String, String> paxHeaders) throws IOException {
+        byte[] data = TarUtils.formatPaxHeaders(paxHeaders);
+
+        TarEntry paxEntry = new TarEntry(getSubstituteName(name, PAX_HEADER_DIR), TarConstants.LF_PAX_EXTENDED_HEADER);
+        paxEntry.setSize(data.length);
+        paxEntry.writeEntryHeader(recordBuf);
+        buffer.writeRecord(recordBuf);
+
+        currBytes = 0;
+        currSize = data.length;
+        currName = paxEntry.getName();
+
+        writeData(data, 0, data.length);
+        closeEntry();
+    }
+
+    /**
+     * Returns the name to write in a ustar header in place of the given entry name, made of the entry's parent
+     * directory, the given subdirectory and the entry's filename, truncated to fit in the header.
+     *
+     * @param name the entry's name
+     * @param subdirectory the subdirectory to insert
+     * @return the substitute name
+     */
+    private static String getSubstituteName(String name, String subdirectory) {
+        String trimmedName = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        int slashPos = trimmedName.lastIndexOf('/');
+
+        String substituteName = trimmedName.substring(0, slashPos + 1) + subdirectory + trimmedName.substring(slashPos + 1);
+        if (!isAscii(substituteName)) {
+            substituteName = subdirectory + "entry";
         }
-        currName = entry.getName();
+
+        return substituteName.length() < TarConstants.NAMELEN
+            ? substituteName
+            : substituteName.substring(0, TarConstants.NAMELEN - 1);
+    }
+
+    /**
+     * Formats the given sparse map as in the PAX 1.0 sparse format: the number of regions followed by the offset and
+     * length of each region, as decimal numbers terminated by a newline, padded to the record size.
+     *
+     * @param map the sparse map to format
+     * @param realSize the size of the file once expanded
+     * @return the formatted sparse map
+     */
+    private byte[] formatSparseMap(long[] map, long realSize) {
+        // GNU tar expects the map to end with an empty region located at the end of the file
+        boolean terminated = map.length > 0 && map[map.length - 1] == 0 && map[map.length - 2] == realSize;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(map.length / 2 + (terminated ? 0 : 1)).append('\n');
+        for (long value : map) {
+            sb.append(value).append('\n');
+        }
+        if (!terminated) {
+            sb.append(realSize).append("\n0\n");
+        }
+
+        int recordSize = getRecordSize();
+        byte[] data = new byte[(sb.length() + recordSize - 1) / recordSize * recordSize];
+        for (int i = 0; i < sb.length(); ++i) {
+            data[i] = (byte) sb.charAt(i);
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns <code>true</code> if the given string only contains ASCII characters.
+     *
+     * @param s the string to test
+     * @return true if the given string only contains ASCII characters
+     */
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) > 127) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     /**
@@ -237,6 +426,8 @@ public class TarOutputStream extends FilterOutputStream {
             assemLen = 0;
         }
 
+        sparseMap = null;
+
         if (currBytes < currSize) {
             throw new IOException("entry '" + currName + "' closed at '"
                                   + currBytes
@@ -277,7 +468,54 @@ public class TarOutputStream extends FilterOutputStream {
      * Writes bytes to the current tar archive entry. This method
      * is aware of the current entry and will throw an exception if
      * you attempt to write bytes past the length specified for the
-     * current entry. The method is also (painfully) aware of the
+     * current entry. For sparse entries, the whole contents of the
+     * file must be written, and the bytes located in holes are
+     * skipped.
+     *
+     * @param wBuf The buffer to write to the archive.
+     * @param wOffset The offset in the buffer from which to get bytes.
+     * @param numToWrite The number of bytes to write.
+     * @throws IOException on error
+     */
+    @Override
+    public void write(byte[] wBuf, int wOffset, int numToWrite) throws IOException {
+        if (sparseMap == null) {
+            writeData(wBuf, wOffset, numToWrite);
+            return;
+        }
+
+        if (sparsePos + numToWrite > sparseSize) {
+            throw new IOException("request to write '" + numToWrite
+                                  + "' bytes exceeds size in header of '"
+                                  + sparseSize + "' bytes for entry '"
+                                  + currName + "'");
+        }
+
+        while (numToWrite > 0) {
+            // Move on to the region that ends after the current position
+            while (sparseIndex < sparseMap.length && sparseMap[sparseIndex] + sparseMap[sparseIndex + 1] <= sparsePos) {
+                sparseIndex += 2;
+            }
+
+            int num;
+            if (sparseIndex >= sparseMap.length || sparsePos < sparseMap[sparseIndex]) {
+                // In a hole: skip the bytes
+                long holeEnd = sparseIndex < sparseMap.length ? sparseMap[sparseIndex] : sparseSize;
+                num = (int) Math.min(numToWrite, holeEnd - sparsePos);
+            } else {
+                num = (int) Math.min(numToWrite, sparseMap[sparseIndex] + sparseMap[sparseIndex + 1] - sparsePos);
+                writeData(wBuf, wOffset, num);
+            }
+
+            sparsePos += num;
+            wOffset += num;
+            numToWrite -= num;
+        }
+    }
+
+    /**
+     * Writes bytes to the data of the current tar archive entry, as stored in the archive.
+     * The method is (painfully) aware of the
      * record buffering required by TarBuffer, and manages buffers
      * that are not a multiple of recordsize in length, including
      * assembling records from small buffers.
@@ -287,8 +525,7 @@ public class TarOutputStream extends FilterOutputStream {
      * @param numToWrite The number of bytes to write.
      * @throws IOException on error
      */
-    @Override
-    public void write(byte[] wBuf, int wOffset, int numToWrite) throws IOException {
+    private void writeData(byte[] wBuf, int wOffset, int numToWrite) throws IOException {
         if ((currBytes + numToWrite) > currSize) {
             throw new IOException("request to write '" + numToWrite
                                   + "' bytes exceeds size in header of '"
@@ -19,6 +19,11 @@
 
 package com.mucommander.commons.file.impl.tar.provider;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This class provides static utility methods to work with byte streams.
  *
@@ -69,6 +74,33 @@ public class TarUtils {
         return result;
     }
 
+    /**
+     * Parse a numeric field from a header buffer, which may be encoded either as an octal string or, for values that
+     * do not fit in the field in octal, as a base-256 binary number (GNU tar and star extension). Base-256 numbers are
+     * flagged by the most significant bit of their first byte.
+     *
+     * @param header The header buffer from which to parse.
+     * @param offset The offset into the buffer from which to parse.
+     * @param length The number of header bytes to parse.
+     * @return The long value of the field.
+     */
+    public static long parseOctalOrBinary(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) == 0) {
+            return parseOctal(header, offset, length);
+        }
+
+        // Negative numbers start with 0xFF, positive ones with 0x80
+        boolean negative = header[offset] == (byte) 0xFF;
+        long result = negative ? -1 : 0;
+        result = (result << 7) | (header[offset] & 0x7F);
+
+        for (int i = offset + 1; i < offset + length; ++i) {
+            result = (result << 8) | (header[i] & BYTE_MASK);
+        }
+
+        return result;
+    }
+
     /**
      * Parse an entry name from a header buffer.
      *
@@ -167,6 +199,145 @@ public class TarUtils {
         return offset + length;
     }
 
+    /**
+     * Formats a numeric field into a header buffer, as an octal string followed by a space (like
+     * {@link #getLongOctalBytes(long, byte[], int, int)}) if the value fits in the field, as a base-256 binary number
+     * otherwise (GNU tar and star extension).
+     *
+     * @param value The header value
+     * @param buf The buffer into which to format the value.
+     * @param offset The offset into the buffer at which to format the value.
+     * @param length The length of the field.
+     * @return The offset of the next field.
+     */
+    public static int getLongOctalOrBinaryBytes(long value, byte[] buf, int offset, int length) {
+        long maxOctal = (1L << (3 * (length - 1))) - 1;
+        if (value >= 0 && value <= maxOctal) {
+            return getLongOctalBytes(value, buf, offset, length);
+        }
+
+        return getBinaryBytes(value, buf, offset, length);
+    }
+
+    /**
+     * Formats a numeric field into a header buffer, as an octal string followed by a space and a null byte (like
+     * {@link #getOctalBytes(long, byte[], int, int)}) if the value fits in the field, as a base-256 binary number
+     * otherwise (GNU tar and star extension).
+     *
+     * @param value The header value
+     * @param buf The buffer into which to format the value.
+     * @param offset The offset into the buffer at which to format the value.
+     * @param length The length of the field.
+     * @return The offset of the next field.
+     */
+    public static int getOctalOrBinaryBytes(long value, byte[] buf, int offset, int length) {
+        long maxOctal = (1L << (3 * (length - 2))) - 1;
+        if (value >= 0 && value <= maxOctal) {
+            return getOctalBytes(value, buf, offset, length);
+        }
+
+        return getBinaryBytes(value, buf, offset, length);
+    }
+
+    /**
+     * Formats a numeric field into a header buffer as a base-256 binary number, in big-endian order, with the most
+     * significant bit of the first byte set.
+     *
+     * @param value The header value
+     * @param buf The buffer into which to format the value.
+     * @param offset The offset into the buffer at which to format the value.
+     * @param length The length of the field.
+     * @return The offset of the next field.
+     */
+    private static int getBinaryBytes(long value, byte[] buf, int offset, int length) {
+        long val = value;
+        for (int i = offset + length - 1; i > offset; --i) {
+            buf[i] = (byte) val;
+            val >>= 8;
+        }
+
+        buf[offset] = value < 0 ? (byte) 0xFF : (byte) 0x80;
+
+        return offset + length;
+    }
+
+    /**
+     * Parses the records of a PAX extended header. Each record has the form <code>"%d %s=%s\n"</code>, where the
+     * leading number is the length of the whole record in bytes, and keywords and values are UTF-8 encoded.
+     *
+     * @param data The contents of the extended header.
+     * @param length The number of bytes to parse.
+     * @return The keyword/value pairs, in the order in which they appear. A record with an empty value is
+     * returned with an empty value.
+     * @throws IOException if the header is malformed
+     */
+    public static Map<String, String> parsePaxHeaders(byte[] data, int length) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        int pos = 0;
+        while (pos < length) {
+            // Trailing padding
+            if (data[pos] == 0) {
+                break;
+            }
+
+            int recordLen = 0;
+            int i = pos;
+            while (i < length && data[i] >= '0' && data[i] <= '9') {
+                recordLen = recordLen * 10 + (data[i++] - '0');
+            }
+
+            if (i >= length || data[i] != ' ' || recordLen <= i - pos || pos + recordLen > length
+                    || data[pos + recordLen - 1] != '\n') {
+                throw new IOException("malformed PAX extended header");
+            }
+
+            int keyStart = i + 1;
+            int recordEnd = pos + recordLen - 1;
+            int equals = keyStart;
+            while (equals < recordEnd && data[equals] != '=') {
+                ++equals;
+            }
+
+            if (equals == recordEnd) {
+                throw new IOException("malformed PAX extended header");
+            }
+
+            headers.put(new String(data, keyStart, equals - keyStart, "UTF-8"),
+                        new String(data, equals + 1, recordEnd - equals - 1, "UTF-8"));
+
+            pos += recordLen;
+        }
+
+        return headers;
+    }
+
+    /**
+     * Formats the given keyword/value pairs as the records of a PAX extended header.
+     *
+     * @param headers The keyword/value pairs.
+     * @return The contents of the extended header.
+     * @throws IOException on error
+     */
+    public static byte[] formatPaxHeaders(Map<String, String> headers) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            byte[] keyValue = (header.getKey() + "=" + header.getValue() + "\n").getBytes("UTF-8");
+
+            // The record length includes the length of its own decimal representation
+            int recordLen = keyValue.length + 2;
+            while (recordLen != keyValue.length + 1 + Integer.toString(recordLen).length()) {
+                recordLen = keyValue.length + 1 + Integer.toString(recordLen).length();
+            }
+
+            bout.write((recordLen + " ").getBytes("UTF-8"));
+            bout.write(keyValue);
+        }
+
+        return bout.toByteArray();
+    }
+
     /**
      * Parse the checksum octal integer from a header buffer.
      *
@@ -24,9 +24,15 @@ import com.mucommander.commons.file.impl.zip.provider.ZipConstants;
 import com.mucommander.commons.file.impl.zip.provider.ZipEntry;
 import com.mucommander.commons.file.impl.zip.provider.ZipFile;
 import com.mucommander.commons.io.FilteredOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipInputStream;
 
 
@@ -40,12 +46,38 @@ import java.util.zip.ZipInputStream;
  * access and a <code>RandomAccessOutputStream</code> for write access. If the underlying file can't provide at least a
  * <code>RandomAccessInputStream</code>, the lesser <code>java.util.zip</code> package is used.
  * </p>
+ * <p>
+ * During a {@link #beginBatch() batch}, added entries are appended one after the other and the central directory is
+ * written only once, when the batch is committed.
+ * </p>
+ * <p>
+ * Deleting entries leaves free space in the Zip file, which {@link #optimizeArchive()} reclaims. Archives can also be
+ * defragmented automatically in the background, by steps of {@link #BACKGROUND_DEFRAGMENTATION_STEP} bytes, when the
+ * ratio of free space exceeds a threshold set with {@link #setBackgroundDefragmentationThreshold(float)}. Entries
+ * are not moved while an entry is being read or written: defragmentation resumes once all entry streams are closed.
+ * </p>
  *
  * @see com.mucommander.commons.file.impl.zip.ZipFormatProvider
  * @see com.mucommander.commons.file.impl.zip.provider.ZipFile
  * @author Maxence Bernard
  */
 public class ZipArchiveFile extends AbstractRWArchiveFile {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZipArchiveFile.class);
+
+    /** Maximum number of bytes moved by a step of background defragmentation */
+    public final static long BACKGROUND_DEFRAGMENTATION_STEP = 8 * 1024 * 1024;
+
+    /** Ratio of free space above which archives are defragmented in the background, 0 if disabled */
+    private static float backgroundDefragmentationThreshold;
+
+    /** Executes background defragmentation steps, created the first time it is needed */
+    private static ExecutorService defragmentationExecutor;
+
+    /** True if this archive is being defragmented in the background */
+    private boolean defragmentationScheduled;
+
+    /** Number of entry streams that are currently open, the Zip file is not defragmented while there are any */
+    private int nbOpenStreams;
 
     /** The ZipFile object that actually reads and modifies the entries in the Zip file */
     private ZipFile zipFile;
@@ -78,6 +110,10 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
      * @throws IOException if an error occurred while reloading
      */
     private void checkZipFile() throws IOException, UnsupportedFileOperationException {
+        // The Zip file has no valid central directory while a batch is in progress, and is known to be up-to-date
+        if(zipFile!=null && zipFile.isInBatch())
+            return;
+
         long currentDate = file.getDate();
 
         if(zipFile==null || currentDate!=lastZipFileDate) {
@@ -94,6 +130,102 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         lastZipFileDate = file.getDate();
     }
 
+    /**
+     * Sets the ratio of free space above which Zip archives are defragmented in the background, after entries have been
+     * deleted. The ratio is comprised between <code>0</code> and <code>1</code>, <code>0</code> disabling background
+     * defragmentation, which is the default.
+     *
+     * @param threshold ratio of free space above which Zip archives are defragmented in the background, 0 to disable
+     */
+    public static void setBackgroundDefragmentationThreshold(float threshold) {
+        backgroundDefragmentationThreshold = threshold;
+    }
+
+    /**
+     * Returns the ratio of free space above which Zip archives are defragmented in the background, <code>0</code> if
+     * background defragmentation is disabled.
+     *
+     * @return the ratio of free space above which Zip archives are defragmented in the background
+     */
+    public static float getBackgroundDefragmentationThreshold() {
+        return backgroundDefragmentationThreshold;
+    }
+
+    /**
+     * Returns the executor that performs background defragmentation steps, creating it if necessary. All archives
+     * share a single daemon thread.
+     *
+     * @return the executor that performs background defragmentation steps
+     */
+    private static synchronized ExecutorService getDefragmentationExecutor() {
+        if(defragmentationExecutor==null) {
+            defragmentationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Zip defragmentation");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+
+        return defragmentationExecutor;
+    }
+
+    /**
+     * Schedules the defragmentation of this archive in the background if it is enabled and if the ratio of free space
+     * in the Zip file exceeds the threshold.
+     */
+    private void checkFragmentation() {
+        float threshold = backgroundDefragmentationThreshold;
+        if(threshold<=0 || defragmentationScheduled || nbOpenStreams>0 || zipFile==null || zipFile.isInBatch())
+            return;
+
+        try {
+            if(zipFile.getFragmentationRatio()<threshold)
+                return;
+        }
+        catch(IOException e) {
+            LOGGER.info("Caught exception while computing fragmentation ratio of "+file, e);
+            return;
+        }
+
+        defragmentationScheduled = true;
+        getDefragmentationExecutor().execute(new DefragmentationStep());
+    }
+
+    /**
+     * Waits until the defragmentation steps that have been scheduled thus far, by all archives, have been executed.
+     * Steps scheduled by those steps are not waited for. This method is meant for tests.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws ExecutionException should not happen
+     */
+    static void waitForDefragmentationSteps() throws InterruptedException, ExecutionException {
+        getDefragmentationExecutor().submit(new Runnable() {
+            public void run() {
+            }
+        }).get();
+    }
+
+    /**
+     * Returns <code>true</code> if this archive is being defragmented in the background. This method is meant for
+     * tests.
+     *
+     * @return <code>true</code> if this archive is being defragmented in the background
+     */
+    synchronized boolean isDefragmentationScheduled() {
+        return defragmentationScheduled;
+    }
+
+    /**
+     * Called when an entry stream is closed, checks the fragmentation of the Zip file once the last one is closed.
+     */
+    private synchronized void entryStreamClosed() {
+        if(--nbOpenStreams==0)
+            checkFragmentation();
+    }
+
     /**
      * Creates and returns a {@link com.mucommander.commons.file.impl.zip.provider.ZipEntry} instance using the attributes
      * of the given {@link ArchiveEntry}.
@@ -198,7 +330,10 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
             if(zipEntry==null)  // Should not normally happen
                 throw new IOException();
 
-            return zipFile.getInputStream(zipEntry);
+            InputStream in = new EntryInputStream(zipFile.getInputStream(zipEntry));
+            nbOpenStreams++;
+
+            return in;
         }
         // If the underlying AbstractFile doesn't have random read access, use java.util.InputStream to
         // read the entry. This is much slower than the former method as the file cannot be seeked and needs
@@ -262,15 +397,29 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
             // Set the ZipEntry object into the ArchiveEntry
             entry.setEntryObject(zipEntry);
 
-            return new FilteredOutputStream(zipFile.addEntry(zipEntry)) {
+            OutputStream out = new FilteredOutputStream(zipFile.addEntry(zipEntry)) {
+                private boolean closed;
+
                 @Override
                 public void close() throws IOException {
-                    super.close();
+                    if(closed)
+                        return;
 
-                    // Declare the zip file and entries tree up-to-date and add the new entry to the entries tree
+                    closed = true;
+                    try {
+                        super.close();
+
+                        // Declare the zip file and entries tree up-to-date and add the new entry to the entries tree
                         finishAddEntry(entry);
                     }
+                    finally {
+                        entryStreamClosed();
+                    }
+                }
             };
+            nbOpenStreams++;
+
+            return out;
         }
     }
 
@@ -300,6 +449,9 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
 
         // Remove the entry from the entries tree
         removeFromEntriesTree(entry);
+
+        if(!isInBatch())
+            checkFragmentation();
     }
 
     @Override
@@ -326,6 +478,24 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         }
     }
 
+    @Override
+    protected void startBatch() throws IOException, UnsupportedFileOperationException {
+        checkZipFile();
+
+        zipFile.beginBatch();
+    }
+
+    @Override
+    protected void finishBatch() throws IOException {
+        zipFile.commitBatch();
+
+        // Declare the zip file and entries tree up-to-date
+        declareZipFileUpToDate();
+        declareEntriesTreeUpToDate();
+
+        checkFragmentation();
+    }
+
     @Override
     public synchronized void optimizeArchive() throws IOException, UnsupportedFileOperationException {
         checkZipFile();
@@ -366,4 +536,78 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
 
         copyStream(new ByteArrayInputStream(EMPTY_ZIP_BYTES), false, EMPTY_ZIP_BYTES.length);
     }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Moves at most {@link #BACKGROUND_DEFRAGMENTATION_STEP} bytes of the Zip file, and schedules another step if the
+     * Zip file is still fragmented. The archive is locked only for the duration of a step, letting other operations
+     * be performed in between steps. Steps are not performed while entry streams are open, as entries that are being
+     * read or written would be moved under them.
+     */
+    private class DefragmentationStep implements Runnable {
+
+        public void run() {
+            boolean done;
+
+            synchronized(ZipArchiveFile.this) {
+                // Stop if a batch is in progress or if entry streams are open, fragmentation will be checked again when
+                // the batch is committed or when the last stream is closed
+                if(zipFile==null || zipFile.isInBatch() || nbOpenStreams>0) {
+                    defragmentationScheduled = false;
+                    return;
+                }
+
+                try {
+                    checkZipFile();
+
+                    done = zipFile.defragment(BACKGROUND_DEFRAGMENTATION_STEP);
+
+                    // Declare the zip file and entries tree up-to-date
+                    declareZipFileUpToDate();
+                    declareEntriesTreeUpToDate();
+                }
+                catch(IOException e) {
+                    LOGGER.info("Caught exception while defragmenting "+file, e);
+                    done = true;
+                }
+
+                if(done)
+                    defragmentationScheduled = false;
+            }
+
+            if(!done)
+                getDefragmentationExecutor().execute(this);
+        }
+    }
+
+    /**
+     * Wraps an entry's input stream, and keeps track of its closing.
+     */
+    private class EntryInputStream extends FilterInputStream {
+
+        /** True once the stream has been closed */
+        private boolean closed;
+
+        EntryInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed)
+                return;
+
+            closed = true;
+            try {
+                super.close();
+            }
+            finally {
+                entryStreamClosed();
+            }
+        }
+    }
 }
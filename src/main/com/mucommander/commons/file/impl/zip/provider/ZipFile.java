@@ -20,14 +20,15 @@ package com.mucommander.commons.file.impl.zip.provider;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
+import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.io.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -61,6 +62,11 @@ import java.util.zip.ZipException;
  * </ul>
  * </p>
  *
+ * <p>Each modification normally leaves the Zip file in a consistent state, which requires the central directory to be
+ * rewritten every time an entry is added or deleted. When many entries are to be modified at once, modifications can be
+ * grouped in a batch delimited by {@link #beginBatch()} and {@link #commitBatch()}: entries added to the batch are
+ * written one after the other, and the central directory is written only once, when the batch is committed.</p>
+ *
  * <p>--------------------------------------------------------------------------------------------------------------<br>
  * <br>
  * This class is based off the <code>org.apache.tools.zip</code> package of the <i>Apache Ant</i> project. The Ant
@@ -72,6 +78,9 @@ import java.util.zip.ZipException;
 public class ZipFile implements ZipConstants {
     private static final Logger LOGGER = LoggerFactory.getLogger(ZipFile.class);
 
+    /** Minimum number of bytes moved at once when entries are moved within a local zip file: 1MB */
+    private static final int TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
     /** The underlying archive file */
     private AbstractFile file;
 
@@ -99,6 +108,12 @@ public class ZipFile implements ZipConstants {
     /** Holds byte buffer instance used to convert short and longs, avoids creating lots of small arrays */
     private ZipBuffer zipBuffer = new ZipBuffer();
 
+    /** True while a batch of modifications is in progress */
+    private boolean batchMode;
+
+    /** Offset at which the next entry added to the current batch will be written */
+    private long batchEndOffset;
+
     
     /**
      * Opens the given Zip file and parses information about the entries it contains.
@@ -187,6 +202,117 @@ public class ZipFile implements ZipConstants {
         }
     }
 
+    /**
+     * Writes the central directory at the current offset of the RandomAccessOutputStream, followed by the central
+     * directory end, and truncates the zip file after it. The offset and length of each entry's central file header
+     * are updated.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private void writeCentralDirectory() throws IOException {
+        ZipEntry ze;
+        ZipEntryInfo entryInfo;
+        int nbEntries = entries.size();
+        long cdLength = 0;                  // Length of central directory
+        long cdOffset = raos.getOffset();   // Offset of central directory
+
+        for(int i=0; i<nbEntries; i++) {
+            ze = entries.elementAt(i);
+            entryInfo = ze.getEntryInfo();
+
+            // Update offset to central file header
+            entryInfo.centralHeaderOffset = raos.getOffset();
+
+            cdLength += ZipOutputStream.writeCentralFileHeader(
+                            ze,
+                            raos,
+                            entryInfo.encoding,     // Preserve existing encoding so that LFH and CFH match
+                            entryInfo.headerOffset,
+                            entryInfo.hasDataDescriptor,
+                            zipBuffer);
+
+            // Update length of central file header
+            entryInfo.centralHeaderLen = raos.getOffset() - entryInfo.centralHeaderOffset;
+        }
+
+        ZipOutputStream.writeCentralDirectoryEnd(raos, nbEntries, cdLength, cdOffset, comment, UTF_8, zipBuffer);
+
+        // In some rare cases, the resulting zip file may be smaller.
+        // Truncate the file to ensure that it ends at the central directory end position.
+        raos.setLength(raos.getOffset());
+    }
+
+    /**
+     * Throws an <code>IOException</code> if a batch is in progress. This method is called by the methods that cannot
+     * be used while in batch mode.
+     *
+     * @throws IOException if a batch is in progress
+     */
+    private void checkNotInBatch() throws IOException {
+        if(batchMode)
+            throw new IOException("Operation not allowed while a batch is in progress");
+    }
+
+    /**
+     * Begins a batch of modifications. Until {@link #commitBatch()} is called, entries added with
+     * {@link #addEntry(ZipEntry)} are written one after the other without writing the central directory, entries
+     * deleted with {@link #deleteEntry(ZipEntry)} are only erased, and {@link #updateEntry(ZipEntry)} only updates
+     * the local file header. The zip file is kept open for write access for the duration of the batch.
+     *
+     * <p>While the batch is in progress, the zip file has no valid central directory and cannot be parsed by another
+     * <code>ZipFile</code> instance. {@link #commitBatch()} must always be called, even if one of the modifications
+     * failed, to leave the zip file in a consistent state.</p>
+     *
+     * @throws IOException if a batch is already in progress or if an I/O error occurred
+     * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
+     */
+    public void beginBatch() throws IOException, UnsupportedFileOperationException {
+        checkNotInBatch();
+
+        try {
+            // New entries will be written where the central directory starts
+            openRead();
+            positionAtCentralDirectory();
+            batchEndOffset = rais.getOffset();
+        }
+        finally {
+            closeRead();
+        }
+
+        openWrite();
+        batchMode = true;
+    }
+
+    /**
+     * Ends the current batch of modifications: the central directory is written after the last entry, and the zip file
+     * is closed. This method does nothing if no batch is in progress.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public void commitBatch() throws IOException {
+        if(!batchMode)
+            return;
+
+        try {
+            raos.seek(batchEndOffset);
+            writeCentralDirectory();
+        }
+        finally {
+            batchMode = false;
+            closeWrite();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if a batch of modifications is currently in progress.
+     *
+     * @return <code>true</code> if a batch of modifications is currently in progress
+     * @see #beginBatch()
+     */
+    public boolean isInBatch() {
+        return batchMode;
+    }
+
     /**
      * Returns the default encoding to use for parsing filenames and comments. This value is not used for Zip entries
      * that explicitely declare using UTF-8 (in the general purpose bit flag).
@@ -266,6 +392,10 @@ public class ZipFile implements ZipConstants {
         if (entryInfo == null)
             throw new ZipException("Unknown entry: "+ze.getName());
 
+        // Entries added to the current batch may still be in the write buffer
+        if(batchMode)
+            raos.flush();
+
         openRead();
         RandomAccessInputStream entryIn = this.rais;
 
@@ -312,6 +442,11 @@ public class ZipFile implements ZipConstants {
      * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
      */
     public void deleteEntry(ZipEntry ze) throws IOException, ZipException, UnsupportedFileOperationException {
+        if(batchMode) {
+            deleteBatchEntry(ze);
+            return;
+        }
+
         openRead();
         openWrite();
 
@@ -428,6 +563,59 @@ public class ZipFile implements ZipConstants {
     }
 
 
+    /**
+     * Deletes the given entry while a batch is in progress. The central directory is left untouched, it is rewritten
+     * when the batch is committed. If the entry is the last one written, the space it used is reclaimed by the next
+     * entry added to the batch. Otherwise, its local file header and data are zeroed out, like
+     * {@link #deleteEntry(ZipEntry)} does.
+     *
+     * @param ze the ZipEntry to delete
+     * @throws IOException if an I/O error occurred
+     * @throws ZipException if the specified ZipEntry cannot be found in this zip file
+     * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
+     */
+    private void deleteBatchEntry(ZipEntry ze) throws IOException, ZipException, UnsupportedFileOperationException {
+        ZipEntryInfo entryInfo = ze.getEntryInfo();
+        if (entryInfo == null) {
+            // Fail silently if the entry is a directory as specific directory entries do not always exist
+            // in zip files.
+            if(ze.isDirectory())
+                return;
+
+            throw new ZipException("Unknown entry: "+ze.getName());
+        }
+
+        // If data offset is -1 (not calculated yet), calculate it now
+        if (entryInfo.dataOffset == -1) {
+            raos.flush();
+            try {
+                openRead();
+                calculateDataOffset(entryInfo);
+            }
+            finally {
+                closeRead();
+            }
+        }
+
+        long entryEnd = entryInfo.dataOffset + ze.getCompressedSize();
+        if(entryInfo.hasDataDescriptor)
+            entryEnd += 16;
+
+        if(entryEnd==batchEndOffset) {
+            // The entry is the last one: the next entry will be written over it
+            batchEndOffset = entryInfo.headerOffset;
+        }
+        else {
+            // Zero out all bytes of the local file header+data for the deleted entry
+            raos.seek(entryInfo.headerOffset);
+            StreamUtils.fillWithConstant(raos, (byte)0, entryInfo.dataOffset-entryInfo.headerOffset + ze.getCompressedSize(), WRITE_BUFFER_SIZE);
+        }
+
+        entries.remove(ze);
+        nameMap.remove(ze.getName());
+    }
+
+
     /**
      * Appends the given entry to the end of this zip file and returns an <code>OutputStream</code> that allows to write
      * the contents of the entry. The returned <code>OutputStream</code> must always be closed for the zip file to be
@@ -444,18 +632,25 @@ public class ZipFile implements ZipConstants {
      */
     public OutputStream addEntry(final ZipEntry entry) throws IOException, UnsupportedFileOperationException {
         try {
-            // Open the zip file for random read and write access
-            openRead();
-            openWrite();
+            long headerOffset;
+            if(batchMode) {
+                // Write the new entry's local file header right after the last entry of the batch
+                headerOffset = batchEndOffset;
+            }
+            else {
+                // Open the zip file for random read and write access
+                openRead();
+                openWrite();
 
-            // Write the new entry's local file header right before the central directory start
-            positionAtCentralDirectory();
-            long centralDirectoryStart = rais.getOffset();
-            raos.seek(centralDirectoryStart);
+                // Write the new entry's local file header right before the central directory start
+                positionAtCentralDirectory();
+                headerOffset = rais.getOffset();
+            }
+            raos.seek(headerOffset);
 
             final ZipEntryInfo entryInfo = new ZipEntryInfo();
             entryInfo.encoding = UTF_8;   // Always use UTF-8 for new entries
-            entryInfo.headerOffset = centralDirectoryStart;
+            entryInfo.headerOffset = headerOffset;
             entryInfo.dataOffset = entryInfo.headerOffset +
                                      ZipOutputStream.writeLocalFileHeader(entry, raos, entryInfo.encoding, false, zipBuffer);
 
@@ -475,42 +670,21 @@ public class ZipFile implements ZipConstants {
                     // Write data info in the local file header
                     ZipOutputStream.finalizeEntryData(entry, this, raos, false, zipBuffer);
 
-                    // Write the central directory that was squashed by the new entry (at least partially)
-                    ZipEntry tempZe;
-                    ZipEntryInfo tempEntryInfo;
-                    int nbEntries = entries.size();
-                    long cdLength = 0;                  // Length of central directory
-                    long cdOffset = raos.getOffset();   // Offset of central directory
-                    for(int i=0; i<nbEntries; i++) {
-                        tempZe = entries.elementAt(i);
-                        tempEntryInfo = tempZe.getEntryInfo();
-
-                        // Update offset to central header
-                        tempEntryInfo.centralHeaderOffset = raos.getOffset();
-
-                        cdLength += ZipOutputStream.writeCentralFileHeader(
-                                        tempZe,
-                                        raos,
-                                        tempEntryInfo.encoding,     // Preserve existing encoding so that LFH and CFH match
-                                        tempEntryInfo.headerOffset,
-                                        tempEntryInfo.hasDataDescriptor,
-                                        zipBuffer);
-
-                        // Update length of central header
-                        tempEntryInfo.centralHeaderLen = raos.getOffset() - tempEntryInfo.centralHeaderOffset;
+                    if(batchMode) {
+                        // The central directory will be written when the batch is committed
+                        batchEndOffset = raos.getOffset();
+                    }
+                    else {
+                        // Write the central directory that was squashed by the new entry (at least partially)
+                        writeCentralDirectory();
                     }
-
-                    ZipOutputStream.writeCentralDirectoryEnd(raos, nbEntries, cdLength, cdOffset, comment, UTF_8, zipBuffer);
-
-                    // In some rare cases, the resulting zip file may be smaller.
-                    // Truncate the file to ensure that it ends at the central directory end position.
-                    raos.setLength(raos.getOffset());
 
                     // Release the buffer for reuse
                     BufferPool.releaseByteArray(deflaterBuf);
 
                     super.close();
-                    closeWrite();
+                    if(!batchMode)
+                        closeWrite();
                 }
             };
 
@@ -524,7 +698,7 @@ public class ZipFile implements ZipConstants {
         }
         finally {
             closeRead();
-            // Note: RandomAccessOutputStream is closed by ZipEntryOutputStream#close()
+            // Note: RandomAccessOutputStream is closed by ZipEntryOutputStream#close(), or when the batch is committed
         }
     }
 
@@ -542,8 +716,9 @@ public class ZipFile implements ZipConstants {
      */
     public void updateEntry(ZipEntry entry) throws IOException, UnsupportedFileOperationException {
         try {
-            // Open the zip file for write
-            openWrite();
+            // Open the zip file for write, unless it already is
+            if(!batchMode)
+                openWrite();
 
             ZipEntryInfo entryInfo = entry.getEntryInfo();
 
@@ -555,6 +730,10 @@ public class ZipFile implements ZipConstants {
 
             // Note: external attributes are not present in the local file header
 
+            // The central directory will be rewritten when the batch is committed
+            if(batchMode)
+                return;
+
             /* Central file header */
 
             // Update 'Version made by', platform might have changed if the Zip didn't contain Unix permissions
@@ -570,7 +749,8 @@ public class ZipFile implements ZipConstants {
             raos.write(ZipLong.getBytes(entry.getExternalAttributes(), zipBuffer.longBuffer));
         }
         finally {
-            closeWrite();
+            if(!batchMode)
+                closeWrite();
         }
 
     }
@@ -588,103 +768,324 @@ public class ZipFile implements ZipConstants {
      *
      * @throws IOException if an I/O error occurred
      * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
+     * @see #defragment(long)
      */
     public void defragment() throws IOException, UnsupportedFileOperationException {
+        defragment(Long.MAX_VALUE);
+    }
+
+    /**
+     * Removes free space fragments from this zip file, moving at most <code>maxBytes</code> bytes, and returns
+     * <code>true</code> if the zip file is no longer fragmented. This method can be called repeatedly to defragment
+     * the zip file incrementally: the zip file is left in a consistent state after each call.
+     *
+     * <p>All the moves are planned before any data is moved: entries are processed in the order they are located in
+     * the zip file, and consecutive entries that are moved by the same distance are moved at once, with a large
+     * sequential copy. For local files, data is copied with <code>FileChannel#transferTo</code>, without going through
+     * the Java heap. Moves are performed in order because each move may overwrite the data of the entries moved before
+     * it.</p>
+     *
+     * <p>If not all moves can be performed within the given number of bytes, the offsets of the moved entries are
+     * updated in the existing central directory, which is left in place. The central directory is moved right after
+     * the last entry, and the zip file truncated, once all the moves have been performed.</p>
+     *
+     * <p>The underlying {@link AbstractFile} must have random write access. If not, an <code>IOException</code> will be
+     * thrown.</p>
+     *
+     * @param maxBytes maximum number of bytes to move. At least one entry is moved, even if it is larger.
+     * @return <code>true</code> if the zip file is no longer fragmented, <code>false</code> if this method must be
+     * called again to finish defragmenting the zip file
+     * @throws IOException if an I/O error occurred
+     * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
+     */
+    public boolean defragment(long maxBytes) throws IOException, UnsupportedFileOperationException {
+        checkNotInBatch();
+
         int nbEntries = entries.size();
         if(nbEntries==0)
-            return;
+            return true;
+
+        FileChannel inChannel = null;
+        FileChannel outChannel = null;
 
         try {
             openRead();
+
+            ZipEntry sortedEntries[] = getEntriesInFileOrder();
+            List<EntriesMove> moves = planMoves(sortedEntries);
+
+            long entriesEnd = getEntryEnd(sortedEntries[nbEntries-1]);
+            long cdStart = getCentralDirectoryStart();
+
+            // Nothing to do if there is no free space between entries nor before the central directory
+            if(moves.isEmpty() && entriesEnd==cdStart)
+                return true;
+
             openWrite();
 
-            ZipEntry currentEntry, previousEntry;
-            ZipEntryInfo currentEntryInfo, previousEntryInfo;
-            long shift = 0;
+            // Data of local files is moved directly from channel to channel
+            if(rais instanceof LocalFile.LocalRandomAccessInputStream) {
+                RandomAccessOutputStream out = file.getRandomAccessOutputStream();
+                if(out instanceof LocalFile.LocalRandomAccessOutputStream) {
+                    inChannel = ((LocalFile.LocalRandomAccessInputStream)rais).getChannel();
+                    outChannel = ((LocalFile.LocalRandomAccessOutputStream)out).getChannel();
+                }
+                else {
+                    out.close();
+                }
+            }
 
-            // Special case for the first entry
+            List<ZipEntry> movedEntries = new ArrayList<ZipEntry>();
+            long remainingBytes = maxBytes;
+            boolean complete = true;
+            for(EntriesMove move : moves) {
+                if(remainingBytes<=0) {
+                    complete = false;
+                    break;
+                }
 
-            currentEntry = entries.elementAt(0);
-            currentEntryInfo = currentEntry.getEntryInfo();
+                // Move whole entries only, at least one
+                long length = 0;
+                int nbMovedEntries = 0;
+                for(ZipEntry ze : move.entries) {
+                    long entryLength = getEntryEnd(ze) - ze.getEntryInfo().headerOffset;
+                    if(nbMovedEntries>0 && length+entryLength>remainingBytes)
+                        break;
 
-            // If data offset is -1 (not calculated yet), calculate it now
-            if (currentEntryInfo.dataOffset == -1)
-                calculateDataOffset(currentEntryInfo);
+                    length += entryLength;
+                    nbMovedEntries++;
+                }
 
-            if(currentEntryInfo.headerOffset>0) {
-                StreamUtils.copyChunk(rais, raos, currentEntryInfo.headerOffset, 0, (currentEntryInfo.dataOffset- currentEntryInfo.headerOffset)+currentEntry.getCompressedSize());
-                shift = currentEntryInfo.headerOffset;
+                if(outChannel!=null)
+                    transferChunk(inChannel, outChannel, move.srcOffset, move.dstOffset, length);
+                else
+                    StreamUtils.copyChunk(rais, raos, move.srcOffset, move.dstOffset, length);
 
-                currentEntryInfo.headerOffset = 0;
-                currentEntryInfo.dataOffset -= shift;
+                long shift = move.srcOffset - move.dstOffset;
+                for(int i=0; i<nbMovedEntries; i++) {
+                    ZipEntry ze = move.entries.get(i);
+                    ZipEntryInfo entryInfo = ze.getEntryInfo();
+                    entryInfo.headerOffset -= shift;
+                    entryInfo.dataOffset -= shift;
+
+                    movedEntries.add(ze);
+                }
+
+                remainingBytes -= length;
+
+                if(nbMovedEntries<move.entries.size()) {
+                    complete = false;
+                    break;
+                }
             }
 
-            previousEntry = currentEntry;
-            previousEntryInfo = currentEntryInfo;
+            if(complete) {
+                // All moves have been performed: rewrite the central directory right after the last entry, and
+                // truncate the zip file to reclaim the trailing unused space
+                raos.seek(getEntryEnd(sortedEntries[nbEntries-1]));
+                writeCentralDirectory();
 
-            // Process all other entries
+                return true;
+            }
 
-            for(int i=1; i<nbEntries; i++) {
-                currentEntry = entries.elementAt(i);
-                currentEntryInfo = currentEntry.getEntryInfo();
+            // Update the offsets of the moved entries in the central directory, which has not moved
+            for(ZipEntry ze : movedEntries) {
+                ZipEntryInfo entryInfo = ze.getEntryInfo();
+                raos.seek(entryInfo.centralHeaderOffset+42);
+                raos.write(ZipLong.getBytes(entryInfo.headerOffset, zipBuffer.longBuffer));
+            }
 
-                // If data offset is -1 (not calculated yet), calculate it now
-                if (currentEntryInfo.dataOffset == -1)
-                    calculateDataOffset(currentEntryInfo);
+            return false;
+        }
+        finally {
+            if(outChannel!=null) {
+                try { outChannel.close(); }
+                catch(IOException e) {}
+            }
 
-                // Calculate the offset to the end of the previous entry based on its data offset and compressed size
-                // and taking into account a potential data descriptor
-                long previousCompressedSize = previousEntry.getCompressedSize();
-                long previousEntryEnd = previousEntryInfo.dataOffset+previousCompressedSize;
-                if(previousEntryInfo.hasDataDescriptor)
-                    previousEntryEnd += 16;
+            try { closeRead(); }
+            catch(IOException e) {}
 
-                // Tests if there is some unused space between the 2 entries
-                if(previousEntryEnd < currentEntryInfo.headerOffset) {
-                    StreamUtils.copyChunk(rais, raos, currentEntryInfo.headerOffset, previousEntryInfo.dataOffset+previousCompressedSize, (currentEntryInfo.dataOffset- currentEntryInfo.headerOffset)+currentEntry.getCompressedSize());
-                    shift = currentEntryInfo.headerOffset - (previousEntryInfo.dataOffset+previousCompressedSize);
+            try { closeWrite(); }
+            catch(IOException e) {}
+        }
+    }
 
-                    currentEntryInfo.headerOffset -= shift;
-                    currentEntryInfo.dataOffset -= shift;
-                }
+    /**
+     * Returns the ratio of free space in the area of this zip file that precedes the central directory, i.e. the
+     * proportion of bytes that {@link #defragment()} would reclaim. The returned value is comprised between
+     * <code>0</code> (not fragmented) and <code>1</code>.
+     *
+     * @return the ratio of free space in this zip file
+     * @throws IOException if an I/O error occurred
+     * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
+     */
+    public float getFragmentationRatio() throws IOException, UnsupportedFileOperationException {
+        if(entries.isEmpty())
+            return 0;
+
+        long usedBytes = 0;
+        try {
+            openRead();
+
+            for(ZipEntry ze : getEntriesInFileOrder())
+                usedBytes += getEntryEnd(ze) - ze.getEntryInfo().headerOffset;
+        }
+        finally {
+            closeRead();
+        }
+
+        long cdStart = getCentralDirectoryStart();
+        if(cdStart<=0)
+            return 0;
 
-                previousEntry = currentEntry;
-                previousEntryInfo = currentEntryInfo;
+        return Math.max(0, cdStart-usedBytes)/(float)cdStart;
+    }
+
+    /**
+     * Returns this zip file's entries sorted by the offset of their local file header, after calculating their data
+     * offset if needed. Data offsets are calculated in file order, so that local file headers are read sequentially.
+     * The RandomAccessInputStream must be opened when this method is called.
+     *
+     * @return this zip file's entries sorted by the offset of their local file header
+     * @throws IOException if an I/O error occurred
+     */
+    private ZipEntry[] getEntriesInFileOrder() throws IOException {
+        ZipEntry sortedEntries[] = entries.toArray(new ZipEntry[entries.size()]);
+        Arrays.sort(sortedEntries, new Comparator<ZipEntry>() {
+            public int compare(ZipEntry ze1, ZipEntry ze2) {
+                long offset1 = ze1.getEntryInfo().headerOffset;
+                long offset2 = ze2.getEntryInfo().headerOffset;
+
+                return offset1<offset2 ? -1 : (offset1==offset2 ? 0 : 1);
             }
+        });
 
-            // Rewrite central directory with updated offsets
-            if(shift!=0) {
-                long cdLength = 0;                  // Length of central directory
-                long cdOffset = raos.getOffset();   // Offset of central directory
-                ZipEntry ze;
-                ZipEntryInfo entryInfo;
+        for(ZipEntry ze : sortedEntries) {
+            ZipEntryInfo entryInfo = ze.getEntryInfo();
 
-                for(int i=0; i<nbEntries; i++) {
-                    ze = entries.elementAt(i);
-                    entryInfo = ze.getEntryInfo();
+            // If data offset is -1 (not calculated yet), calculate it now
+            if(entryInfo.dataOffset == -1)
+                calculateDataOffset(entryInfo);
+        }
 
-                    // Update offset to central directory file header
-                    entryInfo.centralHeaderOffset = raos.getOffset();
+        return sortedEntries;
+    }
 
-                    // Preserve existing encoding when rewriting CFH so that it matches LFH
-                    cdLength += ZipOutputStream.writeCentralFileHeader(ze, raos, entryInfo.encoding, entryInfo.headerOffset, entryInfo.hasDataDescriptor, zipBuffer);
+    /**
+     * Returns the offset of the end of the given entry, taking into account a potential data descriptor.
+     * The entry's data offset must have been calculated.
+     *
+     * @param ze a zip entry
+     * @return the offset of the end of the given entry
+     */
+    private static long getEntryEnd(ZipEntry ze) {
+        ZipEntryInfo entryInfo = ze.getEntryInfo();
+        long entryEnd = entryInfo.dataOffset + ze.getCompressedSize();
+        if(entryInfo.hasDataDescriptor)
+            entryEnd += 16;
 
-                    // Update length of central directory file header
-                    entryInfo.centralHeaderLen = raos.getOffset() - entryInfo.centralHeaderOffset;
-                }
+        return entryEnd;
+    }
 
-                ZipOutputStream.writeCentralDirectoryEnd(raos, nbEntries, cdLength, cdOffset, comment, UTF_8, zipBuffer);
+    /**
+     * Returns the offset of the central directory's start, i.e. the offset of the first central file header.
+     *
+     * @return the offset of the central directory's start
+     */
+    private long getCentralDirectoryStart() {
+        long cdStart = Long.MAX_VALUE;
+        for(ZipEntry ze : entries)
+            cdStart = Math.min(cdStart, ze.getEntryInfo().centralHeaderOffset);
 
-                // Truncate the zip file to reclaim the trailing unused space
-                raos.setLength(raos.getOffset());
+        return cdStart;
+    }
+
+    /**
+     * Plans the moves that remove the free space between the given entries, which must be sorted in file order.
+     * Consecutive entries that are moved by the same distance are grouped into a single move.
+     *
+     * @param sortedEntries entries sorted by the offset of their local file header
+     * @return the moves to perform, in the order they must be performed
+     */
+    private static List<EntriesMove> planMoves(ZipEntry sortedEntries[]) {
+        List<EntriesMove> moves = new ArrayList<EntriesMove>();
+        EntriesMove move = null;
+        long writeOffset = 0;
+
+        for(ZipEntry ze : sortedEntries) {
+            ZipEntryInfo entryInfo = ze.getEntryInfo();
+            long entryLength = getEntryEnd(ze) - entryInfo.headerOffset;
+
+            if(entryInfo.headerOffset==writeOffset) {
+                // Entry is already in place
+                move = null;
             }
+            else if(move!=null && move.srcOffset+move.length==entryInfo.headerOffset) {
+                // Entry immediately follows the previous moved entry, move them together
+                move.length += entryLength;
+                move.entries.add(ze);
+            }
+            else {
+                move = new EntriesMove(entryInfo.headerOffset, writeOffset);
+                move.length = entryLength;
+                move.entries.add(ze);
+                moves.add(move);
+            }
+
+            writeOffset += entryLength;
         }
-        finally {
-            try { closeRead(); }
-            catch(IOException e) {}
 
-            try { closeWrite(); }
-            catch(IOException e) {}
+        return moves;
+    }
+
+    /**
+     * Copies a chunk of a local file to a lower offset of the same file.
+     *
+     * <p>If the source and destination are at least {@link #TRANSFER_CHUNK_SIZE} bytes apart, the chunk is transferred
+     * using <code>FileChannel#transferTo</code>, by pieces that do not exceed that distance so that the source and
+     * destination of a transfer never overlap. Otherwise, pieces that small would require as many system calls: the
+     * chunk is copied through a buffer of {@link #TRANSFER_CHUNK_SIZE} bytes instead, which does not require the source
+     * and destination not to overlap as each piece is read before it is written, and data moves to a lower offset.</p>
+     *
+     * @param inChannel channel to read the file
+     * @param outChannel channel to write the file
+     * @param srcOffset offset of the chunk to copy
+     * @param dstOffset offset to copy the chunk to, lower than <code>srcOffset</code>
+     * @param length length of the chunk
+     * @throws IOException if an I/O error occurred
+     */
+    private static void transferChunk(FileChannel inChannel, FileChannel outChannel, long srcOffset, long dstOffset, long length) throws IOException {
+        long shift = srcOffset - dstOffset;
+
+        if(shift>=TRANSFER_CHUNK_SIZE) {
+            outChannel.position(dstOffset);
+            while(length>0) {
+                long nbTransferred = inChannel.transferTo(srcOffset, Math.min(length, shift), outChannel);
+                if(nbTransferred<=0)
+                    throw new EOFException();
+
+                srcOffset += nbTransferred;
+                length -= nbTransferred;
+            }
+        }
+        else {
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int)Math.min(length, TRANSFER_CHUNK_SIZE));
+            long nbCopied = 0;
+            while(nbCopied<length) {
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(), length-nbCopied));
+                while(buffer.hasRemaining()) {
+                    if(inChannel.read(buffer, srcOffset+nbCopied+buffer.position())==-1)
+                        throw new EOFException();
+                }
+
+                buffer.flip();
+                while(buffer.hasRemaining())
+                    outChannel.write(buffer, dstOffset+nbCopied+buffer.position());
+
+                nbCopied += buffer.limit();
+            }
         }
     }
 
@@ -1107,6 +1508,29 @@ public class ZipFile implements ZipConstants {
     // Inner classes //
     ///////////////////
     
+    /**
+     * Describes the move of consecutive entries to a lower offset, planned by {@link ZipFile#planMoves(ZipEntry[])}.
+     */
+    private static class EntriesMove {
+
+        /** Offset of the first entry's local file header */
+        private final long srcOffset;
+
+        /** Offset to move the first entry's local file header to */
+        private final long dstOffset;
+
+        /** Total length of the moved entries */
+        private long length;
+
+        /** The moved entries, in file order */
+        private final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+
+        private EntriesMove(long srcOffset, long dstOffset) {
+            this.srcOffset = srcOffset;
+            this.dstOffset = dstOffset;
+        }
+    }
+
     /**
      * InputStream that delegates requests to the underlying RandomAccessFile, making sure that only bytes from a
      * certain range can be read.
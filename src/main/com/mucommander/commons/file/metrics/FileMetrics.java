@@ -0,0 +1,358 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.metrics;
+
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <code>FileMetrics</code> is the entry point of the metrics API: file implementations report the calls they make to
+ * their storage, the bytes they transfer, the time they wait for pooled connections and the hit rate of their caches,
+ * and FileMetrics forwards these measurements to the installed {@link MetricsRecorder}.
+ *
+ * <p>Metrics are disabled until a recorder is {@link #setRecorder(MetricsRecorder) installed}. When they are disabled,
+ * the instrumentation boils down to a volatile read: {@link #start()} returns <code>0</code> without reading the
+ * clock, {@link #end(String, MeteredOperation, long, boolean)} returns immediately, and the <code>meter</code> methods
+ * return the given streams as-is.</p>
+ *
+ * <p>File implementations time their operations as follows:
+ * <pre>
+ *   long start = FileMetrics.start();
+ *   boolean failed = true;
+ *   try {
+ *       // Talk to the storage
+ *       failed = false;
+ *   }
+ *   finally {
+ *       FileMetrics.end(scheme, MeteredOperation.LIST, start, failed);
+ *   }
+ * </pre>
+ * and wrap the streams they return with {@link #meter(String, InputStream)} and its variations, so that reads,
+ * writes and the bytes transferred are recorded.</p>
+ *
+ * @see MetricsRecorder
+ * @see SimpleMetricsRecorder
+ */
+public class FileMetrics {
+
+    /** The recorder measurements are forwarded to, null when metrics are disabled */
+    private static volatile MetricsRecorder recorder;
+
+    /**
+     * Makes sure no instance of <code>FileMetrics</code> is created.
+     */
+    private FileMetrics() {
+    }
+
+    /**
+     * Installs the recorder that measurements are forwarded to, enabling metrics. Specifying <code>null</code>
+     * disables metrics.
+     *
+     * @param recorder the recorder to forward measurements to, <code>null</code> to disable metrics
+     */
+    public static void setRecorder(MetricsRecorder recorder) {
+        FileMetrics.recorder = recorder;
+    }
+
+    /**
+     * Returns the recorder that measurements are forwarded to, <code>null</code> if metrics are disabled.
+     *
+     * @return the recorder that measurements are forwarded to, null if metrics are disabled
+     */
+    public static MetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Returns <code>true</code> if a recorder is installed.
+     *
+     * @return true if a recorder is installed
+     */
+    public static boolean isEnabled() {
+        return recorder!=null;
+    }
+
+    /**
+     * Returns the time at which an operation starts, to be passed to {@link #end(String, MeteredOperation, long, boolean)}
+     * or {@link #poolWait(String, long)}. Returns <code>0</code> without reading the clock if metrics are disabled.
+     *
+     * @return the current System.nanoTime(), 0 if metrics are disabled
+     */
+    public static long start() {
+        return recorder==null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records a call to an operation that started at the given time. This method does nothing if the call started
+     * while metrics were disabled.
+     *
+     * @param scheme the protocol or archive format the call was made on
+     * @param operation the operation
+     * @param start the value returned by {@link #start()} when the call started
+     * @param failed <code>true</code> if the call threw an exception
+     */
+    public static void end(String scheme, MeteredOperation operation, long start, boolean failed) {
+        if(start==0)
+            return;
+
+        MetricsRecorder recorder = FileMetrics.recorder;
+        if(recorder!=null)
+            recorder.recordOperation(scheme, operation, System.nanoTime()-start, failed);
+    }
+
+    /**
+     * Records the time spent waiting for a pooled resource since the given time. This method does nothing if the wait
+     * started while metrics were disabled.
+     *
+     * @param scheme the protocol the resource belongs to
+     * @param start the value returned by {@link #start()} when the wait started
+     */
+    public static void poolWait(String scheme, long start) {
+        if(start==0)
+            return;
+
+        MetricsRecorder recorder = FileMetrics.recorder;
+        if(recorder!=null)
+            recorder.recordPoolWait(scheme, System.nanoTime()-start);
+    }
+
+    /**
+     * Records a lookup in a cache.
+     *
+     * @param scheme the protocol or archive format the cache belongs to
+     * @param cache name of the cache
+     * @param hit <code>true</code> if the lookup found the value in the cache
+     */
+    public static void cacheAccess(String scheme, String cache, boolean hit) {
+        MetricsRecorder recorder = FileMetrics.recorder;
+        if(recorder!=null)
+            recorder.recordCacheAccess(scheme, cache, hit);
+    }
+
+    /**
+     * Returns a stream that records the reads made to the given stream and the bytes read, or the given stream itself
+     * if metrics are disabled.
+     *
+     * @param scheme the protocol or archive format the stream reads from
+     * @param in the stream to meter
+     * @return a metered stream, or the given stream if metrics are disabled
+     */
+    public static InputStream meter(String scheme, InputStream in) {
+        return recorder==null ? in : new MeteredInputStream(scheme, in);
+    }
+
+    /**
+     * Returns a stream that records the writes made to the given stream and the bytes written, or the given stream
+     * itself if metrics are disabled.
+     *
+     * @param scheme the protocol or archive format the stream writes to
+     * @param out the stream to meter
+     * @return a metered stream, or the given stream if metrics are disabled
+     */
+    public static OutputStream meter(String scheme, OutputStream out) {
+        return recorder==null ? out : new MeteredOutputStream(scheme, out);
+    }
+
+    /**
+     * Returns a stream that records the reads and seeks made to the given stream and the bytes read, or the given
+     * stream itself if metrics are disabled.
+     *
+     * @param scheme the protocol or archive format the stream reads from
+     * @param rais the stream to meter
+     * @return a metered stream, or the given stream if metrics are disabled
+     */
+    public static RandomAccessInputStream meter(String scheme, RandomAccessInputStream rais) {
+        return recorder==null ? rais : new MeteredRandomAccessInputStream(scheme, rais);
+    }
+
+    /**
+     * Records a read or write that started at the given time and transferred the given number of bytes.
+     */
+    private static void transferred(String scheme, MeteredOperation operation, long start, long nbBytes, boolean failed) {
+        MetricsRecorder recorder = FileMetrics.recorder;
+        if(recorder!=null) {
+            recorder.recordOperation(scheme, operation, System.nanoTime()-start, failed);
+            if(nbBytes>0)
+                recorder.recordTransfer(scheme, operation, nbBytes);
+        }
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Records the reads made to an <code>InputStream</code>.
+     */
+    private static class MeteredInputStream extends FilterInputStream {
+
+        private final String scheme;
+
+        private MeteredInputStream(String scheme, InputStream in) {
+            super(in);
+
+            this.scheme = scheme;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = -1;
+            boolean failed = true;
+            try {
+                b = in.read();
+                failed = false;
+                return b;
+            }
+            finally {
+                transferred(scheme, MeteredOperation.READ, start, b==-1?0:1, failed);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int nbRead = -1;
+            boolean failed = true;
+            try {
+                nbRead = in.read(b, off, len);
+                failed = false;
+                return nbRead;
+            }
+            finally {
+                transferred(scheme, MeteredOperation.READ, start, nbRead, failed);
+            }
+        }
+    }
+
+    /**
+     * Records the writes made to an <code>OutputStream</code>.
+     */
+    private static class MeteredOutputStream extends FilterOutputStream {
+
+        private final String scheme;
+
+        private MeteredOutputStream(String scheme, OutputStream out) {
+            super(out);
+
+            this.scheme = scheme;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                out.write(b);
+                failed = false;
+            }
+            finally {
+                transferred(scheme, MeteredOperation.WRITE, start, failed?0:1, failed);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                // FilterOutputStream would write bytes one by one
+                out.write(b, off, len);
+                failed = false;
+            }
+            finally {
+                transferred(scheme, MeteredOperation.WRITE, start, failed?0:len, failed);
+            }
+        }
+    }
+
+    /**
+     * Records the reads and seeks made to a <code>RandomAccessInputStream</code>.
+     */
+    private static class MeteredRandomAccessInputStream extends RandomAccessInputStream {
+
+        private final String scheme;
+        private final RandomAccessInputStream rais;
+
+        private MeteredRandomAccessInputStream(String scheme, RandomAccessInputStream rais) {
+            this.scheme = scheme;
+            this.rais = rais;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = -1;
+            boolean failed = true;
+            try {
+                b = rais.read();
+                failed = false;
+                return b;
+            }
+            finally {
+                transferred(scheme, MeteredOperation.READ, start, b==-1?0:1, failed);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int nbRead = -1;
+            boolean failed = true;
+            try {
+                nbRead = rais.read(b, off, len);
+                failed = false;
+                return nbRead;
+            }
+            finally {
+                transferred(scheme, MeteredOperation.READ, start, nbRead, failed);
+            }
+        }
+
+        public void seek(long offset) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                rais.seek(offset);
+                failed = false;
+            }
+            finally {
+                transferred(scheme, MeteredOperation.SEEK, start, 0, failed);
+            }
+        }
+
+        public long getOffset() throws IOException {
+            return rais.getOffset();
+        }
+
+        public long getLength() throws IOException {
+            return rais.getLength();
+        }
+
+        @Override
+        public void close() throws IOException {
+            rais.close();
+        }
+    }
+}
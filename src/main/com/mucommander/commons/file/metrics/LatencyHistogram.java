@@ -0,0 +1,126 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe, lock-free histogram of durations. It counts durations in {@link #NB_BUCKETS} buckets of exponentially
+ * increasing width: bucket <code>i</code> counts the durations between <code>2^i</code> and <code>2^(i+1)</code>
+ * microseconds, bucket <code>0</code> those below 2 microseconds. Percentiles are approximated by the upper bound of
+ * the bucket they fall in, which is precise enough to tell a cache hit from a network round-trip.
+ */
+public class LatencyHistogram {
+
+    /** Number of buckets of a histogram */
+    public final static int NB_BUCKETS = 32;
+
+    /** Number of durations recorded */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of the durations recorded, in nanoseconds */
+    private final AtomicLong totalTime = new AtomicLong();
+
+    /** Number of durations recorded in each bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray(NB_BUCKETS);
+
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        count.incrementAndGet();
+        totalTime.addAndGet(nanos);
+        buckets.incrementAndGet(getBucket(nanos));
+    }
+
+    /**
+     * Returns the index of the bucket that the given duration falls in.
+     *
+     * @param nanos the duration, in nanoseconds
+     * @return the index of the bucket that the duration falls in
+     */
+    public static int getBucket(long nanos) {
+        long micros = nanos/1000;
+        if(micros<2)
+            return 0;
+
+        return Math.min(NB_BUCKETS-1, 63-Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the durations recorded, in nanoseconds.
+     *
+     * @return the sum of the durations recorded, in nanoseconds
+     */
+    public long getTotalTime() {
+        return totalTime.get();
+    }
+
+    /**
+     * Returns a copy of the number of durations recorded in each bucket.
+     *
+     * @return the number of durations recorded in each bucket, {@link #NB_BUCKETS} long
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[NB_BUCKETS];
+        for(int i=0; i<NB_BUCKETS; i++)
+            counts[i] = buckets.get(i);
+
+        return counts;
+    }
+
+    /**
+     * Returns an approximation of the given percentile of the durations recorded, i.e. the upper bound of the bucket
+     * the percentile falls in. Returns <code>0</code> if no duration has been recorded.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return an approximation of the percentile, in microseconds
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = getBuckets();
+        long nbDurations = 0;
+        for(long bucketCount : counts)
+            nbDurations += bucketCount;
+
+        if(nbDurations==0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(nbDurations*percentile/100));
+        long cumulatedCount = 0;
+        for(int i=0; i<NB_BUCKETS; i++) {
+            cumulatedCount += counts[i];
+            if(cumulatedCount>=rank)
+                return 2L<<i;
+        }
+
+        return 2L<<(NB_BUCKETS-1);
+    }
+}
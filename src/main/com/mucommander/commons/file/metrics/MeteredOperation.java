@@ -0,0 +1,58 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.metrics;
+
+/**
+ * Enumerates the operations whose calls are recorded by {@link FileMetrics}. Operations are coarse on purpose: they
+ * correspond to the requests that a file implementation issues to its storage, regardless of the
+ * <code>AbstractFile</code> method that triggered them.
+ *
+ * @see MetricsRecorder
+ */
+public enum MeteredOperation {
+
+    /** Lists the children of a directory, or the entries of an archive */
+    LIST,
+
+    /** Retrieves the attributes of a file */
+    STAT,
+
+    /** Opens a file for reading */
+    OPEN_READ,
+
+    /** Opens a file for writing */
+    OPEN_WRITE,
+
+    /** Reads from a stream */
+    READ,
+
+    /** Writes to a stream */
+    WRITE,
+
+    /** Seeks within a random access stream */
+    SEEK,
+
+    /** Creates a directory */
+    MKDIR,
+
+    /** Deletes a file or directory */
+    DELETE,
+
+    /** Renames or moves a file */
+    RENAME
+}
@@ -0,0 +1,71 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.metrics;
+
+/**
+ * <code>MetricsRecorder</code> is the service provider interface of {@link FileMetrics}: it receives the
+ * measurements made by file implementations, and is installed with {@link FileMetrics#setRecorder(MetricsRecorder)}.
+ *
+ * <p>{@link SimpleMetricsRecorder} keeps the measurements in memory and exposes them as {@link MetricsSnapshot}s.
+ * Applications that already have a metrics registry can instead implement this interface to forward the
+ * measurements to their registry.</p>
+ *
+ * <p>Measurements are keyed by <i>scheme</i>: the protocol of the file (e.g. <code>ftp</code>, <code>s3</code>) or,
+ * for archives, the archive format (e.g. <code>zip</code>, <code>tar</code>). Implementations must be thread-safe,
+ * and should be fast: methods are called synchronously, from the thread that performs the operation.</p>
+ *
+ * @see FileMetrics
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Records a call to an operation.
+     *
+     * @param scheme the protocol or archive format the call was made on
+     * @param operation the operation
+     * @param nanos duration of the call, in nanoseconds
+     * @param failed <code>true</code> if the call threw an exception
+     */
+    public void recordOperation(String scheme, MeteredOperation operation, long nanos, boolean failed);
+
+    /**
+     * Records bytes transferred by a {@link MeteredOperation#READ read} or {@link MeteredOperation#WRITE write}.
+     *
+     * @param scheme the protocol or archive format the bytes were transferred from or to
+     * @param operation {@link MeteredOperation#READ} or {@link MeteredOperation#WRITE}
+     * @param nbBytes number of bytes transferred
+     */
+    public void recordTransfer(String scheme, MeteredOperation operation, long nbBytes);
+
+    /**
+     * Records the time spent waiting to acquire a pooled resource, such as a connection.
+     *
+     * @param scheme the protocol the resource belongs to
+     * @param nanos time spent waiting, in nanoseconds
+     */
+    public void recordPoolWait(String scheme, long nanos);
+
+    /**
+     * Records a lookup in a cache.
+     *
+     * @param scheme the protocol or archive format the cache belongs to
+     * @param cache name of the cache
+     * @param hit <code>true</code> if the lookup found the value in the cache
+     */
+    public void recordCacheAccess(String scheme, String cache, boolean hit);
+}
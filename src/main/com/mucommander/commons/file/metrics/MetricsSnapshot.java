@@ -0,0 +1,226 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.metrics;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable snapshot of the measurements of a {@link SimpleMetricsRecorder}, taken with
+ * {@link SimpleMetricsRecorder#getSnapshot()}. A snapshot is a flat, sorted map of named values, which can be exported
+ * as-is to a dashboard or a monitoring system. Values are named as follows:
+ * <ul>
+ *  <li><code>&lt;scheme&gt;.&lt;operation&gt;.count</code>, <code>.errors</code>: number of calls and of failed
+ * calls to an operation (e.g. <code>ftp.list.count</code>)</li>
+ *  <li><code>&lt;scheme&gt;.&lt;operation&gt;.time</code>: time spent in calls to an operation, in nanoseconds</li>
+ *  <li><code>&lt;scheme&gt;.&lt;operation&gt;.p50</code>, <code>.p90</code>, <code>.p99</code>: percentiles of the
+ * duration of calls to an operation, in microseconds</li>
+ *  <li><code>&lt;scheme&gt;.bytes.read</code>, <code>&lt;scheme&gt;.bytes.written</code>: number of bytes
+ * transferred</li>
+ *  <li><code>&lt;scheme&gt;.pool.wait.count</code>, <code>.time</code>, <code>.p99</code>: waits for pooled
+ * connections</li>
+ *  <li><code>&lt;scheme&gt;.cache.&lt;cache&gt;.hits</code>, <code>.misses</code>, <code>.hitRate</code>: lookups in
+ * a cache, the hit rate being a <code>Double</code> between 0 and 1</li>
+ * </ul>
+ * Operation names are the lower-case names of {@link MeteredOperation} constants.
+ */
+public class MetricsSnapshot {
+
+    /** Time at which the snapshot was taken, in milliseconds since the epoch */
+    private final long timestamp;
+
+    /** Values of the snapshot, sorted by name */
+    private final SortedMap<String, Number> values;
+
+
+    private MetricsSnapshot(long timestamp, SortedMap<String, Number> values) {
+        this.timestamp = timestamp;
+        this.values = Collections.unmodifiableSortedMap(values);
+    }
+
+    /**
+     * Returns the time at which the snapshot was taken, in milliseconds since the epoch.
+     *
+     * @return the time at which the snapshot was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the values of this snapshot, sorted by name.
+     *
+     * @return an unmodifiable map of the values of this snapshot
+     */
+    public SortedMap<String, Number> getValues() {
+        return values;
+    }
+
+    /**
+     * Returns the value with the given name, <code>null</code> if this snapshot has no such value.
+     *
+     * @param name name of the value
+     * @return the value with the given name, null if there is none
+     */
+    public Number getValue(String name) {
+        return values.get(name);
+    }
+
+    /**
+     * Returns the number of calls made to the given operation on the given scheme.
+     *
+     * @param scheme the protocol or archive format
+     * @param operation the operation
+     * @return the number of calls made to the operation
+     */
+    public long getCallCount(String scheme, MeteredOperation operation) {
+        return getLong(getName(scheme, operation)+".count");
+    }
+
+    /**
+     * Returns the number of calls made to the given operation on the given scheme that failed.
+     *
+     * @param scheme the protocol or archive format
+     * @param operation the operation
+     * @return the number of calls made to the operation that failed
+     */
+    public long getErrorCount(String scheme, MeteredOperation operation) {
+        return getLong(getName(scheme, operation)+".errors");
+    }
+
+    /**
+     * Returns the time spent in calls to the given operation on the given scheme, in nanoseconds.
+     *
+     * @param scheme the protocol or archive format
+     * @param operation the operation
+     * @return the time spent in calls to the operation, in nanoseconds
+     */
+    public long getTotalTime(String scheme, MeteredOperation operation) {
+        return getLong(getName(scheme, operation)+".time");
+    }
+
+    /**
+     * Returns the number of bytes read from the given scheme.
+     *
+     * @param scheme the protocol or archive format
+     * @return the number of bytes read
+     */
+    public long getBytesRead(String scheme) {
+        return getLong(scheme+".bytes.read");
+    }
+
+    /**
+     * Returns the number of bytes written to the given scheme.
+     *
+     * @param scheme the protocol or archive format
+     * @return the number of bytes written
+     */
+    public long getBytesWritten(String scheme) {
+        return getLong(scheme+".bytes.written");
+    }
+
+    /**
+     * Returns the number of times a connection of the given scheme was waited for.
+     *
+     * @param scheme the protocol
+     * @return the number of times a connection was waited for
+     */
+    public long getPoolWaitCount(String scheme) {
+        return getLong(scheme+".pool.wait.count");
+    }
+
+    /**
+     * Returns the hit rate of the given cache, between 0 and 1, or <code>-1</code> if the cache has not been accessed.
+     *
+     * @param scheme the protocol or archive format
+     * @param cache name of the cache
+     * @return the hit rate of the cache, -1 if it has not been accessed
+     */
+    public double getHitRate(String scheme, String cache) {
+        Number hitRate = values.get(scheme+".cache."+cache+".hitRate");
+        return hitRate==null?-1:hitRate.doubleValue();
+    }
+
+    private long getLong(String name) {
+        Number value = values.get(name);
+        return value==null?0:value.longValue();
+    }
+
+    private static String getName(String scheme, MeteredOperation operation) {
+        return scheme+"."+operation.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the values of this snapshot, one <code>name=value</code> pair per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String, Number> entry : values.entrySet())
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Accumulates the values of a snapshot.
+     */
+    static class Builder {
+
+        private final SortedMap<String, Number> values = new TreeMap<String, Number>();
+
+        void addOperation(String scheme, MeteredOperation operation, LatencyHistogram latencies, long nbErrors) {
+            String name = getName(scheme, operation);
+            values.put(name+".count", latencies.getCount());
+            values.put(name+".errors", nbErrors);
+            values.put(name+".time", latencies.getTotalTime());
+            values.put(name+".p50", latencies.getPercentile(50));
+            values.put(name+".p90", latencies.getPercentile(90));
+            values.put(name+".p99", latencies.getPercentile(99));
+        }
+
+        void addTransfers(String scheme, long bytesRead, long bytesWritten) {
+            if(bytesRead>0)
+                values.put(scheme+".bytes.read", bytesRead);
+            if(bytesWritten>0)
+                values.put(scheme+".bytes.written", bytesWritten);
+        }
+
+        void addPoolWaits(String scheme, LatencyHistogram waits) {
+            values.put(scheme+".pool.wait.count", waits.getCount());
+            values.put(scheme+".pool.wait.time", waits.getTotalTime());
+            values.put(scheme+".pool.wait.p99", waits.getPercentile(99));
+        }
+
+        void addCache(String scheme, String cache, long hits, long misses) {
+            String name = scheme+".cache."+cache;
+            values.put(name+".hits", hits);
+            values.put(name+".misses", misses);
+            if(hits+misses>0)
+                values.put(name+".hitRate", (double)hits/(hits+misses));
+        }
+
+        MetricsSnapshot build() {
+            return new MetricsSnapshot(System.currentTimeMillis(), values);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <code>SimpleMetricsRecorder</code> is a {@link MetricsRecorder} that keeps the measurements in memory: a
+ * {@link LatencyHistogram} and an error count per scheme and operation, byte counters and a pool wait histogram per
+ * scheme, and hit and miss counters per scheme and cache. The measurements can be exported at any time as a
+ * {@link MetricsSnapshot}.
+ *
+ * <p>This class is thread-safe and lock-free, except for the first measurement of a scheme or cache.</p>
+ */
+public class SimpleMetricsRecorder implements MetricsRecorder {
+
+    /** Measurements of each scheme */
+    private final ConcurrentMap<String, SchemeMetrics> schemes = new ConcurrentHashMap<String, SchemeMetrics>();
+
+
+    /**
+     * Returns the measurements of the given scheme, creating them if necessary.
+     */
+    private SchemeMetrics getSchemeMetrics(String scheme) {
+        SchemeMetrics metrics = schemes.get(scheme);
+        if(metrics==null) {
+            metrics = new SchemeMetrics();
+            SchemeMetrics existingMetrics = schemes.putIfAbsent(scheme, metrics);
+            if(existingMetrics!=null)
+                metrics = existingMetrics;
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Returns a snapshot of the measurements recorded so far.
+     *
+     * @return a snapshot of the measurements recorded so far
+     */
+    public MetricsSnapshot getSnapshot() {
+        MetricsSnapshot.Builder builder = new MetricsSnapshot.Builder();
+        MeteredOperation operations[] = MeteredOperation.values();
+
+        for(Map.Entry<String, SchemeMetrics> schemeEntry : schemes.entrySet()) {
+            String scheme = schemeEntry.getKey();
+            SchemeMetrics metrics = schemeEntry.getValue();
+
+            for(MeteredOperation operation : operations) {
+                LatencyHistogram latencies = metrics.latencies[operation.ordinal()];
+                if(latencies.getCount()>0)
+                    builder.addOperation(scheme, operation, latencies, metrics.errors.get(operation.ordinal()));
+            }
+
+            builder.addTransfers(scheme, metrics.bytesRead.get(), metrics.bytesWritten.get());
+
+            if(metrics.poolWaits.getCount()>0)
+                builder.addPoolWaits(scheme, metrics.poolWaits);
+
+            for(Map.Entry<String, AtomicLongArray> cacheEntry : metrics.caches.entrySet()) {
+                AtomicLongArray accesses = cacheEntry.getValue();
+                builder.addCache(scheme, cacheEntry.getKey(), accesses.get(0), accesses.get(1));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Discards all the measurements recorded so far.
+     */
+    public void reset() {
+        schemes.clear();
+    }
+
+
+    ////////////////////////////////////
+    // MetricsRecorder implementation //
+    ////////////////////////////////////
+
+    public void recordOperation(String scheme, MeteredOperation operation, long nanos, boolean failed) {
+        SchemeMetrics metrics = getSchemeMetrics(scheme);
+        metrics.latencies[operation.ordinal()].record(nanos);
+        if(failed)
+            metrics.errors.incrementAndGet(operation.ordinal());
+    }
+
+    public void recordTransfer(String scheme, MeteredOperation operation, long nbBytes) {
+        SchemeMetrics metrics = getSchemeMetrics(scheme);
+        if(operation==MeteredOperation.WRITE)
+            metrics.bytesWritten.addAndGet(nbBytes);
+        else
+            metrics.bytesRead.addAndGet(nbBytes);
+    }
+
+    public void recordPoolWait(String scheme, long nanos) {
+        getSchemeMetrics(scheme).poolWaits.record(nanos);
+    }
+
+    public void recordCacheAccess(String scheme, String cache, boolean hit) {
+        ConcurrentMap<String, AtomicLongArray> caches = getSchemeMetrics(scheme).caches;
+        AtomicLongArray accesses = caches.get(cache);
+        if(accesses==null) {
+            accesses = new AtomicLongArray(2);
+            AtomicLongArray existingAccesses = caches.putIfAbsent(cache, accesses);
+            if(existingAccesses!=null)
+                accesses = existingAccesses;
+        }
+
+        // Hits are counted at index 0, misses at index 1
+        accesses.incrementAndGet(hit?0:1);
+    }
+
+
+    /**
+     * Measurements of a single scheme.
+     */
+    private static class SchemeMetrics {
+        private final LatencyHistogram latencies[];
+        private final AtomicLongArray errors = new AtomicLongArray(MeteredOperation.values().length);
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final LatencyHistogram poolWaits = new LatencyHistogram();
+        private final ConcurrentMap<String, AtomicLongArray> caches = new ConcurrentHashMap<String, AtomicLongArray>();
+
+        private SchemeMetrics() {
+            latencies = new LatencyHistogram[MeteredOperation.values().length];
+            for(int i=0; i<latencies.length; i++)
+                latencies[i] = new LatencyHistogram();
+        }
+    }
+}
@@ -19,8 +19,11 @@
 
 package com.mucommander.commons.file.util;
 
+import com.sun.jna.LastErrorException;
 import com.sun.jna.Library;
+import com.sun.jna.NativeLong;
 import com.sun.jna.Structure;
+import com.sun.jna.ptr.LongByReference;
 
 /**
  * Exposes parts of the C standard library using JNA (Java Native Access).
@@ -34,31 +37,35 @@ public interface CLibrary extends Library {
     //////////////////////
     
     /**
-     * Structure that holds the information returned by {@link CLibrary#statvfs(String, STATVFSSTRUCT)}.
+     * Structure that holds the information returned by {@link CLibrary#statvfs(String, STATVFSSTRUCT)}, laid out as
+     * glibc's <code>struct statvfs</code>. On 32-bit platforms, the fields that follow {@link #f_fsid} are not
+     * reliable.
      */
     public static class STATVFSSTRUCT extends Structure {
         /* file system block size */
-        public int f_bsize;
+        public NativeLong f_bsize;
         /* fragment size */
-        public int f_frsize;
+        public NativeLong f_frsize;
         /* size of fs in f_frsize units */
-        public int f_blocks;
+        public NativeLong f_blocks;
         /* # free blocks */
-        public int f_bfree;
+        public NativeLong f_bfree;
         /* # free blocks for non-root */
-        public int f_bavail;
+        public NativeLong f_bavail;
         /* # inodes */
-        public int f_files;
+        public NativeLong f_files;
         /* # free inodes */
-        public int f_ffree;
+        public NativeLong f_ffree;
         /* # free inodes for non-root */
-        public int f_favail;
+        public NativeLong f_favail;
         /* file system ID */
-        public long f_fsid;
+        public NativeLong f_fsid;
         /* mount flags */
-        public int f_flag;
+        public NativeLong f_flag;
         /* maximum filename length */
-        public int f_namemax;
+        public NativeLong f_namemax;
+        /* reserved */
+        public int __f_spare[] = new int[6];
     }
 
     /**
@@ -69,4 +76,96 @@ public interface CLibrary extends Library {
      * @return 0 on success, -1 on error
      */
     int statvfs(String path, STATVFSSTRUCT struct);
+
+
+    ///////////////////////////////
+    // File descriptor functions //
+    ///////////////////////////////
+
+    /** Open for reading only (Linux value) */
+    public int O_RDONLY = 0;
+    /** Open for writing only (Linux value) */
+    public int O_WRONLY = 1;
+    /** Create the file if it doesn't exist (Linux value) */
+    public int O_CREAT = 0100;
+    /** Truncate the file to a zero length (Linux value) */
+    public int O_TRUNC = 01000;
+
+    /** Seek to the next data region at or after the given offset (Linux value) */
+    public int SEEK_DATA = 3;
+    /** Seek to the next hole at or after the given offset (Linux value) */
+    public int SEEK_HOLE = 4;
+
+    /** Request code of the ioctl that makes a file share the blocks of another file (Linux value) */
+    public int FICLONE = 0x40049409;
+
+    /**
+     * Opens the file with the given path and returns a file descriptor for it.
+     *
+     * @param path path to the file to open
+     * @param flags access mode and creation flags, see {@link #O_RDONLY} and following
+     * @param mode permissions of the file if it is created
+     * @return a file descriptor
+     * @throws LastErrorException if the file could not be opened, containing the error number
+     */
+    int open(String path, int flags, int mode) throws LastErrorException;
+
+    /**
+     * Closes the given file descriptor.
+     *
+     * @param fd the file descriptor to close
+     * @return 0 on success, -1 on error
+     */
+    int close(int fd);
+
+    /**
+     * Repositions the offset of the given file descriptor. This method is declared with 64-bit offsets, and thus must
+     * only be called on 64-bit platforms.
+     *
+     * @param fd a file descriptor
+     * @param offset the offset to seek to, relatively to <code>whence</code>
+     * @param whence the directive, e.g. {@link #SEEK_DATA} or {@link #SEEK_HOLE}
+     * @return the resulting offset from the beginning of the file
+     * @throws LastErrorException if an error occurred, containing the error number
+     */
+    long lseek(int fd, long offset, int whence) throws LastErrorException;
+
+    /**
+     * Truncates or extends the file referenced by the given descriptor to the given length. This method is declared
+     * with 64-bit offsets, and thus must only be called on 64-bit platforms.
+     *
+     * @param fd a file descriptor open for writing
+     * @param length the new length of the file
+     * @return 0 on success
+     * @throws LastErrorException if an error occurred, containing the error number
+     */
+    int ftruncate(int fd, long length) throws LastErrorException;
+
+    /**
+     * Performs a device-specific operation on the given file descriptor, taking a file descriptor argument
+     * (e.g. {@link #FICLONE}).
+     *
+     * @param fd a file descriptor
+     * @param request the device-dependent request code
+     * @param arg a file descriptor argument
+     * @return 0 on success
+     * @throws LastErrorException if an error occurred, containing the error number
+     */
+    int ioctl(int fd, int request, int arg) throws LastErrorException;
+
+    /**
+     * Copies a range of data from one file to another, without the data going through user space. The filesystem may
+     * share blocks or perform server-side copies. Available since Linux 4.5 and glibc 2.27. This method is declared
+     * with 64-bit sizes and offsets, and thus must only be called on 64-bit platforms.
+     *
+     * @param fdIn file descriptor to read from
+     * @param offIn offset to read from, updated by the number of bytes copied
+     * @param fdOut file descriptor to write to
+     * @param offOut offset to write to, updated by the number of bytes copied
+     * @param len number of bytes to copy
+     * @param flags must be 0
+     * @return the number of bytes copied, 0 if <code>offIn</code> is at or past the end of the file
+     * @throws LastErrorException if an error occurred, containing the error number
+     */
+    long copy_file_range(int fdIn, LongByReference offIn, int fdOut, LongByReference offOut, long len, int flags) throws LastErrorException;
 }
@@ -0,0 +1,53 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.io.FileTransferException;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Interface to be implemented by <code>InputStream</code> classes that are able to transfer their remaining bytes to
+ * a channel more efficiently than by reading them and writing them to the channel, for instance by using
+ * <code>FileChannel#transferTo</code> which allows the OS to move the bytes without copying them through the Java
+ * heap.
+ *
+ * <p>{@link com.mucommander.commons.file.impl.local.LocalFile#copyStream(java.io.InputStream, boolean, long)} uses
+ * this interface when the stream to copy implements it.</p>
+ */
+public interface ChannelTransferable {
+
+    /**
+     * Transfers the bytes remaining in this stream to the given channel, until the end of the stream is reached or
+     * <code>length</code> bytes have been transferred. The stream's position is advanced by the number of bytes
+     * transferred.
+     *
+     * <p>Errors that occur while writing to the channel are reported as a {@link FileTransferException} whose reason
+     * is {@link FileTransferException#WRITING_DESTINATION}. Any other <code>IOException</code> is an error that
+     * occurred while reading this stream.</p>
+     *
+     * @param target the channel to write the bytes to
+     * @param length maximum number of bytes to transfer, <code>-1</code> to transfer all the remaining bytes
+     * @return the number of bytes transferred
+     * @throws FileTransferException if an I/O error occurred while writing to the channel
+     * @throws IOException if an I/O error occurred while reading this stream
+     */
+    public long transferTo(WritableByteChannel target, long length) throws IOException;
+}
@@ -0,0 +1,598 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.ByteUtils;
+import com.mucommander.commons.io.FileTransferException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>ChecksumCalculator</code> calculates several checksums (also referred to as <i>hashes</i> or <i>digests</i>)
+ * of a file in a single pass, and the checksums of all the files of a tree concurrently.
+ *
+ * <p>{@link AbstractFile#calculateChecksum(MessageDigest)} reads the file once per digest, and on the thread that
+ * feeds the digest. {@link #calculateChecksums(InputStream, MessageDigest[])} instead reads the stream on a separate
+ * thread into a pair of buffers: while one buffer is being filled, the other one is fed to all the digests, each
+ * digest being updated by its own thread. Streams that fit in a single buffer are hashed on the calling thread.</p>
+ *
+ * <p>{@link #calculateTreeChecksums(AbstractFile, String[])} walks a tree and hashes up to
+ * {@link #getParallelism()} files at once. As with {@link AbstractFile#copyTo(AbstractFile)}, symbolic links are
+ * skipped and directories that loop back to one of their ancestors are not descended into.</p>
+ *
+ * <p>Checksums can optionally be kept in a LRU cache, keyed by the file's URL, size and date: files that have not
+ * changed since they were last hashed are not read again. This cache is not shared between instances.</p>
+ *
+ * <p>Digests are reset once their checksum has been calculated.</p>
+ *
+ * @see AbstractFile#calculateChecksums(MessageDigest[])
+ */
+public class ChecksumCalculator {
+
+    /** Size of the buffers files are read into */
+    public final static int BUFFER_SIZE = 256 * 1024;
+
+    /** Number of buffers: one is being filled while the other one is being hashed */
+    private final static int NB_BUFFERS = 2;
+
+    /** Period in milliseconds at which the reader is checked while waiting for it to fill a buffer */
+    private final static long READER_POLL_PERIOD = 100;
+
+    /** Default number of files hashed concurrently by {@link #calculateTreeChecksums(AbstractFile, String[])} */
+    public final static int DEFAULT_PARALLELISM = 4;
+
+    /** Threads that read streams and update digests, shared by all instances */
+    private static ExecutorService pipelineExecutor;
+
+    /** Number of files hashed concurrently */
+    private final int parallelism;
+
+    /** Maximum number of files whose checksums are cached, 0 if the cache is disabled */
+    private final int cacheCapacity;
+
+    /** Cached checksums keyed by URL, size and date, then by algorithm. null if the cache is disabled */
+    private final Map<String, Map<String, String>> cache;
+
+
+    /**
+     * Creates a new <code>ChecksumCalculator</code> hashing {@link #DEFAULT_PARALLELISM} files concurrently, without
+     * a cache.
+     */
+    public ChecksumCalculator() {
+        this(DEFAULT_PARALLELISM, 0);
+    }
+
+    /**
+     * Creates a new <code>ChecksumCalculator</code>.
+     *
+     * @param parallelism number of files hashed concurrently, must be strictly positive
+     * @param cacheCapacity maximum number of files whose checksums are cached, <code>0</code> to disable the cache
+     * @throws IllegalArgumentException if <code>parallelism</code> is lower than 1 or <code>cacheCapacity</code> is
+     * negative
+     */
+    public ChecksumCalculator(int parallelism, final int cacheCapacity) {
+        if(parallelism<1)
+            throw new IllegalArgumentException("parallelism must be strictly positive: "+parallelism);
+        if(cacheCapacity<0)
+            throw new IllegalArgumentException("cacheCapacity must be positive: "+cacheCapacity);
+
+        this.parallelism = parallelism;
+        this.cacheCapacity = cacheCapacity;
+
+        if(cacheCapacity>0) {
+            cache = new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                    return size()>cacheCapacity;
+                }
+            };
+        }
+        else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Returns the number of files hashed concurrently by {@link #calculateTreeChecksums(AbstractFile, String[])}.
+     *
+     * @return the number of files hashed concurrently
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the maximum number of files whose checksums are cached, <code>0</code> if the cache is disabled.
+     *
+     * @return the maximum number of files whose checksums are cached
+     */
+    public int getCacheCapacity() {
+        return cacheCapacity;
+    }
+
+    /**
+     * Removes all the checksums from the cache.
+     */
+    public void clearCache() {
+        if(cache==null)
+            return;
+
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the checksums of the given file for each of the given algorithms, as hexadecimal strings, in the
+     * same order as the algorithms. The file is read at most once, and not at all if all the checksums are cached.
+     *
+     * @param file the file to hash
+     * @param algorithms names of the digest algorithms, as accepted by <code>MessageDigest#getInstance</code>
+     * @return the file's checksums, in the same order as the algorithms
+     * @throws IOException if an I/O error occurred while reading the file
+     * @throws NoSuchAlgorithmException if one of the algorithms does not correspond to any MessageDigest registered
+     * with the Java Cryptography Extension
+     */
+    public String[] calculateChecksums(AbstractFile file, String... algorithms) throws IOException, NoSuchAlgorithmException {
+        String checksums[] = new String[algorithms.length];
+        String key = getCacheKey(file);
+
+        // Look up the cache and only calculate the missing checksums
+        List<MessageDigest> missingDigests = new ArrayList<MessageDigest>(algorithms.length);
+        List<Integer> missingIndexes = new ArrayList<Integer>(algorithms.length);
+        Map<String, String> cachedChecksums = getCachedChecksums(key);
+        for(int i=0; i<algorithms.length; i++) {
+            if(cachedChecksums!=null)
+                checksums[i] = cachedChecksums.get(algorithms[i].toUpperCase());
+
+            if(checksums[i]==null) {
+                missingDigests.add(MessageDigest.getInstance(algorithms[i]));
+                missingIndexes.add(i);
+            }
+        }
+
+        if(missingDigests.isEmpty())
+            return checksums;
+
+        String calculated[] = file.calculateChecksums(missingDigests.toArray(new MessageDigest[missingDigests.size()]));
+        for(int i=0; i<calculated.length; i++)
+            checksums[missingIndexes.get(i)] = calculated[i];
+
+        if(key!=null) {
+            synchronized(cache) {
+                cachedChecksums = cache.get(key);
+                if(cachedChecksums==null) {
+                    cachedChecksums = new LinkedHashMap<String, String>();
+                    cache.put(key, cachedChecksums);
+                }
+
+                for(int i=0; i<algorithms.length; i++)
+                    cachedChecksums.put(algorithms[i].toUpperCase(), checksums[i]);
+            }
+        }
+
+        return checksums;
+    }
+
+    /**
+     * Returns the checksums of all the regular files contained in the given tree, for each of the given algorithms.
+     * Files are hashed concurrently, {@link #getParallelism()} at a time, while the tree is being walked.
+     * The returned map iterates over the files in depth-first order; its values hold the file's checksums in the
+     * same order as the algorithms. If <code>root</code> is a regular file, the map only contains this file.
+     *
+     * @param root the file or directory to hash
+     * @param algorithms names of the digest algorithms, as accepted by <code>MessageDigest#getInstance</code>
+     * @return the checksums of the regular files contained in the tree
+     * @throws IOException if an I/O error occurred while listing a directory or reading a file
+     * @throws NoSuchAlgorithmException if one of the algorithms does not correspond to any MessageDigest registered
+     * with the Java Cryptography Extension
+     */
+    public Map<AbstractFile, String[]> calculateTreeChecksums(AbstractFile root, final String... algorithms) throws IOException, NoSuchAlgorithmException {
+        // Fail early if an algorithm is not available
+        for(String algorithm : algorithms)
+            MessageDigest.getInstance(algorithm);
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ChecksumThreadFactory("Tree checksum calculator"));
+        try {
+            Map<AbstractFile, Future<String[]>> futures = new LinkedHashMap<AbstractFile, Future<String[]>>();
+            submitTree(root, algorithms, executor, futures, new HashSet<Object>());
+
+            Map<AbstractFile, String[]> checksums = new LinkedHashMap<AbstractFile, String[]>(futures.size()*2);
+            for(Map.Entry<AbstractFile, Future<String[]>> entry : futures.entrySet())
+                checksums.put(entry.getKey(), getResult(entry.getValue()));
+
+            return checksums;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Walks the given tree and submits a task to the executor for each of its regular files.
+     *
+     * @param file the file or directory to hash
+     * @param algorithms names of the digest algorithms
+     * @param executor the executor that hashes files
+     * @param futures the map to add the tasks' futures to
+     * @param ancestors {@link AbstractFile#getFileKey() keys} of the directories being walked
+     * @throws IOException if an I/O error occurred while listing a directory
+     */
+    private void submitTree(final AbstractFile file, final String algorithms[], ExecutorService executor, Map<AbstractFile, Future<String[]>> futures, Set<Object> ancestors) throws IOException {
+        if(file.isSymlink())
+            return;
+
+        if(file.isDirectory()) {
+            // Skip directories that loop back to one of their ancestors
+            Object key = file.getFileKey();
+            if(!ancestors.add(key))
+                return;
+
+            for(AbstractFile child : file.ls())
+                submitTree(child, algorithms, executor, futures, ancestors);
+
+            ancestors.remove(key);
+        }
+        else {
+            futures.put(file, executor.submit(new Callable<String[]>() {
+                public String[] call() throws IOException, NoSuchAlgorithmException {
+                    return calculateChecksums(file, algorithms);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Returns the key under which the checksums of the given file are cached, <code>null</code> if the cache is
+     * disabled or if the file's size or date is not known.
+     *
+     * @param file a file
+     * @return the key under which the checksums of the given file are cached, <code>null</code> if they cannot be
+     */
+    private String getCacheKey(AbstractFile file) {
+        if(cache==null)
+            return null;
+
+        long size = file.getSize();
+        long date = file.getDate();
+        if(size<0 || date<=0)
+            return null;
+
+        return file.getURL().toString(false)+'\0'+size+'\0'+date;
+    }
+
+    /**
+     * Returns a copy of the checksums cached under the given key, <code>null</code> if there are none.
+     *
+     * @param key a key returned by {@link #getCacheKey(AbstractFile)}, may be <code>null</code>
+     * @return a copy of the checksums cached under the given key, <code>null</code> if there are none
+     */
+    private Map<String, String> getCachedChecksums(String key) {
+        if(key==null)
+            return null;
+
+        synchronized(cache) {
+            Map<String, String> checksums = cache.get(key);
+            return checksums==null?null:new LinkedHashMap<String, String>(checksums);
+        }
+    }
+
+
+    ////////////////////
+    // Static methods //
+    ////////////////////
+
+    /**
+     * Returns the checksums of the given stream calculated by reading it until EOF is reached and feeding its bytes
+     * to each of the given digests, as hexadecimal strings, in the same order as the digests.
+     *
+     * <p>The stream is read on a separate thread into a pair of buffers, so that reading the next buffer overlaps
+     * hashing the previous one, and digests are updated concurrently. Streams that fit in a single buffer are hashed
+     * on the calling thread.</p>
+     *
+     * <p><b>Important:</b> this method does not close the <code>InputStream</code>. Digests are reset once the
+     * checksums have been calculated.</p>
+     *
+     * @param in the stream to hash
+     * @param messageDigests the digests to feed the stream's bytes to
+     * @return the stream's checksums, in the same order as the digests
+     * @throws IOException if an I/O error occurred while reading the stream, reported as a
+     * {@link FileTransferException} caused by the original error
+     */
+    public static String[] calculateChecksums(final InputStream in, final MessageDigest... messageDigests) throws IOException {
+        // Read the first buffer on the calling thread, which is enough for small streams
+        byte buffer[] = new byte[BUFFER_SIZE];
+        int nbRead = readBuffer(in, buffer);
+        if(nbRead<buffer.length) {
+            for(MessageDigest messageDigest : messageDigests)
+                messageDigest.update(buffer, 0, nbRead);
+
+            return getChecksums(messageDigests);
+        }
+
+        final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<byte[]>(NB_BUFFERS);
+        final BlockingQueue<Chunk> filledChunks = new ArrayBlockingQueue<Chunk>(NB_BUFFERS);
+        for(int i=1; i<NB_BUFFERS; i++)
+            freeBuffers.add(new byte[BUFFER_SIZE]);
+
+        filledChunks.add(new Chunk(buffer, nbRead, null));
+
+        ExecutorService executor = getPipelineExecutor();
+        Future<?> reader = executor.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                Chunk chunk;
+                do {
+                    byte buffer[] = freeBuffers.take();
+                    try {
+                        chunk = new Chunk(buffer, readBuffer(in, buffer), null);
+                    }
+                    catch(Throwable e) {
+                        // Always hand over a terminal chunk, lest the calling thread waits forever
+                        chunk = new Chunk(buffer, 0, e);
+                    }
+
+                    filledChunks.put(chunk);
+                }
+                while(chunk.length==chunk.buffer.length);
+
+                return null;
+            }
+        });
+
+        try {
+            Chunk chunk;
+            do {
+                chunk = takeChunk(filledChunks, reader);
+                if(chunk.exception!=null)
+                    throw getReadException(chunk.exception);
+
+                update(messageDigests, chunk, executor);
+                freeBuffers.put(chunk.buffer);
+            }
+            while(chunk.length==chunk.buffer.length);
+        }
+        catch(InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        finally {
+            // Stop the reader if an error occurred before EOF was reached
+            reader.cancel(true);
+        }
+
+        return getChecksums(messageDigests);
+    }
+
+    /**
+     * Waits for the next chunk filled by the reader and returns it. The reader is polled while waiting, so that an
+     * error that prevented it from handing over a chunk is reported rather than blocking the calling thread forever.
+     *
+     * @param filledChunks the chunks filled by the reader
+     * @param reader the task that reads the stream
+     * @return the next chunk
+     * @throws IOException if the reader terminated without handing over a terminal chunk
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the chunk
+     */
+    private static Chunk takeChunk(BlockingQueue<Chunk> filledChunks, Future<?> reader) throws IOException, InterruptedException {
+        Chunk chunk;
+        while((chunk=filledChunks.poll(READER_POLL_PERIOD, TimeUnit.MILLISECONDS))==null) {
+            if(!reader.isDone())
+                continue;
+
+            // The reader may have handed over its last chunk right before terminating
+            chunk = filledChunks.poll();
+            if(chunk!=null)
+                return chunk;
+
+            try {
+                reader.get();
+            }
+            catch(ExecutionException e) {
+                throw getReadException(e.getCause());
+            }
+            catch(CancellationException e) {
+                // Reported below
+            }
+
+            throw new FileTransferException(FileTransferException.READING_SOURCE);
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Returns the exception to throw for the given error that occurred while reading a stream: unchecked exceptions
+     * and errors are rethrown as is, other exceptions are reported as a {@link FileTransferException} caused by
+     * the error.
+     *
+     * @param e the error that occurred while reading the stream
+     * @return the exception to throw
+     */
+    private static FileTransferException getReadException(Throwable e) {
+        if(e instanceof RuntimeException)
+            throw (RuntimeException)e;
+        if(e instanceof Error)
+            throw (Error)e;
+
+        FileTransferException fte = new FileTransferException(FileTransferException.READING_SOURCE);
+        fte.initCause(e);
+        return fte;
+    }
+
+    /**
+     * Feeds the bytes of the given chunk to the digests, concurrently if there are several digests.
+     *
+     * @param messageDigests the digests to update
+     * @param chunk the bytes to feed to the digests
+     * @param executor the executor that updates all the digests but the first one
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the digests
+     */
+    private static void update(MessageDigest messageDigests[], final Chunk chunk, ExecutorService executor) throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<Future<?>>(messageDigests.length);
+        for(int i=1; i<messageDigests.length; i++) {
+            final MessageDigest messageDigest = messageDigests[i];
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    messageDigest.update(chunk.buffer, 0, chunk.length);
+                }
+            }));
+        }
+
+        if(messageDigests.length>0)
+            messageDigests[0].update(chunk.buffer, 0, chunk.length);
+
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch(ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Fills the given buffer with bytes read from the stream, stopping before if the end of the stream is reached.
+     *
+     * @param in the stream to read
+     * @param buffer the buffer to fill
+     * @return the number of bytes read
+     * @throws IOException if an error occurred while reading the stream
+     */
+    private static int readBuffer(InputStream in, byte buffer[]) throws IOException {
+        int off = 0;
+        int nbRead;
+        while(off<buffer.length && (nbRead=in.read(buffer, off, buffer.length-off))!=-1)
+            off += nbRead;
+
+        return off;
+    }
+
+    /**
+     * Completes the given digests and returns their checksums as hexadecimal strings.
+     *
+     * @param messageDigests the digests to complete
+     * @return the digests' checksums, as hexadecimal strings
+     */
+    private static String[] getChecksums(MessageDigest messageDigests[]) {
+        String checksums[] = new String[messageDigests.length];
+        for(int i=0; i<messageDigests.length; i++)
+            checksums[i] = ByteUtils.toHexString(messageDigests[i].digest());
+
+        return checksums;
+    }
+
+    /**
+     * Returns the result of the given task, rethrowing the exception it threw if any.
+     *
+     * @param future the task's future
+     * @return the result of the task
+     * @throws IOException if the task threw an IOException, or if the calling thread was interrupted
+     * @throws NoSuchAlgorithmException if the task threw a NoSuchAlgorithmException
+     */
+    private static String[] getResult(Future<String[]> future) throws IOException, NoSuchAlgorithmException {
+        try {
+            return future.get();
+        }
+        catch(InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+            if(cause instanceof NoSuchAlgorithmException)
+                throw (NoSuchAlgorithmException)cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns the executor that reads streams and updates digests, creating it if necessary. Its threads are
+     * created on demand and discarded after being idle for a minute.
+     *
+     * @return the executor that reads streams and updates digests
+     */
+    private static synchronized ExecutorService getPipelineExecutor() {
+        if(pipelineExecutor==null)
+            pipelineExecutor = Executors.newCachedThreadPool(new ChecksumThreadFactory("Checksum calculator"));
+
+        return pipelineExecutor;
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Bytes read from a stream, or the error that occurred while reading it.
+     */
+    private static class Chunk {
+        private final byte buffer[];
+        private final int length;
+        private final Throwable exception;
+
+        private Chunk(byte buffer[], int length, Throwable exception) {
+            this.buffer = buffer;
+            this.length = length;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * Creates daemon threads with the given name.
+     */
+    private static class ChecksumThreadFactory implements ThreadFactory {
+        private final String name;
+
+        private ChecksumThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
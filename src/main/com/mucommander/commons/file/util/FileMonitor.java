@@ -30,9 +30,9 @@ import java.util.WeakHashMap;
  * {@link FileChangeListener} listeners accordingly.
  *
  * <p>
- * FileMonitor detects attributes changes by polling the file's attributes at a given frequency and comparing their
- * values with the previous ones. If any of the monitored attributes has changed, {@link FileChangeListener#fileChanged(AbstractFile, int)}
- * is called on each of the registered listeners to notify them of the file attributes that have changed.
+ * FileMonitor detects attributes changes by comparing the file's attributes with their previous values. If any of the
+ * monitored attributes has changed, {@link FileChangeListener#fileChanged(AbstractFile, int)} is called on each of the
+ * registered listeners to notify them of the file attributes that have changed.
  * <br>Here's the list of file attributes that can be monitored:
  * <ul>
  *  <li>{@link #DATE_ATTRIBUTE}
@@ -43,14 +43,19 @@ import java.util.WeakHashMap;
  * </ul>
  * </p>
  *
+ * <p>Monitors do not have a thread of their own: they are all serviced by {@link FileMonitorService}.
+ * Local files are watched using the platform's <code>java.nio.file.WatchService</code> ('inotify' under Linux) and
+ * their attributes are only fetched when the filesystem reports an event on them. Other files (remote files, archive
+ * entries) and local files that cannot be watched have their attributes polled by a small shared pool of threads.</p>
+ *
  * <p>The polling frequency is controlled by the poll period. This parameter determines how often the file's attributes
  * are checked. The lower this period is, the faster changes will be reported to listeners, but also the higher the
- * impact on I/O and CPU. This parameter should be carefully specified to avoid hogging resources excessively.</p>
+ * impact on I/O and CPU. This parameter should be carefully specified to avoid hogging resources excessively.
+ * The poll period is a minimum: as long as the file doesn't change, it is progressively increased up to
+ * {@link #MAX_POLL_PERIOD_FACTOR} times its initial value, and is reset as soon as a change is detected.</p>
  *
- * <p>Note that FileMonitor uses file attributes polling because the Java API doesn't currently provide any better way
- * to do detect file changes. If Java ever does provide a callback mechanism for detecting file changes, this class
- * will be modified to take advantage of it. Another possible improvement would be to add JNI hooks for platform-specific
- * filesystem events such as 'inotify' (Linux Kernel), 'kqueue' (BSD, Mac OS X), PAM (Solaris), ...</p>
+ * <p>Changes that happen in quick succession are coalesced: they are reported at most once every
+ * {@link #getCoalescePeriod() coalesce period}, in a single event that combines all the attributes that have changed.</p>
  *
  * @see FileChangeListener
  * @author Maxence Bernard
@@ -58,6 +63,15 @@ import java.util.WeakHashMap;
 public class FileMonitor implements FileMonitorConstants, Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileMonitor.class);
 
+    /** Maximum factor by which the poll period of a file that doesn't change is increased */
+    public final static int MAX_POLL_PERIOD_FACTOR = 4;
+
+    /** Period during which change notifications are coalesced, in milliseconds */
+    private static volatile long coalescePeriod = DEFAULT_COALESCE_PERIOD;
+
+    /** True if local files are watched using a WatchService rather than polled */
+    private static volatile boolean watchServiceEnabled = true;
+
     /** Monitored file */
     private AbstractFile file;
     /** Monitored attributes */
@@ -65,18 +79,22 @@ public class FileMonitor implements FileMonitorConstants, Runnable {
     /** Poll period in milliseconds, i.e. the time to elapse between two file attributes polls */
     private long pollPeriod;
 
-    /** The thread that actually does the file attributes polling and event firing */
-    private Thread monitorThread;
-
-    /**
-     * True once this monitor is ready to catch file changes, that is when the monitor thread has been started and
-     * initial file attributes have been fetched.
-     */
-    private boolean isInitialized;
+    /** Registration of this monitor with the monitoring service, null if the file is not currently monitored */
+    private FileMonitorService.Registration registration;
 
     /** Registered FileChangeListener instances, stored as weak references */
     private WeakHashMap<FileChangeListener, ?> listeners = new WeakHashMap<FileChangeListener, Object>();
 
+    /** Last known values of the monitored attributes */
+    private long lastDate;
+    private long lastSize;
+    private int lastPermissions;
+    private boolean lastIsDirectory;
+    private boolean lastExists;
+
+    /** Lock that serializes attribute checks */
+    private final Object checkLock = new Object();
+
 
     /**
      * Creates a new FileMonitor that monitors the given file for changes, using the default attribute set (as defined
@@ -135,11 +153,11 @@ public class FileMonitor implements FileMonitorConstants, Runnable {
      * </p>
      *
      * <p>
-     * The poll period specified in the constructor determines how often the file's attributes will be checked.
-     * The lower this period is, the faster changes will be reported to registered listeners, but also the higher the
-     * impact on I/O and CPU.
-     * <br>Note that the time spent for polling is taken into account for the poll period. For example, if the poll
-     * period is 1000ms, and polling the file's attributes took 50ms, the next poll will happen in 950ms.
+     * The poll period specified in the constructor determines how often the file's attributes will be checked, if the
+     * file is polled rather than watched. The lower this period is, the faster changes will be reported to registered
+     * listeners, but also the higher the impact on I/O and CPU.
+     * <br>Note that the time spent for polling is not taken into account for the poll period. For example, if the poll
+     * period is 1000ms, and polling the file's attributes took 50ms, the next poll will happen 1000ms later.
      * </p>
      *
      * @param file the AbstractFile to monitor for changes
@@ -153,6 +171,33 @@ public class FileMonitor implements FileMonitorConstants, Runnable {
     }
 
 
+    /**
+     * Returns the file monitored by this FileMonitor.
+     *
+     * @return the file monitored by this FileMonitor
+     */
+    public AbstractFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the set of attributes monitored by this FileMonitor.
+     *
+     * @return the set of attributes monitored by this FileMonitor
+     */
+    public int getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns the number of milliseconds between two file attributes polls.
+     *
+     * @return the number of milliseconds between two file attributes polls
+     */
+    public long getPollPeriod() {
+        return pollPeriod;
+    }
+
     /**
      * Adds the given {@link FileChangeListener} instance to the list of registered listeners.
      *
@@ -163,7 +208,9 @@ public class FileMonitor implements FileMonitorConstants, Runnable {
      * @see   #removeFileChangeListener(FileChangeListener)
      */
     public void addFileChangeListener(FileChangeListener listener) {
-        listeners.put(listener, null);
+        synchronized(listeners) {
+            listeners.put(listener, null);
+        }
     }
 
     /**
@@ -173,48 +220,41 @@ public class FileMonitor implements FileMonitorConstants, Runnable {
      * @see   #addFileChangeListener(FileChangeListener)
      */
     public void removeFileChangeListener(FileChangeListener listener) {
-        listeners.remove(listener);
+        synchronized(listeners) {
+            listeners.remove(listener);
+        }
     }
 
 
     /**
-     * Starts monitoring the monitored file in a dedicated thread. Does nothing if monitoring has already been started
-     * and not stopped yet. Calling this method after {@link #stopMonitoring()} has been called will resume monitoring.
+     * Starts monitoring the monitored file. Does nothing if monitoring has already been started and not stopped yet.
+     * Calling this method after {@link #stopMonitoring()} has been called will resume monitoring.
 
-     * <p>Once started, the monitoring thread will check for changes in the monitored file attributes specified in
+     * <p>Once started, this monitor will check for changes in the monitored file attributes specified in
      * the constructor, and call registered {@link FileChangeListener} instances whenever a change in one or several
-     * attributes has been detected. The poll period specified in the constructor determines how often the file's
-     * attributes will be checked.</p>
+     * attributes has been detected.</p>
      *
-     * <p>This method waits until the thread is started effectively and the monitor is ready to monitor file changes.
-     * This guarantees that all changes made to the monitored file after this method returns will be caught and properly
-     * reported to listeners.</p>
+     * <p>This method returns once the initial file attributes have been fetched and the file is being watched or
+     * polled. This guarantees that all changes made to the monitored file after this method returns will be caught and
+     * properly reported to listeners.</p>
      *
      * <p><code>FileMonitor</code> will keep monitoring the file until {@link #stopMonitoring()} is called, even if the
      * monitored file doesn't exist anymore. Thus, it is important not to forget to call {@link #stopMonitoring()} when
      * monitoring is not needed anymore, in order to prevent unnecessary resource hogging.</p>
      */
     public synchronized void startMonitoring() {
-        if(monitorThread ==null) {
-            monitorThread = new Thread(this);
-            monitorThread.start();
-
-            isInitialized = false;
-            // Wait until the thread has been started and initial file attributes have been fetched
-            while(!isInitialized) {
-                try {
-                    wait();     // run() will notify when initialization is complete
-                }
-                catch(InterruptedException e) {}
-            }
-        }
+        if(registration==null)
+            registration = FileMonitorService.register(this);
     }
 
     /**
      * Stops monitoring the monitored file. Does nothing if monitoring has not yet been started.
      */
     public synchronized void stopMonitoring() {
-        monitorThread = null;
+        if(registration!=null) {
+            FileMonitorService.unregister(registration);
+            registration = null;
+        }
     }
 
     /**
@@ -223,100 +263,151 @@ public class FileMonitor implements FileMonitorConstants, Runnable {
      * @return true if this FileMonitor is currently monitoring the file.
      */
     public synchronized boolean isMonitoring() {
-        return monitorThread!=null;
+        return registration!=null;
     }
 
 
     /**
-     * Notifies all registered FileChangeListener instances that the monitored file has changed, specifying which
-     * file attributes have changed.
+     * Returns the period during which successive change notifications are coalesced into a single event, in
+     * milliseconds. The default value is {@link #DEFAULT_COALESCE_PERIOD}.
      *
-     * @param changedAttributes the set of attributes that have changed
+     * @return the period during which change notifications are coalesced, in milliseconds
      */
-    private void fireFileChangeEvent(int changedAttributes) {
-        LOGGER.info("firing an event to registered listeners, changed attributes={}", changedAttributes);
+    public static long getCoalescePeriod() {
+        return coalescePeriod;
+    }
 
-        // Iterate on all listeners
-        for(FileChangeListener listener : listeners.keySet())
-            listener.fileChanged(file, changedAttributes);
+    /**
+     * Sets the period during which successive change notifications are coalesced into a single event, in
+     * milliseconds. <code>0</code> disables coalescing.
+     *
+     * @param period the period during which change notifications are coalesced, in milliseconds
+     */
+    public static void setCoalescePeriod(long period) {
+        coalescePeriod = Math.max(period, 0);
     }
 
-    
-    /////////////////////////////
-    // Runnable implementation //
-    /////////////////////////////
+    /**
+     * Returns <code>true</code> if local files are watched using the platform's <code>WatchService</code>,
+     * <code>false</code> if they are polled like other files. This is enabled by default.
+     *
+     * @return true if local files are watched using the platform's WatchService
+     */
+    public static boolean isWatchServiceEnabled() {
+        return watchServiceEnabled;
+    }
 
-    public void run() {
-        Thread thisThread = monitorThread;
-
-        long lastDate = (attributes&DATE_ATTRIBUTE)!=0?file.getDate():0;
-        long lastSize = (attributes&SIZE_ATTRIBUTE)!=0?file.getSize():0;
-        int lastPermissions = (attributes&PERMISSIONS_ATTRIBUTE)!=0?file.getPermissions().getIntValue():0;
-        boolean lastIsDirectory = (attributes&IS_DIRECTORY_ATTRIBUTE)!=0 && file.isDirectory();
-        boolean lastExists = (attributes&EXISTS_ATTRIBUTE)!=0 && file.exists();
-
-        synchronized(this) {
-            // We are now ready to detect file changes, notify the thread that started this thread
-            isInitialized = true;
-            notify();
+    /**
+     * Sets whether local files are watched using the platform's <code>WatchService</code> or polled like other files.
+     * This only affects monitors started after this method is called.
+     *
+     * @param enabled true to watch local files using the platform's WatchService
+     */
+    public static void setWatchServiceEnabled(boolean enabled) {
+        watchServiceEnabled = enabled;
+    }
+
+
+    /**
+     * Fetches the initial values of the monitored attributes.
+     */
+    void initAttributes() {
+        synchronized(checkLock) {
+            lastDate = (attributes&DATE_ATTRIBUTE)!=0?file.getDate():0;
+            lastSize = (attributes&SIZE_ATTRIBUTE)!=0?file.getSize():0;
+            lastPermissions = (attributes&PERMISSIONS_ATTRIBUTE)!=0?file.getPermissions().getIntValue():0;
+            lastIsDirectory = (attributes&IS_DIRECTORY_ATTRIBUTE)!=0 && file.isDirectory();
+            lastExists = (attributes&EXISTS_ATTRIBUTE)!=0 && file.exists();
         }
+    }
 
-        long now;
-        int changedAttributes;
+    /**
+     * Compares the monitored attributes of the given file with their last known values, and returns the set of
+     * attributes that have changed. The given file is either the monitored file itself, or a fresh instance of it
+     * as returned by a listing of its parent.
+     *
+     * @param source the file to read the attributes from
+     * @return the set of attributes that have changed, <code>0</code> if none have
+     */
+    int checkAttributes(AbstractFile source) {
+        int changedAttributes = 0;
 
         long tempLong;
         int tempInt;
         boolean tempBool;
 
-        while(monitorThread ==thisThread) {
-            changedAttributes = 0;
-            now = System.currentTimeMillis();
-
+        synchronized(checkLock) {
             if((attributes&DATE_ATTRIBUTE)!=0) {
-                if((tempLong=file.getDate())!=lastDate) {
+                if((tempLong=source.getDate())!=lastDate) {
                     lastDate = tempLong;
                     changedAttributes |= DATE_ATTRIBUTE;
                 }
             }
 
-            if(monitorThread ==thisThread && (attributes&SIZE_ATTRIBUTE)!=0) {
-                if((tempLong=file.getSize())!=lastSize) {
+            if((attributes&SIZE_ATTRIBUTE)!=0) {
+                if((tempLong=source.getSize())!=lastSize) {
                     lastSize = tempLong;
                     changedAttributes |= SIZE_ATTRIBUTE;
                 }
             }
 
-            if(monitorThread ==thisThread && (attributes&PERMISSIONS_ATTRIBUTE)!=0) {
-                if((tempInt=file.getPermissions().getIntValue())!=lastPermissions) {
+            if((attributes&PERMISSIONS_ATTRIBUTE)!=0) {
+                if((tempInt=source.getPermissions().getIntValue())!=lastPermissions) {
                     lastPermissions = tempInt;
                     changedAttributes |= PERMISSIONS_ATTRIBUTE;
                 }
             }
 
-            if(monitorThread ==thisThread && (attributes& IS_DIRECTORY_ATTRIBUTE)!=0) {
-                if((tempBool=file.isDirectory())!=lastIsDirectory) {
+            if((attributes&IS_DIRECTORY_ATTRIBUTE)!=0) {
+                if((tempBool=source.isDirectory())!=lastIsDirectory) {
                     lastIsDirectory = tempBool;
                     changedAttributes |= IS_DIRECTORY_ATTRIBUTE;
                 }
             }
 
-            if(monitorThread ==thisThread && (attributes&EXISTS_ATTRIBUTE)!=0) {
-                if((tempBool=file.exists())!=lastExists) {
+            if((attributes&EXISTS_ATTRIBUTE)!=0) {
+                if((tempBool=source.exists())!=lastExists) {
                     lastExists = tempBool;
                     changedAttributes |= EXISTS_ATTRIBUTE;
                 }
             }
+        }
 
-            if(changedAttributes!=0)
-                fireFileChangeEvent(changedAttributes);
+        return changedAttributes;
+    }
 
-            // Get some well-deserved rest: sleep for the specified poll period minus the time we spent
-            // for this iteration
-            try {
-                Thread.sleep(Math.max(pollPeriod-(System.currentTimeMillis()-now), 0));
-            }
-            catch(InterruptedException e) {
-            }
+    /**
+     * Notifies all registered FileChangeListener instances that the monitored file has changed, specifying which
+     * file attributes have changed.
+     *
+     * @param changedAttributes the set of attributes that have changed
+     */
+    void fireFileChangeEvent(int changedAttributes) {
+        LOGGER.info("firing an event to registered listeners, changed attributes={}", changedAttributes);
+
+        FileChangeListener[] listenersCopy;
+        synchronized(listeners) {
+            listenersCopy = listeners.keySet().toArray(new FileChangeListener[listeners.size()]);
         }
+
+        // Iterate on all listeners
+        for(FileChangeListener listener : listenersCopy)
+            listener.fileChanged(file, changedAttributes);
+    }
+
+    
+    /////////////////////////////
+    // Runnable implementation //
+    /////////////////////////////
+
+    /**
+     * Checks the monitored file's attributes once, and notifies registered listeners if any of them has changed.
+     * This method is called by {@link FileMonitorService} whenever the file needs to be checked; it does not need to
+     * be called explicitly.
+     */
+    public void run() {
+        int changedAttributes = checkAttributes(file);
+        if(changedAttributes!=0)
+            fireFileChangeEvent(changedAttributes);
     }
 }
@@ -49,4 +49,7 @@ public interface FileMonitorConstants {
 
     /** Default poll period in milliseconds. */
     public final static long DEFAULT_POLL_PERIOD = 10000;
+
+    /** Default period in milliseconds during which successive change notifications are coalesced into a single event. */
+    public final static long DEFAULT_COALESCE_PERIOD = 50;
 }
@@ -0,0 +1,613 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <code>FileMonitorService</code> services all started {@link FileMonitor} instances, using a fixed number of threads
+ * regardless of the number of monitored files:
+ * <ul>
+ *  <li>local files are watched by a single thread using the platform's <code>WatchService</code>. The parent folder of
+ * each monitored file is registered with the service (as well as the file itself if it is a directory), and the
+ * file's attributes are only checked when the service reports an event about it. Events received during the
+ * {@link FileMonitor#getCoalescePeriod() coalesce period} trigger a single check.</li>
+ *  <li>other files are polled by a small pool of scheduler threads. Files that share the same parent folder and are
+ * due for a poll at about the same time are polled in a batch, by listing the parent folder once. The poll period of
+ * a file that doesn't change is progressively increased up to {@link FileMonitor#MAX_POLL_PERIOD_FACTOR} times the
+ * monitor's poll period, and is reset as soon as a change is detected.</li>
+ * </ul>
+ * Local files are polled as well if the platform's <code>WatchService</code> is itself polling-based, or if the file's
+ * parent folder cannot be watched.
+ *
+ * @see FileMonitor
+ */
+class FileMonitorService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileMonitorService.class);
+
+    /** Number of threads used to check and poll files */
+    final static int NB_SCHEDULER_THREADS = 2;
+
+    /** Number of seconds after which idle scheduler threads are terminated */
+    private final static int SCHEDULER_KEEP_ALIVE = 60;
+
+    /** Executes file checks and polls */
+    private final static ScheduledThreadPoolExecutor scheduler;
+
+    /** Watches local files, null if no local file is currently watched */
+    private static LocalWatcher watcher;
+
+    /** Polled registrations, grouped by parent folder URL */
+    private final static Map<String, Set<Registration>> pollGroups = new HashMap<String, Set<Registration>>();
+
+    static {
+        scheduler = new ScheduledThreadPoolExecutor(NB_SCHEDULER_THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "File monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setKeepAliveTime(SCHEDULER_KEEP_ALIVE, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Starts servicing the given monitor and returns its registration. This method returns once the monitor's initial
+     * attributes have been fetched.
+     *
+     * @param monitor the monitor to start
+     * @return the monitor's registration, to be passed to {@link #unregister(Registration)}
+     */
+    static Registration register(FileMonitor monitor) {
+        Registration reg = new Registration(monitor);
+
+        // The file may come from a listing made some time ago: start from its current attributes
+        LocalFile.discardPrefetchedAttributes(monitor.getFile());
+
+        File localFile = getLocalFile(monitor.getFile());
+        if(localFile!=null && FileMonitor.isWatchServiceEnabled()) {
+            synchronized(FileMonitorService.class) {
+                if(watcher==null)
+                    watcher = LocalWatcher.create();
+
+                // Watch the file before fetching its attributes so that no change is missed
+                if(watcher!=null && watcher.watch(reg, localFile.getAbsoluteFile().toPath())) {
+                    monitor.initAttributes();
+                    return reg;
+                }
+            }
+        }
+
+        monitor.initAttributes();
+
+        synchronized(FileMonitorService.class) {
+            reg.pollGroup = getPollGroupKey(monitor.getFile());
+            Set<Registration> group = pollGroups.get(reg.pollGroup);
+            if(group==null) {
+                group = new HashSet<Registration>();
+                pollGroups.put(reg.pollGroup, group);
+            }
+            group.add(reg);
+
+            schedulePoll(reg);
+        }
+
+        return reg;
+    }
+
+    /**
+     * Stops servicing the monitor of the given registration.
+     *
+     * @param reg the registration returned by {@link #register(FileMonitor)}
+     */
+    static synchronized void unregister(Registration reg) {
+        reg.active = false;
+
+        if(reg.pollFuture!=null)
+            reg.pollFuture.cancel(false);
+
+        if(reg.pollGroup!=null) {
+            Set<Registration> group = pollGroups.get(reg.pollGroup);
+            if(group!=null) {
+                group.remove(reg);
+                if(group.isEmpty())
+                    pollGroups.remove(reg.pollGroup);
+            }
+        }
+
+        if(watcher!=null) {
+            watcher.unwatch(reg);
+            if(watcher.isIdle()) {
+                watcher.close();
+                watcher = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the <code>java.io.File</code> corresponding to the given file if it is a local file that can be watched,
+     * <code>null</code> otherwise.
+     *
+     * @param file the file to test
+     * @return the corresponding java.io.File, null if the file is not a local file
+     */
+    private static File getLocalFile(AbstractFile file) {
+        // Archive entries and remote files have other kinds of underlying objects
+        Object underlyingObject = file.getUnderlyingFileObject();
+        return underlyingObject instanceof File ? (File)underlyingObject : null;
+    }
+
+    /**
+     * Returns the key of the poll group the given file belongs to, i.e. the URL of its parent folder.
+     *
+     * @param file the polled file
+     * @return the key of the poll group the given file belongs to
+     */
+    private static String getPollGroupKey(AbstractFile file) {
+        AbstractFile parent = file.getParent();
+        return parent==null ? file.getURL().toString(false) : parent.getURL().toString(false);
+    }
+
+    /**
+     * Schedules a check of the given watched registration, unless a check is already pending. The check is delayed
+     * by the coalesce period so that bursts of events result in a single check.
+     *
+     * @param reg the registration to check
+     */
+    private static void scheduleCheck(final Registration reg) {
+        if(reg.checkPending.compareAndSet(false, true)) {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    reg.checkPending.set(false);
+                    if(reg.active) {
+                        // Attributes prefetched before the event would hide the change
+                        LocalFile.discardPrefetchedAttributes(reg.monitor.getFile());
+                        reg.monitor.run();
+                    }
+                }
+            }, FileMonitor.getCoalescePeriod(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Schedules the next poll of the given registration. Must be called while holding this class' lock.
+     *
+     * @param reg the registration to poll
+     */
+    private static void schedulePoll(final Registration reg) {
+        long delay = Math.max(reg.currentPollPeriod, FileMonitor.getCoalescePeriod());
+        reg.nextPollTime = System.currentTimeMillis() + delay;
+        reg.pollFuture = scheduler.schedule(new Runnable() {
+            public void run() {
+                poll(reg);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls the given registration, along with the registrations of the same poll group that are due soon, then
+     * schedules their next polls.
+     *
+     * @param reg the registration to poll
+     */
+    private static void poll(Registration reg) {
+        List<Registration> batch = new ArrayList<Registration>();
+
+        synchronized(FileMonitorService.class) {
+            if(!reg.active)
+                return;
+
+            batch.add(reg);
+
+            long now = System.currentTimeMillis();
+            Set<Registration> group = pollGroups.get(reg.pollGroup);
+            if(group!=null) {
+                for(Registration sibling : group) {
+                    // Poll siblings that are due within half their poll period, provided they haven't started yet
+                    if(sibling!=reg && sibling.nextPollTime-now<=sibling.currentPollPeriod/2 && sibling.pollFuture.cancel(false))
+                        batch.add(sibling);
+                }
+            }
+        }
+
+        Map<String, AbstractFile> children = null;
+        if(batch.size()>1) {
+            AbstractFile parent = reg.monitor.getFile().getParent();
+            if(parent!=null) {
+                try {
+                    AbstractFile[] files = parent.ls();
+                    children = new HashMap<String, AbstractFile>(files.length);
+                    for(AbstractFile child : files)
+                        children.put(child.getName(), child);
+                }
+                catch(IOException e) {
+                    LOGGER.debug("Could not list {}, polling files individually", parent, e);
+                }
+            }
+        }
+
+        for(Registration polled : batch) {
+            FileMonitor monitor = polled.monitor;
+            AbstractFile source = children==null ? null : children.get(monitor.getFile().getName());
+            if(source==null)
+                LocalFile.discardPrefetchedAttributes(monitor.getFile());
+
+            int changedAttributes;
+            try {
+                changedAttributes = monitor.checkAttributes(source==null ? monitor.getFile() : source);
+            }
+            catch(RuntimeException e) {
+                LOGGER.info("Caught exception while polling {}", monitor.getFile(), e);
+                changedAttributes = 0;
+            }
+
+            if(changedAttributes!=0) {
+                polled.currentPollPeriod = monitor.getPollPeriod();
+                if(polled.active)
+                    monitor.fireFileChangeEvent(changedAttributes);
+            }
+            else {
+                polled.currentPollPeriod = Math.min(polled.currentPollPeriod + polled.currentPollPeriod/2,
+                        monitor.getPollPeriod() * FileMonitor.MAX_POLL_PERIOD_FACTOR);
+            }
+        }
+
+        synchronized(FileMonitorService.class) {
+            for(Registration polled : batch) {
+                if(polled.active)
+                    schedulePoll(polled);
+            }
+        }
+    }
+
+
+    /**
+     * Holds the state of a started {@link FileMonitor}.
+     */
+    static class Registration {
+        /** The monitor */
+        private final FileMonitor monitor;
+        /** False once the monitor has been stopped */
+        private volatile boolean active = true;
+
+        /** Key of the poll group of this registration, null if the file is watched */
+        private String pollGroup;
+        /** Current poll period, in milliseconds */
+        private long currentPollPeriod;
+        /** Time at which the next poll is due */
+        private long nextPollTime;
+        /** Next poll, null if the file is watched */
+        private ScheduledFuture<?> pollFuture;
+
+        /** Path of the watched file, null if the file is polled */
+        private Path path;
+        /** Key of the file's parent folder, null if the file is polled */
+        private WatchKey parentKey;
+        /** Key of the file itself if it is a directory, null otherwise */
+        private WatchKey selfKey;
+        /** True if a check has been scheduled and not started yet */
+        private final AtomicBoolean checkPending = new AtomicBoolean();
+
+        private Registration(FileMonitor monitor) {
+            this.monitor = monitor;
+            this.currentPollPeriod = monitor.getPollPeriod();
+        }
+    }
+
+
+    /**
+     * Watches local files using the platform's <code>WatchService</code> and schedules checks of the registrations
+     * the received events relate to. Watch keys are shared by all the registrations that need them, and are cancelled
+     * when none needs them anymore.
+     */
+    private static class LocalWatcher implements Runnable {
+
+        /** The underlying watch service */
+        private final WatchService watchService;
+        /** Watch keys of registered folders */
+        private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+        /** Registrations interested in each watch key */
+        private final Map<WatchKey, Set<Registration>> registrations = new HashMap<WatchKey, Set<Registration>>();
+
+        private LocalWatcher(WatchService watchService) {
+            this.watchService = watchService;
+        }
+
+        /**
+         * Creates a watcher and starts its thread. Returns <code>null</code> if the platform doesn't provide a
+         * native <code>WatchService</code>.
+         *
+         * @return a new watcher, null if local files must be polled
+         */
+        private static LocalWatcher create() {
+            try {
+                WatchService watchService = FileSystems.getDefault().newWatchService();
+                // Polling-based implementations check for changes every few seconds regardless of the poll period
+                if(watchService.getClass().getName().endsWith("PollingWatchService")) {
+                    watchService.close();
+                    return null;
+                }
+
+                LocalWatcher watcher = new LocalWatcher(watchService);
+                Thread thread = new Thread(watcher, "File monitor watcher");
+                thread.setDaemon(true);
+                thread.start();
+
+                return watcher;
+            }
+            catch(IOException e) {
+                LOGGER.info("Could not create watch service, local files will be polled", e);
+                return null;
+            }
+            catch(UnsupportedOperationException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Starts watching the given path for the given registration. Returns <code>false</code> if the path's parent
+         * folder could not be watched.
+         *
+         * @param reg the registration
+         * @param path the path of the monitored file
+         * @return true if the path is being watched
+         */
+        private synchronized boolean watch(Registration reg, Path path) {
+            Path parent = path.getParent();
+            if(parent==null)
+                return false;
+
+            reg.parentKey = acquireKey(parent, reg);
+            if(reg.parentKey==null)
+                return false;
+
+            reg.path = path;
+            updateSelfKey(reg);
+
+            return true;
+        }
+
+        /**
+         * Stops watching the file of the given registration.
+         *
+         * @param reg the registration
+         */
+        private synchronized void unwatch(Registration reg) {
+            if(reg.parentKey!=null) {
+                releaseKey(reg.parentKey, reg);
+                reg.parentKey = null;
+            }
+
+            if(reg.selfKey!=null) {
+                releaseKey(reg.selfKey, reg);
+                reg.selfKey = null;
+            }
+        }
+
+        /**
+         * Returns <code>true</code> if no folder is being watched anymore.
+         *
+         * @return true if no folder is being watched anymore
+         */
+        private synchronized boolean isIdle() {
+            return keys.isEmpty();
+        }
+
+        /**
+         * Closes the underlying watch service, causing the watcher thread to terminate.
+         */
+        private void close() {
+            try {
+                watchService.close();
+            }
+            catch(IOException e) {
+                LOGGER.debug("Caught exception while closing watch service", e);
+            }
+        }
+
+        /**
+         * Watches the monitored file itself if it is a directory and its date or size are monitored, as changes
+         * to its contents are not reported on its parent folder. Stops watching it if it is not a directory anymore.
+         *
+         * @param reg the registration
+         */
+        private void updateSelfKey(Registration reg) {
+            if((reg.monitor.getAttributes()&(FileMonitor.DATE_ATTRIBUTE|FileMonitor.SIZE_ATTRIBUTE))==0)
+                return;
+
+            boolean isDirectory = reg.path.toFile().isDirectory();
+            if(isDirectory && reg.selfKey==null) {
+                reg.selfKey = acquireKey(reg.path, reg);
+            }
+            else if(!isDirectory && reg.selfKey!=null) {
+                releaseKey(reg.selfKey, reg);
+                reg.selfKey = null;
+            }
+        }
+
+        private WatchKey acquireKey(Path folder, Registration reg) {
+            WatchKey key = keys.get(folder);
+            if(key==null) {
+                try {
+                    key = folder.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+                catch(IOException e) {
+                    LOGGER.debug("Could not watch {}", folder, e);
+                    return null;
+                }
+                catch(ClosedWatchServiceException e) {
+                    return null;
+                }
+
+                keys.put(folder, key);
+                registrations.put(key, new HashSet<Registration>());
+            }
+
+            registrations.get(key).add(reg);
+
+            return key;
+        }
+
+        private void releaseKey(WatchKey key, Registration reg) {
+            Set<Registration> regs = registrations.get(key);
+            if(regs==null)
+                return;
+
+            regs.remove(reg);
+            if(regs.isEmpty()) {
+                registrations.remove(key);
+                keys.remove((Path)key.watchable());
+                key.cancel();
+            }
+        }
+
+        /**
+         * Returns the registrations concerned by the events of the given key.
+         *
+         * @param key the key that was signalled
+         * @return the registrations to check
+         */
+        private synchronized List<Registration> getConcernedRegistrations(WatchKey key) {
+            List<Registration> concerned = new ArrayList<Registration>();
+            Set<Registration> regs = registrations.get(key);
+            if(regs==null) {
+                key.pollEvents();
+                return concerned;
+            }
+
+            boolean overflow = false;
+            Set<Path> names = new HashSet<Path>();
+            for(WatchEvent<?> event : key.pollEvents()) {
+                if(event.kind()==StandardWatchEventKinds.OVERFLOW)
+                    overflow = true;
+                else
+                    names.add((Path)event.context());
+            }
+
+            for(Registration reg : regs) {
+                if(overflow || reg.selfKey==key || (reg.parentKey==key && names.contains(reg.path.getFileName())))
+                    concerned.add(reg);
+            }
+
+            if(!key.reset()) {
+                // The folder is not accessible anymore: registrations that relied on it to be notified are polled
+                for(Registration reg : regs) {
+                    if(reg.parentKey==key) {
+                        reg.parentKey = null;
+                        scheduler.execute(new PollFallback(reg));
+                    }
+                    else {
+                        reg.selfKey = null;
+                    }
+                }
+                registrations.remove(key);
+                keys.remove((Path)key.watchable());
+            }
+
+            return concerned;
+        }
+
+        public void run() {
+            try {
+                while(true) {
+                    WatchKey key = watchService.take();
+                    for(Registration reg : getConcernedRegistrations(key)) {
+                        scheduleCheck(reg);
+
+                        synchronized(this) {
+                            if(reg.active && reg.parentKey!=null)
+                                updateSelfKey(reg);
+                        }
+                    }
+                }
+            }
+            catch(InterruptedException e) {
+                // Terminate
+            }
+            catch(ClosedWatchServiceException e) {
+                // The watcher has been closed, terminate
+            }
+        }
+    }
+
+    /**
+     * Switches a watched registration whose parent folder cannot be watched anymore to polling.
+     */
+    private static class PollFallback implements Runnable {
+        private final Registration reg;
+
+        private PollFallback(Registration reg) {
+            this.reg = reg;
+        }
+
+        public void run() {
+            synchronized(FileMonitorService.class) {
+                if(!reg.active)
+                    return;
+
+                if(watcher!=null) {
+                    watcher.unwatch(reg);
+                    if(watcher.isIdle()) {
+                        watcher.close();
+                        watcher = null;
+                    }
+                }
+
+                reg.pollGroup = getPollGroupKey(reg.monitor.getFile());
+                Set<Registration> group = pollGroups.get(reg.pollGroup);
+                if(group==null) {
+                    group = new HashSet<Registration>();
+                    pollGroups.put(reg.pollGroup, group);
+                }
+                group.add(reg);
+
+                reg.currentPollPeriod = reg.monitor.getPollPeriod();
+                schedulePoll(reg);
+            }
+        }
+    }
+}
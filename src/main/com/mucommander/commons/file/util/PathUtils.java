@@ -330,9 +330,16 @@ public class PathUtils {
      */
     public static int getPathHashCode(String path, String separator) {
         // #equals(Object) is trailing separator insensitive, so the hashCode must be trailing separator invariant
-        return path.endsWith(separator)
-                ?path.substring(0, path.length()-separator.length()).hashCode()
-                :path.hashCode();
+        if(!path.endsWith(separator))
+            return path.hashCode();
+
+        // Same value as the hashcode of the path without its trailing separator, without creating a substring
+        int h = 0;
+        int len = path.length()-separator.length();
+        for(int i=0; i<len; i++)
+            h = 31*h + path.charAt(i);
+
+        return h;
     }
 
 
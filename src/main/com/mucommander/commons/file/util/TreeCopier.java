@@ -0,0 +1,777 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.AbstractRWArchiveFile;
+import com.mucommander.commons.file.FileCapabilities;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.RWArchiveEntryFile;
+import com.mucommander.commons.file.metrics.FileMetrics;
+import com.mucommander.commons.io.ByteCounter;
+import com.mucommander.commons.io.CounterInputStream;
+import com.mucommander.commons.io.FileTransferException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <code>TreeCopier</code> copies, moves or deletes file trees using a pool of worker threads.
+ *
+ * <p>{@link AbstractFile#copyTo(AbstractFile)} walks a tree depth-first and copies one file at a time: when a tree
+ * contains many small files, the time spent is dominated by the latency of each listing, file creation and
+ * transfer, rather than by bandwidth. <code>TreeCopier</code> walks the source tree on a
+ * <code>java.util.concurrent.ForkJoinPool</code>: each directory is a task that forks a task per child, so that
+ * listing a directory, creating files and transferring data overlap, and idle workers steal the pending children of
+ * busy directories.</p>
+ *
+ * <p>Trees are {@link #delete(AbstractFile) deleted} the same way: files are deleted concurrently, and directories
+ * after their contents. Subtrees of files that {@link AbstractFile#canDeleteInBulk() can be deleted in bulk}
+ * (e.g. Amazon S3 or Hadoop) are handed to {@link AbstractFile#deleteRecursively()} as a whole.</p>
+ *
+ * <p>The number of operations that are performed concurrently on a given protocol can be bounded with
+ * {@link #setConcurrencyLimit(String, int)}. Unless specified otherwise, a protocol is accessed by as many workers
+ * as its files' {@link FileCapabilities#getMaxConcurrency() capabilities} allow: all the workers for local files, and
+ * {@link FileCapabilities#DEFAULT_MAX_CONCURRENCY} workers for most other protocols, which is the number of connections
+ * that {@link com.mucommander.commons.file.connection.ConnectionPool} keeps open for a realm.</p>
+ *
+ * <p>When attributes are {@link #setPreserveAttributes(boolean) preserved}, the date and permissions of a directory
+ * are set after all its contents have been copied, as creating files inside the directory would otherwise change its
+ * date. Copy progress can be followed by registering a {@link TreeCopyListener} and by polling
+ * {@link #getBytesCopied()} and {@link #getThroughput()}.</p>
+ *
+ * <p>As with {@link AbstractFile#copyTo(AbstractFile)}, symbolic links are skipped, directories that loop back to one
+ * of their ancestors are not copied, and files that have been copied before an error occurs are left in the
+ * destination. The first error that occurs stops the copy: tasks that have not started yet are not run.
+ * A <code>TreeCopier</code> performs one operation at a time: {@link #copy(AbstractFile, AbstractFile)},
+ * {@link #move(AbstractFile, AbstractFile)} and {@link #delete(AbstractFile)} must not be called concurrently on the
+ * same instance.</p>
+ *
+ * @see TreeCopyListener
+ */
+public class TreeCopier {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TreeCopier.class);
+
+    /** Default number of worker threads. Workers spend most of their time waiting for I/O, hence a value that
+     * is independent of the number of processors. */
+    public final static int DEFAULT_PARALLELISM = 8;
+
+    /** Number of worker threads */
+    private final int parallelism;
+
+    /** Concurrency limits that have been set explicitly, keyed by protocol */
+    private final Map<String, Integer> concurrencyLimits = new ConcurrentHashMap<String, Integer>();
+
+    /** Semaphores enforcing the concurrency limits of the current copy, keyed by protocol */
+    private final Map<String, Semaphore> semaphores = new ConcurrentHashMap<String, Semaphore>();
+
+    /** Whether dates and permissions are preserved */
+    private boolean preserveAttributes = true;
+
+    /** Listener notified of the progress, may be null */
+    private TreeCopyListener listener;
+
+    /** Bytes copied so far */
+    private final ByteCounter byteCounter = new ByteCounter(true);
+
+    /** Regular files copied so far */
+    private final AtomicLong fileCount = new AtomicLong();
+
+    /** Files and directories deleted so far */
+    private final AtomicLong deletedCount = new AtomicLong();
+
+    /** Time at which the current copy started, 0 if no copy was started */
+    private volatile long startTime;
+
+    /** Time at which the last copy ended, 0 if it is still running */
+    private volatile long endTime;
+
+    /** First error that occurred during the current copy */
+    private final AtomicReference<FileTransferException> failure = new AtomicReference<FileTransferException>();
+
+
+    /**
+     * Creates a new <code>TreeCopier</code> using {@link #DEFAULT_PARALLELISM} worker threads.
+     */
+    public TreeCopier() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a new <code>TreeCopier</code> using the given number of worker threads.
+     *
+     * @param parallelism number of worker threads, must be strictly positive
+     * @throws IllegalArgumentException if <code>parallelism</code> is lower than 1
+     */
+    public TreeCopier(int parallelism) {
+        if(parallelism<1)
+            throw new IllegalArgumentException("parallelism must be strictly positive: "+parallelism);
+
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of worker threads used to copy files.
+     *
+     * @return the number of worker threads used to copy files
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of operations (listings, directory creations, file transfers...) that are performed
+     * concurrently on files of the given protocol. A file transfer between two files of different protocols counts
+     * as one operation for each of the protocols.
+     *
+     * @param protocol a protocol, as returned by {@link com.mucommander.commons.file.FileURL#getScheme()}
+     * @param limit maximum number of concurrent operations, must be strictly positive
+     * @throws IllegalArgumentException if <code>limit</code> is lower than 1
+     */
+    public void setConcurrencyLimit(String protocol, int limit) {
+        if(limit<1)
+            throw new IllegalArgumentException("limit must be strictly positive: "+limit);
+
+        concurrencyLimits.put(protocol.toLowerCase(), limit);
+    }
+
+    /**
+     * Returns the maximum number of operations that are performed concurrently on files of the given file's protocol.
+     * If no limit has been {@link #setConcurrencyLimit(String, int) set} for this protocol, the
+     * {@link FileCapabilities#getMaxConcurrency() maximum useful concurrency} of the given file is returned, bounded by
+     * the {@link #getParallelism() parallelism}. This is the limit that is enforced when copying the file.
+     *
+     * @param file a file of the protocol whose limit is to be returned
+     * @return the maximum number of operations that are performed concurrently on files of the given file's protocol
+     */
+    public int getConcurrencyLimit(AbstractFile file) {
+        Integer limit = concurrencyLimits.get(file.getURL().getScheme().toLowerCase());
+        if(limit!=null)
+            return limit;
+
+        return Math.max(1, Math.min(parallelism, file.getCapabilities().getMaxConcurrency()));
+    }
+
+    /**
+     * Sets whether the date and permissions of copied files and directories are preserved. This is enabled by
+     * default.
+     *
+     * @param preserveAttributes <code>true</code> to preserve dates and permissions
+     */
+    public void setPreserveAttributes(boolean preserveAttributes) {
+        this.preserveAttributes = preserveAttributes;
+    }
+
+    /**
+     * Returns <code>true</code> if the date and permissions of copied files and directories are preserved.
+     *
+     * @return <code>true</code> if the date and permissions of copied files and directories are preserved
+     */
+    public boolean getPreserveAttributes() {
+        return preserveAttributes;
+    }
+
+    /**
+     * Sets the listener to notify of the copy progress, <code>null</code> to remove the current listener.
+     *
+     * @param listener the listener to notify of the copy progress, may be <code>null</code>
+     */
+    public void setListener(TreeCopyListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the number of bytes copied by the current or last copy. This method can be called while a copy is
+     * running.
+     *
+     * @return the number of bytes copied by the current or last copy
+     */
+    public long getBytesCopied() {
+        return byteCounter.getByteCount();
+    }
+
+    /**
+     * Returns the number of regular files copied by the current or last copy. This method can be called while a
+     * copy is running.
+     *
+     * @return the number of regular files copied by the current or last copy
+     */
+    public long getFilesCopied() {
+        return fileCount.get();
+    }
+
+    /**
+     * Returns the number of files and directories deleted by the current or last delete or move, not counting the
+     * contents of directories that were deleted in bulk. This method can be called while a delete is running.
+     *
+     * @return the number of files and directories deleted by the current or last delete or move
+     */
+    public long getFilesDeleted() {
+        return deletedCount.get();
+    }
+
+    /**
+     * Returns the average throughput of the current or last copy, in bytes per second. This method can be called
+     * while a copy is running.
+     *
+     * @return the average throughput of the current or last copy in bytes per second, 0 if no copy was started
+     */
+    public long getThroughput() {
+        long start = startTime;
+        if(start==0)
+            return 0;
+
+        long end = endTime;
+        long elapsed = (end==0?System.currentTimeMillis():end) - start;
+
+        return elapsed<=0?0:getBytesCopied()*1000/elapsed;
+    }
+
+    /**
+     * Copies the source file to the destination file. If the source file is a directory, its contents are copied
+     * recursively.
+     *
+     * <p>If the destination is located inside a read-write archive, whose entries cannot be written concurrently, the
+     * file is copied sequentially using {@link AbstractFile#copyTo(AbstractFile)}.</p>
+     *
+     * @param sourceFile the file to copy
+     * @param destFile the destination file, which must not exist
+     * @throws FileTransferException if the source and destination files are identical, if the source is a parent of
+     * the destination, if the source does not exist or if an error occurred while copying a file
+     */
+    public void copy(AbstractFile sourceFile, AbstractFile destFile) throws FileTransferException {
+        checkCopyPrerequisites(sourceFile, destFile);
+
+        start();
+        try {
+            copyTree(sourceFile, destFile);
+        }
+        finally {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Moves the source file to the destination file. If the source file supports {@link FileOperation#RENAME}, an
+     * attempt to rename it is made first. Otherwise, the file is {@link #copy(AbstractFile, AbstractFile) copied}
+     * and the source deleted after all files have been successfully copied, in parallel as well.
+     *
+     * @param sourceFile the file to move
+     * @param destFile the destination file, which must not exist
+     * @throws FileTransferException if the source and destination files are identical, if the source is a parent of
+     * the destination, if the source does not exist or if an error occurred while copying or deleting a file
+     */
+    public void move(AbstractFile sourceFile, AbstractFile destFile) throws FileTransferException {
+        checkCopyPrerequisites(sourceFile, destFile);
+
+        start();
+        try {
+            if(sourceFile.isFileOperationSupported(FileOperation.RENAME)) {
+                try {
+                    sourceFile.renameTo(destFile);
+                    return;
+                }
+                catch(IOException e) {
+                    // Fall back to copying the file
+                }
+            }
+
+            copyTree(sourceFile, destFile);
+            run(new DeleteTask(sourceFile, null));
+        }
+        finally {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Deletes the given file. If the file is a directory, its contents are deleted recursively. Symbolic links to
+     * directories are simply deleted, without deleting the contents of the linked directory.
+     *
+     * @param file the file to delete
+     * @throws FileTransferException if an error occurred while listing a directory or deleting a file
+     */
+    public void delete(AbstractFile file) throws FileTransferException {
+        start();
+        try {
+            run(new DeleteTask(file, null));
+        }
+        finally {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Throws a {@link FileTransferException} if the given files cannot be copied, mirroring the checks performed by
+     * {@link AbstractFile#copyTo(AbstractFile)}.
+     *
+     * @param sourceFile the file to copy
+     * @param destFile the destination file
+     * @throws FileTransferException if the given files cannot be copied
+     */
+    private static void checkCopyPrerequisites(AbstractFile sourceFile, AbstractFile destFile) throws FileTransferException {
+        if(sourceFile.equalsCanonical(destFile))
+            throw new FileTransferException(FileTransferException.SOURCE_AND_DESTINATION_IDENTICAL);
+
+        if(sourceFile.isParentOf(destFile))
+            throw new FileTransferException(FileTransferException.SOURCE_PARENT_OF_DESTINATION);
+
+        if(!sourceFile.exists())
+            throw new FileTransferException(FileTransferException.FILE_NOT_FOUND);
+    }
+
+    /**
+     * Resets the progress counters and the state of the previous copy.
+     */
+    private void start() {
+        byteCounter.reset();
+        fileCount.set(0);
+        deletedCount.set(0);
+        semaphores.clear();
+        failure.set(null);
+        endTime = 0;
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Copies the source file to the destination file, in parallel unless the destination is located inside a
+     * read-write archive.
+     *
+     * @param sourceFile the file to copy
+     * @param destFile the destination file
+     * @throws FileTransferException if an error occurred while copying a file
+     */
+    private void copyTree(AbstractFile sourceFile, AbstractFile destFile) throws FileTransferException {
+        if(destFile.getAncestor(RWArchiveEntryFile.class)!=null)
+            copySequentially(sourceFile, destFile);
+        else
+            run(new CopyTask(sourceFile, destFile, null));
+    }
+
+    /**
+     * Runs the given task on a new pool and throws the first error that occurred, if any.
+     *
+     * @param task the root task
+     * @throws FileTransferException if an error occurred while performing the task
+     */
+    private void run(RecursiveAction task) throws FileTransferException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(task);
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        FileTransferException e = failure.get();
+        if(e!=null)
+            throw e;
+    }
+
+    /**
+     * Copies the given file using {@link AbstractFile#copyTo(AbstractFile)}, grouping the modifications of the
+     * destination archive in a batch.
+     *
+     * @param sourceFile the file to copy
+     * @param destFile the destination file
+     * @throws FileTransferException if an error occurred while copying the file
+     */
+    private void copySequentially(AbstractFile sourceFile, AbstractFile destFile) throws FileTransferException {
+        try {
+            sourceFile.copyTo(destFile);
+        }
+        catch(FileTransferException e) {
+            throw e;
+        }
+        catch(IOException e) {
+            // Errors other than FileTransferException come from writing the batch to the destination archive
+            FileTransferException fte = new FileTransferException(FileTransferException.WRITING_DESTINATION);
+            fte.initCause(e);
+            throw fte;
+        }
+    }
+
+    /**
+     * Returns the semaphore enforcing the concurrency limit of the given protocol.
+     *
+     * @param protocol a protocol, in lower case
+     * @param file a file of this protocol, whose capabilities provide the default limit
+     * @return the semaphore enforcing the concurrency limit of the given protocol
+     */
+    private Semaphore getSemaphore(String protocol, AbstractFile file) {
+        Semaphore semaphore = semaphores.get(protocol);
+        if(semaphore==null) {
+            synchronized(semaphores) {
+                semaphore = semaphores.get(protocol);
+                if(semaphore==null) {
+                    semaphore = new Semaphore(getConcurrencyLimit(file));
+                    semaphores.put(protocol, semaphore);
+                }
+            }
+        }
+
+        return semaphore;
+    }
+
+    /**
+     * Acquires a permit for each of the given files' protocols. Permits are acquired in the protocols' alphabetical
+     * order, so that two tasks acquiring the permits of the same two protocols cannot deadlock.
+     *
+     * @param files the files about to be accessed
+     * @return the acquired semaphores, to be passed to {@link #release(Semaphore[])}
+     */
+    private Semaphore[] acquire(AbstractFile... files) {
+        SortedMap<String, AbstractFile> protocols = new TreeMap<String, AbstractFile>();
+        for(AbstractFile file : files)
+            protocols.put(file.getURL().getScheme().toLowerCase(), file);
+
+        Semaphore acquired[] = new Semaphore[protocols.size()];
+        int i = 0;
+        for(Map.Entry<String, AbstractFile> protocol : protocols.entrySet()) {
+            Semaphore semaphore = getSemaphore(protocol.getKey(), protocol.getValue());
+            if(!semaphore.tryAcquire()) {
+                long waitStart = FileMetrics.start();
+                semaphore.acquireUninterruptibly();
+                FileMetrics.poolWait(protocol.getKey(), waitStart);
+            }
+            acquired[i++] = semaphore;
+        }
+
+        return acquired;
+    }
+
+    /**
+     * Releases the permits acquired by {@link #acquire(AbstractFile[])}.
+     *
+     * @param acquired the semaphores returned by {@link #acquire(AbstractFile[])}
+     */
+    private static void release(Semaphore[] acquired) {
+        for(Semaphore semaphore : acquired)
+            semaphore.release();
+    }
+
+    /**
+     * Returns <code>true</code> if the given task or one of its ancestors is working on a directory with the given
+     * key.
+     *
+     * @param task the task to start from, may be <code>null</code>
+     * @param key {@link AbstractFile#getFileKey() key} of a directory, may be <code>null</code>
+     * @return <code>true</code> if the given task or one of its ancestors is working on the directory
+     */
+    private static boolean isAncestor(TreeTask task, Object key) {
+        if(key==null)
+            return false;
+
+        for(; task!=null; task=task.parent) {
+            if(key.equals(task.key))
+                return true;
+        }
+
+        return false;
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Base class of the tasks performed on a tree, which records the first error that occurs and skips the tasks
+     * that start after it.
+     */
+    @SuppressWarnings("serial")
+    private abstract class TreeTask extends RecursiveAction {
+
+        /** Task working on the parent directory, null for the root task */
+        final TreeTask parent;
+
+        /** Key of the directory this task works on, null if the file is not a directory */
+        Object key;
+
+        TreeTask(TreeTask parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            if(failure.get()!=null)
+                return;
+
+            try {
+                perform();
+            }
+            catch(FileTransferException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        /**
+         * Performs this task.
+         *
+         * @throws FileTransferException if an error occurred
+         */
+        abstract void perform() throws FileTransferException;
+    }
+
+    /**
+     * Copies a file, or a directory and its contents.
+     */
+    @SuppressWarnings("serial")
+    private class CopyTask extends TreeTask {
+
+        private final AbstractFile sourceFile;
+        private final AbstractFile destFile;
+
+        CopyTask(AbstractFile sourceFile, AbstractFile destFile, TreeTask parent) {
+            super(parent);
+
+            this.sourceFile = sourceFile;
+            this.destFile = destFile;
+        }
+
+        @Override
+        void perform() throws FileTransferException {
+            if(sourceFile.isSymlink())
+                return;
+
+            if(sourceFile.isDirectory())
+                copyDirectory();
+            else
+                copyFile();
+        }
+
+        private void copyDirectory() throws FileTransferException {
+            // Skip directories that loop back to one of their ancestors
+            key = sourceFile.getFileKey();
+            if(isAncestor(parent, key))
+                return;
+
+            AbstractFile children[];
+            List<CopyTask> tasks;
+            Semaphore acquired[] = acquire(sourceFile, destFile);
+            try {
+                try {
+                    destFile.mkdir();
+                }
+                catch(IOException e) {
+                    throw new FileTransferException(FileTransferException.WRITING_DESTINATION);
+                }
+
+                try {
+                    children = sourceFile.ls();
+                }
+                catch(IOException e) {
+                    throw new FileTransferException(FileTransferException.READING_SOURCE);
+                }
+
+                tasks = new ArrayList<CopyTask>(children.length);
+                for(AbstractFile child : children) {
+                    try {
+                        tasks.add(new CopyTask(child, destFile.getDirectChild(child.getName()), this));
+                    }
+                    catch(IOException e) {
+                        throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
+                    }
+                }
+            }
+            finally {
+                release(acquired);
+            }
+
+            invokeAll(tasks);
+
+            // Set the directory's attributes once its contents have been copied
+            if(failure.get()!=null)
+                return;
+
+            preserveAttributes();
+
+            if(listener!=null)
+                listener.directoryCopied(sourceFile, destFile);
+        }
+
+        private void copyFile() throws FileTransferException {
+            long size = sourceFile.getSize();
+
+            Semaphore acquired[] = acquire(sourceFile, destFile);
+            try {
+                if(!copyRemotely()) {
+                    InputStream in;
+                    try {
+                        in = new CounterInputStream(sourceFile.getInputStream(), byteCounter);
+                    }
+                    catch(IOException e) {
+                        throw new FileTransferException(FileTransferException.OPENING_SOURCE);
+                    }
+
+                    try {
+                        destFile.copyStream(in, false, size);
+                    }
+                    finally {
+                        // Close stream even if copyStream() threw an IOException
+                        try {
+                            in.close();
+                        }
+                        catch(IOException e) {
+                            throw new FileTransferException(FileTransferException.CLOSING_SOURCE);
+                        }
+                    }
+                }
+
+                preserveAttributes();
+            }
+            finally {
+                release(acquired);
+            }
+
+            fileCount.incrementAndGet();
+
+            if(listener!=null)
+                listener.fileCopied(sourceFile, destFile, size);
+        }
+
+        /**
+         * Attempts to copy the file using {@link AbstractFile#copyRemotelyTo(AbstractFile)}.
+         *
+         * @return <code>true</code> if the file was copied
+         */
+        private boolean copyRemotely() {
+            if(!sourceFile.isFileOperationSupported(FileOperation.COPY_REMOTELY))
+                return false;
+
+            try {
+                sourceFile.copyRemotelyTo(destFile);
+            }
+            catch(IOException e) {
+                return false;
+            }
+
+            byteCounter.add(sourceFile.getSize());
+            return true;
+        }
+
+        /**
+         * Sets the destination file's date and permissions to those of the source file, if requested and supported
+         * by the destination. Failing to do so does not fail the copy.
+         */
+        private void preserveAttributes() {
+            if(!preserveAttributes)
+                return;
+
+            try {
+                if(destFile.isFileOperationSupported(FileOperation.CHANGE_PERMISSION))
+                    destFile.importPermissions(sourceFile);
+
+                if(destFile.isFileOperationSupported(FileOperation.CHANGE_DATE))
+                    destFile.changeDate(sourceFile.getDate());
+            }
+            catch(IOException e) {
+                LOGGER.info("Could not preserve the attributes of {}", destFile, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and its contents. Directories that can be deleted in bulk are deleted with a
+     * single call to {@link AbstractFile#deleteRecursively()}.
+     */
+    @SuppressWarnings("serial")
+    private class DeleteTask extends TreeTask {
+
+        private final AbstractFile file;
+
+        DeleteTask(AbstractFile file, TreeTask parent) {
+            super(parent);
+
+            this.file = file;
+        }
+
+        @Override
+        void perform() throws FileTransferException {
+            if(file.isDirectory() && !file.isSymlink() && file.canDeleteInBulk()) {
+                Semaphore acquired[] = acquire(file);
+                try {
+                    file.deleteRecursively();
+                }
+                catch(IOException e) {
+                    throw new FileTransferException(FileTransferException.DELETING_SOURCE);
+                }
+                finally {
+                    release(acquired);
+                }
+
+                deletedCount.incrementAndGet();
+                return;
+            }
+
+            if(file.isDirectory() && !file.isSymlink()) {
+                // Do not descend into directories that loop back to one of their ancestors
+                key = file.getFileKey();
+                if(!isAncestor(parent, key)) {
+                    AbstractFile children[];
+                    Semaphore acquired[] = acquire(file);
+                    try {
+                        children = file.ls();
+                    }
+                    catch(IOException e) {
+                        throw new FileTransferException(FileTransferException.READING_SOURCE);
+                    }
+                    finally {
+                        release(acquired);
+                    }
+
+                    List<DeleteTask> tasks = new ArrayList<DeleteTask>(children.length);
+                    for(AbstractFile child : children)
+                        tasks.add(new DeleteTask(child, this));
+
+                    invokeAll(tasks);
+
+                    if(failure.get()!=null)
+                        return;
+                }
+            }
+
+            Semaphore acquired[] = acquire(file);
+            try {
+                file.delete();
+            }
+            catch(IOException e) {
+                throw new FileTransferException(FileTransferException.DELETING_SOURCE);
+            }
+            finally {
+                release(acquired);
+            }
+
+            deletedCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Interface to be implemented by classes that wish to follow the progress of a {@link TreeCopier}.
+ *
+ * <p>Methods of this interface are called from the copier's worker threads, possibly concurrently: implementations
+ * must be thread-safe and should return quickly, as the calling thread does not perform any transfer in the
+ * meantime.</p>
+ *
+ * @see TreeCopier#setListener(TreeCopyListener)
+ */
+public interface TreeCopyListener {
+
+    /**
+     * This method is called after a regular file has been copied to its destination, and its attributes preserved
+     * if requested.
+     *
+     * @param sourceFile the file that was copied
+     * @param destFile the file it was copied to
+     * @param nbBytes number of bytes that were copied
+     */
+    public void fileCopied(AbstractFile sourceFile, AbstractFile destFile, long nbBytes);
+
+    /**
+     * This method is called after a directory and all its contents have been copied to their destination, and the
+     * directory's attributes preserved if requested.
+     *
+     * @param sourceDir the directory that was copied
+     * @param destDir the directory it was copied to
+     */
+    public void directoryCopied(AbstractFile sourceDir, AbstractFile destDir);
+}
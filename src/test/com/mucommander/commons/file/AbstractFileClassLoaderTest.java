@@ -0,0 +1,214 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A test case for the {@link AbstractFileClassLoader} class.
+ */
+public class AbstractFileClassLoaderTest {
+
+    /** Temporary folder containing the classpath elements of the current test */
+    private AbstractFile tempFolder;
+
+    /** Name of the resource used by the tests, unlikely to be found by the parent class loader */
+    private final static String RESOURCE_NAME = "com/mucommander/commons/file/classloader/resource.txt";
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFolder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        tempFolder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFolder.exists())
+            tempFolder.deleteRecursively();
+    }
+
+    /**
+     * Looks up resources located in a folder, and verifies that resources which were missing are found once a folder
+     * that contains them is added to the classpath.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testFolderResources() throws IOException {
+        AbstractFileClassLoader loader = new AbstractFileClassLoader();
+        AbstractFile folder1 = tempFolder.getDirectChild("folder1");
+        writeResource(folder1, RESOURCE_NAME, "folder1");
+        loader.addFile(folder1);
+
+        assert "folder1".equals(readResource(loader, RESOURCE_NAME));
+        assert loader.getResourceAsStream("com/mucommander/commons/file/classloader/missing.txt") == null;
+        assert loader.getResource("com/mucommander/commons/file/classloader/missing.txt") == null;
+        // Folders are resources too
+        assert loader.getResource("com/mucommander/commons/file/classloader") != null;
+
+        AbstractFile folder2 = tempFolder.getDirectChild("folder2");
+        writeResource(folder2, "com/mucommander/commons/file/classloader/missing.txt", "folder2");
+        loader.addFile(folder2);
+
+        assert "folder2".equals(readResource(loader, "com/mucommander/commons/file/classloader/missing.txt"));
+        // The first classpath element takes precedence
+        assert "folder1".equals(readResource(loader, RESOURCE_NAME));
+    }
+
+    /**
+     * Looks up resources located in a folder and a Zip archive, which is indexed from its entries tree.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testArchiveResources() throws IOException {
+        AbstractFile zipFile = tempFolder.getDirectChild("resources.zip");
+        ZipOutputStream zipOut = new ZipOutputStream(zipFile.getOutputStream());
+        try {
+            zipOut.putNextEntry(new ZipEntry(RESOURCE_NAME));
+            zipOut.write("zip".getBytes("UTF-8"));
+            zipOut.closeEntry();
+        }
+        finally {
+            zipOut.close();
+        }
+
+        AbstractFile folder = tempFolder.getDirectChild("folder");
+        writeResource(folder, RESOURCE_NAME, "folder");
+
+        AbstractFileClassLoader loader = new AbstractFileClassLoader();
+        loader.addFile(FileFactory.getFile(zipFile.getAbsolutePath()));
+        loader.addFile(folder);
+
+        assert "zip".equals(readResource(loader, RESOURCE_NAME));
+        // Directories that have no entry of their own are resources too
+        assert loader.getResource("com/mucommander/commons/file/classloader/") != null;
+
+        List<URL> urls = Collections.list(loader.getResources(RESOURCE_NAME));
+        assert urls.size() == 2;
+        assert !Collections.list(loader.getResources("com/mucommander/commons/file/classloader/missing.txt")).iterator().hasNext();
+    }
+
+    /**
+     * Loads a class from a folder.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testFindClass() throws Exception {
+        String className = Resource.class.getName();
+        String classPath = className.replace('.', '/') + ".class";
+        AbstractFile folder = tempFolder.getDirectChild("classes");
+
+        InputStream in = getClass().getClassLoader().getResourceAsStream(classPath);
+        try {
+            writeResource(folder, classPath, readBytes(in));
+        }
+        finally {
+            in.close();
+        }
+
+        AbstractFileClassLoader loader = new AbstractFileClassLoader();
+        loader.addFile(folder);
+
+        // Bypasses the parent, which has already loaded the class
+        Class<?> c = loader.findClass(className);
+        assert c.getName().equals(className);
+        assert c.getClassLoader() == loader;
+
+        try {
+            loader.findClass(className + "Missing");
+            assert false;
+        }
+        catch(ClassNotFoundException e) {
+            // Expected
+        }
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    private static void writeResource(AbstractFile root, String name, String contents) throws IOException {
+        writeResource(root, name, contents.getBytes("UTF-8"));
+    }
+
+    private static void writeResource(AbstractFile root, String name, byte[] contents) throws IOException {
+        AbstractFile file = root;
+        String[] names = name.split("/");
+        for(int i=0; i<names.length; i++) {
+            if(!file.exists())
+                file.mkdir();
+
+            file = file.getDirectChild(names[i]);
+        }
+
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(contents);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static String readResource(ClassLoader loader, String name) throws IOException {
+        InputStream in = loader.getResourceAsStream(name);
+        assert in != null;
+
+        try {
+            return new String(readBytes(in), "UTF-8");
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        StreamUtils.copyStream(in, bout);
+
+        return bout.toByteArray();
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Class loaded by {@link AbstractFileClassLoaderTest#testFindClass()}.
+     */
+    public static class Resource {
+    }
+}
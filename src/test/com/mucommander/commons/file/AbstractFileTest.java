@@ -1443,6 +1443,9 @@ public abstract class AbstractFileTest {
         assert "38b060a751ac96384cd9327eb1b1e36a21fdb71114be07434c0cc7bf63f6e1da274edebfe76f65fbd51ad2f14898b95b".equals(tempFile.calculateChecksum("SHA-384"));
         assert "cf83e1357eefb8bdf1542850d66d8007d620e4050b5715dc83f4a921d36ce9ce47d0d13c5d85f2b0ff8318d2877eec2f63b931bd47417a81a538327af927da3e".equals(tempFile.calculateChecksum("SHA-512"));
 
+        // Several digests in one pass
+        assert Arrays.equals(new String[]{"d41d8cd98f00b204e9800998ecf8427e", "da39a3ee5e6b4b0d3255bfef95601890afd80709"}, tempFile.calculateChecksums("MD5", "SHA-1"));
+
         // MuProvider algorithms
         MuProvider.registerProvider();  // registers the provider
         assert "00000000".equals(tempFile.calculateChecksum("CRC32"));
@@ -2010,6 +2013,32 @@ public abstract class AbstractFileTest {
         assert tempFile.getDate()>date;
     }
 
+    /**
+     * Tests {@link AbstractFile#getCapabilities()}: asserts that the supported operations match the
+     * {@link UnsupportedFileOperation} annotations of the file's methods, and that the performance hints are sane.
+     */
+    @Test
+    public void testGetCapabilities() {
+        FileCapabilities capabilities = tempFile.getCapabilities();
+        assert capabilities != null;
+
+        for(FileOperation op : FileOperation.values()) {
+            assert capabilities.isSupported(op) == tempFile.isFileOperationSupported(op);
+
+            // Proxies may delegate operations to the proxied file
+            if(!(tempFile instanceof com.mucommander.commons.file.impl.ProxyFile)) {
+                Method method = op.getCorrespondingMethod(tempFile.getClass());
+                assert capabilities.isSupported(op) == !method.isAnnotationPresent(UnsupportedFileOperation.class);
+                assert capabilities.isSupported(op) == AbstractFile.isFileOperationSupported(op, tempFile.getClass());
+            }
+        }
+
+        assert capabilities.getPreferredBlockSize() > 0;
+        assert capabilities.getMaxConcurrency() > 0;
+        assert capabilities.getLatency() != null;
+        assert !capabilities.areRangedReadsCheap() || tempFile.isFileOperationSupported(FileOperation.RANDOM_READ_FILE);
+    }
+
     /**
      * Tests {@link AbstractFile#getInputStream()}, calling {@link #testGetInputStreamSupported()} or
      * {@link #testGetInputStreamUnsupported()} depending on whether or not the {@link FileOperation#READ_FILE}
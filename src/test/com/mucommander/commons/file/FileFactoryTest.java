@@ -18,9 +18,15 @@
 
 package com.mucommander.commons.file;
 
+import com.mucommander.commons.file.impl.tar.TarFormatProvider;
+import com.mucommander.commons.file.impl.zip.ZipFormatProvider;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * A test case for {@link FileFactory}.
@@ -79,4 +85,121 @@ public class FileFactoryTest {
         assert temporaryFile1 != null;
         assert !temporaryFile1.exists();
     }
+
+    /**
+     * Tests {@link com.mucommander.commons.file.FileFactory#getChildFile(FileURL, AbstractFile, Object...)} and asserts
+     * that it returns the same kind of files as {@link FileFactory#getFile(FileURL, AbstractFile, Object...)}, and the
+     * same instances for archive files.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testChildFile() throws IOException {
+        AbstractFile folder = FileFactory.getTemporaryFile(true);
+        folder.mkdir();
+
+        try {
+            folder.getDirectChild("file.txt").mkfile();
+            folder.getDirectChild("archive.zip").mkfile();
+
+            AbstractFile children[] = folder.ls();
+            assert children.length == 2;
+
+            for (AbstractFile child : children) {
+                AbstractFile file = FileFactory.getFile(child.getURL(), folder);
+
+                assert child.getParent() == folder;
+                assert child.getClass() == file.getClass();
+                assert child.equals(file);
+                assert child.isArchive() == child.getName().endsWith(".zip");
+            }
+
+            // Archive files are reused from one listing to the next, along with their entries tree
+            AbstractFile archive = folder.getDirectChild("archive.zip");
+            for (AbstractFile child : folder.ls()) {
+                if (child.getName().equals("archive.zip"))
+                    assert child == FileFactory.getFile(child.getURL()) && child == archive;
+            }
+        }
+        finally {
+            folder.deleteRecursively();
+        }
+    }
+
+    /**
+     * Tests {@link FileFactory#getArchiveFormatProvider(String)} and asserts that it returns the same provider as a
+     * sequential scan of the registered providers' filename filters.
+     */
+    @Test
+    public void testArchiveFormatProvider() {
+        String filenames[] = {
+            "file.zip", "FILE.ZIP", "file.Jar", "file.tar.gz", "file.TAR.BZ2", "file.gz", "file.tgz", "file.iso",
+            "file.a", "file.txt", "file", "zip", ".zip", "file.zip.txt", "file.gzip", "", "a"
+        };
+
+        for(String filename: filenames) {
+            ArchiveFormatProvider expected = null;
+            Iterator<ArchiveFormatProvider> providers = FileFactory.archiveFormats();
+            while(providers.hasNext()) {
+                ArchiveFormatProvider provider = providers.next();
+                if(provider.getFilenameFilter().accept(filename)) {
+                    expected = provider;
+                    break;
+                }
+            }
+
+            assert FileFactory.getArchiveFormatProvider(filename) == expected;
+            assert FileFactory.isArchiveFilename(filename) == (expected != null);
+        }
+
+        assert FileFactory.getArchiveFormatProvider("file.tar.gz") instanceof TarFormatProvider;
+        assert FileFactory.getArchiveFormatProvider("FILE.ZIP") instanceof ZipFormatProvider;
+        assert FileFactory.getArchiveFormatProvider("file.gzip") == null;
+        assert FileFactory.getArchiveFormatProvider((String)null) == null;
+    }
+
+    /**
+     * Tests {@link FileFactory#getArchiveFormatProvider(AbstractFile, boolean)} with a Zip archive that lacks an
+     * extension.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testArchiveFormatSniffing() throws IOException {
+        AbstractFile zipFile = FileFactory.getTemporaryFile("archive.zip", true);
+        AbstractFile file = FileFactory.getTemporaryFile("archive", true);
+
+        try {
+            // Create a valid Zip file and rename it to a filename without extension
+            ZipOutputStream zout = new ZipOutputStream(zipFile.getOutputStream());
+            zout.putNextEntry(new ZipEntry("entry"));
+            zout.write(new byte[]{1, 2, 3});
+            zout.close();
+            zipFile.renameTo(file);
+
+            assert FileFactory.getArchiveFormatProvider(file, false) == null;
+            assert FileFactory.getArchiveFormatProvider(file, true) instanceof ZipFormatProvider;
+            assert !(FileFactory.wrapArchive(file) instanceof AbstractArchiveFile);
+            AbstractFile archiveFile = FileFactory.wrapArchive(file, true);
+            assert archiveFile instanceof AbstractArchiveFile;
+            assert archiveFile.ls().length == 1;
+
+            // Assert that the cached result is invalidated when the file changes
+            OutputStream out = file.getOutputStream();
+            out.write(new byte[]{'n', 'o', 't', ' ', 'a', 'n', ' ', 'a', 'r', 'c', 'h', 'i', 'v', 'e'});
+            out.close();
+            file.changeDate(file.getDate()+2000);
+            assert FileFactory.getArchiveFormatProvider(file, true) == null;
+
+            // Directories are never sniffed
+            AbstractFile folder = FileFactory.getTemporaryFolder();
+            assert FileFactory.getArchiveFormatProvider(folder, true) == null;
+        }
+        finally {
+            if(zipFile.exists())
+                zipFile.delete();
+            if(file.exists())
+                file.delete();
+        }
+    }
 }
@@ -436,6 +436,60 @@ public abstract class FileURLTestCase {
         assert url.getParent() == null;
     }
 
+    /**
+     * Ensures that FileURL#getChild(String) works as expected.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testChild() throws MalformedURLException {
+        FileURL url = getURL("login", "password", "host", 10000, "/path/to", null);
+        url.setProperty("key", "value");
+
+        FileURL childURL = url.getChild("child");
+
+        // Test path and filename
+        assertPathEquals(getSchemePath("/path/to/child"), childURL);
+        assert "child".equals(childURL.getFilename());
+        assertPathEquals(getSchemePath("/path/to/"), childURL.getParent());
+
+        // Assert that all parts but the path and query match
+        assert url.getScheme().equals(childURL.getScheme());
+        assert url.getHost().equals(childURL.getHost());
+        assert url.getPort() == childURL.getPort();
+        assert url.getCredentials().equals(childURL.getCredentials());
+        assert url.getHandler().equals(childURL.getHandler());
+        assert "value".equals(childURL.getProperty("key"));
+
+        // Assert that the query part is not inherited
+        if(isQueryParsed())
+            assert getURL(null, null, "host", -1, "/path/to", "query").getChild("child").getQuery() == null;
+
+        // Assert that the child URL is equal to the same URL created from scratch
+        assertEquals(getURL("login", "password", "host", 10000, "/path/to/child", null), childURL, true, false);
+
+        // Paths of URLs derived from a child are built from the child's path, parents keep a trailing separator
+        FileURL grandchildURL = childURL.getChild("grandchild");
+        assertPathEquals(getSchemePath("/path/to/child/grandchild"), grandchildURL);
+        assert "grandchild".equals(grandchildURL.getFilename());
+        assertEquals(getURL("login", "password", "host", 10000, "/path/to/child/grandchild", null), grandchildURL, true, false);
+        assertPathEquals(getSchemePath("/path/to/child/"), grandchildURL.getParent());
+        assertEquals(childURL, grandchildURL.getParent());
+        assert !grandchildURL.getParent().getPathNode().isRoot() && getURL("/").getChild("child").getParent().getPathNode().isRoot();
+
+        // Properties are shared until either URL modifies them
+        childURL.setProperty("key", "childValue");
+        assert "value".equals(url.getProperty("key"));
+        url.setProperty("key2", "value2");
+        assert childURL.getProperty("key2") == null;
+
+        // A trailing separator is not doubled, and relative paths are supported
+        url = getURL("/path/to/");
+        assertPathEquals(getSchemePath("/path/to/child"), url.getChild("child"));
+        childURL = url.getChild("child/grandchild");
+        assertPathEquals(getSchemePath("/path/to/child/grandchild"), childURL);
+        assert "grandchild".equals(childURL.getFilename());
+    }
 
     /**
      * Parses URLs, some borderline but that we consider nonetheless valid, and ensures that they parse without error
@@ -711,6 +765,57 @@ public abstract class FileURLTestCase {
 
         // Assert that the property has survived the cloning
         assert "value".equals(clonedURL.getProperty("name"));
+
+        // Assert that modifying the clone leaves the original URL untouched
+        clonedURL.setHost("otherhost");
+        clonedURL.setProperty("name", "otherValue");
+        assert "host".equals(url.getHost());
+        assert "value".equals(url.getProperty("name"));
+    }
+
+    /**
+     * Tests {@link ImmutableFileURL} and its use by {@link FileURL}.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testImmutableURL() throws MalformedURLException {
+        FileURL url = getURL("login", "password", "host", 10000, "/path/to", null);
+        url.setProperty("name", "value");
+        ImmutableFileURL immutableURL = url.getImmutableURL();
+
+        // Setting a part of a FileURL replaces its immutable value
+        url.setHost("otherhost");
+        assert "host".equals(immutableURL.getHost());
+        assert "otherhost".equals(url.getImmutableURL().getHost());
+        assert immutableURL.withHost("otherhost").equals(url.getImmutableURL());
+        url.setHost("host");
+        assert immutableURL.equals(url.getImmutableURL());
+        assert immutableURL.hashCode() == url.getImmutableURL().hashCode();
+
+        // FileURL and ImmutableFileURL convert to each other without loss
+        assertEquals(url, FileURL.getFileURL(immutableURL), true, true);
+        assert immutableURL.toString(true, false).equals(url.toString(true, false));
+        assert immutableURL.equals(ImmutableFileURL.getFileURL(url.toString(true, false)), true, false);
+
+        // The authority is interned: equal URLs parsed separately hash the same way and compare as equal
+        ImmutableFileURL parsedURL = getURL("login", "password", "host", 10000, "/path/to", null).getImmutableURL();
+        assert parsedURL.equals(immutableURL, true, false);
+        assert !parsedURL.equals(immutableURL, true, true);
+        assert parsedURL.withProperty("name", "value").equals(immutableURL);
+        assert parsedURL.withProperty("name", "value").hashCode() == immutableURL.hashCode();
+        // Removing the only property is the same as never having set it
+        assert immutableURL.withProperty("name", null).equals(parsedURL);
+
+        // The hash code of a child derived from its parent's is the hash code of the same URL created from scratch
+        immutableURL.hashCode();
+        ImmutableFileURL childURL = immutableURL.getChild("child");
+        ImmutableFileURL freshURL = getURL("login", "password", "host", 10000, "/path/to/child", null).getImmutableURL().withProperty("name", "value");
+        assert childURL.equals(freshURL);
+        assert childURL.hashCode() == freshURL.hashCode();
+        assert childURL.getChild("grandchild").hashCode() == freshURL.getChild("grandchild").hashCode();
+        assert childURL.getParent().equals(immutableURL);
+        assert childURL.getParent().hashCode() == immutableURL.hashCode();
     }
 
     /**
@@ -0,0 +1,286 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.AbstractFileTest;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.FileProtocols;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link AbstractFileTest} implementation for {@link DebugFile}, with some additional test methods that assert
+ * that calls are recorded, and that latency, bandwidth limits and errors are simulated as described by the
+ * {@link DebugProfile}.
+ */
+public class DebugFileTest extends AbstractFileTest {
+
+    /** The profile of the current temporary file */
+    private DebugProfile profile;
+
+
+    ////////////////////////////////////
+    // ConditionalTest implementation //
+    ////////////////////////////////////
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+
+    /////////////////////////////////////
+    // AbstractFileTest implementation //
+    /////////////////////////////////////
+
+    @Override
+    public AbstractFile getTemporaryFile() throws IOException {
+        // A profile that adds no latency: the proxied file should behave exactly as it would without the DebugFile
+        profile = new DebugProfile();
+        return new DebugFile(FileFactory.getTemporaryFile(getClass().getName(), false), profile);
+    }
+
+    @Override
+    public FileOperation[] getSupportedOperations() {
+        return new FileOperation[] {
+            FileOperation.READ_FILE,
+            FileOperation.RANDOM_READ_FILE,
+            FileOperation.WRITE_FILE,
+            FileOperation.APPEND_FILE,
+            FileOperation.RANDOM_WRITE_FILE,
+            FileOperation.CREATE_DIRECTORY,
+            FileOperation.LIST_CHILDREN,
+            FileOperation.DELETE,
+            FileOperation.RENAME,
+            FileOperation.CHANGE_DATE,
+            FileOperation.CHANGE_PERMISSION,
+            FileOperation.GET_FREE_SPACE,
+            FileOperation.GET_TOTAL_SPACE
+        };
+    }
+
+
+    ////////////////////////
+    // Overridden methods //
+    ////////////////////////
+
+    //@Test
+    @Override
+    public void testUnsupportedFileOperationAnnotations() throws Exception {
+    }
+
+    //@Test
+    @Override
+    public void testSupportedFileOperations() throws Exception {
+    }
+
+    //@Test
+    @Override
+    public void testFileInstanceCaching() throws Exception {
+        // This test can't pass as DebugFile instance are not cached, only the underlying protocol file.
+    }
+
+
+    /////////////////////////////
+    // Additional test methods //
+    /////////////////////////////
+
+    /**
+     * Asserts that calls to files and streams, and the bytes transferred, are recorded.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testStatistics() throws IOException {
+        DebugStatistics statistics = profile.getStatistics();
+        statistics.reset();
+
+        tempFile.mkfile();
+        OutputStream out = tempFile.getOutputStream();
+        out.write(new byte[1000]);
+        out.write(1);
+        out.close();
+
+        InputStream in = tempFile.getInputStream();
+        while(in.read(new byte[256])!=-1);
+        in.close();
+
+        assert statistics.getCallCount("mkfile") == 1;
+        assert statistics.getCallCount("getOutputStream") == 1;
+        assert statistics.getCallCount("getInputStream") == 1;
+        assert statistics.getCallCount("write") == 2;
+        assert statistics.getCallCount("read") == 5;
+        assert statistics.getCallCount("close") == 2;
+        assert statistics.getErrorCount("write") == 0;
+        assert statistics.getBytesWritten() == 1001;
+        assert statistics.getBytesRead() == 1001;
+
+        long nbCalls = 0;
+        for(long count : statistics.getHistogram("read"))
+            nbCalls += count;
+        assert nbCalls == 5;
+        assert statistics.getPercentile("read", 99) > 0;
+        assert statistics.getPercentile("nonExistingOperation", 99) == 0;
+        assert statistics.toString().contains("getInputStream: calls=1");
+
+        // Errors thrown by the proxied file are recorded
+        try {
+            tempFile.mkfile();
+            assert false : "mkfile should have failed";
+        }
+        catch(IOException e) {
+            // Expected
+        }
+        assert statistics.getCallCount("mkfile") == 2;
+        assert statistics.getErrorCount("mkfile") == 1;
+    }
+
+    /**
+     * Asserts that requests fail at the error rate, and that metadata calls are not affected.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testErrorInjection() throws Exception {
+        createFile(tempFile, 1);
+
+        profile.setErrorRate(1);
+        try {
+            try {
+                tempFile.getInputStream();
+                assert false : "getInputStream should have failed";
+            }
+            catch(IOException e) {
+                assert e.getMessage().startsWith("Injected failure");
+            }
+
+            try {
+                tempFile.getParent().ls();
+                assert false : "ls should have failed";
+            }
+            catch(IOException e) {
+                // Expected
+            }
+
+            assert tempFile.exists();
+            assert profile.getStatistics().getErrorCount("getInputStream") == 1;
+            assert profile.getStatistics().getErrorCount("ls") == 1;
+        }
+        finally {
+            profile.setErrorRate(0);
+        }
+
+        tempFile.getInputStream().close();
+    }
+
+    /**
+     * Asserts that metadata calls are slowed down by the metadata latency, and that methods which do not query the
+     * storage are not.
+     */
+    @Test
+    public void testLatency() {
+        profile.setMetadataLatency(DebugProfile.fixed(50000));
+
+        long start = System.nanoTime();
+        tempFile.getSize();
+        assert System.nanoTime()-start >= 50000000;
+
+        start = System.nanoTime();
+        tempFile.getName();
+        assert System.nanoTime()-start < 50000000;
+
+        assert profile.getStatistics().getPercentile("getSize", 50) >= 50000;
+        profile.setMetadataLatency(DebugProfile.NO_LATENCY);
+    }
+
+    /**
+     * Asserts that streams are throttled to the bandwidth of the profile.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testBandwidth() throws Exception {
+        createFile(tempFile, 100000);
+
+        // 100 KB at 500 KB/s should take at least 200 ms
+        profile.setReadBandwidth(500000);
+        long start = System.nanoTime();
+        calculateMd5(tempFile);
+        assert System.nanoTime()-start >= 195000000;
+
+        profile.setReadBandwidth(0);
+    }
+
+    /**
+     * Asserts that the children and parent of a DebugFile are DebugFile instances sharing its profile.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testChildrenAndParent() throws IOException {
+        tempFile.mkdir();
+        tempFile.getDirectChild("child").mkfile();
+
+        AbstractFile children[] = tempFile.ls();
+        assert children.length == 1;
+        assert children[0] instanceof DebugFile;
+        assert ((DebugFile)children[0]).getProfile() == profile;
+
+        AbstractFile parent = children[0].getParent();
+        assert parent instanceof DebugFile;
+        assert ((DebugFile)parent).getProfile() == profile;
+        assert !(((DebugFile)parent).getProxiedFile() instanceof DebugFile);
+
+        assert tempFile.getCapabilities() == ((DebugFile)tempFile).getProxiedFile().getCapabilities();
+    }
+
+    /**
+     * Asserts that files created by {@link FileFactory} are wrapped in a DebugFile when a profile is installed for
+     * their protocol, and only then.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testInstallDebugProfile() throws IOException {
+        String path = tempFile.getAbsolutePath();
+        assert !(FileFactory.getFile(path) instanceof DebugFile);
+
+        DebugProfile installedProfile = new DebugProfile();
+        assert FileFactory.installDebugProfile(FileProtocols.FILE, installedProfile) == null;
+        try {
+            assert FileFactory.getDebugProfile(FileProtocols.FILE) == installedProfile;
+
+            AbstractFile file = FileFactory.getFile(path);
+            assert file instanceof DebugFile;
+            assert ((DebugFile)file).getProfile() == installedProfile;
+
+            file.exists();
+            assert installedProfile.getStatistics().getCallCount("exists") == 1;
+        }
+        finally {
+            assert FileFactory.uninstallDebugProfile(FileProtocols.FILE) == installedProfile;
+        }
+
+        assert FileFactory.getDebugProfile(FileProtocols.FILE) == null;
+        assert !(FileFactory.getFile(path) instanceof DebugFile);
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.gzip;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileCapabilities;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.PerformanceHints;
+import com.mucommander.commons.file.impl.ProxyFile;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A test case for {@link GzipArchiveFile}, which validates that the uncompressed size is reported, and that
+ * single-member, multi-member and BGZF files are properly indexed and read, both sequentially and randomly.
+ */
+public class GzipArchiveFileTest {
+
+    /** Size of the uncompressed data of the BGZF blocks written by the test */
+    private final static int BGZF_BLOCK_SIZE = 60000;
+
+    /** The Gzip file used by the current test */
+    private AbstractFile gzipFile;
+
+    /** The uncompressed contents of the Gzip file */
+    private byte[] contents;
+
+
+    /**
+     * Creates the temporary file the Gzip data is written to.
+     *
+     * @throws IOException should not happen
+     */
+    @BeforeMethod
+    public void setUp() throws IOException {
+        gzipFile = FileFactory.getTemporaryFile(GzipArchiveFileTest.class.getName()+".gz", true);
+    }
+
+    /**
+     * Deletes the Gzip file.
+     *
+     * @throws IOException should not happen
+     */
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(gzipFile!=null && gzipFile.exists())
+            gzipFile.delete();
+    }
+
+
+    /**
+     * Validates that the size of a single-member file is known once it has been indexed, and that it can be read
+     * randomly.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSingleMember() throws IOException {
+        contents = compressibleBytes(new Random(0), 300000);
+        OutputStream out = gzipFile.getOutputStream();
+        try {
+            writeMember(out, contents, 0, contents.length);
+        }
+        finally {
+            out.close();
+        }
+
+        GzipArchiveFile archive = getArchive();
+        assertEntry(archive, -1);
+
+        GzipIndex index = archive.getIndex();
+        assert !index.isBGZF();
+        assert index.getMemberCount() == 1;
+        assert index.getUncompressedSize() == contents.length;
+        assertEntry(archive, contents.length);
+
+        assertRandomAccess(archive);
+    }
+
+    /**
+     * Validates that concatenated members are detected, and that the trailer of the last member is not reported as
+     * the size of the whole file.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testConcatenatedMembers() throws IOException {
+        // A highly compressible member followed by an incompressible one
+        byte[] first = new byte[200000];
+        byte[] second = randomBytes(new Random(1), 1000);
+        contents = concat(first, second);
+
+        OutputStream out = gzipFile.getOutputStream();
+        try {
+            writeMember(out, first, 0, first.length);
+            writeMember(out, second, 0, second.length);
+        }
+        finally {
+            out.close();
+        }
+
+        GzipArchiveFile archive = getArchive();
+        assertEntry(archive, -1);
+
+        GzipIndex index = archive.getIndex();
+        assert !index.isBGZF();
+        assert index.getMemberCount() == 2;
+        assert index.getUncompressedOffset(1) == first.length;
+        assert index.getUncompressedSize() == contents.length;
+        assert index.getMemberAt(first.length-1) == 0;
+        assert index.getMemberAt(first.length) == 1;
+        assert index.getMemberAt(contents.length) == -1;
+        assertEntry(archive, contents.length);
+
+        assertRandomAccess(archive);
+    }
+
+    /**
+     * Validates that the trailer of the last member is not reported as the size of the whole file when that member
+     * holds most of the data, which the compressed size alone cannot reveal.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDominantLastMember() throws IOException {
+        byte[] first = new byte[10000];
+        byte[] second = new byte[1000000];
+        contents = concat(first, second);
+
+        OutputStream out = gzipFile.getOutputStream();
+        try {
+            writeMember(out, first, 0, first.length);
+            writeMember(out, second, 0, second.length);
+        }
+        finally {
+            out.close();
+        }
+
+        GzipArchiveFile archive = getArchive();
+        assertEntry(archive, -1);
+
+        assert archive.getIndex().getMemberCount() == 2;
+        assertEntry(archive, contents.length);
+    }
+
+    /**
+     * Validates that BGZF files are indexed without being decompressed, that they are read properly by decompressing
+     * their blocks concurrently, and that virtual offsets are supported.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testBGZF() throws IOException {
+        contents = compressibleBytes(new Random(2), 10*BGZF_BLOCK_SIZE+123);
+        OutputStream out = gzipFile.getOutputStream();
+        try {
+            for(int off=0; off<contents.length; off+=BGZF_BLOCK_SIZE)
+                writeBGZFBlock(out, contents, off, Math.min(BGZF_BLOCK_SIZE, contents.length-off));
+            // End-of-file marker
+            writeBGZFBlock(out, contents, 0, 0);
+        }
+        finally {
+            out.close();
+        }
+
+        GzipArchiveFile archive = getArchive();
+        assertEntry(archive, contents.length);
+
+        GzipIndex index = archive.getIndex();
+        assert index.isBGZF();
+        assert index.getMemberCount() == 12;
+        assert index.getUncompressedOffset(3) == 3*BGZF_BLOCK_SIZE;
+        assert index.getUncompressedOffset(11) == contents.length;
+
+        assertRandomAccess(archive);
+
+        GzipRandomAccessInputStream rais = archive.getEntryRandomAccessInputStream();
+        try {
+            long virtualOffset = (index.getCompressedOffset(3)<<16) | 100;
+            rais.seekVirtualOffset(virtualOffset);
+            assert rais.getOffset() == 3*BGZF_BLOCK_SIZE+100;
+            assert rais.getVirtualOffset() == virtualOffset;
+            assert rais.read() == (contents[3*BGZF_BLOCK_SIZE+100]&0xFF);
+
+            rais.seekVirtualOffset(index.getCompressedOffset(index.getMemberCount())<<16);
+            assert rais.read() == -1;
+
+            try {
+                rais.seekVirtualOffset((index.getCompressedOffset(3)+1)<<16);
+                assert false;
+            }
+            catch(IOException e) {
+                // Expected: no block starts at this offset
+            }
+        }
+        finally {
+            rais.close();
+        }
+    }
+
+
+    /**
+     * Validates that the index is only built when the entry is read randomly, and that the blocks of a BGZF file are
+     * not read to determine its size if ranged reads are not cheap: its size is then reported as unknown, and its
+     * contents read sequentially.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testExpensiveRangedReads() throws IOException {
+        contents = compressibleBytes(new Random(3), 5*BGZF_BLOCK_SIZE+45);
+        OutputStream out = gzipFile.getOutputStream();
+        try {
+            for(int off=0; off<contents.length; off+=BGZF_BLOCK_SIZE)
+                writeBGZFBlock(out, contents, off, Math.min(BGZF_BLOCK_SIZE, contents.length-off));
+            writeBGZFBlock(out, contents, 0, 0);
+        }
+        finally {
+            out.close();
+        }
+
+        GzipArchiveFile archive = new GzipArchiveFile(new ExpensiveRangedReadsFile(gzipFile));
+        assertEntry(archive, -1);
+
+        // The size is known once the index has been built
+        assertRandomAccess(archive);
+        archive = new GzipArchiveFile(new ExpensiveRangedReadsFile(gzipFile));
+        archive.getIndex();
+        assertEntry(archive, contents.length);
+
+    }
+
+
+    /////////////////////////////////
+    // Support methods and classes //
+    /////////////////////////////////
+
+    /**
+     * Re-resolves the Gzip file now that it has been written, so that it is recognized as an archive.
+     */
+    private GzipArchiveFile getArchive() {
+        AbstractFile file = FileFactory.getFile(gzipFile.getAbsolutePath());
+        assert file instanceof GzipArchiveFile;
+
+        return (GzipArchiveFile)file;
+    }
+
+    /**
+     * Asserts that the archive contains a single entry of the given size, whose contents are the expected ones.
+     */
+    private void assertEntry(GzipArchiveFile archive, long expectedSize) throws IOException {
+        AbstractFile[] children = archive.ls();
+        assert children.length == 1;
+        assert children[0].getSize() == expectedSize;
+
+        InputStream in = children[0].getInputStream();
+        try {
+            assert Arrays.equals(contents, readAll(in));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Asserts that the entry's data is properly read at various offsets, forward and backward.
+     */
+    private void assertRandomAccess(GzipArchiveFile archive) throws IOException {
+        GzipRandomAccessInputStream rais = archive.getEntryRandomAccessInputStream();
+        try {
+            assert rais.getLength() == contents.length;
+
+            long[] offsets = {contents.length/2, 10, contents.length-1, contents.length/2+70000, 0, contents.length/3};
+            for(long offset : offsets) {
+                rais.seek(offset);
+                int len = (int)Math.min(100000, contents.length-offset);
+                byte[] b = new byte[len];
+                rais.readFully(b);
+                assert Arrays.equals(Arrays.copyOfRange(contents, (int)offset, (int)offset+len), b);
+                assert rais.getOffset() == offset+len;
+            }
+
+            rais.seek(contents.length);
+            assert rais.read() == -1;
+        }
+        finally {
+            rais.close();
+        }
+    }
+
+    private static void writeMember(OutputStream out, byte[] b, int off, int len) throws IOException {
+        GZIPOutputStream gout = new GZIPOutputStream(new NonClosingOutputStream(out));
+        gout.write(b, off, len);
+        gout.close();
+    }
+
+    /**
+     * Writes a BGZF block, i.e. a Gzip member with a 'BC' extra field holding the size of the block.
+     */
+    private static void writeBGZFBlock(OutputStream out, byte[] b, int off, int len) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        deflater.setInput(b, off, len);
+        deflater.finish();
+        byte[] buffer = new byte[8192];
+        while(!deflater.finished())
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(b, off, len);
+
+        int blockSize = 18+deflated.size()+8;
+        out.write(new byte[] {0x1F, (byte)0x8B, 8, 4, 0, 0, 0, 0, 0, (byte)0xFF, 6, 0, 'B', 'C', 2, 0});
+        writeUInt16(out, blockSize-1);
+        deflated.writeTo(out);
+        writeUInt32(out, crc.getValue());
+        writeUInt32(out, len);
+    }
+
+    private static void writeUInt16(OutputStream out, int value) throws IOException {
+        out.write(value&0xFF);
+        out.write((value>>8)&0xFF);
+    }
+
+    private static void writeUInt32(OutputStream out, long value) throws IOException {
+        writeUInt16(out, (int)(value&0xFFFF));
+        writeUInt16(out, (int)((value>>16)&0xFFFF));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int nbRead;
+        while((nbRead=in.read(buffer))!=-1)
+            bout.write(buffer, 0, nbRead);
+
+        return bout.toByteArray();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns bytes made of a small alphabet, which compress well but not trivially.
+     */
+    private static byte[] compressibleBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        for(int i=0; i<length; i++)
+            bytes[i] = (byte)('a'+random.nextInt(8));
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] b1, byte[] b2) {
+        byte[] b = new byte[b1.length+b2.length];
+        System.arraycopy(b1, 0, b, 0, b1.length);
+        System.arraycopy(b2, 0, b, b1.length, b2.length);
+        return b;
+    }
+
+    /**
+     * Proxies a file whose random reads are supported but expensive, like those of remote files.
+     */
+    @PerformanceHints(rangedReadsCheap=false)
+    private static class ExpensiveRangedReadsFile extends ProxyFile {
+
+        ExpensiveRangedReadsFile(AbstractFile file) {
+            super(file);
+        }
+
+        @Override
+        public FileCapabilities getCapabilities() {
+            return FileCapabilities.get(getClass());
+        }
+    }
+
+    /**
+     * An <code>OutputStream</code> that does not close the stream it writes to, so that several members can be
+     * written to it.
+     */
+    private static class NonClosingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        private NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.iso;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.ProxyFile;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A test case for {@link IsoArchiveFile}, which reads images created by {@link IsoImageBuilder}: names are read from
+ * the primary, Joliet or Rock Ridge hierarchies, directories are read lazily, and corrupt records are rejected.
+ */
+public class IsoArchiveFileTest {
+
+    /** Temporary folder containing the image of the current test */
+    private AbstractFile tempFolder;
+
+    /** Contents of the files of the images */
+    private final static byte[] DATA = new byte[3 * 2048 + 100];
+
+    static {
+        for (int i = 0; i < DATA.length; i++)
+            DATA[i] = (byte) (i % 251);
+    }
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFolder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        tempFolder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (tempFolder.exists())
+            tempFolder.deleteRecursively();
+    }
+
+    /**
+     * Reads plain ISO 9660 names, whose version number is stripped.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPrimaryNames() throws IOException {
+        IsoArchiveFile archive = getArchive(createBuilder(false, false));
+
+        assertNames(archive.ls(), "README.TXT", "SUBDIR");
+        assertNames(getChild(archive, "SUBDIR").ls(), "NESTED.TXT");
+        assertContents(getChild(getChild(archive, "SUBDIR"), "NESTED.TXT"));
+    }
+
+    /**
+     * Reads the names of the Joliet hierarchy, which is preferred over the primary hierarchy.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testJolietNames() throws IOException {
+        IsoArchiveFile archive = getArchive(createBuilder(false, true));
+
+        assertNames(archive.ls(), "Read me.txt", "Sub directory");
+        assertNames(getChild(archive, "Sub directory").ls(), "Nested file.txt");
+        assertContents(getChild(archive, "Read me.txt"));
+    }
+
+    /**
+     * Reads Rock Ridge names, which are preferred over Joliet names, including a name that continues in a
+     * continuation area.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRockRidgeNames() throws IOException {
+        IsoImageBuilder builder = createBuilder(true, true);
+        builder.getRoot().addFile("A name that continues in a continuation area.txt", "CONTINUE.TXT", DATA).continueNameAt(7);
+        IsoArchiveFile archive = getArchive(builder);
+
+        assertNames(archive.ls(), "Read me.txt", "Sub directory", "A name that continues in a continuation area.txt");
+        assertNames(getChild(archive, "Sub directory").ls(), "Nested file.txt");
+        assertContents(getChild(archive, "A name that continues in a continuation area.txt"));
+    }
+
+    /**
+     * Asserts that directories are read the first time they are listed or that one of their entries is looked up,
+     * and only then.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testLazyDirectories() throws IOException {
+        IsoImageBuilder builder = createBuilder(true, false);
+        IsoImageBuilder.Node subdir = builder.getRoot().addDirectory("Second directory", "SECOND");
+        subdir.addDirectory("Deeper", "DEEPER").addFile("Deep file.txt", "DEEP.TXT", DATA);
+
+        CountingFile file = new CountingFile(writeImage(builder.build()));
+        IsoArchiveFile archive = new IsoArchiveFile(file);
+
+        // Only the root directory is read
+        assertNames(archive.ls(), "Read me.txt", "Sub directory", "Second directory");
+        int nbStreams = file.nbStreams;
+        assertNames(archive.ls(), "Read me.txt", "Sub directory", "Second directory");
+        assert file.nbStreams == nbStreams;
+
+        // The ancestors of the entry are read when it is looked up
+        AbstractFile deepFile = archive.getArchiveEntryFile("Second directory/Deeper/Deep file.txt");
+        assert deepFile.exists();
+        assertContents(deepFile);
+        nbStreams = file.nbStreams;
+        assertNames(archive.getArchiveEntryFile("Second directory").ls(), "Deeper");
+        assertNames(archive.getArchiveEntryFile("Second directory/Deeper").ls(), "Deep file.txt");
+        assert file.nbStreams == nbStreams;
+
+        // Directories that haven't been read yet are read when listed
+        assertNames(archive.getArchiveEntryFile("Sub directory").ls(), "Nested file.txt");
+        assert file.nbStreams == nbStreams + 1;
+
+        // Entries that do not exist
+        assert !archive.getArchiveEntryFile("Second directory/Missing file").exists();
+        assert !archive.getArchiveEntryFile("Missing directory/Missing file").exists();
+    }
+
+    /**
+     * Asserts that records whose length is too short, or that span sectors, are rejected.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testInvalidRecordLength() throws IOException {
+        IsoImageBuilder builder = createBuilder(false, false);
+        // Enough records for the last one of the first sector to start near its end
+        for (int i = 0; i < 43; i++)
+            builder.getRoot().addFile("file" + i, "FILE" + (i < 10 ? "0" : "") + i + ".TXT", DATA);
+
+        byte[] image = builder.build();
+        int offset = builder.getRecordOffset("file40");
+        assert offset % 2048 > 2048 - 255;
+        image[offset] = (byte) (2048 - offset % 2048 + 2);
+        assertInvalid(image);
+
+        image = builder.build();
+        image[builder.getRecordOffset("Read me.txt")] = 20;
+        assertInvalid(image);
+    }
+
+    /**
+     * Asserts that records whose file identifier exceeds the record are rejected.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testInvalidNameLength() throws IOException {
+        IsoImageBuilder builder = createBuilder(false, false);
+        byte[] image = builder.build();
+        image[builder.getRecordOffset("Read me.txt") + 32] = (byte) 200;
+
+        assertInvalid(image);
+    }
+
+    /**
+     * Asserts that continuation areas that exceed their sector are rejected.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testInvalidContinuationArea() throws IOException {
+        IsoImageBuilder builder = createBuilder(true, false);
+        builder.getRoot().addFile("A continued name", "CONTINUE", DATA).continueNameAt(2);
+        byte[] image = builder.build();
+        int ceOffset = findCE(image, builder.getRecordOffset("A continued name"));
+
+        // Offset and length that overflow an int
+        IsoImageBuilder.setBothEndian(image, ceOffset + 12, 0xFFFFFFF0L);
+        IsoImageBuilder.setBothEndian(image, ceOffset + 20, 0x20);
+        assertInvalid(image);
+
+        image = builder.build();
+        IsoImageBuilder.setBothEndian(image, ceOffset + 12, 2000);
+        IsoImageBuilder.setBothEndian(image, ceOffset + 20, 100);
+        assertInvalid(image);
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    /**
+     * Returns a builder for an image that contains a file and a directory containing a file.
+     */
+    private static IsoImageBuilder createBuilder(boolean rockRidge, boolean joliet) {
+        IsoImageBuilder builder = new IsoImageBuilder(rockRidge, joliet);
+        builder.getRoot().addFile("Read me.txt", "README.TXT", DATA);
+        builder.getRoot().addDirectory("Sub directory", "SUBDIR").addFile("Nested file.txt", "NESTED.TXT", DATA);
+
+        return builder;
+    }
+
+    private AbstractFile writeImage(byte[] image) throws IOException {
+        AbstractFile file = tempFolder.getDirectChild("image.iso");
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(image);
+        }
+        finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    private IsoArchiveFile getArchive(IsoImageBuilder builder) throws IOException {
+        return new IsoArchiveFile(writeImage(builder.build()));
+    }
+
+    private static AbstractFile getChild(AbstractFile folder, String name) throws IOException {
+        for (AbstractFile child : folder.ls()) {
+            if (child.getName().equals(name))
+                return child;
+        }
+
+        throw new AssertionError(name + " not found in " + folder);
+    }
+
+    private static void assertNames(AbstractFile[] files, String... expectedNames) {
+        Set<String> names = new HashSet<String>();
+        for (AbstractFile file : files)
+            names.add(file.getName());
+
+        assert names.equals(new HashSet<String>(Arrays.asList(expectedNames))) : names;
+    }
+
+    private static void assertContents(AbstractFile file) throws IOException {
+        InputStream in = file.getInputStream();
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            StreamUtils.copyStream(in, bout);
+            assert Arrays.equals(DATA, bout.toByteArray());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void assertInvalid(byte[] image) throws IOException {
+        IsoArchiveFile archive = new IsoArchiveFile(writeImage(image));
+        try {
+            archive.ls();
+            assert false;
+        }
+        catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Returns the offset of the 'CE' entry of the record located at the given offset.
+     */
+    private static int findCE(byte[] image, int recordOffset) {
+        int recordLength = image[recordOffset] & 0xff;
+        for (int i = recordOffset + 33; i < recordOffset + recordLength - 1; i++) {
+            if (image[i] == 'C' && image[i + 1] == 'E')
+                return i;
+        }
+
+        throw new AssertionError("No CE entry");
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Proxies a file and counts the random access streams opened on it.
+     */
+    private static class CountingFile extends ProxyFile {
+
+        /** Number of random access streams opened on the file */
+        private int nbStreams;
+
+        CountingFile(AbstractFile file) {
+            super(file);
+        }
+
+        @Override
+        public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
+            nbStreams++;
+            return super.getRandomAccessInputStream();
+        }
+    }
+}
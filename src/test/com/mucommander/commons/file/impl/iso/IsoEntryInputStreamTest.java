@@ -0,0 +1,300 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.iso;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.local.LocalFile;
+import com.mucommander.commons.file.util.ChannelTransferable;
+import com.mucommander.commons.io.FileTransferException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A test case for {@link IsoEntryInputStream}: reads entries of images with cooked and raw sectors, the latter by
+ * runs of {@link IsoEntryInputStream#BULK_SECTORS} sectors, and transfers them to channels.
+ */
+public class IsoEntryInputStreamTest {
+
+    /** Sector sizes of the images the entry is read from */
+    private final static int SECTOR_SIZES[] = {IsoUtil.MODE1_2048, IsoUtil.MODE2_2352, IsoUtil.MODE2_2336};
+
+    /** Index of the entry's first sector */
+    private final static long ENTRY_SECTOR = 3;
+
+    /** Size of the entry: more than 3 runs of raw sectors, the last sector not being full */
+    private final static int ENTRY_SIZE = (3 * IsoEntryInputStream.BULK_SECTORS + 5) * IsoUtil.MODE1_2048 - 777;
+
+    /** Contents of the entry */
+    private final static byte DATA[] = new byte[ENTRY_SIZE];
+
+    static {
+        for (int i = 0; i < DATA.length; i++)
+            DATA[i] = (byte) (i * 31 + 7);
+    }
+
+    /** Temporary file holding the image of the current test */
+    private File imageFile;
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        imageFile = File.createTempFile(getClass().getName(), ".img");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        imageFile.delete();
+    }
+
+    /**
+     * Reads the entry with reads of random lengths, and after skipping bytes.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRead() throws IOException {
+        Random random = new Random(0);
+        for (int sectSize : SECTOR_SIZES) {
+            IsoArchiveEntry entry = writeImage(sectSize);
+
+            IsoEntryInputStream in = openStream(entry, false);
+            try {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                byte b[] = new byte[10000];
+                int n;
+                while ((n = in.read(b, 0, 1 + random.nextInt(b.length))) != -1)
+                    bout.write(b, 0, n);
+
+                assert Arrays.equals(DATA, bout.toByteArray()) : sectSize;
+            }
+            finally {
+                in.close();
+            }
+
+            // Skip to the end of the first run of raw sectors, and read across runs
+            in = openStream(entry, false);
+            try {
+                int offset = IsoEntryInputStream.BULK_SECTORS * IsoUtil.MODE1_2048 - 10;
+                assert in.skip(offset) == offset;
+                assertReads(in, offset, 3 * IsoUtil.MODE1_2048);
+                assert in.skip(ENTRY_SIZE) == ENTRY_SIZE - offset - 3 * IsoUtil.MODE1_2048;
+                assert in.read() == -1;
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Transfers the entry to a channel, with and without the image's channel, entirely and partially.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTransferTo() throws IOException {
+        for (int sectSize : SECTOR_SIZES) {
+            IsoArchiveEntry entry = writeImage(sectSize);
+
+            for (boolean withChannel : new boolean[]{false, true}) {
+                IsoEntryInputStream in = openStream(entry, withChannel);
+                try {
+                    assert in.skip(5000) == 5000;
+                    assertReads(in, 5000, 10);
+
+                    // Partial transfer, followed by a read
+                    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                    assert in.transferTo(Channels.newChannel(bout), 3 * IsoUtil.MODE1_2048) == 3 * IsoUtil.MODE1_2048;
+                    assert Arrays.equals(Arrays.copyOfRange(DATA, 5010, 5010 + 3 * IsoUtil.MODE1_2048), bout.toByteArray());
+                    assertReads(in, 5010 + 3 * IsoUtil.MODE1_2048, 10);
+
+                    // Transfer of the remaining bytes
+                    int offset = 5020 + 3 * IsoUtil.MODE1_2048;
+                    bout = new ByteArrayOutputStream();
+                    assert in.transferTo(Channels.newChannel(bout), -1) == ENTRY_SIZE - offset;
+                    assert Arrays.equals(Arrays.copyOfRange(DATA, offset, ENTRY_SIZE), bout.toByteArray());
+                    assert in.read() == -1;
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Asserts that errors that occur while writing to the target channel are reported as such.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTransferWriteError() throws IOException {
+        for (int sectSize : SECTOR_SIZES) {
+            IsoArchiveEntry entry = writeImage(sectSize);
+
+            for (boolean withChannel : new boolean[]{false, true}) {
+                IsoEntryInputStream in = openStream(entry, withChannel);
+                try {
+                    in.transferTo(new FailingChannel(), -1);
+                    assert false;
+                }
+                catch (FileTransferException e) {
+                    assert e.getReason() == FileTransferException.WRITING_DESTINATION;
+                    assert e.getCause() instanceof IOException;
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies an entry of an image to a local file, which lets the entry's stream transfer its bytes.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCopyToLocalFile() throws IOException {
+        IsoImageBuilder builder = new IsoImageBuilder(false, false);
+        builder.getRoot().addFile("file", "FILE", DATA);
+        byte image[] = builder.build();
+
+        AbstractFile tempFolder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        tempFolder.mkdir();
+        try {
+            AbstractFile imageFile = tempFolder.getDirectChild("image.iso");
+            imageFile.copyStream(new java.io.ByteArrayInputStream(image), false, image.length);
+
+            AbstractFile entryFile = FileFactory.getFile(imageFile.getAbsolutePath()).getDirectChild("FILE");
+            AbstractFile destFile = tempFolder.getDirectChild("dest");
+            InputStream in = entryFile.getInputStream();
+            try {
+                assert in instanceof ChannelTransferable;
+                destFile.copyStream(in, false, entryFile.getSize());
+            }
+            finally {
+                in.close();
+            }
+
+            assert destFile.getSize() == DATA.length;
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            InputStream destIn = destFile.getInputStream();
+            try {
+                byte b[] = new byte[65536];
+                int n;
+                while ((n = destIn.read(b)) != -1)
+                    bout.write(b, 0, n);
+            }
+            finally {
+                destIn.close();
+            }
+            assert Arrays.equals(DATA, bout.toByteArray());
+        }
+        finally {
+            tempFolder.deleteRecursively();
+        }
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    /**
+     * Writes an image with the given sector size, whose sectors hold the entry's data surrounded by garbage, and
+     * returns the entry.
+     */
+    private IsoArchiveEntry writeImage(int sectSize) throws IOException {
+        int nbSectors = (int) ENTRY_SECTOR + (ENTRY_SIZE + IsoUtil.MODE1_2048 - 1) / IsoUtil.MODE1_2048 + 1;
+        byte image[] = new byte[nbSectors * sectSize];
+        Arrays.fill(image, (byte) 0xEE);
+
+        for (int off = 0; off < ENTRY_SIZE; off += IsoUtil.MODE1_2048) {
+            long sector = ENTRY_SECTOR + off / IsoUtil.MODE1_2048;
+            System.arraycopy(DATA, off, image, (int) IsoUtil.offsetInSector(sector, sectSize, false),
+                    Math.min(IsoUtil.MODE1_2048, ENTRY_SIZE - off));
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(imageFile, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(image);
+        }
+        finally {
+            raf.close();
+        }
+
+        return new IsoArchiveEntry("file", false, 0, ENTRY_SIZE, ENTRY_SECTOR, sectSize, 0, false);
+    }
+
+    private IsoEntryInputStream openStream(IsoArchiveEntry entry, boolean withChannel) throws IOException {
+        LocalFile.LocalRandomAccessInputStream rais = new LocalFile.LocalRandomAccessInputStream(new RandomAccessFile(imageFile, "r").getChannel());
+
+        return new IsoEntryInputStream(rais, entry, withChannel ? rais.getChannel() : null);
+    }
+
+    /**
+     * Reads <code>length</code> bytes and asserts that they are those of the entry at <code>offset</code>.
+     */
+    private static void assertReads(InputStream in, int offset, int length) throws IOException {
+        byte b[] = new byte[length];
+        int off = 0;
+        int n;
+        while (off < length && (n = in.read(b, off, length - off)) != -1)
+            off += n;
+
+        assert off == length;
+        assert Arrays.equals(Arrays.copyOfRange(DATA, offset, offset + length), b);
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * A channel whose writes fail.
+     */
+    private static class FailingChannel implements WritableByteChannel {
+
+        public int write(ByteBuffer src) throws IOException {
+            throw new IOException("No space left on device");
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.iso;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds small ISO 9660 images in memory, for use as test fixtures. Images have 2048-byte sectors, a primary
+ * hierarchy with plain ISO 9660 names, and optionally:
+ * <ul>
+ *  <li>Rock Ridge <code>NM</code> entries in the primary hierarchy, which may be split across a <code>CE</code>
+ * continuation area</li>
+ *  <li>a Joliet hierarchy with UCS-2 names</li>
+ * </ul>
+ * Each directory extent holds as many sectors as its records require, records never spanning sectors.
+ */
+class IsoImageBuilder {
+
+    /** Sector of the primary volume descriptor */
+    private final static int PVD_SECTOR = 16;
+
+    /** First sector allocated to directories and files, past the sectors probed for volume descriptors */
+    private final static int FIRST_DATA_SECTOR = 40;
+
+    private final static int SECTOR_SIZE = IsoUtil.MODE1_2048;
+
+    /** Index of the primary hierarchy in {@link Node} arrays */
+    private final static int PRIMARY = 0;
+
+    /** Index of the Joliet hierarchy in {@link Node} arrays */
+    private final static int JOLIET = 1;
+
+    private final Node root = new Node(null, "", "", null);
+    private final boolean rockRidge;
+    private final boolean joliet;
+
+    /** Offset within the image of the record of each entry in the primary hierarchy, by path */
+    private final Map<String, Integer> recordOffsets = new HashMap<String, Integer>();
+
+    /** Next sector to allocate */
+    private int nextSector;
+
+
+    /**
+     * Creates a builder for an image with the given extensions.
+     *
+     * @param rockRidge <code>true</code> to add Rock Ridge names to the primary hierarchy
+     * @param joliet <code>true</code> to add a Joliet hierarchy
+     */
+    IsoImageBuilder(boolean rockRidge, boolean joliet) {
+        this.rockRidge = rockRidge;
+        this.joliet = joliet;
+    }
+
+    /**
+     * Returns the root directory of the image.
+     *
+     * @return the root directory of the image
+     */
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the offset within the last built image of the given entry's record in the primary hierarchy.
+     *
+     * @param path path of the entry, without a trailing separator for directories
+     * @return the offset of the entry's record
+     */
+    int getRecordOffset(String path) {
+        return recordOffsets.get(path);
+    }
+
+    /**
+     * Builds and returns the image.
+     *
+     * @return the image
+     * @throws UnsupportedEncodingException should not happen
+     */
+    byte[] build() throws UnsupportedEncodingException {
+        recordOffsets.clear();
+        nextSector = FIRST_DATA_SECTOR;
+
+        List<Node> dirs = getDirectories();
+
+        // Records have the same size whatever the extents they hold: allocate extents first, then write records
+        int nbHierarchies = joliet ? 2 : 1;
+        for (int h = 0; h < nbHierarchies; h++) {
+            for (Node dir : dirs) {
+                dir.dirExtent[h] = nextSector;
+                int nbSectors = writeDirectory(null, dir, h);
+                dir.dirLength[h] = nbSectors * SECTOR_SIZE;
+                nextSector += nbSectors;
+            }
+        }
+        for (Node dir : dirs) {
+            for (Node child : dir.children) {
+                if (child.isContinued())
+                    child.ceSector = nextSector++;
+                if (child.data != null) {
+                    child.fileExtent = nextSector;
+                    nextSector += (child.data.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+                }
+            }
+        }
+
+        // Sector sizes are guessed from the image's size: keep the size from being a multiple of 2352 or 2336 bytes
+        while (nextSector % 73 == 0 || nextSector % 147 == 0)
+            nextSector++;
+
+        byte[] image = new byte[nextSector * SECTOR_SIZE];
+        writeVolumeDescriptor(image, PVD_SECTOR, 1, root, PRIMARY);
+        int terminatorSector = PVD_SECTOR + 1;
+        if (joliet)
+            writeVolumeDescriptor(image, terminatorSector++, 2, root, JOLIET);
+        writeVolumeDescriptor(image, terminatorSector, 255, null, 0);
+
+        for (int h = 0; h < nbHierarchies; h++)
+            for (Node dir : dirs)
+                writeDirectory(image, dir, h);
+
+        for (Node dir : dirs) {
+            for (Node child : dir.children) {
+                if (child.isContinued()) {
+                    byte[] nm = getNM(child.name.substring(child.continuedAt), false);
+                    System.arraycopy(nm, 0, image, child.ceSector * SECTOR_SIZE, nm.length);
+                }
+                if (child.data != null)
+                    System.arraycopy(child.data, 0, image, child.fileExtent * SECTOR_SIZE, child.data.length);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Returns all directories, in breadth-first order.
+     */
+    private List<Node> getDirectories() {
+        List<Node> dirs = new ArrayList<Node>();
+        LinkedList<Node> todo = new LinkedList<Node>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node dir = todo.removeFirst();
+            dirs.add(dir);
+            for (Node child : dir.children)
+                if (child.data == null)
+                    todo.add(child);
+        }
+
+        return dirs;
+    }
+
+    /**
+     * Writes the records of the given directory to the image, or only computes their size if <code>image</code> is
+     * <code>null</code>, and returns the number of sectors they occupy.
+     */
+    private int writeDirectory(byte[] image, Node dir, int hierarchy) throws UnsupportedEncodingException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        List<Node> nodes = new ArrayList<Node>();
+
+        Node parent = dir.parent == null ? dir : dir.parent;
+        records.add(getRecord(new byte[]{0}, dir.dirExtent[hierarchy], dir.dirLength[hierarchy], true,
+                hierarchy == PRIMARY && rockRidge && dir == root ? getSP() : new byte[0]));
+        nodes.add(null);
+        records.add(getRecord(new byte[]{1}, parent.dirExtent[hierarchy], parent.dirLength[hierarchy], true, new byte[0]));
+        nodes.add(null);
+
+        for (Node child : dir.children) {
+            boolean isDir = child.data == null;
+            byte[] id = hierarchy == JOLIET
+                    ? (isDir ? child.name : child.name + ";1").getBytes("UTF-16BE")
+                    : (isDir ? child.isoName : child.isoName + ";1").getBytes("US-ASCII");
+            records.add(getRecord(id,
+                    isDir ? child.dirExtent[hierarchy] : child.fileExtent,
+                    isDir ? child.dirLength[hierarchy] : child.data.length,
+                    isDir,
+                    hierarchy == PRIMARY && rockRidge ? getSystemUse(child) : new byte[0]));
+            nodes.add(child);
+        }
+
+        int sector = 0;
+        int offset = 0;
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            if (offset + record.length > SECTOR_SIZE) {
+                sector++;
+                offset = 0;
+            }
+
+            if (image != null) {
+                int recordOffset = (dir.dirExtent[hierarchy] + sector) * SECTOR_SIZE + offset;
+                System.arraycopy(record, 0, image, recordOffset, record.length);
+                if (hierarchy == PRIMARY && nodes.get(i) != null)
+                    recordOffsets.put(nodes.get(i).getPath(), recordOffset);
+            }
+            offset += record.length;
+        }
+
+        return sector + 1;
+    }
+
+    /**
+     * Returns a directory record with the given file identifier and System Use area.
+     */
+    private static byte[] getRecord(byte[] id, int extent, int length, boolean dir, byte[] systemUse) {
+        int idLength = id.length + ((id.length & 1) == 0 ? 1 : 0);
+        int recordLength = 33 + idLength + systemUse.length;
+        recordLength += recordLength & 1;
+
+        byte[] record = new byte[recordLength];
+        record[0] = (byte) recordLength;
+        setBothEndian(record, 2, extent);
+        setBothEndian(record, 10, length);
+        // 2010-06-15 12:00:00 GMT
+        record[18] = 110;
+        record[19] = 6;
+        record[20] = 15;
+        record[21] = 12;
+        record[25] = (byte) (dir ? 2 : 0);
+        record[28] = 1;
+        record[31] = 1;
+        record[32] = (byte) id.length;
+        System.arraycopy(id, 0, record, 33, id.length);
+        System.arraycopy(systemUse, 0, record, 33 + idLength, systemUse.length);
+
+        return record;
+    }
+
+    /**
+     * Returns the SUSP 'SP' entry that marks a hierarchy carrying Rock Ridge extensions.
+     */
+    private static byte[] getSP() {
+        return new byte[]{'S', 'P', 7, 1, (byte) 0xBE, (byte) 0xEF, 0};
+    }
+
+    /**
+     * Returns a Rock Ridge 'NM' entry holding the given name.
+     */
+    private static byte[] getNM(String name, boolean continues) throws UnsupportedEncodingException {
+        byte[] nameBytes = name.getBytes("UTF-8");
+        byte[] nm = new byte[5 + nameBytes.length];
+        nm[0] = 'N';
+        nm[1] = 'M';
+        nm[2] = (byte) nm.length;
+        nm[3] = 1;
+        nm[4] = (byte) (continues ? 1 : 0);
+        System.arraycopy(nameBytes, 0, nm, 5, nameBytes.length);
+
+        return nm;
+    }
+
+    /**
+     * Returns the System Use area of the given entry's record: an 'NM' entry, followed by a 'CE' entry if the name
+     * continues in a continuation area.
+     */
+    private static byte[] getSystemUse(Node node) throws UnsupportedEncodingException {
+        if (!node.isContinued())
+            return getNM(node.name, false);
+
+        byte[] nm = getNM(node.name.substring(0, node.continuedAt), true);
+        byte[] su = new byte[nm.length + 28];
+        System.arraycopy(nm, 0, su, 0, nm.length);
+        su[nm.length] = 'C';
+        su[nm.length + 1] = 'E';
+        su[nm.length + 2] = 28;
+        su[nm.length + 3] = 1;
+        setBothEndian(su, nm.length + 4, node.ceSector);
+        setBothEndian(su, nm.length + 12, 0);
+        setBothEndian(su, nm.length + 20, getNM(node.name.substring(node.continuedAt), false).length);
+
+        return su;
+    }
+
+    /**
+     * Writes a volume descriptor of the given type, whose root directory record designates the given directory.
+     */
+    private void writeVolumeDescriptor(byte[] image, int sector, int type, Node rootDir, int hierarchy) throws UnsupportedEncodingException {
+        int offset = sector * SECTOR_SIZE;
+        image[offset] = (byte) type;
+        System.arraycopy("CD001".getBytes("US-ASCII"), 0, image, offset + 1, 5);
+        image[offset + 6] = 1;
+        if (rootDir == null)
+            return;
+
+        setBothEndian(image, offset + 80, nextSector);
+        if (hierarchy == JOLIET) {
+            // UCS-2 level 3 escape sequence
+            image[offset + 88] = '%';
+            image[offset + 89] = '/';
+            image[offset + 90] = 'E';
+        }
+        byte[] rootRecord = getRecord(new byte[]{0}, rootDir.dirExtent[hierarchy], rootDir.dirLength[hierarchy], true, new byte[0]);
+        System.arraycopy(rootRecord, 0, image, offset + 156, rootRecord.length);
+    }
+
+    /**
+     * Writes the given value as a 32-bit little-endian integer followed by its big-endian counterpart.
+     */
+    static void setBothEndian(byte[] b, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            b[offset + i] = (byte) (value >> (8 * i));
+            b[offset + 7 - i] = (byte) (value >> (8 * i));
+        }
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * A file or directory of the image.
+     */
+    static class Node {
+        private final Node parent;
+        private final String name;
+        private final String isoName;
+        /** Contents of the file, null for directories */
+        private final byte[] data;
+        private final List<Node> children = new ArrayList<Node>();
+
+        /** Index of the name's first character held by the continuation area, 0 if the name isn't continued */
+        private int continuedAt;
+
+        private final int[] dirExtent = new int[2];
+        private final int[] dirLength = new int[2];
+        private int fileExtent;
+        private int ceSector;
+
+        private Node(Node parent, String name, String isoName, byte[] data) {
+            this.parent = parent;
+            this.name = name;
+            this.isoName = isoName;
+            this.data = data;
+        }
+
+        /**
+         * Adds a directory to this directory.
+         *
+         * @param name the Rock Ridge and Joliet name of the directory
+         * @param isoName the ISO 9660 name of the directory
+         * @return the directory
+         */
+        Node addDirectory(String name, String isoName) {
+            Node dir = new Node(this, name, isoName, null);
+            children.add(dir);
+
+            return dir;
+        }
+
+        /**
+         * Adds a file to this directory.
+         *
+         * @param name the Rock Ridge and Joliet name of the file
+         * @param isoName the ISO 9660 name of the file, without version number
+         * @param data the contents of the file
+         * @return the file
+         */
+        Node addFile(String name, String isoName, byte[] data) {
+            Node file = new Node(this, name, isoName, data);
+            children.add(file);
+
+            return file;
+        }
+
+        /**
+         * Splits the Rock Ridge name of this entry between its record and a continuation area.
+         *
+         * @param index index of the first character held by the continuation area
+         * @return this entry
+         */
+        Node continueNameAt(int index) {
+            continuedAt = index;
+
+            return this;
+        }
+
+        private boolean isContinued() {
+            return continuedAt > 0;
+        }
+
+        private String getPath() {
+            return parent == null || parent.parent == null ? name : parent.getPath() + "/" + name;
+        }
+    }
+}
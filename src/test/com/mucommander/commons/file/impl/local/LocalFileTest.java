@@ -18,14 +18,30 @@
 
 package com.mucommander.commons.file.impl.local;
 
+import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractFileTest;
+import com.mucommander.commons.file.FileCapabilities;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.FilePermissions;
+import com.mucommander.commons.file.LatencyClass;
+import com.mucommander.commons.file.PermissionAccesses;
+import com.mucommander.commons.file.PermissionTypes;
+import com.mucommander.commons.file.util.ChannelTransferable;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.runtime.OsFamilies;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 
@@ -58,6 +74,7 @@ public class LocalFileTest extends AbstractFileTest {
             FileOperation.LIST_CHILDREN,
             FileOperation.DELETE,
             FileOperation.RENAME,
+            FileOperation.COPY_REMOTELY,
             FileOperation.CHANGE_DATE,
             FileOperation.CHANGE_PERMISSION,
             FileOperation.GET_FREE_SPACE,
@@ -155,6 +172,428 @@ public class LocalFileTest extends AbstractFileTest {
             testVolume(volume);
     }
 
+    /**
+     * Asserts that {@link LocalFile#getVolumeInfo()} returns the same values as the file's
+     * <code>java.nio.file.FileStore</code>, with and without the volume information cache, and that
+     * {@link LocalFile#getVolumesInfo()} returns information for each of the {@link LocalFile#getVolumes() volumes}.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testVolumeInfoCache() throws IOException {
+        tempFile.mkdir();
+        FileStore store = Files.getFileStore(((File)tempFile.getUnderlyingFileObject()).toPath());
+
+        long ttl = LocalFile.getVolumeInfoCacheTTL();
+        try {
+            for(long newTTL : new long[]{0, 60000}) {
+                LocalFile.setVolumeInfoCacheTTL(newTTL);
+
+                long volumeInfo[] = ((LocalFile)tempFile).getVolumeInfo();
+                assert store.getTotalSpace() == volumeInfo[0];
+                assert volumeInfo[1]>=0 && volumeInfo[1]<=volumeInfo[0];
+
+                // A file that does not exist reports the volume of its closest existing ancestor
+                long childVolumeInfo[] = ((LocalFile)tempFile.getChild("nonexistent/child")).getVolumeInfo();
+                assert volumeInfo[0] == childVolumeInfo[0];
+            }
+        }
+        finally {
+            LocalFile.setVolumeInfoCacheTTL(ttl);
+        }
+
+        Map<AbstractFile, long[]> volumesInfo = LocalFile.getVolumesInfo();
+        assert LocalFile.getVolumes().length == volumesInfo.size();
+        for(long volumeInfo[] : volumesInfo.values())
+            assert volumeInfo.length == 2 && volumeInfo[1]<=volumeInfo[0];
+    }
+
+    /**
+     * Asserts that the attributes prefetched by {@link LocalFile#ls()} when
+     * {@link LocalFile#setAttributesPrefetchEnabled(boolean) attributes prefetching} is enabled match those returned
+     * by <code>java.io.File</code>, and that they are discarded when the file is modified or when the freshness
+     * window has elapsed.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testAttributesPrefetch() throws IOException {
+        tempFile.mkdir();
+        AbstractFile file = tempFile.getDirectChild("file");
+        file.mkfile();
+        tempFile.getDirectChild("folder").mkdir();
+        tempFile.getDirectChild(".hidden").mkfile();
+        tempFile.getDirectChild("archive.zip").mkfile();
+
+        boolean prefetchEnabled = LocalFile.isAttributesPrefetchEnabled();
+        long freshnessWindow = LocalFile.getAttributesFreshnessWindow();
+        try {
+            LocalFile.setAttributesPrefetchEnabled(true);
+            LocalFile.setAttributesFreshnessWindow(60000);
+
+            AbstractFile children[] = tempFile.ls();
+            assert children.length == 4;
+
+            for(AbstractFile child: children) {
+                LocalFile localChild = (LocalFile)child.getTopAncestor();
+                java.io.File javaIoFile = (java.io.File)localChild.getUnderlyingFileObject();
+
+                assert localChild.hasPrefetchedAttributes();
+                assert child.exists();
+                assert child.isDirectory() == javaIoFile.isDirectory();
+                assert child.isHidden() == javaIoFile.isHidden();
+                assert child.getSize() == javaIoFile.length();
+                assert child.getDate() == javaIoFile.lastModified();
+                assert !child.isSymlink();
+                assert child.getPermissions().getBitValue(PermissionAccesses.USER_ACCESS, PermissionTypes.READ_PERMISSION) == javaIoFile.canRead();
+                assert child.getPermissions().getBitValue(PermissionAccesses.USER_ACCESS, PermissionTypes.WRITE_PERMISSION) == javaIoFile.canWrite();
+            }
+
+            // Modify the file behind the scenes: prefetched attributes are used until the freshness window has elapsed
+            LocalFile localFile = (LocalFile)FileFactory.getFile(file.getAbsolutePath());
+            java.io.FileOutputStream fout = new java.io.FileOutputStream((java.io.File)localFile.getUnderlyingFileObject());
+            fout.write(new byte[]{1, 2, 3});
+            fout.close();
+
+            assert localFile.hasPrefetchedAttributes();
+            assert localFile.getSize() == 0;
+            LocalFile.setAttributesFreshnessWindow(0);
+            sleep(5);
+            assert !localFile.hasPrefetchedAttributes();
+            assert localFile.getSize() == 3;
+
+            // Modifying the file through LocalFile discards prefetched attributes
+            LocalFile.setAttributesFreshnessWindow(60000);
+            tempFile.ls();
+            localFile = (LocalFile)FileFactory.getFile(file.getAbsolutePath());
+            assert localFile.hasPrefetchedAttributes();
+            localFile.delete();
+            assert !localFile.hasPrefetchedAttributes();
+            assert !localFile.exists();
+
+            // Attributes are not prefetched when prefetching is disabled
+            LocalFile.setAttributesPrefetchEnabled(false);
+            for(AbstractFile child: tempFile.ls())
+                assert !((LocalFile)child.getTopAncestor()).hasPrefetchedAttributes();
+        }
+        finally {
+            LocalFile.setAttributesPrefetchEnabled(prefetchEnabled);
+            LocalFile.setAttributesFreshnessWindow(freshnessWindow);
+        }
+    }
+
+    /**
+     * Asserts that the permissions reported when attributes are prefetched are the same as when they are not, both
+     * in value and in mask.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPrefetchedPermissions() throws IOException {
+        tempFile.mkdir();
+        tempFile.getDirectChild("file").mkfile();
+        tempFile.getDirectChild("folder").mkdir();
+        AbstractFile executable = tempFile.getDirectChild("executable");
+        executable.mkfile();
+        ((java.io.File)executable.getUnderlyingFileObject()).setExecutable(true);
+        AbstractFile readOnly = tempFile.getDirectChild("readOnly");
+        readOnly.mkfile();
+        java.io.File readOnlyFile = (java.io.File)readOnly.getUnderlyingFileObject();
+        readOnlyFile.setWritable(false);
+        // The superuser can write to read-only files: java.io.File and the permission bits disagree
+        if(readOnlyFile.canWrite())
+            readOnly.delete();
+
+        boolean prefetchEnabled = LocalFile.isAttributesPrefetchEnabled();
+        long freshnessWindow = LocalFile.getAttributesFreshnessWindow();
+        try {
+            LocalFile.setAttributesPrefetchEnabled(true);
+            LocalFile.setAttributesFreshnessWindow(60000);
+
+            for(AbstractFile child: tempFile.ls()) {
+                LocalFile prefetched = (LocalFile)child.getTopAncestor();
+                LocalFile notPrefetched = new LocalFile(prefetched.getURL());
+                assert prefetched.hasPrefetchedAttributes();
+                assert !notPrefetched.hasPrefetchedAttributes();
+
+                FilePermissions expected = notPrefetched.getPermissions();
+                FilePermissions actual = prefetched.getPermissions();
+                assert actual.getIntValue() == expected.getIntValue() : child.getName();
+                assert actual.getMask().getIntValue() == expected.getMask().getIntValue() : child.getName();
+            }
+        }
+        finally {
+            LocalFile.setAttributesPrefetchEnabled(prefetchEnabled);
+            LocalFile.setAttributesFreshnessWindow(freshnessWindow);
+        }
+    }
+
+    /**
+     * Tests {@link LocalFile#isSymlink()}, {@link LocalFile#getSymlinkTarget()} and {@link LocalFile#getFileKey()}
+     * with absolute, relative and broken symbolic links, with and without attributes prefetching. Also asserts that
+     * {@link AbstractFile#deleteRecursively()} deletes links to a parent folder without following them.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSymlinks() throws IOException {
+        if(OsFamilies.WINDOWS.isCurrent())
+            return;     // Creating symbolic links requires special privileges under Windows
+
+        tempFile.mkdir();
+        AbstractFile file = tempFile.getDirectChild("file");
+        file.mkfile();
+        AbstractFile folder = tempFile.getDirectChild("folder");
+        folder.mkdir();
+
+        java.nio.file.Path tempPath = ((java.io.File)tempFile.getUnderlyingFileObject()).toPath();
+        java.nio.file.Files.createSymbolicLink(tempPath.resolve("absoluteLink"), tempPath.resolve("file"));
+        java.nio.file.Files.createSymbolicLink(tempPath.resolve("relativeLink"), java.nio.file.Paths.get("folder"));
+        java.nio.file.Files.createSymbolicLink(tempPath.resolve("brokenLink"), java.nio.file.Paths.get("nonExistent"));
+        java.nio.file.Files.createSymbolicLink(tempPath.resolve("folder").resolve("parentLink"), java.nio.file.Paths.get(".."));
+
+        boolean prefetchEnabled = LocalFile.isAttributesPrefetchEnabled();
+        try {
+            for(boolean prefetch: new boolean[]{false, true}) {
+                LocalFile.setAttributesPrefetchEnabled(prefetch);
+                tempFile.ls();
+
+                AbstractFile absoluteLink = tempFile.getChild("absoluteLink");
+                AbstractFile relativeLink = tempFile.getChild("relativeLink");
+                AbstractFile brokenLink = tempFile.getChild("brokenLink");
+
+                assert !file.isSymlink();
+                assert !folder.isSymlink();
+                assert file.getSymlinkTarget() == null;
+
+                assert absoluteLink.isSymlink();
+                assert absoluteLink.exists();
+                assert !absoluteLink.isDirectory();
+                assert file.equals(absoluteLink.getSymlinkTarget());
+                assert file.getFileKey().equals(absoluteLink.getFileKey());
+
+                assert relativeLink.isSymlink();
+                assert relativeLink.isDirectory();
+                assert folder.getAbsolutePath(false).equals(relativeLink.getSymlinkTarget().getAbsolutePath(false));
+                assert folder.getFileKey().equals(relativeLink.getFileKey());
+                assert !folder.getFileKey().equals(file.getFileKey());
+
+                assert brokenLink.isSymlink();
+                assert !brokenLink.exists();
+                assert tempFile.getChild("nonExistent").equals(brokenLink.getSymlinkTarget());
+            }
+
+            // Assert that the link to the parent folder is deleted without deleting the parent folder's contents
+            folder.deleteRecursively();
+            assert !folder.exists();
+            assert file.exists();
+        }
+        finally {
+            LocalFile.setAttributesPrefetchEnabled(prefetchEnabled);
+        }
+    }
+
+    /**
+     * Asserts that {@link LocalFile#copyRemotelyTo(AbstractFile)} preserves the contents, size, date and permissions of
+     * a sparse file, and that directories are copied recursively.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testCopyRemotelySparseFile() throws IOException, NoSuchAlgorithmException {
+        tempFile.mkdir();
+        AbstractFile sourceFile = tempFile.getDirectChild("sparse");
+
+        // Create a 64MB file with data at the beginning, in the middle and a trailing hole
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile((java.io.File)sourceFile.getUnderlyingFileObject(), "rw");
+        try {
+            byte data[] = new byte[100000];
+            for(int i=0; i<data.length; i++)
+                data[i] = (byte)i;
+
+            raf.write(data);
+            raf.seek(32*1024*1024);
+            raf.write(data);
+            raf.setLength(64*1024*1024);
+        }
+        finally {
+            raf.close();
+        }
+        sourceFile.changeDate(1000000000000L);
+        sourceFile.changePermission(PermissionAccesses.USER_ACCESS, PermissionTypes.EXECUTE_PERMISSION, true);
+
+        AbstractFile subFolder = tempFile.getDirectChild("folder");
+        subFolder.mkdir();
+        createFile(subFolder.getDirectChild("file"), 1000);
+
+        AbstractFile destFolder = getTemporaryFile();
+        deleteWhenFinished(destFolder);
+        tempFile.copyRemotelyTo(destFolder);
+
+        AbstractFile destFile = destFolder.getDirectChild("sparse");
+        assert destFile.getSize() == sourceFile.getSize();
+        assert destFile.getDate() == sourceFile.getDate();
+        assert destFile.getPermissions().getIntValue() == sourceFile.getPermissions().getIntValue();
+        assertContentsEquals(sourceFile, destFile);
+
+        // Holes survive the copy, if the filesystem supports sparse files and they can be located
+        long sourceData = getDataLength((java.io.File)sourceFile.getUnderlyingFileObject(), sourceFile.getSize());
+        if(sourceData!=-1 && sourceData<sourceFile.getSize()) {
+            long destData = getDataLength((java.io.File)destFile.getUnderlyingFileObject(), destFile.getSize());
+            assert destData!=-1;
+            assert destData<destFile.getSize()/2: destData;
+        }
+
+        assert destFolder.getDirectChild("folder").isDirectory();
+        assertContentsEquals(subFolder.getDirectChild("file"), destFolder.getDirectChild("folder").getDirectChild("file"));
+    }
+
+    /**
+     * Asserts that a {@link LocalFile#copyRemotelyTo(AbstractFile)} that fails partway deletes the files and
+     * directories it has created and leaves existing ones alone, and that {@link AbstractFile#copyTo(AbstractFile)}
+     * reports the error of the remote copy if the manual copy fails as well.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testCopyRemotelyFailure() throws IOException, NoSuchAlgorithmException {
+        tempFile.mkdir();
+        AbstractFile subFolder = tempFile.getDirectChild("folder");
+        subFolder.mkdir();
+        createFile(subFolder.getDirectChild("file"), 1000);
+        createFile(tempFile.getDirectChild("file"), 1000);
+        createFile(tempFile.getDirectChild("conflict"), 1000);
+
+        // A non-empty directory in the destination prevents the 'conflict' file from being copied
+        AbstractFile destFolder = getTemporaryFile();
+        deleteWhenFinished(destFolder);
+        destFolder.mkdir();
+        AbstractFile conflict = destFolder.getDirectChild("conflict");
+        conflict.mkdir();
+        createFile(conflict.getDirectChild("file"), 1000);
+
+        IOException remoteCopyException = null;
+        try {
+            tempFile.copyRemotelyTo(destFolder);
+        }
+        catch(IOException e) {
+            remoteCopyException = e;
+        }
+        assert remoteCopyException != null;
+
+        // Only the destination folder and its existing contents are left
+        assert destFolder.isDirectory();
+        assert !destFolder.getDirectChild("folder").exists();
+        assert !destFolder.getDirectChild("file").exists();
+        assert conflict.getDirectChild("file").getSize() == 1000;
+
+        IOException copyException = null;
+        try {
+            tempFile.copyTo(destFolder);
+        }
+        catch(IOException e) {
+            copyException = e;
+        }
+        assert copyException != null;
+        assert copyException.getSuppressed().length == 1;
+        assert copyException.getSuppressed()[0].getClass() == remoteCopyException.getClass();
+    }
+
+    /**
+     * Returns the number of bytes of the given file that are located in data regions, i.e. that are not in holes.
+     *
+     * @param file the file
+     * @param size the size of the file
+     * @return the number of bytes located in data regions, -1 if holes cannot be located
+     * @throws IOException if the file could not be opened
+     */
+    private static long getDataLength(java.io.File file, long size) throws IOException {
+        long regions[] = LocalFileCopier.getDataRegions(file, size);
+        if(regions==null)
+            return -1;
+
+        long length = 0;
+        for(int i=1; i<regions.length; i+=2)
+            length += regions[i];
+
+        return length;
+    }
+
+    /**
+     * Asserts that local files advertise a local latency and concurrency bounded only by the number of workers, and
+     * that archive files located on a local volume carry the same performance hints.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testLocalCapabilities() throws IOException {
+        FileCapabilities capabilities = tempFile.getCapabilities();
+        assert capabilities.getLatency() == LatencyClass.LOCAL;
+        assert capabilities.getMaxConcurrency() == Integer.MAX_VALUE;
+        assert capabilities.areRangedReadsCheap();
+        assert capabilities == FileCapabilities.get(LocalFile.class);
+
+        AbstractFile tarFile = tempFile.getParent().getDirectChild(tempFile.getName()+".tar");
+        tarFile.mkfile();
+        try {
+            tarFile = FileFactory.getFile(tarFile.getAbsolutePath());
+            assert tarFile instanceof AbstractArchiveFile;
+
+            FileCapabilities archiveCapabilities = tarFile.getCapabilities();
+            assert archiveCapabilities.getLatency() == LatencyClass.LOCAL;
+            assert archiveCapabilities.getPreferredBlockSize() == capabilities.getPreferredBlockSize();
+            // Operations that archive files do not override are those of the proxied file
+            assert archiveCapabilities.isSupported(FileOperation.LIST_CHILDREN);
+            assert archiveCapabilities.isSupported(FileOperation.RANDOM_READ_FILE);
+        }
+        finally {
+            tarFile.delete();
+        }
+    }
+
+    /**
+     * Asserts that {@link LocalFile#copyStream(java.io.InputStream, boolean, long)} lets streams that implement
+     * {@link ChannelTransferable} transfer their bytes, that it honours the given length, and that it reports read and
+     * write errors as such.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCopyChannelTransferableStream() throws IOException {
+        byte data[] = new byte[100000];
+        for(int i=0; i<data.length; i++)
+            data[i] = (byte)i;
+
+        TransferableStream in = new TransferableStream(data, null);
+        tempFile.copyStream(in, false, -1);
+        assert in.transferred;
+        assert tempFile.getSize() == data.length;
+
+        tempFile.copyStream(new TransferableStream(data, null), true, 1000);
+        assert tempFile.getSize() == data.length + 1000;
+
+        IOException readException = new IOException();
+        try {
+            tempFile.copyStream(new TransferableStream(data, readException), false, -1);
+            assert false;
+        }
+        catch(FileTransferException e) {
+            assert e.getReason() == FileTransferException.READING_SOURCE;
+            assert e.getCause() == readException;
+        }
+
+        FileTransferException writeException = new FileTransferException(FileTransferException.WRITING_DESTINATION);
+        try {
+            tempFile.copyStream(new TransferableStream(data, writeException), false, -1);
+            assert false;
+        }
+        catch(FileTransferException e) {
+            assert e == writeException;
+        }
+    }
+
     /**
      * Tests the regex pattern
      */
@@ -174,4 +613,41 @@ public class LocalFileTest extends AbstractFileTest {
         matcher = LocalFile.DRIVE_ROOT_PATTERN.matcher("/blah/C:\\");
         assert !matcher.matches();
     }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * A stream that implements {@link ChannelTransferable}, whose transfers may fail with a given exception.
+     */
+    private static class TransferableStream extends ByteArrayInputStream implements ChannelTransferable {
+
+        /** Exception thrown by transfers, null for transfers to succeed */
+        private final IOException exception;
+
+        /** True if bytes were transferred */
+        private boolean transferred;
+
+        TransferableStream(byte data[], IOException exception) {
+            super(data);
+            this.exception = exception;
+        }
+
+        public long transferTo(WritableByteChannel target, long length) throws IOException {
+            if(exception!=null)
+                throw exception;
+
+            int n = length<0 ? available() : (int)Math.min(length, available());
+            ByteBuffer bb = ByteBuffer.wrap(buf, pos, n);
+            while(bb.hasRemaining())
+                target.write(bb);
+
+            pos += n;
+            transferred = true;
+
+            return n;
+        }
+    }
 }
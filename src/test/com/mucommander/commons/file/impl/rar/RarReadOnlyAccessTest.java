@@ -0,0 +1,232 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.rar;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.UnsupportedFileOperation;
+import com.mucommander.commons.file.UnsupportedFileOperationException;
+import com.mucommander.commons.file.impl.ProxyFile;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A test case for {@link RarReadOnlyAccess}: reads files directly and through the block cache, across block
+ * boundaries, and asserts that blocks are evicted.
+ */
+public class RarReadOnlyAccessTest {
+
+    /** Temporary file read by the current test */
+    private AbstractFile tempFile;
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFile = FileFactory.getTemporaryFile(getClass().getName(), true);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFile.exists())
+            tempFile.delete();
+    }
+
+    /**
+     * Reads a local file, which is read directly through its random access stream.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDirectRead() throws IOException {
+        int length = RarReadOnlyAccess.BLOCK_SIZE + 100;
+        writeFile(tempFile, length);
+
+        RarReadOnlyAccess access = new RarReadOnlyAccess(tempFile);
+        try {
+            assertReads(access, 0, length);
+            assertReads(access, length - 10, 10);
+            assertReads(access, RarReadOnlyAccess.BLOCK_SIZE - 10, 20);
+
+            access.setPosition(length);
+            assert access.read() == -1;
+        }
+        finally {
+            access.close();
+        }
+    }
+
+    /**
+     * Reads a file that does not provide random read access, whose blocks are cached. Reads start and end on each
+     * side of block boundaries.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testBlockBoundaryReads() throws IOException {
+        int blockSize = RarReadOnlyAccess.BLOCK_SIZE;
+        int length = 3 * blockSize + 100;
+        writeFile(tempFile, length);
+
+        SequentialFile file = new SequentialFile(tempFile);
+        RarReadOnlyAccess access = new RarReadOnlyAccess(file);
+        try {
+            // Within the first block, then across the first and second blocks
+            assertReads(access, 0, 10);
+            assertReads(access, blockSize - 10, 20);
+            // Across 3 blocks, ending in the last one which is shorter than the others
+            assertReads(access, blockSize - 1, 2 * blockSize + 2);
+            // Last bytes of the file
+            assertReads(access, length - 50, 50);
+            assert access.read() == -1;
+
+            // Back to the first block, which is still cached
+            int nbStreams = file.nbStreams;
+            assertReads(access, 5, 10);
+            assert file.nbStreams == nbStreams;
+
+            // Reading past the end of the file
+            access.setPosition(length - 10);
+            try {
+                access.readFully(new byte[20], 20);
+                assert false;
+            }
+            catch(EOFException e) {
+                // Expected
+            }
+        }
+        finally {
+            access.close();
+        }
+    }
+
+    /**
+     * Reads more blocks than are cached and asserts that the least recently used ones are read again, while the
+     * others aren't.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testEviction() throws IOException {
+        int blockSize = RarReadOnlyAccess.BLOCK_SIZE;
+        int nbBlocks = RarReadOnlyAccess.MAX_CACHED_BLOCKS + 2;
+        writeFile(tempFile, nbBlocks * blockSize);
+
+        SequentialFile file = new SequentialFile(tempFile);
+        RarReadOnlyAccess access = new RarReadOnlyAccess(file);
+        try {
+            // Blocks are read sequentially, through a single stream
+            for(int i=0; i<nbBlocks; i++)
+                assertReads(access, (long)i * blockSize, 1);
+
+            assert file.nbStreams == 1;
+
+            // The last blocks are still cached
+            assertReads(access, (long)(nbBlocks - 1) * blockSize + 10, 10);
+            assertReads(access, 2L * blockSize, 10);
+            assert file.nbStreams == 1;
+
+            // The first block has been evicted and is read again
+            assertReads(access, 0, 10);
+            assert file.nbStreams == 2;
+
+            // Reading the first block evicted the least recently used one, the fourth block
+            assertReads(access, 3L * blockSize, 10);
+            assert file.nbStreams == 3;
+        }
+        finally {
+            access.close();
+        }
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    /**
+     * Returns the value of the byte at the given offset of the files written by {@link #writeFile(AbstractFile, int)}.
+     */
+    private static byte getByte(long offset) {
+        return (byte)(offset % 251);
+    }
+
+    private static void writeFile(AbstractFile file, int length) throws IOException {
+        byte[] b = new byte[length];
+        for(int i=0; i<length; i++)
+            b[i] = getByte(i);
+
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(b);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads <code>length</code> bytes starting at <code>offset</code> and asserts that they are those of the file.
+     */
+    private static void assertReads(RarReadOnlyAccess access, long offset, int length) throws IOException {
+        byte[] b = new byte[length];
+        access.setPosition(offset);
+        assert access.readFully(b, length) == length;
+        assert access.getPosition() == offset + length;
+
+        for(int i=0; i<length; i++)
+            assert b[i] == getByte(offset + i);
+    }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Proxies a file without providing random read access, and counts the streams opened on it.
+     */
+    private static class SequentialFile extends ProxyFile {
+
+        /** Number of streams opened on the file */
+        private int nbStreams;
+
+        SequentialFile(AbstractFile file) {
+            super(file);
+        }
+
+        @Override
+        public InputStream getInputStream(long offset) throws IOException {
+            nbStreams++;
+            return super.getInputStream(offset);
+        }
+
+        @Override
+        @UnsupportedFileOperation
+        public RandomAccessInputStream getRandomAccessInputStream() throws UnsupportedFileOperationException {
+            throw new UnsupportedFileOperationException(FileOperation.RANDOM_READ_FILE);
+        }
+    }
+}
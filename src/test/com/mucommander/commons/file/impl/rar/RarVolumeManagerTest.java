@@ -0,0 +1,137 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.rar;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+/**
+ * A test case for {@link RarVolumeManager}: resolves the volumes of multi-volume archives named after the old and new
+ * naming schemes.
+ */
+public class RarVolumeManagerTest {
+
+    /** Temporary folder containing the volumes of the current test */
+    private AbstractFile tempFolder;
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFolder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        tempFolder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFolder.exists())
+            tempFolder.deleteRecursively();
+    }
+
+    /**
+     * Resolves volumes named <code>.part1.rar</code>, <code>.part2.rar</code>...
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testNewNumbering() throws IOException {
+        AbstractFile[] volumes = createVolumes("archive.part1.rar", "archive.part2.rar", "archive.part3.rar");
+
+        RarVolumeManager manager = new RarVolumeManager(volumes[0]);
+        assertVolumes(manager, false, volumes);
+    }
+
+    /**
+     * Resolves volumes named <code>.rar</code>, <code>.r00</code>, <code>.r01</code>...
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testOldNumbering() throws IOException {
+        AbstractFile[] volumes = createVolumes("archive.rar", "archive.r00", "archive.r01");
+
+        RarVolumeManager manager = new RarVolumeManager(volumes[0]);
+        assertVolumes(manager, true, volumes);
+    }
+
+    /**
+     * Asserts that volumes resolved by a manager are shared with the managers created from it, and that volumes are
+     * resolved lazily, when junrar switches to them.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSharedVolumes() throws IOException {
+        AbstractFile[] volumes = createVolumes("archive.part1.rar", "archive.part2.rar");
+
+        RarVolumeManager manager = new RarVolumeManager(volumes[0]);
+        assert volumes[1].getURL().equals(manager.getVolumeFile(false, 1).getURL());
+
+        // The third volume is created after the first two were resolved
+        AbstractFile thirdVolume = createVolumes("archive.part3.rar")[0];
+        RarVolumeManager volumeManager = new RarVolumeManager(manager, 1);
+        assert thirdVolume.getURL().equals(volumeManager.getVolumeFile(false, 2).getURL());
+        // The volume resolved by the second manager is visible to the first one
+        assert thirdVolume.getURL().equals(manager.getVolumeFile(false, 2).getURL());
+        assert volumeManager.getVolumeFile(false, 3) == null;
+    }
+
+    /**
+     * Asserts that a volume whose name does not follow the naming scheme has no next volume.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testUnnumberedVolume() throws IOException {
+        AbstractFile volume = createVolumes("archive")[0];
+
+        RarVolumeManager manager = new RarVolumeManager(volume);
+        assert manager.getVolumeFile(false, 0) == volume;
+        assert manager.getVolumeFile(false, 1) == null;
+        assert manager.getVolumeFile(true, 1) == null;
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    private AbstractFile[] createVolumes(String... names) throws IOException {
+        AbstractFile[] volumes = new AbstractFile[names.length];
+        for(int i=0; i<names.length; i++) {
+            volumes[i] = tempFolder.getDirectChild(names[i]);
+            volumes[i].mkfile();
+        }
+
+        return volumes;
+    }
+
+    /**
+     * Asserts that the given manager resolves the given volumes, in order, and no more.
+     */
+    private static void assertVolumes(RarVolumeManager manager, boolean oldNumbering, AbstractFile[] volumes) throws IOException {
+        for(int i=0; i<volumes.length; i++)
+            assert volumes[i].getURL().equals(manager.getVolumeFile(oldNumbering, i).getURL());
+
+        assert manager.getVolumeFile(oldNumbering, volumes.length) == null;
+    }
+}
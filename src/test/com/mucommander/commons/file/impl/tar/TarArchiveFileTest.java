@@ -0,0 +1,577 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.tar;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.tar.provider.TarBuffer;
+import com.mucommander.commons.file.impl.tar.provider.TarConstants;
+import com.mucommander.commons.file.impl.tar.provider.TarEntry;
+import com.mucommander.commons.file.impl.tar.provider.TarInputStream;
+import com.mucommander.commons.file.impl.tar.provider.TarOutputStream;
+import com.mucommander.commons.file.impl.tar.provider.TarUtils;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A test case for {@link TarArchiveFile} and the TAR provider, which validates that entries are listed and read
+ * properly when entry bodies are skipped by seeking rather than by reading them, and that PAX extended headers,
+ * base-256 numbers and sparse entries are properly written and read.
+ */
+public class TarArchiveFileTest {
+
+    /** The TAR file used by the current test */
+    private AbstractFile tarFile;
+
+    /** Contents of the entries of the TAR file, in the order in which they are stored */
+    private Map<String, byte[]> entries;
+
+
+    /**
+     * Creates a TAR file containing entries of various sizes, including an entry with a long GNU name and entries
+     * that span several blocks.
+     *
+     * @throws IOException should not happen
+     */
+    @BeforeMethod
+    public void setUp() throws IOException {
+        Random random = new Random(0);
+
+        entries = new LinkedHashMap<String, byte[]>();
+        entries.put("small.txt", "hello".getBytes("UTF-8"));
+        char[] longName = new char[150];
+        Arrays.fill(longName, 'n');
+        entries.put(new String(longName), randomBytes(random, 25000));
+        entries.put("empty", new byte[0]);
+        entries.put("big.bin", randomBytes(random, 1024*1024+7));
+        entries.put("record.bin", randomBytes(random, 512));
+        entries.put("last.txt", "world".getBytes("UTF-8"));
+
+        tarFile = FileFactory.getTemporaryFile(TarArchiveFileTest.class.getName()+".tar", true);
+        TarOutputStream tout = new TarOutputStream(tarFile.getOutputStream());
+        try {
+            tout.setLongFileMode(TarOutputStream.LONGFILE_GNU);
+            for(Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                TarEntry tarEntry = new TarEntry(entry.getKey());
+                tarEntry.setSize(entry.getValue().length);
+                tout.putNextEntry(tarEntry);
+                tout.write(entry.getValue());
+                tout.closeEntry();
+            }
+        }
+        finally {
+            tout.close();
+        }
+
+        // Re-resolve the file now that it exists, so that it is recognized as an archive
+        tarFile = FileFactory.getFile(tarFile.getAbsolutePath());
+    }
+
+    /**
+     * Deletes the TAR file.
+     *
+     * @throws IOException should not happen
+     */
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tarFile!=null && tarFile.exists())
+            tarFile.delete();
+    }
+
+
+    /**
+     * Lists the archive and reads its entries, and compares them with the original entries.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testListAndRead() throws IOException {
+        assert tarFile instanceof TarArchiveFile;
+
+        AbstractFile[] children = tarFile.ls();
+        assert children.length == entries.size();
+
+        for(AbstractFile child : children) {
+            byte[] expected = entries.get(child.getName());
+            assert expected != null;
+            assert child.getSize() == expected.length;
+
+            InputStream in = child.getInputStream();
+            try {
+                assert Arrays.equals(expected, readAll(in));
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Validates that seeking over entry bodies yields the same entries and offsets as reading through them, and that
+     * only a fraction of the archive is read when iterating through the entries.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSeekingIteration() throws IOException {
+        File file = (File)tarFile.getUnderlyingFileObject();
+
+        List<String> sequentialEntries = new ArrayList<String>();
+        TarInputStream tin = new TarInputStream(new FileInputStream(file));
+        try {
+            TarEntry entry;
+            while((entry=tin.getNextEntry())!=null)
+                sequentialEntries.add(entry.getName()+"@"+entry.getOffset());
+        }
+        finally {
+            tin.close();
+        }
+
+        CountingRandomAccessInputStream rais = new CountingRandomAccessInputStream(file);
+        List<String> seekingEntries = new ArrayList<String>();
+        tin = new TarInputStream(rais, 0);
+        try {
+            TarEntry entry;
+            while((entry=tin.getNextEntry())!=null)
+                seekingEntries.add(entry.getName()+"@"+entry.getOffset());
+        }
+        finally {
+            tin.close();
+        }
+
+        assert sequentialEntries.size() == entries.size();
+        assert sequentialEntries.equals(seekingEntries);
+        assert rais.nbBytesRead < file.length()/4;
+
+        // Start at the offset of an entry located after the big one
+        String lastEntry = seekingEntries.get(seekingEntries.size()-1);
+        long lastOffset = Long.parseLong(lastEntry.substring(lastEntry.indexOf('@')+1));
+        rais = new CountingRandomAccessInputStream(file);
+        tin = new TarInputStream(rais, lastOffset);
+        try {
+            assert "last.txt".equals(tin.getNextEntry().getName());
+            assert Arrays.equals(entries.get("last.txt"), readAll(tin));
+            assert rais.nbBytesRead <= tin.getRecordSize()*20;
+        }
+        finally {
+            tin.close();
+        }
+    }
+
+
+    /**
+     * Validates that names, dates and ids that do not fit in the ustar header are preserved through PAX extended
+     * headers.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPaxHeaders() throws IOException {
+        char[] longName = new char[200];
+        Arrays.fill(longName, '\u00e9');
+        String name = "dir/"+new String(longName);
+        String linkName = "target/"+new String(longName);
+        long modTime = 1234567890123L;
+
+        TarEntry entry = new TarEntry(name, TarConstants.LF_SYMLINK);
+        entry.setLinkName(linkName);
+        entry.setModTime(modTime);
+        entry.setIds(Integer.MAX_VALUE, 3000000);
+        entry.setNames("a_user_name_longer_than_32_characters", "\u00e9quipe");
+
+        File file = (File)tarFile.getUnderlyingFileObject();
+        TarOutputStream tout = new TarOutputStream(new FileOutputStream(file));
+        try {
+            tout.setLongFileMode(TarOutputStream.LONGFILE_POSIX);
+            tout.putNextEntry(entry);
+            tout.closeEntry();
+
+            TarEntry second = new TarEntry("second");
+            second.setSize(5);
+            tout.putNextEntry(second);
+            tout.write("hello".getBytes("UTF-8"));
+            tout.closeEntry();
+        }
+        finally {
+            tout.close();
+        }
+
+        TarInputStream tin = new TarInputStream(new FileInputStream(file));
+        try {
+            TarEntry readEntry = tin.getNextEntry();
+            assert name.equals(readEntry.getName());
+            assert linkName.equals(readEntry.getLinkName());
+            assert modTime == readEntry.getModTime().getTime();
+            assert Integer.MAX_VALUE == readEntry.getUserId();
+            assert 3000000 == readEntry.getGroupId();
+            assert "a_user_name_longer_than_32_characters".equals(readEntry.getUserName());
+            assert "\u00e9quipe".equals(readEntry.getGroupName());
+            assert readEntry.getOffset() == 0;
+
+            readEntry = tin.getNextEntry();
+            assert "second".equals(readEntry.getName());
+            assert Arrays.equals("hello".getBytes("UTF-8"), readAll(tin));
+
+            assert tin.getNextEntry() == null;
+        }
+        finally {
+            tin.close();
+        }
+    }
+
+    /**
+     * Validates that numeric values that do not fit in their octal field are written and parsed in base-256.
+     */
+    @Test
+    public void testBase256() {
+        TarEntry entry = new TarEntry("huge");
+        entry.setSize(10L*1024*1024*1024);
+        entry.setModTime(-1000L*3600*24*365*100);
+        entry.setIds(5000000, -2);
+
+        byte[] header = new byte[TarBuffer.DEFAULT_RCDSIZE];
+        entry.writeEntryHeader(header);
+
+        TarEntry readEntry = new TarEntry(header);
+        assert readEntry.getSize() == entry.getSize();
+        assert readEntry.getModTime().getTime() == entry.getModTime().getTime();
+        assert readEntry.getUserId() == 5000000;
+        assert readEntry.getGroupId() == -2;
+
+        // Values that fit are still written in octal
+        entry.setSize(TarConstants.MAXSIZE);
+        entry.writeEntryHeader(header);
+        assert header[TarConstants.NAMELEN+TarConstants.MODELEN+TarConstants.UIDLEN+TarConstants.GIDLEN] == '7';
+        assert new TarEntry(header).getSize() == TarConstants.MAXSIZE;
+    }
+
+    /**
+     * Validates that sparse entries only store their data regions, and that they are expanded when read.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSparseEntry() throws IOException {
+        long[] sparseMap = new long[] {1024*1024, 4096, 2*1024*1024+100, 1000};
+        byte[] contents = new byte[3*1024*1024];
+        Random random = new Random(1);
+        for(int i=0; i<sparseMap.length; i+=2) {
+            byte[] region = randomBytes(random, (int)sparseMap[i+1]);
+            System.arraycopy(region, 0, contents, (int)sparseMap[i], region.length);
+        }
+
+        File file = (File)tarFile.getUnderlyingFileObject();
+        TarOutputStream tout = new TarOutputStream(new FileOutputStream(file));
+        try {
+            tout.setLongFileMode(TarOutputStream.LONGFILE_POSIX);
+
+            TarEntry entry = new TarEntry("sparse.bin");
+            entry.setSize(contents.length);
+            entry.setSparseMap(sparseMap);
+            tout.putNextEntry(entry);
+            // Write in chunks that straddle region boundaries
+            for(int off=0; off<contents.length; off+=7777)
+                tout.write(contents, off, Math.min(7777, contents.length-off));
+            tout.closeEntry();
+
+            TarEntry last = new TarEntry("last.txt");
+            last.setSize(5);
+            tout.putNextEntry(last);
+            tout.write("world".getBytes("UTF-8"));
+            tout.closeEntry();
+        }
+        finally {
+            tout.close();
+        }
+
+        assert file.length() < 64*1024;
+
+        AbstractFile archive = FileFactory.getFile(file.getAbsolutePath());
+        AbstractFile sparseFile = archive.getDirectChild("sparse.bin");
+        assert sparseFile.exists();
+        assert sparseFile.getSize() == contents.length;
+
+        InputStream in = sparseFile.getInputStream();
+        try {
+            assert Arrays.equals(contents, readAll(in));
+        }
+        finally {
+            in.close();
+        }
+
+        in = archive.getDirectChild("last.txt").getInputStream();
+        try {
+            assert Arrays.equals("world".getBytes("UTF-8"), readAll(in));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Validates that header data sizes and sparse map region counts that exceed the data of the archive are reported
+     * with an <code>IOException</code>, rather than causing buffers of that size to be allocated.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCorruptHeaderSizes() throws IOException {
+        int recordSize = TarBuffer.DEFAULT_RCDSIZE;
+
+        // A PAX header claiming almost 2GB of data, followed by a single record of data
+        TarEntry paxEntry = new TarEntry("PaxHeaders/huge", TarConstants.LF_PAX_EXTENDED_HEADER);
+        paxEntry.setSize(Integer.MAX_VALUE - 1);
+        byte[] archive = new byte[recordSize*4];
+        paxEntry.writeEntryHeader(archive);
+        assertCorrupt(archive);
+
+        // A sparse entry whose map claims far more regions than its data holds
+        File file = (File)tarFile.getUnderlyingFileObject();
+        TarOutputStream tout = new TarOutputStream(new FileOutputStream(file));
+        try {
+            tout.setLongFileMode(TarOutputStream.LONGFILE_POSIX);
+
+            TarEntry entry = new TarEntry("sparse.bin");
+            entry.setSize(2*1024*1024);
+            entry.setSparseMap(new long[] {1024*1024, 4096});
+            tout.putNextEntry(entry);
+            tout.write(new byte[2*1024*1024]);
+            tout.closeEntry();
+        }
+        finally {
+            tout.close();
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            archive = readAll(in);
+        }
+        finally {
+            in.close();
+        }
+
+        // The map holds the region and the empty region that terminates it
+        byte[] map = "2\n1048576\n".getBytes("US-ASCII");
+        int mapOffset = indexOf(archive, map);
+        assert mapOffset != -1;
+        // Same length, the number of regions and the first offset become a single huge number of regions
+        byte[] corruptMap = "999999999\n".getBytes("US-ASCII");
+        System.arraycopy(corruptMap, 0, archive, mapOffset, corruptMap.length);
+        assertCorrupt(archive);
+    }
+
+    /**
+     * Asserts that reading the entries of the given archive throws an <code>IOException</code>.
+     *
+     * @param archive the contents of the archive
+     */
+    private static void assertCorrupt(byte[] archive) {
+        TarInputStream tin = null;
+        try {
+            tin = new TarInputStream(new java.io.ByteArrayInputStream(archive));
+            while(tin.getNextEntry() != null)
+                readAll(tin);
+
+            assert false : "corrupt archive was read without error";
+        }
+        catch(IOException e) {
+            // Expected
+        }
+        finally {
+            if(tin != null) {
+                try { tin.close(); }
+                catch(IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given pattern in the given array, <code>-1</code> if it
+     * does not occur.
+     *
+     * @param array the array to search
+     * @param pattern the pattern to look for
+     * @return the index of the first occurrence of the pattern, -1 if there is none
+     */
+    private static int indexOf(byte[] array, byte[] pattern) {
+        for(int i=0; i<=array.length-pattern.length; i++) {
+            int j = 0;
+            while(j<pattern.length && array[i+j]==pattern[j])
+                j++;
+
+            if(j==pattern.length)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Validates that sparse entries in the old GNU format, whose sparse map continues in an extension header,
+     * are expanded when read.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testOldGNUSparseEntry() throws IOException {
+        int recordSize = TarBuffer.DEFAULT_RCDSIZE;
+        long[] sparseMap = new long[] {0, 10, 1000, 20, 5000, 30, 9000, 40, 20000, 50};
+        long realSize = 30000;
+        int dataSize = 150;
+
+        byte[] header = new byte[recordSize];
+        TarEntry entry = new TarEntry("gnusparse", TarConstants.LF_GNUTYPE_SPARSE);
+        entry.setSize(dataSize);
+        entry.writeEntryHeader(header);
+        // The first 4 regions are in the header, the last one in an extension header
+        for(int i=0; i<TarConstants.OLDGNU_SPARSE_HEADERS*2; i++)
+            TarUtils.getLongOctalBytes(sparseMap[i], header, TarConstants.OLDGNU_SPARSE_OFFSET+i*TarConstants.SPARSELEN, TarConstants.SPARSELEN);
+        header[TarConstants.OLDGNU_ISEXTENDED_OFFSET] = 1;
+        TarUtils.getLongOctalBytes(realSize, header, TarConstants.OLDGNU_REALSIZE_OFFSET, TarConstants.SIZELEN);
+        int checksumOffset = TarConstants.NAMELEN+TarConstants.MODELEN+TarConstants.UIDLEN+TarConstants.GIDLEN+TarConstants.SIZELEN+TarConstants.MODTIMELEN;
+        Arrays.fill(header, checksumOffset, checksumOffset+TarConstants.CHKSUMLEN, (byte)' ');
+        TarUtils.getCheckSumOctalBytes(TarUtils.computeCheckSum(header), header, checksumOffset, TarConstants.CHKSUMLEN);
+
+        byte[] extension = new byte[recordSize];
+        TarUtils.getLongOctalBytes(sparseMap[8], extension, 0, TarConstants.SPARSELEN);
+        TarUtils.getLongOctalBytes(sparseMap[9], extension, TarConstants.SPARSELEN, TarConstants.SPARSELEN);
+
+        byte[] data = randomBytes(new Random(2), dataSize);
+        byte[] expected = new byte[(int)realSize];
+        int dataOffset = 0;
+        for(int i=0; i<sparseMap.length; i+=2) {
+            System.arraycopy(data, dataOffset, expected, (int)sparseMap[i], (int)sparseMap[i+1]);
+            dataOffset += sparseMap[i+1];
+        }
+
+        File file = (File)tarFile.getUnderlyingFileObject();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(header);
+            out.write(extension);
+            out.write(data);
+            // Pad the data and end the archive with two EOF records, up to a full block
+            out.write(new byte[TarBuffer.DEFAULT_BLKSIZE-2*recordSize-dataSize]);
+        }
+        finally {
+            out.close();
+        }
+
+        TarInputStream tin = new TarInputStream(new CountingRandomAccessInputStream(file), 0);
+        try {
+            TarEntry readEntry = tin.getNextEntry();
+            assert "gnusparse".equals(readEntry.getName());
+            assert readEntry.isSparse();
+            assert readEntry.getSize() == realSize;
+            assert readEntry.getDataSize() == dataSize;
+            assert Arrays.equals(sparseMap, readEntry.getSparseMap());
+            assert Arrays.equals(expected, readAll(tin));
+
+            assert tin.getNextEntry() == null;
+        }
+        finally {
+            tin.close();
+        }
+    }
+
+
+    /////////////////////////////////
+    // Support methods and classes //
+    /////////////////////////////////
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int nbRead;
+        while((nbRead=in.read(buffer))!=-1)
+            bout.write(buffer, 0, nbRead);
+
+        return bout.toByteArray();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * A <code>RandomAccessInputStream</code> backed by a <code>RandomAccessFile</code>, which counts the number of
+     * bytes read.
+     */
+    private static class CountingRandomAccessInputStream extends RandomAccessInputStream {
+
+        private final RandomAccessFile raf;
+
+        /** Number of bytes read so far */
+        private long nbBytesRead;
+
+        private CountingRandomAccessInputStream(File file) throws IOException {
+            this.raf = new RandomAccessFile(file, "r");
+        }
+
+        @Override
+        public int read() throws IOException {
+            int i = raf.read();
+            if(i!=-1)
+                nbBytesRead++;
+            return i;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int nbRead = raf.read(b, off, len);
+            if(nbRead>0)
+                nbBytesRead += nbRead;
+            return nbRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+
+        public long getOffset() throws IOException {
+            return raf.getFilePointer();
+        }
+
+        public long getLength() throws IOException {
+            return raf.length();
+        }
+
+        public void seek(long offset) throws IOException {
+            raf.seek(offset);
+        }
+    }
+}
@@ -19,12 +19,19 @@
 package com.mucommander.commons.file.impl.zip;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.impl.zip.provider.ZipFile;
+import com.mucommander.commons.io.StreamUtils;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.Random;
 
 /**
  * An {@link AbstractFileTest} implementation, which performs tests on {@link AbstractArchiveEntryFile}
@@ -118,6 +125,221 @@ public class ZipArchiveFileTest extends AbstractFileTest {
         // the archive file is another instance which isn't aware of the change, because the file date hasn't changed (?).
     }
 
+    /**
+     * Adds, updates and deletes entries within a batch, and asserts that the Zip file is valid and contains the
+     * expected entries once the batch has been committed.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    public void testBatch() throws IOException, NoSuchAlgorithmException {
+        String md5s[] = new String[10];
+
+        tempZipFile.beginBatch();
+        try {
+            assert tempZipFile.isInBatch();
+
+            for(int i=0; i<10; i++)
+                md5s[i] = createFile(tempZipFile.getDirectChild("batch"+i), 1000+i);
+
+            // Deleting the last entry reclaims its space, deleting another one leaves a hole
+            tempZipFile.getDirectChild("batch9").delete();
+            tempZipFile.getDirectChild("batch3").delete();
+
+            tempZipFile.getDirectChild("batch5").changeDate(1000000000000L);
+        }
+        finally {
+            tempZipFile.commitBatch();
+        }
+
+        assert !tempZipFile.isInBatch();
+
+        // Parse the Zip file from scratch
+        ZipArchiveFile zipFile = new ZipArchiveFile(tempZipFile.getProxiedFile());
+        AbstractFile children[] = zipFile.ls();
+        assert children.length == 8;
+
+        for(int i=0; i<10; i++) {
+            AbstractFile entry = zipFile.getDirectChild("batch"+i);
+            if(i==3 || i==9) {
+                assert !entry.exists();
+            }
+            else {
+                assert entry.exists();
+                assert entry.getSize() == 1000+i;
+                assert md5s[i].equals(calculateMd5(entry));
+            }
+        }
+
+        assert zipFile.getDirectChild("batch5").getDate() == 1000000000000L;
+    }
+
+    /**
+     * Deletes entries to fragment the Zip file, then defragments it by small steps and asserts that the Zip file is
+     * valid after each step, and that it has shrunk once it is no longer fragmented.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    public void testIncrementalDefragmentation() throws IOException, NoSuchAlgorithmException {
+        String md5s[] = new String[20];
+        for(int i=0; i<20; i++)
+            md5s[i] = createFile(tempZipFile.getDirectChild("frag"+i), 10000+i);
+
+        // Delete one entry out of three, including the first one
+        for(int i=0; i<20; i+=3)
+            tempZipFile.getDirectChild("frag"+i).delete();
+
+        AbstractFile file = tempZipFile.getProxiedFile();
+        long fragmentedSize = file.getSize();
+
+        ZipFile zipFile = new ZipFile(file);
+        assert zipFile.getFragmentationRatio() > 0;
+
+        int nbSteps = 0;
+        boolean done;
+        do {
+            done = zipFile.defragment(15000);
+            nbSteps++;
+
+            // Parse the Zip file from scratch and verify the remaining entries
+            ZipArchiveFile zipArchiveFile = new ZipArchiveFile(file);
+            assert zipArchiveFile.ls().length == 13;
+            for(int i=1; i<20; i++) {
+                if(i%3!=0)
+                    assert md5s[i].equals(calculateMd5(getEntry(zipArchiveFile, "frag"+i)));
+            }
+        }
+        while(!done);
+
+        assert nbSteps > 1;
+        assert zipFile.getFragmentationRatio() == 0;
+        assert file.getSize() < fragmentedSize;
+        assert zipFile.defragment(15000);
+    }
+
+    /**
+     * Defragments a Zip file whose entries are moved by a few bytes and by more than a megabyte, which are copied
+     * through a buffer and transferred from channel to channel respectively, and asserts that the moved entries are
+     * intact.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    public void testDefragmentationShifts() throws IOException, NoSuchAlgorithmException {
+        // A tiny entry in front of a large one, which overlaps its former location once moved
+        createFile(tempZipFile.getDirectChild("tiny"), 10);
+        String largeMd5 = createFile(tempZipFile.getDirectChild("large"), 3*1024*1024+123);
+        // An entry larger than the buffer in front of another one
+        createFile(tempZipFile.getDirectChild("medium"), 1536*1024);
+        String lastMd5 = createFile(tempZipFile.getDirectChild("last"), 2*1024*1024+45);
+
+        tempZipFile.getDirectChild("tiny").delete();
+        tempZipFile.getDirectChild("medium").delete();
+
+        AbstractFile file = tempZipFile.getProxiedFile();
+        long fragmentedSize = file.getSize();
+
+        ZipFile zipFile = new ZipFile(file);
+        assert zipFile.getFragmentationRatio() > 0;
+        assert zipFile.defragment(Long.MAX_VALUE);
+        assert zipFile.getFragmentationRatio() == 0;
+        assert file.getSize() < fragmentedSize - 1536*1024;
+
+        ZipArchiveFile zipArchiveFile = new ZipArchiveFile(file);
+        assert zipArchiveFile.ls().length == 2;
+        assert largeMd5.equals(calculateMd5(getEntry(zipArchiveFile, "large")));
+        assert lastMd5.equals(calculateMd5(getEntry(zipArchiveFile, "last")));
+    }
+
+    /**
+     * Returns the entry with the given name from the archive's own listing. Entries resolved by
+     * {@link AbstractFile#getDirectChild(String)} are read through the pooled archive file, which does not notice that a
+     * {@link ZipFile} has moved its entries if the file's date has not changed in the meantime.
+     *
+     * @param zipArchiveFile the archive to look the entry up in
+     * @param name the name of the entry
+     * @return the entry with the given name
+     * @throws IOException if the archive could not be listed
+     */
+    private static AbstractFile getEntry(ZipArchiveFile zipArchiveFile, String name) throws IOException {
+        for(AbstractFile child : zipArchiveFile.ls()) {
+            if(child.getName().equals(name))
+                return child;
+        }
+
+        throw new IOException("No such entry: "+name);
+    }
+
+    /**
+     * Keeps an entry being read and another one being written while the Zip file is fragmented, and asserts that
+     * background defragmentation does not move entries until both streams are closed.
+     *
+     * @throws Exception should not happen
+     */
+    public void testBackgroundDefragmentationWithOpenStreams() throws Exception {
+        String md5s[] = new String[10];
+        for(int i=0; i<10; i++)
+            md5s[i] = createFile(tempZipFile.getDirectChild("frag"+i), 10000+i);
+
+        byte added[] = new byte[20000];
+        new Random(0).nextBytes(added);
+
+        AbstractFile file = tempZipFile.getProxiedFile();
+        InputStream in;
+        OutputStream out;
+        byte head[] = new byte[1000];
+        long fragmentedSize;
+
+        ZipArchiveFile.setBackgroundDefragmentationThreshold(0.01f);
+        try {
+            // Holding the archive's lock keeps the scheduled step from running until both streams are open
+            synchronized(tempZipFile) {
+                for(int i=0; i<5; i++)
+                    tempZipFile.getDirectChild("frag"+i).delete();
+
+                assert tempZipFile.isDefragmentationScheduled();
+                fragmentedSize = file.getSize();
+
+                in = tempZipFile.getDirectChild("frag9").getInputStream();
+                StreamUtils.readFully(in, head);
+                out = tempZipFile.getDirectChild("added").getOutputStream();
+            }
+
+            ZipArchiveFile.waitForDefragmentationSteps();
+            assert !tempZipFile.isDefragmentationScheduled();
+
+            out.write(added);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            bout.write(head);
+            StreamUtils.copyStream(in, bout);
+            assert md5s[9].equals(calculateMd5(new ByteArrayInputStream(bout.toByteArray())));
+
+            out.close();
+            assert !tempZipFile.isDefragmentationScheduled();
+            assert file.getSize() >= fragmentedSize;
+
+            // Closing the last stream resumes defragmentation
+            in.close();
+            while(tempZipFile.isDefragmentationScheduled())
+                ZipArchiveFile.waitForDefragmentationSteps();
+        }
+        finally {
+            ZipArchiveFile.setBackgroundDefragmentationThreshold(0);
+        }
+
+        ZipFile zipFile = new ZipFile(file);
+        assert zipFile.getFragmentationRatio() == 0;
+        assert file.getSize() < fragmentedSize;
+
+        // Parse the Zip file from scratch and verify the remaining entries
+        ZipArchiveFile zipArchiveFile = new ZipArchiveFile(file);
+        assert zipArchiveFile.ls().length == 6;
+        for(int i=5; i<10; i++)
+            assert md5s[i].equals(calculateMd5(zipArchiveFile.getDirectChild("frag"+i)));
+        assert calculateMd5(new ByteArrayInputStream(added)).equals(calculateMd5(zipArchiveFile.getDirectChild("added")));
+    }
+
 //    /**
 //     * Tests the Zip32 4GB limit by asserting two things:
 //     * <ul>
@@ -0,0 +1,192 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.metrics;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.tar.provider.TarEntry;
+import com.mucommander.commons.file.impl.tar.provider.TarOutputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A test case for {@link FileMetrics} and {@link SimpleMetricsRecorder}.
+ */
+public class FileMetricsTest {
+
+    /** The recorder installed for the current test */
+    private SimpleMetricsRecorder recorder;
+
+
+    @BeforeMethod
+    public void setUp() {
+        recorder = new SimpleMetricsRecorder();
+        FileMetrics.setRecorder(recorder);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileMetrics.setRecorder(null);
+    }
+
+
+    /**
+     * Asserts that nothing is recorded and that streams are not wrapped when no recorder is installed.
+     */
+    @Test
+    public void testDisabled() {
+        FileMetrics.setRecorder(null);
+        assert !FileMetrics.isEnabled();
+        assert FileMetrics.start() == 0;
+
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+        assert FileMetrics.meter("test", in) == in;
+
+        OutputStream out = new ByteArrayOutputStream();
+        assert FileMetrics.meter("test", out) == out;
+
+        FileMetrics.end("test", MeteredOperation.STAT, 0, false);
+        assert recorder.getSnapshot().getValues().isEmpty();
+    }
+
+    /**
+     * Asserts that operations and errors are counted per scheme and per operation.
+     */
+    @Test
+    public void testOperations() {
+        for(int i=0; i<3; i++)
+            FileMetrics.end("test", MeteredOperation.STAT, FileMetrics.start(), i==0);
+        FileMetrics.end("other", MeteredOperation.LIST, FileMetrics.start(), false);
+
+        MetricsSnapshot snapshot = recorder.getSnapshot();
+        assert snapshot.getCallCount("test", MeteredOperation.STAT) == 3;
+        assert snapshot.getErrorCount("test", MeteredOperation.STAT) == 1;
+        assert snapshot.getCallCount("test", MeteredOperation.LIST) == 0;
+        assert snapshot.getCallCount("other", MeteredOperation.LIST) == 1;
+        assert snapshot.getErrorCount("other", MeteredOperation.LIST) == 0;
+        assert snapshot.getValue("test.stat.p99") != null;
+
+        recorder.reset();
+        assert recorder.getSnapshot().getCallCount("test", MeteredOperation.STAT) == 0;
+    }
+
+    /**
+     * Asserts that the bytes read from and written to metered streams are accounted for.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testStreams() throws IOException {
+        InputStream in = FileMetrics.meter("test", new ByteArrayInputStream(new byte[1000]));
+        byte[] b = new byte[300];
+        while(in.read(b)!=-1);
+        assert in.read() == -1;
+
+        OutputStream out = FileMetrics.meter("test", new ByteArrayOutputStream());
+        out.write(b);
+        out.write(0);
+
+        MetricsSnapshot snapshot = recorder.getSnapshot();
+        assert snapshot.getBytesRead("test") == 1000;
+        assert snapshot.getBytesWritten("test") == 301;
+        assert snapshot.getCallCount("test", MeteredOperation.READ) == 6;
+        assert snapshot.getCallCount("test", MeteredOperation.WRITE) == 2;
+    }
+
+    /**
+     * Asserts that cache hit rates are properly computed.
+     */
+    @Test
+    public void testCacheAccesses() {
+        assert recorder.getSnapshot().getHitRate("test", "cache") == -1;
+
+        FileMetrics.cacheAccess("test", "cache", true);
+        FileMetrics.cacheAccess("test", "cache", true);
+        FileMetrics.cacheAccess("test", "cache", true);
+        FileMetrics.cacheAccess("test", "cache", false);
+
+        assert recorder.getSnapshot().getHitRate("test", "cache") == 0.75;
+    }
+
+    /**
+     * Asserts that durations fall in the expected buckets and that percentiles are approximated by bucket upper
+     * bounds.
+     */
+    @Test
+    public void testHistogram() {
+        assert LatencyHistogram.getBucket(0) == 0;
+        assert LatencyHistogram.getBucket(1000) == 0;
+        assert LatencyHistogram.getBucket(2000) == 1;
+        assert LatencyHistogram.getBucket(1000*1000) == 9;
+        assert LatencyHistogram.getBucket(Long.MAX_VALUE) == LatencyHistogram.NB_BUCKETS-1;
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        assert histogram.getPercentile(50) == 0;
+
+        for(int i=0; i<99; i++)
+            histogram.record(1000);         // 1 microsecond
+        histogram.record(1000*1000*1000);   // 1 second
+
+        assert histogram.getCount() == 100;
+        assert histogram.getPercentile(50) == 2;
+        assert histogram.getPercentile(99) == 2;
+        assert histogram.getPercentile(100) == 1024*1024;
+    }
+
+    /**
+     * Lists a TAR archive twice and asserts that the entries tree is created only once, the second listing being
+     * served by the cached tree.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testArchiveListing() throws IOException {
+        AbstractFile tarFile = FileFactory.getTemporaryFile(FileMetricsTest.class.getName()+".tar", true);
+        try {
+            TarOutputStream tout = new TarOutputStream(tarFile.getOutputStream());
+            try {
+                TarEntry entry = new TarEntry("entry.txt");
+                entry.setSize(5);
+                tout.putNextEntry(entry);
+                tout.write("hello".getBytes("UTF-8"));
+                tout.closeEntry();
+            }
+            finally {
+                tout.close();
+            }
+
+            AbstractFile archive = FileFactory.getFile(tarFile.getAbsolutePath());
+            assert archive.ls().length == 1;
+            assert archive.ls().length == 1;
+
+            MetricsSnapshot snapshot = recorder.getSnapshot();
+            assert snapshot.getCallCount("tar", MeteredOperation.LIST) == 1;
+            assert snapshot.getHitRate("tar", "entriesTree") > 0;
+        }
+        finally {
+            tarFile.delete();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.io.BoundedInputStream;
+import com.mucommander.commons.io.ByteUtils;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.RandomGeneratorInputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A test case for the {@link ChecksumCalculator} class.
+ */
+public class ChecksumCalculatorTest {
+
+    /** Algorithms used by the tests */
+    private final static String ALGORITHMS[] = {"MD5", "SHA-1", "SHA-256"};
+
+    /** Temporary folder containing the files of the current test */
+    private AbstractFile tempFolder;
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFolder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        tempFolder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFolder.exists())
+            tempFolder.deleteRecursively();
+    }
+
+    /**
+     * Verifies that checksums calculated in a single pass are the same as the ones calculated one at a time, for
+     * files that fit in a buffer, that span several buffers and whose size is a multiple of the buffer size.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testChecksums() throws IOException, NoSuchAlgorithmException {
+        int sizes[] = {0, 1, ChecksumCalculator.BUFFER_SIZE-1, ChecksumCalculator.BUFFER_SIZE,
+                3*ChecksumCalculator.BUFFER_SIZE, 3*ChecksumCalculator.BUFFER_SIZE+123};
+
+        ChecksumCalculator calculator = new ChecksumCalculator();
+        for(int size : sizes) {
+            AbstractFile file = createFile("file"+size, size);
+
+            String expected[] = getChecksums(file);
+            assert Arrays.equals(expected, file.calculateChecksums(ALGORITHMS));
+            assert Arrays.equals(expected, calculator.calculateChecksums(file, ALGORITHMS));
+        }
+    }
+
+    /**
+     * Verifies that the checksums of a stream that spans many buffers are the same as the ones calculated by feeding
+     * the stream to each digest on the calling thread.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testMultiChunkStream() throws IOException, NoSuchAlgorithmException {
+        int size = 10*ChecksumCalculator.BUFFER_SIZE+12345;
+        byte data[] = new byte[size];
+        new Random(0).nextBytes(data);
+
+        MessageDigest messageDigests[] = new MessageDigest[ALGORITHMS.length];
+        String expected[] = new String[ALGORITHMS.length];
+        for(int i=0; i<ALGORITHMS.length; i++) {
+            messageDigests[i] = MessageDigest.getInstance(ALGORITHMS[i]);
+            expected[i] = ByteUtils.toHexString(MessageDigest.getInstance(ALGORITHMS[i]).digest(data));
+        }
+
+        // Return short reads to make buffers straddle read boundaries
+        InputStream in = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte b[], int off, int len) {
+                return super.read(b, off, Math.min(len, 10000));
+            }
+        };
+
+        assert Arrays.equals(expected, ChecksumCalculator.calculateChecksums(in, messageDigests));
+    }
+
+    /**
+     * Verifies that an error that occurs while reading the stream is reported along with its cause.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test(timeOut = 10000)
+    public void testReadError() throws IOException, NoSuchAlgorithmException {
+        IOException error = new IOException();
+        try {
+            ChecksumCalculator.calculateChecksums(getFailingStream(error), MessageDigest.getInstance("MD5"), MessageDigest.getInstance("SHA-1"));
+            assert false;
+        }
+        catch(FileTransferException e) {
+            assert FileTransferException.READING_SOURCE == e.getReason();
+            assert e.getCause() == error;
+        }
+    }
+
+    /**
+     * Verifies that unchecked exceptions and errors that occur while reading the stream are rethrown, rather than
+     * leaving the calling thread waiting for the reader.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test(timeOut = 10000)
+    public void testUncheckedReadError() throws IOException, NoSuchAlgorithmException {
+        Throwable errors[] = {new IllegalStateException(), new AssertionError()};
+        for(Throwable error : errors) {
+            try {
+                ChecksumCalculator.calculateChecksums(getFailingStream(error), MessageDigest.getInstance("MD5"));
+                assert false;
+            }
+            catch(RuntimeException e) {
+                assert e == error;
+            }
+            catch(Error e) {
+                assert e == error;
+            }
+        }
+    }
+
+    /**
+     * Verifies the checksums of all the files of a tree, and the order in which they are returned.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testTreeChecksums() throws IOException, NoSuchAlgorithmException {
+        AbstractFile file1 = createFile("file1", 1000);
+        AbstractFile dir = tempFolder.getDirectChild("dir");
+        dir.mkdir();
+        AbstractFile file2 = dir.getDirectChild("file2");
+        file2.copyStream(new BoundedInputStream(new RandomGeneratorInputStream(), 2*ChecksumCalculator.BUFFER_SIZE+1, false), false, -1);
+        AbstractFile file3 = createFile("file3", 0);
+
+        Map<AbstractFile, String[]> checksums = new ChecksumCalculator(2, 0).calculateTreeChecksums(tempFolder, ALGORITHMS);
+        assert 3 == checksums.size();
+
+        // Files are returned in the order they are listed
+        AbstractFile expectedFiles[] = new AbstractFile[3];
+        int i = 0;
+        for(AbstractFile child : tempFolder.ls()) {
+            if(child.isDirectory())
+                expectedFiles[i++] = file2;
+            else
+                expectedFiles[i++] = child;
+        }
+
+        Iterator<Map.Entry<AbstractFile, String[]>> iterator = checksums.entrySet().iterator();
+        for(AbstractFile expectedFile : expectedFiles) {
+            Map.Entry<AbstractFile, String[]> entry = iterator.next();
+            assert expectedFile.equals(entry.getKey());
+            assert Arrays.equals(getChecksums(expectedFile), entry.getValue());
+        }
+
+        assert checksums.containsKey(file1);
+        assert checksums.containsKey(file3);
+    }
+
+    /**
+     * Verifies that cached checksums are returned as long as the file's size and date do not change.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testCache() throws IOException, NoSuchAlgorithmException {
+        AbstractFile file = createFile("file", 1000);
+        long date = file.getDate();
+        String checksums[] = getChecksums(file);
+
+        ChecksumCalculator calculator = new ChecksumCalculator(1, 10);
+        assert Arrays.equals(checksums, calculator.calculateChecksums(file, ALGORITHMS));
+
+        // Change the contents without changing the size or date: the cached checksums are returned
+        file.copyStream(new BoundedInputStream(new RandomGeneratorInputStream(), 1000, false), false, 1000);
+        file.changeDate(date);
+        String newChecksums[] = getChecksums(file);
+        assert !Arrays.equals(checksums, newChecksums);
+        assert Arrays.equals(checksums, calculator.calculateChecksums(file, ALGORITHMS));
+
+        // Algorithms that are not cached yet are calculated
+        String mixedChecksums[] = calculator.calculateChecksums(file, "SHA-512", ALGORITHMS[0]);
+        assert file.calculateChecksum("SHA-512").equals(mixedChecksums[0]);
+        assert checksums[0].equals(mixedChecksums[1]);
+
+        // Changing the date invalidates the cached checksums
+        file.changeDate(date-2000);
+        assert Arrays.equals(newChecksums, calculator.calculateChecksums(file, ALGORITHMS));
+
+        calculator.clearCache();
+        file.changeDate(date);
+        assert Arrays.equals(newChecksums, calculator.calculateChecksums(file, ALGORITHMS));
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    /**
+     * Returns a stream that throws the given error once it has returned two buffers' worth of bytes, i.e. on the
+     * reader thread.
+     *
+     * @param error an <code>IOException</code>, a <code>RuntimeException</code> or an <code>Error</code>
+     * @return a stream that fails mid-stream
+     */
+    private static InputStream getFailingStream(final Throwable error) {
+        return new BoundedInputStream(new RandomGeneratorInputStream(), 4*ChecksumCalculator.BUFFER_SIZE, false) {
+            @Override
+            public int read(byte b[], int off, int len) throws IOException {
+                if(getReadCounter()>=2*ChecksumCalculator.BUFFER_SIZE) {
+                    if(error instanceof IOException)
+                        throw (IOException)error;
+                    if(error instanceof RuntimeException)
+                        throw (RuntimeException)error;
+                    throw (Error)error;
+                }
+
+                return super.read(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Creates a file of the given size in the temporary folder, filled with random bytes.
+     *
+     * @param name name of the file
+     * @param size size of the file
+     * @return the created file
+     * @throws IOException should not normally happen
+     */
+    private AbstractFile createFile(String name, int size) throws IOException {
+        AbstractFile file = tempFolder.getDirectChild(name);
+        file.copyStream(new BoundedInputStream(new RandomGeneratorInputStream(), size, false), false, size);
+
+        return file;
+    }
+
+    /**
+     * Returns the checksums of the given file for {@link #ALGORITHMS}, calculated one at a time.
+     *
+     * @param file the file to hash
+     * @return the checksums of the given file
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    private String[] getChecksums(AbstractFile file) throws IOException, NoSuchAlgorithmException {
+        String checksums[] = new String[ALGORITHMS.length];
+        for(int i=0; i<ALGORITHMS.length; i++)
+            checksums[i] = file.calculateChecksum(ALGORITHMS[i]);
+
+        return checksums;
+    }
+}
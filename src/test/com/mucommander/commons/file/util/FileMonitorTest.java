@@ -22,6 +22,7 @@ import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.PermissionAccesses;
 import com.mucommander.commons.file.PermissionTypes;
+import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
@@ -144,6 +145,163 @@ public class FileMonitorTest implements FileMonitorConstants {
         assert hasAttributeChanged(EXISTS_ATTRIBUTE);
     }
 
+    /**
+     * Validates that files are properly polled when the watch service is disabled, including siblings that are polled
+     * in a batch by listing their parent folder.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testPolling() throws IOException {
+        FileMonitor.setWatchServiceEnabled(false);
+        FileMonitor siblingMonitor = null;
+        AbstractFile sibling = null;
+        try {
+            setUp(DATE_ATTRIBUTE|SIZE_ATTRIBUTE);
+
+            sibling = file.getParent().getDirectChild(file.getName()+"_sibling");
+            sibling.mkfile();
+            siblingMonitor = new FileMonitor(sibling, DATE_ATTRIBUTE, POLL_PERIOD);
+            FileChangeTracker siblingTracker = new FileChangeTracker();
+            siblingMonitor.addFileChangeListener(siblingTracker);
+            siblingMonitor.startMonitoring();
+
+            file.changeDate(file.getDate()-2000);
+            assert hasAttributeChanged(DATE_ATTRIBUTE);
+
+            sibling.changeDate(sibling.getDate()-2000);
+            synchronized(siblingTracker) {
+                if((siblingTracker.getChangedAttributes()&DATE_ATTRIBUTE)==0)
+                    siblingTracker.wait(TIMEOUT);
+                assert (siblingTracker.getChangedAttributes()&DATE_ATTRIBUTE)!=0;
+            }
+
+            RandomAccessOutputStream raos = file.getRandomAccessOutputStream();
+            try {
+                raos.setLength(10);
+            }
+            finally {
+                raos.close();
+            }
+            assert hasAttributeChanged(SIZE_ATTRIBUTE);
+        }
+        catch(InterruptedException e) {
+            assert false;
+        }
+        finally {
+            FileMonitor.setWatchServiceEnabled(true);
+            if(siblingMonitor!=null)
+                siblingMonitor.stopMonitoring();
+            if(sibling!=null && sibling.exists())
+                sibling.delete();
+        }
+    }
+
+    /**
+     * Validates that changes made to a local file outside of {@link AbstractFile} are reported when the monitored
+     * instance holds attributes prefetched by a listing of its parent, whether the file is watched or polled.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testPrefetchedAttributes() throws IOException {
+        boolean prefetchEnabled = LocalFile.isAttributesPrefetchEnabled();
+        long freshnessWindow = LocalFile.getAttributesFreshnessWindow();
+        LocalFile.setAttributesPrefetchEnabled(true);
+        LocalFile.setAttributesFreshnessWindow(60000);
+        try {
+            for(boolean watchServiceEnabled : new boolean[]{true, false}) {
+                FileMonitor.setWatchServiceEnabled(watchServiceEnabled);
+
+                AbstractFile folder = FileFactory.getTemporaryFile(getClass().getName(), true);
+                folder.mkdir();
+                folder.getDirectChild("file").mkfile();
+                file = folder.ls()[0];
+                assert ((LocalFile)file.getTopAncestor()).hasPrefetchedAttributes();
+
+                fileMonitor = new FileMonitor(file, SIZE_ATTRIBUTE, POLL_PERIOD);
+                fileChangeTracker = new FileChangeTracker();
+                fileMonitor.addFileChangeListener(fileChangeTracker);
+                fileMonitor.startMonitoring();
+
+                java.io.FileOutputStream out = new java.io.FileOutputStream((java.io.File)file.getUnderlyingFileObject());
+                try {
+                    out.write(new byte[10]);
+                }
+                finally {
+                    out.close();
+                }
+
+                try {
+                    assert hasAttributeChanged(SIZE_ATTRIBUTE);
+                }
+                finally {
+                    fileMonitor.stopMonitoring();
+                    folder.deleteRecursively();
+                }
+            }
+        }
+        finally {
+            FileMonitor.setWatchServiceEnabled(true);
+            LocalFile.setAttributesPrefetchEnabled(prefetchEnabled);
+            LocalFile.setAttributesFreshnessWindow(freshnessWindow);
+        }
+    }
+
+    /**
+     * Validates that a burst of changes is reported in a few coalesced events rather than one event per change.
+     *
+     * @throws Exception should not normally happen
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+        setUp(DATE_ATTRIBUTE|SIZE_ATTRIBUTE);
+
+        CountingListener countingListener = new CountingListener();
+        fileMonitor.addFileChangeListener(countingListener);
+
+        long date = file.getDate();
+        for(int i=0; i<100; i++)
+            file.changeDate(date - (i+1)*1000);
+
+        assert hasAttributeChanged(DATE_ATTRIBUTE);
+        Thread.sleep(FileMonitor.getCoalescePeriod()*4);
+
+        assert countingListener.nbEvents>0;
+        assert countingListener.nbEvents<100;
+    }
+
+    /**
+     * Validates that monitoring many files doesn't start a thread per file.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testSharedThreads() throws IOException {
+        setUp(DATE_ATTRIBUTE);
+
+        int nbThreads = Thread.activeCount();
+        FileMonitor[] monitors = new FileMonitor[100];
+        try {
+            for(int i=0; i<monitors.length; i++) {
+                monitors[i] = new FileMonitor(FileFactory.getTemporaryFile(getClass().getName(), true), DATE_ATTRIBUTE, POLL_PERIOD);
+                monitors[i].startMonitoring();
+            }
+
+            assert Thread.activeCount() - nbThreads < 10;
+
+            // Existing monitors keep working
+            file.changeDate(file.getDate()-2000);
+            assert hasAttributeChanged(DATE_ATTRIBUTE);
+        }
+        finally {
+            for(FileMonitor monitor : monitors) {
+                if(monitor!=null)
+                    monitor.stopMonitoring();
+            }
+        }
+    }
+
     /**
      * Called after each test, stops monitoring file changes.
      */
@@ -218,6 +376,19 @@ public class FileMonitorTest implements FileMonitorConstants {
         return hasAttributeChanged;
     }
 
+    /**
+     * This {@link FileChangeListener} counts the events it receives.
+     */
+    private static class CountingListener implements FileChangeListener {
+
+        /** Number of events received */
+        private volatile int nbEvents;
+
+        public void fileChanged(AbstractFile file, int changedAttributes) {
+            nbEvents++;
+        }
+    }
+
     /**
      * This {@link FileChangeListener} keeps track of the attributes that changed, as reported by
      * {@link #fileChanged(com.mucommander.commons.file.AbstractFile, int)}.
@@ -0,0 +1,320 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileCapabilities;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileProtocols;
+import com.mucommander.commons.file.impl.ProxyFile;
+import com.mucommander.commons.file.impl.TestFile;
+import com.mucommander.commons.io.BoundedInputStream;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.RandomGeneratorInputStream;
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for the {@link TreeCopier} class.
+ */
+public class TreeCopierTest {
+
+    /** Temporary folder containing the source and destination trees of the current test */
+    private AbstractFile tempFolder;
+
+    /** Date given to the files of the source tree, in milliseconds */
+    private final static long DATE = 1000000000000L;
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFolder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        tempFolder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFolder.exists())
+            tempFolder.deleteRecursively();
+    }
+
+    /**
+     * Copies a tree made of several levels of directories and files, and verifies that the copy has the same
+     * contents and dates, and that progress was reported.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testCopy() throws IOException {
+        AbstractFile source = tempFolder.getDirectChild("source");
+        int nbFiles = createTree(source, 3);
+        long nbBytes = getTreeSize(source);
+
+        final AtomicInteger nbFilesCopied = new AtomicInteger();
+        final AtomicInteger nbDirectoriesCopied = new AtomicInteger();
+        TreeCopier copier = new TreeCopier(4);
+        copier.setListener(new TreeCopyListener() {
+            public void fileCopied(AbstractFile sourceFile, AbstractFile destFile, long nbBytes) {
+                nbFilesCopied.incrementAndGet();
+            }
+
+            public void directoryCopied(AbstractFile sourceDir, AbstractFile destDir) {
+                nbDirectoriesCopied.incrementAndGet();
+            }
+        });
+
+        AbstractFile dest = tempFolder.getDirectChild("dest");
+        copier.copy(source, dest);
+
+        assertTreeEquals(source, dest);
+        assert nbFiles == nbFilesCopied.get();
+        assert nbFiles == copier.getFilesCopied();
+        assert nbBytes == copier.getBytesCopied();
+        assert 1+3+3*3 == nbDirectoriesCopied.get();
+    }
+
+    /**
+     * Verifies the default concurrency limits, and that a tree can be copied when a protocol is limited to a single
+     * concurrent operation.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testConcurrencyLimit() throws IOException {
+        TreeCopier copier = new TreeCopier(16);
+        // Local files allow as many operations as there are workers, other files the capabilities' default
+        assert 16 == copier.getConcurrencyLimit(tempFolder);
+        AbstractFile remoteFile = new TestFile(FileProtocols.SFTP+"://host/file", false, 0, 0, null);
+        assert FileCapabilities.DEFAULT_MAX_CONCURRENCY == copier.getConcurrencyLimit(remoteFile);
+        assert 2 == new TreeCopier(2).getConcurrencyLimit(remoteFile);
+
+        copier.setConcurrencyLimit(FileProtocols.FILE, 1);
+        assert 1 == copier.getConcurrencyLimit(tempFolder);
+
+        AbstractFile source = tempFolder.getDirectChild("source");
+        createTree(source, 2);
+        AbstractFile dest = tempFolder.getDirectChild("dest");
+        copier.copy(source, dest);
+
+        assertTreeEquals(source, dest);
+    }
+
+    /**
+     * Moves a tree and verifies that the source no longer exists.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testMove() throws IOException {
+        AbstractFile source = tempFolder.getDirectChild("source");
+        createTree(source, 2);
+        AbstractFile expected = tempFolder.getDirectChild("expected");
+        new TreeCopier().copy(source, expected);
+
+        AbstractFile dest = tempFolder.getDirectChild("dest");
+        new TreeCopier().move(source, dest);
+
+        assert !source.exists();
+        assertTreeEquals(expected, dest);
+    }
+
+    /**
+     * Deletes a tree and verifies that all its files were deleted.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testDelete() throws IOException {
+        AbstractFile source = tempFolder.getDirectChild("source");
+        int nbFiles = createTree(source, 3);
+
+        TreeCopier copier = new TreeCopier(4);
+        copier.delete(source);
+
+        assert !source.exists();
+        assert nbFiles+1+3+3*3 == copier.getFilesDeleted();
+    }
+
+    /**
+     * Verifies that directories that can be deleted in bulk are handed to {@link AbstractFile#deleteRecursively()}
+     * rather than being descended into.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testDeleteInBulk() throws IOException {
+        AbstractFile source = tempFolder.getDirectChild("source");
+        createTree(source, 3);
+
+        final AtomicInteger nbBulkDeletes = new AtomicInteger();
+        AbstractFile bulkSource = new ProxyFile(source) {
+            @Override
+            public void deleteRecursively() throws IOException {
+                nbBulkDeletes.incrementAndGet();
+                super.deleteRecursively();
+            }
+
+            @Override
+            public AbstractFile[] ls() throws IOException {
+                throw new IOException("should not be listed");
+            }
+
+            @Override
+            public boolean canDeleteInBulk() {
+                return true;
+            }
+        };
+
+        TreeCopier copier = new TreeCopier(4);
+        copier.delete(bulkSource);
+
+        assert !source.exists();
+        assert 1 == nbBulkDeletes.get();
+        assert 1 == copier.getFilesDeleted();
+    }
+
+    /**
+     * Verifies that the same errors as {@link AbstractFile#copyTo(AbstractFile)} are reported for invalid
+     * destinations.
+     *
+     * @throws IOException should not normally happen
+     */
+    @Test
+    public void testCopyPrerequisites() throws IOException {
+        AbstractFile source = tempFolder.getDirectChild("source");
+        createTree(source, 1);
+
+        assertTransferFails(source, source, FileTransferException.SOURCE_AND_DESTINATION_IDENTICAL);
+        assertTransferFails(source, source.getDirectChild("dest"), FileTransferException.SOURCE_PARENT_OF_DESTINATION);
+        assertTransferFails(tempFolder.getDirectChild("missing"), tempFolder.getDirectChild("dest"), FileTransferException.FILE_NOT_FOUND);
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    /**
+     * Creates a directory containing 3 files of various sizes and, if <code>depth</code> is greater than 1,
+     * 3 subdirectories of depth <code>depth-1</code>. All the files are given the date {@link #DATE}.
+     *
+     * @param dir the directory to create
+     * @param depth depth of the tree
+     * @return the number of regular files that were created
+     * @throws IOException should not normally happen
+     */
+    private int createTree(AbstractFile dir, int depth) throws IOException {
+        dir.mkdir();
+
+        int nbFiles = 0;
+        for(int i=0; i<3; i++) {
+            AbstractFile file = dir.getDirectChild("file"+i);
+            file.copyStream(new BoundedInputStream(new RandomGeneratorInputStream(), i*10000, false), false, i*10000);
+            file.changeDate(DATE);
+            nbFiles++;
+
+            if(depth>1)
+                nbFiles += createTree(dir.getDirectChild("dir"+i), depth-1);
+        }
+
+        dir.changeDate(DATE);
+
+        return nbFiles;
+    }
+
+    /**
+     * Returns the total size of the regular files contained in the given tree.
+     *
+     * @param file root of the tree
+     * @return the total size of the regular files contained in the given tree
+     * @throws IOException should not normally happen
+     */
+    private long getTreeSize(AbstractFile file) throws IOException {
+        if(!file.isDirectory())
+            return file.getSize();
+
+        long size = 0;
+        for(AbstractFile child : file.ls())
+            size += getTreeSize(child);
+
+        return size;
+    }
+
+    /**
+     * Asserts that both trees contain the same files with the same contents and dates.
+     *
+     * @param expected the expected tree
+     * @param actual the tree to compare
+     * @throws IOException should not normally happen
+     */
+    private void assertTreeEquals(AbstractFile expected, AbstractFile actual) throws IOException {
+        assert actual.exists();
+        assert expected.isDirectory() == actual.isDirectory();
+        assert expected.getDate() == actual.getDate();
+
+        if(expected.isDirectory()) {
+            AbstractFile children[] = expected.ls();
+            assert children.length == actual.ls().length;
+
+            for(AbstractFile child : children)
+                assertTreeEquals(child, actual.getDirectChild(child.getName()));
+        }
+        else {
+            assert expected.getSize() == actual.getSize();
+
+            InputStream expectedIn = expected.getInputStream();
+            InputStream actualIn = actual.getInputStream();
+            try {
+                byte expectedBytes[] = new byte[(int)expected.getSize()];
+                byte actualBytes[] = new byte[(int)actual.getSize()];
+                StreamUtils.readFully(expectedIn, expectedBytes);
+                StreamUtils.readFully(actualIn, actualBytes);
+                assert Arrays.equals(expectedBytes, actualBytes);
+            }
+            finally {
+                expectedIn.close();
+                actualIn.close();
+            }
+        }
+    }
+
+    /**
+     * Asserts that copying the given files fails with a {@link FileTransferException} of the given reason.
+     *
+     * @param source the file to copy
+     * @param dest the destination file
+     * @param reason the expected reason
+     */
+    private void assertTransferFails(AbstractFile source, AbstractFile dest, int reason) {
+        try {
+            new TreeCopier().copy(source, dest);
+            assert false;
+        }
+        catch(FileTransferException e) {
+            assert reason == e.getReason();
+        }
+    }
+}